@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -74,6 +75,7 @@ public class AmuaModel{
 	@XmlElement(name="DimInfo", type=DimInfo.class) public DimInfo dimInfo;
 	@XmlElement public int scale=100;
 	@XmlElement public boolean alignRight=false;
+	@XmlElement public int undoLevels=100; //max number of undo snapshots kept
 	@XmlElement(name="Parameter", type=Parameter.class) public ArrayList<Parameter> parameters;
 	@XmlElement(name="Variable", type=Variable.class) public ArrayList<Variable> variables;
 	@XmlElement(name="Table", type=Table.class) public ArrayList<Table> tables;
@@ -87,8 +89,10 @@ public class AmuaModel{
 	@XmlElement public int cohortSize=1000;
 	@XmlElement public boolean CRN; //common random numbers
 	@XmlElement public int crnSeed; //CRN seed
+	@XmlElement public boolean personRNG; //counter-based random numbers for each person (Monte Carlo results don't depend on threads or chunks)
 	@XmlElement public boolean displayIndResults;
 	@XmlElement public int numThreads=1;
+	@XmlElement public boolean compileExpressions; //generate Java classes for model expressions at run time
 	//Subgroup settings
 	@XmlElement public boolean reportSubgroups;
 	@XmlElement public ArrayList<String> subgroupNames, subgroupDefinitions;
@@ -110,7 +114,14 @@ public class AmuaModel{
 	@XmlTransient public MersenneTwisterFast generatorParam, generatorVar[], curGenerator[]; //thread-specific
 	//innate vars
 	@XmlTransient public ArrayList<Variable> innateVariables;
-	@XmlTransient public MarkovTrace traceMarkov;
+	@XmlTransient public MarkovTrace traceMarkov[]; //thread-specific
+	//multithreading
+	@XmlTransient ModelScheduler scheduler;
+	//parsed expressions
+	@XmlTransient ConcurrentHashMap<String,Token[]> parseCache;
+	@XmlTransient int parseCacheThreads;
+	//name lookups
+	@XmlTransient NameIndex paramSymbols, varSymbols, innateSymbols, tableSymbols;
 		
 	//Display
 	@XmlTransient public frmMain mainForm;
@@ -122,7 +133,7 @@ public class AmuaModel{
 	public AmuaModel(int modelType,frmMain mainFrm, ErrorLog errorLog){
 		this.mainForm=mainFrm;
 		this.errorLog=errorLog;
-		meta=new Metadata(mainFrm.version);
+		meta=new Metadata(frmMain.version);
 		meta.update();
 		dimInfo=new DimInfo();
 		parameters=new ArrayList<Parameter>();
@@ -235,6 +246,45 @@ public class AmuaModel{
 		}
 	}
 
+	/**
+	 * Opens an unmarshalled model without a GUI (no panels or forms are created)
+	 */
+	public void openHeadless(ErrorLog errorLog){
+		this.errorLog=errorLog;
+		
+		innateVariables=new ArrayList<Variable>();
+		if(type==1) { //Markov
+			addT();
+		}
+		if(parameters==null){parameters=new ArrayList<Parameter>();}
+		if(variables==null){variables=new ArrayList<Variable>();}
+		if(tables==null){tables=new ArrayList<Table>();}
+		if(constraints==null){constraints=new ArrayList<Constraint>();}
+		for(int t=0; t<tables.size(); t++){
+			Table curTable=tables.get(t);
+			curTable.myModel=this;
+			if(curTable.interpolate!=null && curTable.interpolate.matches("Cubic Splines")){
+				curTable.constructSplines();
+			}
+		}
+		if(subgroupNames==null){
+			subgroupNames=new ArrayList<String>();
+			subgroupDefinitions=new ArrayList<String>();
+		}
+		
+		validateModelObjects();
+		
+		if(parameterNames!=null){
+			int numSets=parameterSets.length;
+			for(int i=0; i<numSets; i++){
+				parameterSets[i].parseXMLValues();
+			}
+		}
+		
+		if(type==0){tree.openTree(this);}
+		else if(type==1){markov.openTree(this);}
+	}
+
 	public void refreshParamTable(){
 		mainForm.modelParameters.setRowCount(0);
 		int numParams=parameters.size();
@@ -397,8 +447,7 @@ public class AmuaModel{
 		
 		//Add current state to undo stack
 		String lastAction=actionStackRedo.pop();
-		modelStackUndo.push(new ModelSnapshot(this));
-		actionStackUndo.push(lastAction);
+		pushUndo(lastAction);
 		mainForm.mntmUndo.setEnabled(true);
 		mainForm.mntmUndo.setText("Undo "+lastAction);
 
@@ -521,6 +570,7 @@ public class AmuaModel{
 	 * Evaluates all parameters, variables, and constraints
 	 */
 	public void validateModelObjects(){
+		clearSymbols(); //objects may have been renamed
 		//parameters
 		int numParams=parameters.size();
 		for(int i=0; i<numParams; i++){
@@ -555,6 +605,8 @@ public class AmuaModel{
 			}
 		}
 		//get variable dependents
+		for(int i=0; i<numVars; i++){variables.get(i).clearDependentOrder();}
+		for(int i=0; i<innateVariables.size(); i++){innateVariables.get(i).clearDependentOrder();}
 		if(type==1) { //Markov
 			int indexT=getInnateVariableIndex("t");
 			Variable curT=innateVariables.get(indexT);
@@ -641,12 +693,38 @@ public class AmuaModel{
 		else if(type==1){panelMarkov.clearAnnotations();}
 	}
 
+	/**
+	 * Returns parsed tokens for expression, only parsing it the first time it's used (until the model is edited)
+	 */
+	public Token[] getParsedTokens(String expression) throws Exception{
+		ConcurrentHashMap<String,Token[]> cache=parseCache;
+		if(cache==null || parseCacheThreads!=numThreads){ //tokens hold thread-specific values
+			cache=new ConcurrentHashMap<String,Token[]>();
+			parseCacheThreads=numThreads;
+			parseCache=cache;
+		}
+		Token tokens[]=cache.get(expression);
+		if(tokens==null){
+			tokens=Interpreter.compile(expression, this); //errors aren't cached
+			cache.put(expression, tokens);
+		}
+		return(tokens);
+	}
+	
+	/**
+	 * Clears parsed expressions (model objects they refer to may have changed)
+	 */
+	public void clearParseCache(){
+		parseCache=null;
+	}
+	
 	public void saveSnapshot(String action){
+		clearParseCache();
+		clearSymbols();
 		unsavedChanges=true;
 		setUnsavedStatus();
 		//Add undoable action
-		actionStackUndo.push(action);
-		modelStackUndo.push(new ModelSnapshot(this));
+		pushUndo(action);
 		mainForm.mntmUndo.setEnabled(true);
 		mainForm.mntmUndo.setText("Undo "+action);
 		//Clear redo stack
@@ -657,6 +735,19 @@ public class AmuaModel{
 		mainForm.mntmRedo.setText("Redo");
 	}
 
+	/**
+	 * Pushes snapshot of current model onto the undo stack, dropping the oldest snapshots past the undo limit
+	 */
+	private void pushUndo(String action){
+		actionStackUndo.push(action);
+		modelStackUndo.push(new ModelSnapshot(this));
+		int maxLevels=Math.max(1, undoLevels);
+		while(modelStackUndo.size()>maxLevels){
+			actionStackUndo.remove(0);
+			modelStackUndo.remove(0);
+		}
+	}
+
 	private void setUnsavedStatus(){
 		mainForm.setTabName("*"+name,type);
 	}
@@ -806,7 +897,7 @@ public class AmuaModel{
 	public ArrayList<String> parseModel(){
 		if(type==0){return(tree.parseTree());}
 		else if(type==1){
-			if(panelMarkov.curNode==null || panelMarkov.curNode.type!=1){ //No Markov Chain selected, check whole model
+			if(panelMarkov==null || panelMarkov.curNode==null || panelMarkov.curNode.type!=1){ //No Markov Chain selected (or no display), check whole model
 				return(markov.parseTree());
 			}
 			else{ //Markov Chain selected
@@ -860,6 +951,23 @@ public class AmuaModel{
 		return(report);
 	}
 	
+	/**
+	 * Runs all strategies/chains without displaying anything (e.g. model copies used by batch runs).  Errors are thrown to the caller.
+	 */
+	public RunReport runModelHeadless() throws Exception{
+		long startTime=System.currentTimeMillis();
+		RunReport report=new RunReport(this);
+		evaluateParameters(); //get parameters
+		if(type==0){tree.runModel(false,report);}
+		else if(type==1){markov.runModel(false,report,true);}
+		report.getResults(true);
+		unlockParams(); //unlock parameters
+		
+		long endTime=System.currentTimeMillis();
+		report.runTime=endTime-startTime;
+		return(report);
+	}
+	
 	
 	private void runDecisionTree(Console console,boolean display,RunReport runReport){
 		try{
@@ -893,7 +1001,7 @@ public class AmuaModel{
 	private void runMarkov(Console console, boolean display, RunReport runReport){
 		try{
 			evaluateParameters(); //get parameters
-			if(panelMarkov.curNode==null || panelMarkov.curNode.type!=1){ //No Markov Chain selected, run all chains
+			if(panelMarkov==null || panelMarkov.curNode==null || panelMarkov.curNode.type!=1){ //No Markov Chain selected, run all chains
 				if(display){console.print("Running model... ");}
 				markov.runModel(display,runReport,true);
 				runReport.getResults(true);
@@ -1107,6 +1215,27 @@ public class AmuaModel{
 		}
 	}
 	
+	/**
+	 * Points all threads to the same Markov trace
+	 */
+	public void setTrace(MarkovTrace trace, int numThreads){
+		traceMarkov=new MarkovTrace[numThreads];
+		for(int n=0; n<numThreads; n++){
+			traceMarkov[n]=trace;
+		}
+	}
+	
+	/**
+	 * Returns thread pool for model runs - kept between runs and re-created if the number of threads changes
+	 */
+	public synchronized ModelScheduler getScheduler(){
+		if(scheduler==null || scheduler.getNumThreads()!=numThreads){
+			if(scheduler!=null){scheduler.shutdown();}
+			scheduler=new ModelScheduler(numThreads);
+		}
+		return(scheduler);
+	}
+	
 	public int getStrategies(){
 		if(type==0){
 			TreeNode root=tree.nodes.get(0);
@@ -1190,6 +1319,7 @@ public class AmuaModel{
 		curT.value[0]=new Numeric(0);
 		curT.locked[0]=true;
 		innateVariables.add(curT);
+		clearParseCache(); //cached tokens refer to innate variables
 	}
 	
 	public void resetT(){
@@ -1214,95 +1344,109 @@ public class AmuaModel{
 	}
 	
 	public int getParameterIndex(String name){
-		int paramIndex=-1;
-		int numParams=parameters.size();
-		int i=0;
-		while(paramIndex==-1 && i<numParams){
-			if(parameters.get(i).name.equals(name)){paramIndex=i;}
-			i++;
+		NameIndex index=paramSymbols;
+		if(index==null || !index.isCurrent(parameters)){
+			String names[]=new String[parameters.size()];
+			for(int i=0; i<names.length; i++){names[i]=parameters.get(i).name;}
+			index=new NameIndex(parameters,names);
+			paramSymbols=index;
+		}
+		int paramIndex=index.get(name);
+		if(paramIndex!=-1 && !parameters.get(paramIndex).name.equals(name)){ //renamed since indexed
+			paramSymbols=null;
+			return(getParameterIndex(name));
 		}
 		return(paramIndex);
 	}
 	
 	public int getVariableIndex(String name){
-		int varIndex=-1;
-		int numVars=variables.size();
-		int i=0;
-		while(varIndex==-1 && i<numVars){
-			if(variables.get(i).name.equals(name)){varIndex=i;}
-			i++;
+		NameIndex index=varSymbols;
+		if(index==null || !index.isCurrent(variables)){
+			String names[]=new String[variables.size()];
+			for(int i=0; i<names.length; i++){names[i]=variables.get(i).name;}
+			index=new NameIndex(variables,names);
+			varSymbols=index;
+		}
+		int varIndex=index.get(name);
+		if(varIndex!=-1 && !variables.get(varIndex).name.equals(name)){ //renamed since indexed
+			varSymbols=null;
+			return(getVariableIndex(name));
 		}
 		return(varIndex);
 	}
 	
 	public int getInnateVariableIndex(String name){
-		int varIndex=-1;
-		int numVars=innateVariables.size();
-		int i=0;
-		while(varIndex==-1 && i<numVars){
-			if(innateVariables.get(i).name.equals(name)){varIndex=i;}
-			i++;
+		NameIndex index=innateSymbols;
+		if(index==null || !index.isCurrent(innateVariables)){
+			String names[]=new String[innateVariables.size()];
+			for(int i=0; i<names.length; i++){names[i]=innateVariables.get(i).name;}
+			index=new NameIndex(innateVariables,names);
+			innateSymbols=index;
+		}
+		int varIndex=index.get(name);
+		if(varIndex!=-1 && !innateVariables.get(varIndex).name.equals(name)){ //renamed since indexed
+			innateSymbols=null;
+			return(getInnateVariableIndex(name));
 		}
 		return(varIndex);
 	}
 	
 	public int getTableIndex(String name){
-		int tableIndex=-1;
-		int numTables=tables.size();
-		int i=0;
-		while(tableIndex==-1 && i<numTables){
-			if(tables.get(i).name.equals(name)){tableIndex=i;}
-			i++;
+		NameIndex index=tableSymbols;
+		if(index==null || !index.isCurrent(tables)){
+			String names[]=new String[tables.size()];
+			for(int i=0; i<names.length; i++){names[i]=tables.get(i).name;}
+			index=new NameIndex(tables,names);
+			tableSymbols=index;
+		}
+		int tableIndex=index.get(name);
+		if(tableIndex!=-1 && !tables.get(tableIndex).name.equals(name)){ //renamed since indexed
+			tableSymbols=null;
+			return(getTableIndex(name));
 		}
 		return(tableIndex);
 	}
 	
+	/**
+	 * Clears name lookups so they're rebuilt from the current object names (e.g. after objects are renamed)
+	 */
+	public void clearSymbols(){
+		paramSymbols=null;
+		varSymbols=null;
+		innateSymbols=null;
+		tableSymbols=null;
+	}
+	
 	public boolean textHasVariable(String text){
-		boolean hasVariable=false;
 		int len=text.length();
-		while(len>0){
-			int index=Interpreter.getNextBreakIndex(text);
-			String word=text.substring(0, index);
-			if(isVariable(word)){
+		int start=0;
+		while(start<len){
+			int index=Interpreter.getNextBreakIndex(text,start);
+			if(index>start && isVariable(text.substring(start, index))){
 				return(true);
 			}
-			if(index==len){len=0;} //End of word
-			else{
-				text=text.substring(index+1);
-				len=text.length();
-			}
+			start=index+1;
 		}
-		return(hasVariable);
+		return(false);
 	}
 	
 	public boolean textHasInnateVariable(String text){
-		boolean hasVariable=false;
 		int len=text.length();
-		while(len>0){
-			int index=Interpreter.getNextBreakIndex(text);
-			String word=text.substring(0, index);
-			if(isInnateVariable(word)){
+		int start=0;
+		while(start<len){
+			int index=Interpreter.getNextBreakIndex(text,start);
+			if(index>start && isInnateVariable(text.substring(start, index))){
 				return(true);
 			}
-			if(index==len){len=0;} //End of word
-			else{
-				text=text.substring(index+1);
-				len=text.length();
-			}
+			start=index+1;
 		}
-		return(hasVariable);
-	
+		return(false);
 	}
 	
 	public String getTableType(String name){
-		String type=null;
-		int numTables=tables.size();
-		int i=0;
-		while(type==null && i<numTables){
-			if(tables.get(i).name.equals(name)){type=tables.get(i).type;}
-			i++;
-		}
-		return(type);
+		int index=getTableIndex(name);
+		if(index==-1){return(null);}
+		return(tables.get(index).type);
 	}
 	
 	public String getParamDescription(String param){
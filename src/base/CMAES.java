@@ -0,0 +1,244 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import main.MersenneTwisterFast;
+import math.distributions.Samplers;
+
+/**
+ * Covariance matrix adaptation evolution strategy (CMA-ES, Hansen 2016 tutorial) for minimization in the unit cube.
+ * Ask for a population, evaluate it (e.g. in parallel), then tell the scores.  Points outside [0,1] are re-sampled (then clipped).
+ */
+public class CMAES{
+	int n; //dimensions
+	int lambda, mu;
+	double weights[], muEff;
+	double cs, damps, cc, c1, cmu, chiN;
+	double mean[], sigma;
+	double C[][], B[][], D[]; //C=B*diag(D^2)*B'
+	double ps[], pc[];
+	int generation;
+	MersenneTwisterFast generator;
+
+	//Constructor
+	/**
+	 * @param start Initial mean
+	 * @param sigma Initial step size
+	 * @param lambda Population size (0 for default)
+	 */
+	public CMAES(double start[], double sigma, int lambda, MersenneTwisterFast generator){
+		n=start.length;
+		this.generator=generator;
+		this.lambda=lambda;
+		if(this.lambda<=0){this.lambda=4+(int)Math.floor(3*Math.log(n));}
+		this.lambda=Math.max(this.lambda, 2);
+		mu=this.lambda/2;
+		weights=new double[mu];
+		double sumW=0, sumSq=0;
+		for(int i=0; i<mu; i++){
+			weights[i]=Math.log(mu+0.5)-Math.log(i+1);
+			sumW+=weights[i];
+		}
+		for(int i=0; i<mu; i++){
+			weights[i]/=sumW;
+			sumSq+=weights[i]*weights[i];
+		}
+		muEff=1.0/sumSq;
+
+		cs=(muEff+2)/(n+muEff+5);
+		damps=1+2*Math.max(0, Math.sqrt((muEff-1)/(n+1))-1)+cs;
+		cc=(4+muEff/n)/(n+4+2*muEff/n);
+		c1=2/((n+1.3)*(n+1.3)+muEff);
+		cmu=Math.min(1-c1, 2*(muEff-2+1/muEff)/((n+2)*(n+2)+muEff));
+		chiN=Math.sqrt(n)*(1-1.0/(4*n)+1.0/(21*n*n));
+
+		mean=Arrays.copyOf(start, n);
+		this.sigma=sigma;
+		C=new double[n][n];
+		B=new double[n][n];
+		D=new double[n];
+		for(int i=0; i<n; i++){
+			C[i][i]=1;
+			B[i][i]=1;
+			D[i]=1;
+		}
+		ps=new double[n];
+		pc=new double[n];
+	}
+
+	public int getPopulationSize(){
+		return(lambda);
+	}
+
+	/**
+	 * Samples a new population [point][dim]
+	 */
+	public double[][] ask(){
+		double pop[][]=new double[lambda][];
+		for(int k=0; k<lambda; k++){
+			double x[]=null;
+			boolean inside=false;
+			for(int tries=0; tries<100 && !inside; tries++){
+				x=sample();
+				inside=true;
+				for(int i=0; i<n; i++){
+					if(x[i]<0 || x[i]>1){inside=false;}
+				}
+			}
+			if(!inside){
+				for(int i=0; i<n; i++){x[i]=Math.min(1, Math.max(0, x[i]));}
+			}
+			pop[k]=x;
+		}
+		return(pop);
+	}
+
+	private double[] sample(){
+		double z[]=new double[n];
+		for(int i=0; i<n; i++){z[i]=D[i]*Samplers.normal(generator);}
+		double x[]=new double[n];
+		for(int i=0; i<n; i++){
+			double sum=0;
+			for(int j=0; j<n; j++){sum+=B[i][j]*z[j];}
+			x[i]=mean[i]+sigma*sum;
+		}
+		return(x);
+	}
+
+	/**
+	 * Updates the distribution from the scores of the population (NaN is worst)
+	 */
+	public void tell(final double pop[][], final double scores[]){
+		Integer order[]=new Integer[lambda];
+		for(int k=0; k<lambda; k++){order[k]=k;}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i, Integer j){
+				double a=scores[i], b=scores[j];
+				if(Double.isNaN(a)){a=Double.POSITIVE_INFINITY;}
+				if(Double.isNaN(b)){b=Double.POSITIVE_INFINITY;}
+				return(Double.compare(a, b));
+			}
+		});
+
+		double oldMean[]=mean;
+		mean=new double[n];
+		double y[][]=new double[mu][n]; //selected steps
+		for(int k=0; k<mu; k++){
+			double x[]=pop[order[k]];
+			for(int i=0; i<n; i++){
+				mean[i]+=weights[k]*x[i];
+				y[k][i]=(x[i]-oldMean[i])/sigma;
+			}
+		}
+		double yw[]=new double[n];
+		for(int i=0; i<n; i++){yw[i]=(mean[i]-oldMean[i])/sigma;}
+
+		//Step size path: C^-1/2 yw = B diag(1/D) B' yw
+		double bty[]=new double[n];
+		for(int j=0; j<n; j++){
+			double sum=0;
+			for(int i=0; i<n; i++){sum+=B[i][j]*yw[i];}
+			bty[j]=sum/D[j];
+		}
+		double normPs=0;
+		for(int i=0; i<n; i++){
+			double sum=0;
+			for(int j=0; j<n; j++){sum+=B[i][j]*bty[j];}
+			ps[i]=(1-cs)*ps[i]+Math.sqrt(cs*(2-cs)*muEff)*sum;
+			normPs+=ps[i]*ps[i];
+		}
+		normPs=Math.sqrt(normPs);
+		generation++;
+		double hsig=0;
+		if(normPs/Math.sqrt(1-Math.pow(1-cs, 2*generation))/chiN < 1.4+2.0/(n+1)){hsig=1;}
+		for(int i=0; i<n; i++){
+			pc[i]=(1-cc)*pc[i]+hsig*Math.sqrt(cc*(2-cc)*muEff)*yw[i];
+		}
+
+		//Covariance
+		for(int i=0; i<n; i++){
+			for(int j=0; j<=i; j++){
+				double rankMu=0;
+				for(int k=0; k<mu; k++){rankMu+=weights[k]*y[k][i]*y[k][j];}
+				double val=(1-c1-cmu)*C[i][j]+c1*(pc[i]*pc[j]+(1-hsig)*cc*(2-cc)*C[i][j])+cmu*rankMu;
+				C[i][j]=val;
+				C[j][i]=val;
+			}
+		}
+		sigma*=Math.exp((cs/damps)*(normPs/chiN-1));
+		sigma=Math.min(sigma, 1); //unit cube
+		decompose();
+	}
+
+	/**
+	 * Largest standard deviation of the search distribution
+	 */
+	public double getMaxSD(){
+		double max=0;
+		for(int i=0; i<n; i++){max=Math.max(max, D[i]);}
+		return(sigma*max);
+	}
+
+	/**
+	 * Eigen-decomposition of C (Jacobi rotations)
+	 */
+	private void decompose(){
+		double A[][]=new double[n][n];
+		for(int i=0; i<n; i++){
+			A[i]=Arrays.copyOf(C[i], n);
+			Arrays.fill(B[i], 0);
+			B[i][i]=1;
+		}
+		for(int sweep=0; sweep<100; sweep++){
+			double off=0;
+			for(int i=0; i<n; i++){
+				for(int j=i+1; j<n; j++){off+=A[i][j]*A[i][j];}
+			}
+			if(off<1e-30){break;}
+			for(int p=0; p<n; p++){
+				for(int q=p+1; q<n; q++){
+					if(A[p][q]==0){continue;}
+					double theta=(A[q][q]-A[p][p])/(2*A[p][q]);
+					double t=Math.signum(theta)/(Math.abs(theta)+Math.sqrt(theta*theta+1));
+					if(theta==0){t=1;}
+					double c=1/Math.sqrt(t*t+1), s=t*c;
+					for(int k=0; k<n; k++){ //A=J'AJ
+						double akp=A[k][p], akq=A[k][q];
+						A[k][p]=c*akp-s*akq;
+						A[k][q]=s*akp+c*akq;
+					}
+					for(int k=0; k<n; k++){
+						double apk=A[p][k], aqk=A[q][k];
+						A[p][k]=c*apk-s*aqk;
+						A[q][k]=s*apk+c*aqk;
+					}
+					for(int k=0; k<n; k++){
+						double bkp=B[k][p], bkq=B[k][q];
+						B[k][p]=c*bkp-s*bkq;
+						B[k][q]=s*bkp+c*bkq;
+					}
+				}
+			}
+		}
+		for(int i=0; i<n; i++){D[i]=Math.sqrt(Math.max(A[i][i], 1e-20));}
+	}
+}
@@ -0,0 +1,968 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.Constraint;
+import main.MersenneTwisterFast;
+import main.Parameter;
+import main.ParameterSet;
+import math.Interpreter;
+import math.Numeric;
+import math.Token;
+import math.distributions.Samplers;
+
+/**
+ * Markov model calibration without a GUI - random sampling, rejection ABC, ABC sequential Monte Carlo (ABC-SMC), emulator-assisted search,
+ * and optimization (Nelder-Mead, CMA-ES).
+ * Parameter sets are drawn from the prior (parameter expressions) on the model, and each population of candidate sets is run in parallel
+ * on independent copies of the model (see PSAEngine.getNumWorkers).  The score expression (lower is better) is compiled once per copy.
+ */
+public class CalibrationEngine{
+	AmuaModel myModel;
+	String scoreExpression;
+	String chainName;
+	int numParams;
+	AmuaModel workers[];
+	Token scoreTokens[][]; //[worker]
+	MersenneTwisterFast generator; //ancestor selection and perturbation
+	volatile boolean cancelled;
+
+	//ABC-SMC
+	int maxGenerations=10;
+	double quantile=0.5; //tolerance schedule - quantile of previous population's scores
+	double minAcceptance=0.01; //stop if fewer proposals than this are accepted in a generation
+	int numPrior=500; //prior draws used to estimate the prior density
+	int dims[]; //perturbed parameters (scalar, vary in the prior)
+	boolean integer[];
+	boolean fixed[]; //don't sample a random variable (constants, functions of other parameters) - re-evaluated from the perturbed parameters
+	int numDraws;
+	double priorVals[][], priorMin[], priorMax[], priorBandwidth[]; //[dim][draw]
+
+	//Emulator
+	double sortedPrior[][]; //[dim][draw]
+
+	//Results
+	public ParameterSet sets[];
+	/**
+	 * Tolerance used for each ABC-SMC generation (generation 0 is the prior)
+	 */
+	public ArrayList<Double> tolerances;
+	/**
+	 * Best score after each emulator batch or search iteration (0 is the initial design)
+	 */
+	public ArrayList<Double> bestScores;
+	public int numRuns;
+	public boolean reachedTarget;
+
+	/**
+	 * Receives progress updates (called from worker threads as runs finish)
+	 */
+	public interface Listener{
+		void update(int generation, double tolerance, int numAccepted, int numRuns);
+	}
+
+	//Constructor
+	public CalibrationEngine(AmuaModel myModel, String scoreExpression, String chainName){
+		this.myModel=myModel;
+		this.scoreExpression=scoreExpression;
+		this.chainName=chainName;
+		generator=new MersenneTwisterFast();
+	}
+
+	/**
+	 * @param maxGenerations Maximum number of ABC-SMC generations after the prior
+	 * @param quantile Each tolerance is this quantile of the previous generation's scores (0 to 1)
+	 * @param minAcceptance Stops early if the acceptance rate in a generation falls below this
+	 */
+	public void setSMCSettings(int maxGenerations, double quantile, double minAcceptance){
+		this.maxGenerations=maxGenerations;
+		this.quantile=quantile;
+		this.minAcceptance=minAcceptance;
+	}
+
+	public void cancel(){
+		cancelled=true;
+	}
+
+	public boolean isCancelled(){
+		return(cancelled);
+	}
+
+	/**
+	 * Runs parameter sets drawn from the prior
+	 */
+	public ParameterSet[] runRandom(int numSets, Listener listener) throws Exception{
+		start();
+		try{
+			Numeric particles[][]=samplePrior(numSets);
+			if(cancelled){return(null);}
+			double scores[]=new double[numSets];
+			sets=new ParameterSet[numSets];
+			runBatch(particles, scores, sets, 0, Double.POSITIVE_INFINITY, new AtomicInteger(0), listener);
+			int numComplete=numSets;
+			if(cancelled){numComplete=countComplete(sets);}
+			ParameterSet result[]=new ParameterSet[numComplete];
+			int index=0;
+			for(int i=0; i<numSets; i++){
+				if(sets[i]!=null){
+					sets[i].id=(index+1)+"";
+					sets[i].score=scores[i];
+					result[index]=sets[i];
+					index++;
+				}
+			}
+			sets=result;
+			return(sets);
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * Rejection ABC - prior draws are run in batches until numSets have a score &lt;= threshold
+	 */
+	public ParameterSet[] runRejection(int numSets, double threshold, Listener listener) throws Exception{
+		start();
+		try{
+			ArrayList<ParameterSet> accepted=new ArrayList<ParameterSet>();
+			int batchSize=getBatchSize(numSets);
+			AtomicInteger numAccepted=new AtomicInteger(0);
+			while(accepted.size()<numSets && !cancelled){
+				Numeric particles[][]=samplePrior(batchSize);
+				if(cancelled){break;}
+				double scores[]=new double[batchSize];
+				ParameterSet batchSets[]=new ParameterSet[batchSize];
+				runBatch(particles, scores, batchSets, 0, threshold, numAccepted, listener);
+				for(int i=0; i<batchSize && accepted.size()<numSets; i++){ //in order of proposal
+					if(batchSets[i]!=null && scores[i]<=threshold){
+						batchSets[i].score=scores[i];
+						batchSets[i].id=(accepted.size()+1)+"";
+						accepted.add(batchSets[i]);
+					}
+				}
+			}
+			sets=accepted.toArray(new ParameterSet[accepted.size()]);
+			return(sets);
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * ABC-SMC (Toni et al. 2009, Beaumont et al. 2009) with an adaptive tolerance schedule.
+	 * Starts from the prior and moves the population through decreasing tolerances (quantile of the previous scores) until the target threshold is reached.
+	 * Particles are perturbed with a Gaussian kernel (variance 2x the weighted population variance) and re-weighted by prior/proposal density.
+	 * The prior density is estimated from draws of the parameter expressions (kernel density), and perturbed values outside the range of the prior draws are rejected.
+	 * The final weighted population is resampled to numSets equally weighted parameter sets.
+	 */
+	public ParameterSet[] runSMC(int numSets, double threshold, Listener listener) throws Exception{
+		start();
+		try{
+			tolerances=new ArrayList<Double>();
+			reachedTarget=false;
+
+			//Generation 0 - prior
+			int numDraws=Math.max(numSets, numPrior);
+			Numeric prior[][]=samplePrior(numDraws);
+			if(cancelled){return(null);}
+			setDimensions(prior);
+
+			Numeric particles[][]=Arrays.copyOf(prior, numSets);
+			double scores[]=new double[numSets];
+			ParameterSet popSets[]=new ParameterSet[numSets];
+			tolerances.add(Double.POSITIVE_INFINITY);
+			runBatch(particles, scores, popSets, 0, Double.POSITIVE_INFINITY, new AtomicInteger(0), listener);
+			if(cancelled){return(null);}
+			for(int i=0; i<numSets; i++){
+				if(Double.isNaN(scores[i])){scores[i]=Double.POSITIVE_INFINITY;}
+			}
+			double weights[]=new double[numSets];
+			int numValid=countComplete(popSets);
+			if(numValid==0){throw new Exception("No valid parameter sets in prior");}
+			for(int i=0; i<numSets; i++){
+				if(popSets[i]!=null){weights[i]=1.0/numValid;}
+			}
+
+			int gen=1;
+			reachedTarget=(getMax(scores)<=threshold);
+			while(gen<=maxGenerations && !reachedTarget && !cancelled){
+				//Next tolerance
+				double sorted[]=Arrays.copyOf(scores, numSets);
+				Arrays.sort(sorted);
+				double tol=sorted[Math.max(0, (int)Math.ceil(quantile*numSets)-1)];
+				if(tol<=threshold){tol=threshold;}
+				if(tol==Double.POSITIVE_INFINITY){
+					throw new Exception("Scores of prior parameter sets are not finite");
+				}
+				tolerances.add(tol);
+
+				//Perturbation kernel
+				double kernelSD[]=getKernelSD(particles, weights);
+
+				Numeric newParticles[][]=new Numeric[numSets][];
+				double newScores[]=new double[numSets];
+				ParameterSet newSets[]=new ParameterSet[numSets];
+				int numAccepted=0, numProposed=0;
+				int maxProposals=(int)Math.ceil(numSets/minAcceptance);
+				int batchSize=getBatchSize(numSets);
+				AtomicInteger counter=new AtomicInteger(0);
+				while(numAccepted<numSets && numProposed<maxProposals && !cancelled){
+					Numeric proposals[][]=new Numeric[batchSize][];
+					for(int b=0; b<batchSize; b++){
+						proposals[b]=perturb(particles[pickAncestor(weights)], kernelSD);
+					}
+					double batchScores[]=new double[batchSize];
+					ParameterSet batchSets[]=new ParameterSet[batchSize];
+					runBatch(proposals, batchScores, batchSets, gen, tol, counter, listener);
+					for(int b=0; b<batchSize && numAccepted<numSets; b++){ //in order of proposal
+						numProposed++;
+						if(batchSets[b]!=null && batchScores[b]<=tol){
+							newParticles[numAccepted]=proposals[b];
+							newScores[numAccepted]=batchScores[b];
+							newSets[numAccepted]=batchSets[b];
+							numAccepted++;
+						}
+					}
+				}
+				if(numAccepted<numSets){ //too few accepted (or cancelled) - keep last population
+					tolerances.remove(tolerances.size()-1);
+					break;
+				}
+
+				//Importance weights
+				double newWeights[]=new double[numSets];
+				double sumW=0;
+				for(int i=0; i<numSets; i++){
+					double denom=0;
+					for(int j=0; j<numSets; j++){
+						denom+=weights[j]*kernelDensity(newParticles[i], particles[j], kernelSD);
+					}
+					if(denom>0){newWeights[i]=priorDensity(newParticles[i])/denom;}
+					sumW+=newWeights[i];
+				}
+				if(sumW==0 || Double.isNaN(sumW)){throw new Exception("Importance weights could not be calculated (generation "+gen+")");}
+				for(int i=0; i<numSets; i++){newWeights[i]/=sumW;}
+
+				particles=newParticles;
+				scores=newScores;
+				popSets=newSets;
+				weights=newWeights;
+				if(tol<=threshold){reachedTarget=true;}
+				gen++;
+			}
+
+			//Resample to equally weighted sets (systematic)
+			sets=new ParameterSet[numSets];
+			double u=generator.nextDouble()/numSets;
+			double cum=weights[0];
+			int j=0;
+			for(int i=0; i<numSets; i++){
+				double target=u+i/(double)numSets;
+				while(target>cum && j<numSets-1){
+					j++;
+					cum+=weights[j];
+				}
+				sets[i]=popSets[j].copy();
+				sets[i].id=(i+1)+"";
+				sets[i].score=scores[j];
+			}
+			return(sets);
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * Emulator-assisted calibration for expensive models.  Runs a Latin hypercube design on the prior marginals, then fits a Gaussian process
+	 * emulator of the score (log scale) and runs batches of the points with the highest expected improvement, refitting after each batch.
+	 * Points in a batch are chosen one at a time, assuming the emulator's prediction for points already chosen (kriging believer).
+	 * Returns the numSets best parameter sets that were run.
+	 * @param numInitial Size of initial design
+	 * @param numBatches Number of batches chosen by the emulator
+	 * @param batchSize Number of runs in each batch
+	 */
+	public ParameterSet[] runEmulator(int numSets, int numInitial, int numBatches, int batchSize, Listener listener) throws Exception{
+		start();
+		try{
+			Numeric prior[][]=setupSearch();
+			if(prior==null){return(null);}
+
+			ArrayList<double[]> points=new ArrayList<double[]>(); //unit cube
+			ArrayList<Double> pointScores=new ArrayList<Double>();
+			ArrayList<ParameterSet> pointSets=new ArrayList<ParameterSet>();
+			AtomicInteger counter=new AtomicInteger(0);
+			runPoints(latinHypercube(numInitial), prior, 0, points, pointScores, pointSets, counter, listener);
+
+			for(int b=1; b<=numBatches && !cancelled; b++){
+				//Fit emulator to valid runs
+				ArrayList<Integer> valid=new ArrayList<Integer>();
+				double minScore=Double.POSITIVE_INFINITY, maxScore=Double.NEGATIVE_INFINITY;
+				for(int i=0; i<pointScores.size(); i++){
+					double score=pointScores.get(i);
+					if(!Double.isNaN(score) && !Double.isInfinite(score)){
+						valid.add(i);
+						minScore=Math.min(minScore, score);
+						maxScore=Math.max(maxScore, score);
+					}
+				}
+				int numValid=valid.size();
+				if(numValid<2){throw new Exception("Too few valid runs to fit emulator: "+numValid);}
+				double shift=(maxScore-minScore)*1e-3+1e-12; //scores often span orders of magnitude - fit on log scale
+				double fitX[][]=new double[numValid][];
+				double fitY[]=new double[numValid];
+				double best=Double.POSITIVE_INFINITY;
+				for(int i=0; i<numValid; i++){
+					int index=valid.get(i);
+					fitX[i]=points.get(index);
+					fitY[i]=Math.log(pointScores.get(index)-minScore+shift);
+					best=Math.min(best, fitY[i]);
+				}
+				ScoreEmulator emulator=new ScoreEmulator(fitX, fitY);
+				emulator.fit();
+
+				//Choose batch
+				double batch[][]=new double[batchSize][];
+				for(int n=0; n<batchSize; n++){
+					double candidates[][]=getCandidates(points, pointScores);
+					double ei[]=getExpectedImprovement(emulator, candidates, best);
+					int bestIndex=0;
+					for(int c=1; c<candidates.length; c++){
+						if(ei[c]>ei[bestIndex]){bestIndex=c;}
+					}
+					batch[n]=candidates[bestIndex];
+					emulator.addPoint(batch[n], emulator.predict(batch[n])[0]);
+				}
+				runPoints(batch, prior, b, points, pointScores, pointSets, counter, listener);
+			}
+
+			return(getBestSets(numSets, pointScores, pointSets));
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * Runs points in the unit cube and records them.  Returns scores (NaN if invalid).
+	 * @param prior Prior draws to take other parameters from (null to evaluate them at their expected values)
+	 */
+	private double[] runPoints(double unitPoints[][], Numeric prior[][], int batch, ArrayList<double[]> points, ArrayList<Double> pointScores,
+			ArrayList<ParameterSet> pointSets, AtomicInteger counter, Listener listener) throws Exception{
+		int numPoints=unitPoints.length;
+		Numeric particles[][]=new Numeric[numPoints][];
+		for(int n=0; n<numPoints; n++){
+			Numeric draw[]=null;
+			if(prior!=null){draw=prior[generator.nextInt(prior.length)];}
+			particles[n]=toParticle(unitPoints[n], draw);
+		}
+		double best=Double.POSITIVE_INFINITY;
+		for(int i=0; i<pointScores.size(); i++){
+			if(pointScores.get(i)<best){best=pointScores.get(i);}
+		}
+		double scores[]=new double[numPoints];
+		ParameterSet batchSets[]=new ParameterSet[numPoints];
+		runBatch(particles, scores, batchSets, batch, best, counter, listener);
+		for(int n=0; n<numPoints; n++){
+			points.add(unitPoints[n]);
+			pointScores.add(scores[n]);
+			pointSets.add(batchSets[n]);
+			if(scores[n]<best){best=scores[n];}
+		}
+		bestScores.add(best);
+		return(scores);
+	}
+
+	/**
+	 * Latin hypercube in the unit cube (one point in each of n strata for each dimension)
+	 */
+	private double[][] latinHypercube(int n){
+		int numDims=dims.length;
+		double design[][]=new double[n][numDims];
+		int perm[]=new int[n];
+		for(int d=0; d<numDims; d++){
+			for(int i=0; i<n; i++){perm[i]=i;}
+			for(int i=n-1; i>0; i--){ //shuffle
+				int j=generator.nextInt(i+1);
+				int temp=perm[i]; perm[i]=perm[j]; perm[j]=temp;
+			}
+			for(int i=0; i<n; i++){
+				double p=(perm[i]+generator.nextDouble())/n;
+				design[i][d]=toUnit(d, getQuantile(sortedPrior[d], p)); //prior marginal
+			}
+		}
+		return(design);
+	}
+
+	/**
+	 * Candidate points: a new Latin hypercube on the prior marginals and local perturbations of the best points so far
+	 */
+	private double[][] getCandidates(ArrayList<double[]> points, ArrayList<Double> pointScores){
+		int numDims=dims.length;
+		int numGlobal=500, numLocal=500;
+		double global[][]=latinHypercube(numGlobal);
+		double candidates[][]=new double[numGlobal+numLocal][];
+		for(int c=0; c<numGlobal; c++){candidates[c]=global[c];}
+
+		ArrayList<Integer> order=new ArrayList<Integer>();
+		for(int i=0; i<pointScores.size(); i++){
+			if(!Double.isNaN(pointScores.get(i))){order.add(i);}
+		}
+		final ArrayList<Double> scores=pointScores;
+		Collections.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i, Integer j){
+				return(Double.compare(scores.get(i), scores.get(j)));
+			}
+		});
+		int numBest=Math.max(1, Math.min(10, order.size()));
+		for(int c=0; c<numLocal; c++){
+			double center[]=global[c];
+			if(order.size()>0){center=points.get(order.get(c%numBest));}
+			double cand[]=new double[numDims];
+			for(int d=0; d<numDims; d++){
+				cand[d]=Math.min(1, Math.max(0, center[d]+0.05*Samplers.normal(generator)));
+			}
+			candidates[numGlobal+c]=cand;
+		}
+		return(candidates);
+	}
+
+	/**
+	 * Evaluates expected improvement of each candidate in parallel
+	 */
+	private double[] getExpectedImprovement(final ScoreEmulator emulator, final double candidates[][], final double best) throws Exception{
+		final double ei[]=new double[candidates.length];
+		myModel.getScheduler().run(candidates.length, new ModelScheduler.ChunkTask(){
+			public void run(int c, int curThread) throws Exception{
+				ei[c]=emulator.expectedImprovement(candidates[c], best);
+			}
+		});
+		return(ei);
+	}
+
+	private double getQuantile(double sorted[], double p){
+		double pos=p*(sorted.length-1);
+		int lower=(int)Math.floor(pos);
+		int upper=Math.min(lower+1, sorted.length-1);
+		double frac=pos-lower;
+		return(sorted[lower]*(1-frac)+sorted[upper]*frac);
+	}
+
+	private double toUnit(int d, double val){
+		return((val-priorMin[d])/(priorMax[d]-priorMin[d]));
+	}
+
+	/**
+	 * Maps point in the unit cube to parameter values.  Parameters that can't be perturbed are taken from a prior draw (if any).
+	 */
+	private Numeric[] toParticle(double u[], Numeric draw[]){
+		Numeric particle[]=new Numeric[numParams];
+		for(int v=0; v<numParams; v++){
+			if(fixed[v]==false && draw!=null){particle[v]=draw[v];}
+		}
+		for(int d=0; d<dims.length; d++){
+			double val=priorMin[d]+u[d]*(priorMax[d]-priorMin[d]);
+			if(integer[d]){particle[dims[d]]=new Numeric((int)Math.round(val));}
+			else{particle[dims[d]]=new Numeric(val);}
+		}
+		return(particle);
+	}
+
+	/**
+	 * Bounded Nelder-Mead search for the best-fitting parameters (prior range scaled to the unit cube, points projected onto the bounds).
+	 * Starts from the prior medians.  Reflection, expansion, and both contractions are run in parallel each iteration, and shrinks run all points in parallel.
+	 * Parameters that aren't searched are evaluated at their expected values.  Returns the numSets best parameter sets that were run.
+	 * @param tolerance Stops when the scores of the simplex are within tolerance (and the simplex is small)
+	 */
+	public ParameterSet[] runNelderMead(int numSets, int maxRuns, double tolerance, Listener listener) throws Exception{
+		start();
+		try{
+			if(setupSearch()==null){return(null);}
+			int numDims=dims.length;
+			ArrayList<double[]> points=new ArrayList<double[]>();
+			ArrayList<Double> pointScores=new ArrayList<Double>();
+			ArrayList<ParameterSet> pointSets=new ArrayList<ParameterSet>();
+			AtomicInteger counter=new AtomicInteger(0);
+
+			//Initial simplex
+			double simplex[][]=new double[numDims+1][];
+			simplex[0]=getPriorMedian();
+			for(int i=0; i<numDims; i++){
+				simplex[i+1]=Arrays.copyOf(simplex[0], numDims);
+				if(simplex[0][i]+0.2<=1){simplex[i+1][i]+=0.2;}
+				else{simplex[i+1][i]-=0.2;}
+			}
+			double f[]=toSearchScores(runPoints(simplex, null, 0, points, pointScores, pointSets, counter, listener));
+
+			int iteration=1;
+			while(numRuns<maxRuns && !cancelled){
+				//Sort vertices
+				Integer order[]=new Integer[numDims+1];
+				for(int i=0; i<=numDims; i++){order[i]=i;}
+				final double curF[]=f;
+				Arrays.sort(order, new Comparator<Integer>(){
+					public int compare(Integer i, Integer j){
+						return(Double.compare(curF[i], curF[j]));
+					}
+				});
+				double sorted[][]=new double[numDims+1][];
+				double sortedF[]=new double[numDims+1];
+				for(int i=0; i<=numDims; i++){
+					sorted[i]=simplex[order[i]];
+					sortedF[i]=f[order[i]];
+				}
+				simplex=sorted;
+				f=sortedF;
+
+				//Check convergence
+				double diameter=0;
+				for(int i=1; i<=numDims; i++){
+					for(int d=0; d<numDims; d++){diameter=Math.max(diameter, Math.abs(simplex[i][d]-simplex[0][d]));}
+				}
+				if(f[numDims]-f[0]<=tolerance && diameter<1e-4){break;}
+
+				double centroid[]=new double[numDims];
+				for(int i=0; i<numDims; i++){
+					for(int d=0; d<numDims; d++){centroid[d]+=simplex[i][d]/numDims;}
+				}
+				double worst[]=simplex[numDims];
+				double trial[][]=new double[4][]; //reflect, expand, outside contract, inside contract
+				double coef[]=new double[]{1, 2, 0.5, -0.5};
+				for(int t=0; t<4; t++){
+					trial[t]=new double[numDims];
+					for(int d=0; d<numDims; d++){
+						trial[t][d]=Math.min(1, Math.max(0, centroid[d]+coef[t]*(centroid[d]-worst[d])));
+					}
+				}
+				double trialF[]=toSearchScores(runPoints(trial, null, iteration, points, pointScores, pointSets, counter, listener));
+
+				boolean shrink=false;
+				if(trialF[0]<f[0]){ //reflected is best
+					if(trialF[1]<trialF[0]){simplex[numDims]=trial[1]; f[numDims]=trialF[1];}
+					else{simplex[numDims]=trial[0]; f[numDims]=trialF[0];}
+				}
+				else if(trialF[0]<f[numDims-1]){ //better than second worst
+					simplex[numDims]=trial[0]; f[numDims]=trialF[0];
+				}
+				else if(trialF[0]<f[numDims]){ //outside contraction
+					if(trialF[2]<=trialF[0]){simplex[numDims]=trial[2]; f[numDims]=trialF[2];}
+					else{shrink=true;}
+				}
+				else{ //inside contraction
+					if(trialF[3]<f[numDims]){simplex[numDims]=trial[3]; f[numDims]=trialF[3];}
+					else{shrink=true;}
+				}
+				if(shrink && !cancelled){
+					double shrunk[][]=new double[numDims][];
+					for(int i=1; i<=numDims; i++){
+						shrunk[i-1]=new double[numDims];
+						for(int d=0; d<numDims; d++){shrunk[i-1][d]=simplex[0][d]+0.5*(simplex[i][d]-simplex[0][d]);}
+					}
+					double shrunkF[]=toSearchScores(runPoints(shrunk, null, iteration, points, pointScores, pointSets, counter, listener));
+					for(int i=1; i<=numDims; i++){
+						simplex[i]=shrunk[i-1];
+						f[i]=shrunkF[i-1];
+					}
+				}
+				iteration++;
+			}
+			return(getBestSets(numSets, pointScores, pointSets));
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * CMA-ES search for the best-fitting parameters (prior range scaled to the unit cube).  Starts from the prior medians.
+	 * Each generation (population) is run in parallel.  Parameters that aren't searched are evaluated at their expected values.
+	 * Returns the numSets best parameter sets that were run.
+	 * @param popSize Population size (0 for the default, 4+3ln(n))
+	 */
+	public ParameterSet[] runCMAES(int numSets, int maxRuns, int popSize, Listener listener) throws Exception{
+		start();
+		try{
+			if(setupSearch()==null){return(null);}
+			ArrayList<double[]> points=new ArrayList<double[]>();
+			ArrayList<Double> pointScores=new ArrayList<Double>();
+			ArrayList<ParameterSet> pointSets=new ArrayList<ParameterSet>();
+			AtomicInteger counter=new AtomicInteger(0);
+
+			CMAES cma=new CMAES(getPriorMedian(), 0.3, popSize, generator);
+			int gen=1;
+			while(numRuns+cma.getPopulationSize()<=maxRuns && !cancelled && cma.getMaxSD()>1e-8){
+				double pop[][]=cma.ask();
+				double scores[]=runPoints(pop, null, gen, points, pointScores, pointSets, counter, listener);
+				if(cancelled){break;}
+				cma.tell(pop, scores);
+				gen++;
+			}
+			return(getBestSets(numSets, pointScores, pointSets));
+		} finally{
+			close();
+		}
+	}
+
+	/**
+	 * Draws from the prior to find the parameters to search and their ranges.  Returns the prior draws (null if cancelled).
+	 */
+	private Numeric[][] setupSearch() throws Exception{
+		bestScores=new ArrayList<Double>();
+		Numeric prior[][]=samplePrior(numPrior);
+		if(cancelled){return(null);}
+		setDimensions(prior);
+		int numDims=dims.length;
+		if(numDims==0){throw new Exception("No parameters vary in the prior");}
+		sortedPrior=new double[numDims][];
+		for(int d=0; d<numDims; d++){
+			sortedPrior[d]=Arrays.copyOf(priorVals[d], numDraws);
+			Arrays.sort(sortedPrior[d]);
+		}
+		return(prior);
+	}
+
+	private double[] getPriorMedian(){
+		double median[]=new double[dims.length];
+		for(int d=0; d<dims.length; d++){median[d]=toUnit(d, getQuantile(sortedPrior[d], 0.5));}
+		return(median);
+	}
+
+	/**
+	 * Invalid runs are worst
+	 */
+	private double[] toSearchScores(double scores[]){
+		for(int i=0; i<scores.length; i++){
+			if(Double.isNaN(scores[i])){scores[i]=Double.POSITIVE_INFINITY;}
+		}
+		return(scores);
+	}
+
+	/**
+	 * Lowest scoring sets that were run, in order
+	 */
+	private ParameterSet[] getBestSets(int numSets, final ArrayList<Double> pointScores, ArrayList<ParameterSet> pointSets){
+		ArrayList<Integer> order=new ArrayList<Integer>();
+		for(int i=0; i<pointScores.size(); i++){
+			if(pointSets.get(i)!=null && !Double.isNaN(pointScores.get(i))){order.add(i);}
+		}
+		Collections.sort(order, new Comparator<Integer>(){
+			public int compare(Integer i, Integer j){
+				return(Double.compare(pointScores.get(i), pointScores.get(j)));
+			}
+		});
+		int numBest=Math.min(numSets, order.size());
+		sets=new ParameterSet[numBest];
+		for(int i=0; i<numBest; i++){
+			sets[i]=pointSets.get(order.get(i));
+			sets[i].id=(i+1)+"";
+			sets[i].score=pointScores.get(order.get(i));
+		}
+		return(sets);
+	}
+
+	private void start() throws Exception{
+		cancelled=false;
+		numRuns=0;
+		numParams=myModel.parameters.size();
+		myModel.generatorParam=new MersenneTwisterFast();
+		for(int c=0; c<myModel.constraints.size(); c++){
+			myModel.constraints.get(c).parseConstraints();
+		}
+		int numWorkers=PSAEngine.getNumWorkers(myModel, Integer.MAX_VALUE);
+		int numThreads=1; //parallel across copies
+		if(numWorkers==1){numThreads=myModel.numThreads;}
+		workers=PSAEngine.createWorkers(myModel, numWorkers, numThreads);
+		scoreTokens=new Token[workers.length][];
+		for(int w=0; w<workers.length; w++){
+			AmuaModel worker=workers[w];
+			ArrayList<String> errors=worker.parseModel();
+			if(errors.size()>0){throw new Exception("Errors in base case model: "+errors.get(0));}
+			for(int c=0; c<worker.constraints.size(); c++){
+				worker.constraints.get(c).parseConstraints();
+			}
+			scoreTokens[w]=Interpreter.compile(scoreExpression, worker);
+		}
+	}
+
+	/**
+	 * Shuts down the model copies
+	 */
+	private void close(){
+		if(workers==null){return;}
+		for(int w=0; w<workers.length; w++){
+			if(workers[w].scheduler!=null){workers[w].scheduler.shutdown();}
+		}
+		workers=null;
+	}
+
+	private int getBatchSize(int numSets){
+		return(Math.max(workers.length*4, Math.min(numSets, 256)));
+	}
+
+	private int countComplete(ParameterSet batchSets[]){
+		int count=0;
+		for(int i=0; i<batchSets.length; i++){
+			if(batchSets[i]!=null){count++;}
+		}
+		return(count);
+	}
+
+	/**
+	 * Runs each particle on a model copy.  Invalid particles (null, model errors or failed constraints) get a NaN score and no parameter set.
+	 * Each copy's own generators are used for the run (e.g. Monte Carlo), not the parameter generator.
+	 */
+	private void runBatch(final Numeric particles[][], final double scores[], final ParameterSet batchSets[], final int gen, final double tol,
+			final AtomicInteger numAccepted, final Listener listener) throws Exception{
+		final AtomicInteger batchRuns=new AtomicInteger(0);
+		PSAEngine.runTasks(myModel, workers.length, particles.length, new ModelScheduler.ChunkTask(){
+			public void run(int n, int curThread) throws Exception{
+				scores[n]=Double.NaN;
+				if(cancelled || particles[n]==null){return;}
+				scores[n]=runParticle(curThread, particles[n], batchSets, n);
+				batchRuns.incrementAndGet();
+				int accepted=numAccepted.get();
+				if(scores[n]<=tol){accepted=numAccepted.incrementAndGet();}
+				if(listener!=null){listener.update(gen, tol, accepted, numRuns+batchRuns.get());}
+			}
+		});
+		numRuns+=batchRuns.get();
+	}
+
+	private double runParticle(int curThread, Numeric vals[], ParameterSet batchSets[], int n) throws Exception{
+		AmuaModel worker=workers[curThread];
+		for(int v=0; v<numParams; v++){
+			Parameter curParam=worker.parameters.get(v);
+			if(vals[v]!=null){
+				curParam.value=vals[v].copy();
+				curParam.locked=true;
+			}
+			else{curParam.locked=false;} //re-evaluated when parsed (e.g. depends on perturbed parameters)
+		}
+		try{
+			if(worker.parseModel().size()>0){return(Double.NaN);}
+			worker.evaluateParameters(); //lock the remaining parameters so the run doesn't re-evaluate them
+			for(int c=0; c<worker.constraints.size(); c++){
+				Constraint curConst=worker.constraints.get(c);
+				if(curConst.checkConstraints(worker)==false){return(Double.NaN);}
+			}
+
+			//Run model
+			worker.curGenerator=worker.generatorVar;
+			RunReport report=new RunReport(worker);
+			worker.markov.runModel(false, report, false);
+			int index=report.names.indexOf(chainName);
+			if(index==-1){throw new Exception("Chain not found: "+chainName);}
+			worker.traceMarkov[0]=report.markovTraces.get(index);
+
+			batchSets[n]=new ParameterSet(worker);
+			return(Interpreter.evaluateDouble(scoreTokens[curThread], 0, false));
+		} finally{
+			worker.unlockParams(); //unlock parameters
+		}
+	}
+
+	/**
+	 * Draws parameter sets from the parameter expressions (in order on the model, with constraints and checks) [draw][parameter]
+	 */
+	private Numeric[][] samplePrior(int numDraws) throws Exception{
+		Numeric draws[][]=new Numeric[numDraws][numParams];
+		int numConstraints=myModel.constraints.size();
+		myModel.sampleParam=true;
+		if(myModel.curGenerator==null){myModel.curGenerator=new MersenneTwisterFast[1];}
+		myModel.curGenerator[0]=myModel.generatorParam;
+
+		Numeric origValues[]=new Numeric[numParams];
+		for(int v=0; v<numParams; v++){
+			origValues[v]=myModel.parameters.get(v).value.copy();
+		}
+		try{
+			for(int n=0; n<numDraws && !cancelled; n++){
+				boolean validParams=false;
+				while(validParams==false){
+					for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
+						Parameter curParam=myModel.parameters.get(v);
+						curParam.locked=false;
+						curParam.value=origValues[v];
+					}
+					for(int v=0; v<numParams; v++){ //sample all parameters
+						Parameter curParam=myModel.parameters.get(v);
+						if(curParam.locked==false){
+							curParam.value=Interpreter.evaluateTokens(curParam.parsedTokens, 0, true);
+							curParam.locked=true;
+						}
+					}
+					//check constraints
+					validParams=true;
+					int c=0;
+					while(validParams==true && c<numConstraints){
+						validParams=myModel.constraints.get(c).checkConstraints(myModel);
+						c++;
+					}
+					if(validParams){ //check model for valid params
+						if(myModel.parseModel().size()!=0){validParams=false;}
+					}
+				}
+				for(int v=0; v<numParams; v++){
+					draws[n][v]=myModel.parameters.get(v).value.copy();
+				}
+			}
+		} finally{
+			//Reset all parameters
+			myModel.sampleParam=false;
+			for(int v=0; v<numParams; v++){
+				Parameter curParam=myModel.parameters.get(v);
+				curParam.locked=false;
+				curParam.value=origValues[v];
+			}
+			myModel.validateModelObjects();
+		}
+		return(draws);
+	}
+
+	/**
+	 * Finds parameters to perturb (sample a random variable, scalar, and vary in the prior) and sets up the prior density estimate.
+	 * Parameters defined by other parameters (e.g. 1-pSurv) aren't perturbed so the relationships in the model are kept.
+	 */
+	private void setDimensions(Numeric prior[][]) throws Exception{
+		numDraws=prior.length;
+		fixed=new boolean[numParams];
+		ArrayList<Integer> varying=new ArrayList<Integer>();
+		for(int v=0; v<numParams; v++){
+			fixed[v]=!Token.isRandom(myModel.parameters.get(v).parsedTokens);
+			if(fixed[v]){continue;}
+			boolean scalar=true;
+			double first=Double.NaN;
+			boolean varies=false;
+			for(int n=0; n<numDraws && scalar; n++){
+				Numeric curVal=prior[n][v];
+				if(curVal.isDouble()==false && curVal.isInteger()==false){scalar=false;}
+				else{
+					double val=curVal.getDouble();
+					if(n==0){first=val;}
+					else if(val!=first){varies=true;}
+				}
+			}
+			if(scalar && varies){varying.add(v);}
+		}
+		int numDims=varying.size();
+		dims=new int[numDims];
+		integer=new boolean[numDims];
+		priorVals=new double[numDims][numDraws];
+		priorMin=new double[numDims]; priorMax=new double[numDims];
+		priorBandwidth=new double[numDims];
+		for(int d=0; d<numDims; d++){
+			int v=varying.get(d);
+			dims[d]=v;
+			integer[d]=true;
+			double sum=0, sumSq=0;
+			priorMin[d]=Double.POSITIVE_INFINITY; priorMax[d]=Double.NEGATIVE_INFINITY;
+			for(int n=0; n<numDraws; n++){
+				if(prior[n][v].isInteger()==false){integer[d]=false;}
+				double val=prior[n][v].getDouble();
+				priorVals[d][n]=val;
+				sum+=val; sumSq+=val*val;
+				priorMin[d]=Math.min(priorMin[d], val);
+				priorMax[d]=Math.max(priorMax[d], val);
+			}
+			double mean=sum/numDraws;
+			double sd=Math.sqrt(Math.max(0, sumSq/numDraws-mean*mean));
+			priorBandwidth[d]=1.06*sd*Math.pow(numDraws, -1.0/(4+numDims)); //Scott's rule (multivariate)
+		}
+	}
+
+	private double[] getKernelSD(Numeric particles[][], double weights[]) throws Exception{
+		int numDims=dims.length;
+		double sd[]=new double[numDims];
+		for(int d=0; d<numDims; d++){
+			double mean=0, var=0;
+			for(int i=0; i<particles.length; i++){mean+=weights[i]*particles[i][dims[d]].getDouble();}
+			for(int i=0; i<particles.length; i++){
+				double dev=particles[i][dims[d]].getDouble()-mean;
+				var+=weights[i]*dev*dev;
+			}
+			sd[d]=Math.sqrt(2*var);
+			if(sd[d]==0){sd[d]=priorBandwidth[d];} //collapsed - use prior bandwidth
+		}
+		return(sd);
+	}
+
+	private int pickAncestor(double weights[]){
+		double rand=generator.nextDouble();
+		double cum=0;
+		for(int i=0; i<weights.length; i++){
+			cum+=weights[i];
+			if(rand<cum){return(i);}
+		}
+		return(weights.length-1);
+	}
+
+	/**
+	 * Returns perturbed copy of particle (null if outside the prior range).  Fixed parameters are left unlocked so dependent values are re-evaluated,
+	 * and other parameters that can't be perturbed (e.g. matrices) are kept from the particle.
+	 */
+	private Numeric[] perturb(Numeric particle[], double kernelSD[]) throws Exception{
+		Numeric proposal[]=new Numeric[numParams];
+		for(int v=0; v<numParams; v++){
+			if(fixed[v]==false){proposal[v]=particle[v];}
+		}
+		for(int d=0; d<dims.length; d++){
+			double val=particle[dims[d]].getDouble()+kernelSD[d]*gaussian();
+			if(integer[d]){val=Math.round(val);}
+			if(val<priorMin[d] || val>priorMax[d]){return(null);}
+			if(integer[d]){proposal[dims[d]]=new Numeric((int)val);}
+			else{proposal[dims[d]]=new Numeric(val);}
+		}
+		return(proposal);
+	}
+
+	private double gaussian(){
+		return(Samplers.normal(generator));
+	}
+
+	private double kernelDensity(Numeric x[], Numeric center[], double kernelSD[]) throws Exception{
+		double logDens=0;
+		for(int d=0; d<dims.length; d++){
+			double z=(x[dims[d]].getDouble()-center[dims[d]].getDouble())/kernelSD[d];
+			logDens+=-0.5*z*z-Math.log(kernelSD[d]);
+		}
+		return(Math.exp(logDens));
+	}
+
+	private double priorDensity(Numeric x[]) throws Exception{
+		double sum=0;
+		for(int n=0; n<numDraws; n++){
+			double logDens=0;
+			for(int d=0; d<dims.length; d++){
+				double z=(x[dims[d]].getDouble()-priorVals[d][n])/priorBandwidth[d];
+				logDens+=-0.5*z*z;
+			}
+			sum+=Math.exp(logDens);
+		}
+		return(sum);
+	}
+
+	private double getMax(double vals[]){
+		double max=Double.NEGATIVE_INFINITY;
+		for(int i=0; i<vals.length; i++){max=Math.max(max, vals[i]);}
+		return(max);
+	}
+}
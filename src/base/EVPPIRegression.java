@@ -0,0 +1,381 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.Arrays;
+
+import math.MathUtils;
+
+/**
+ * Expected value of partial perfect information (EVPPI) from PSA results by regression (Strong, Oakley &amp; Brennan 2014).
+ * Incremental outcomes of each strategy vs. the first are smoothed on the parameter(s) of interest with penalized cubic regression splines
+ * (P-splines, smoothing chosen by GCV).  Groups of parameters use an additive spline for each parameter plus pairwise linear interactions.
+ * EVPPI = E[max fitted] - max E[fitted], from the same PSA run (no nested simulation).
+ */
+public class EVPPIRegression{
+	int numIterations, numStrat, numParams;
+	/**
+	 * [parameter][iteration]
+	 */
+	double paramVals[][];
+	/**
+	 * [strategy][iteration], higher is better
+	 */
+	double outcomes[][];
+	int numKnots=10; //interior knots per parameter
+
+	//Constructor
+	/**
+	 * @param paramVals Sampled parameter values [parameter][iteration]
+	 * @param outcomes Strategy outcomes [strategy][iteration]
+	 * @param sign 1 to maximize outcomes, -1 to minimize
+	 */
+	public EVPPIRegression(double paramVals[][], double outcomes[][], int sign){
+		this.paramVals=paramVals;
+		numParams=paramVals.length;
+		numStrat=outcomes.length;
+		numIterations=outcomes[0].length;
+		this.outcomes=new double[numStrat][numIterations];
+		for(int s=0; s<numStrat; s++){
+			for(int n=0; n<numIterations; n++){
+				this.outcomes[s][n]=sign*outcomes[s][n];
+			}
+		}
+	}
+
+	public void setNumKnots(int numKnots){
+		this.numKnots=numKnots;
+	}
+
+	/**
+	 * EVPPI of each parameter on its own, parameters are run in parallel
+	 */
+	public double[] getEVPPI(ModelScheduler scheduler) throws Exception{
+		final double evppi[]=new double[numParams];
+		scheduler.run(numParams, new ModelScheduler.ChunkTask(){
+			public void run(int p, int curThread) throws Exception{
+				evppi[p]=getEVPPI(new int[]{p},null);
+			}
+		});
+		return(evppi);
+	}
+
+	/**
+	 * EVPPI of a group of parameters
+	 * @param params Parameter indices
+	 * @param scheduler Runs strategies in parallel (null to run on this thread)
+	 */
+	public double getEVPPI(int params[], ModelScheduler scheduler) throws Exception{
+		final Design design=new Design(params);
+		if(design.numCols==0 || numStrat<2){return(0);} //no variation
+		final double fitted[][]=new double[numStrat][];
+		fitted[0]=new double[numIterations]; //reference strategy
+		if(scheduler==null){
+			for(int s=1; s<numStrat; s++){fitted[s]=design.fit(s);}
+		}
+		else{
+			scheduler.run(numStrat-1, new ModelScheduler.ChunkTask(){
+				public void run(int s, int curThread) throws Exception{
+					fitted[s+1]=design.fit(s+1);
+				}
+			});
+		}
+
+		//EVPPI: E[max] - max E[]
+		double meanMax=0;
+		double means[]=new double[numStrat];
+		for(int n=0; n<numIterations; n++){
+			double curMax=Double.NEGATIVE_INFINITY;
+			for(int s=0; s<numStrat; s++){
+				double val=fitted[s][n];
+				means[s]+=val;
+				if(val>curMax){curMax=val;}
+			}
+			meanMax+=curMax;
+		}
+		meanMax/=(numIterations*1.0);
+		double maxMean=Double.NEGATIVE_INFINITY;
+		for(int s=0; s<numStrat; s++){
+			maxMean=Math.max(maxMean, means[s]/(numIterations*1.0));
+		}
+		return(Math.max(0, meanMax-maxMean));
+	}
+
+	/**
+	 * Sparse spline design for a group of parameters - each row has 4 non-zero basis values per parameter plus interactions
+	 */
+	class Design{
+		int numVars; //parameters that vary
+		int vars[];
+		int colStart[]; //first column of each parameter's basis
+		int numBasis[];
+		int numPairs;
+		int numCols;
+		//[iteration][var] - first non-zero column and basis values
+		int rowCol[][];
+		double rowBasis[][][];
+		double pairVals[][]; //[iteration][pair] standardized products
+		double XtX[][];
+		double penalty[][];
+
+		Design(int params[]){
+			//keep parameters that vary
+			int temp[]=new int[params.length];
+			for(int i=0; i<params.length; i++){
+				double x[]=paramVals[params[i]];
+				double min=Double.POSITIVE_INFINITY, max=Double.NEGATIVE_INFINITY;
+				for(int n=0; n<numIterations; n++){
+					min=Math.min(min, x[n]); max=Math.max(max, x[n]);
+				}
+				if(max>min){temp[numVars]=params[i]; numVars++;}
+			}
+			vars=Arrays.copyOf(temp, numVars);
+			if(numVars==0){return;}
+
+			colStart=new int[numVars];
+			numBasis=new int[numVars];
+			rowCol=new int[numIterations][numVars];
+			rowBasis=new double[numIterations][numVars][];
+			for(int v=0; v<numVars; v++){
+				double x[]=paramVals[vars[v]];
+				double knots[]=getKnots(x);
+				colStart[v]=numCols;
+				numBasis[v]=knots.length-4;
+				numCols+=numBasis[v];
+				for(int n=0; n<numIterations; n++){
+					int span=findSpan(knots,x[n]);
+					rowCol[n][v]=colStart[v]+span-3;
+					rowBasis[n][v]=basis(knots,span,x[n]);
+				}
+			}
+
+			//pairwise interactions (standardized)
+			numPairs=(numVars*(numVars-1))/2;
+			int pairStart=numCols;
+			numCols+=numPairs;
+			if(numPairs>0){
+				double z[][]=new double[numVars][numIterations];
+				for(int v=0; v<numVars; v++){
+					double x[]=paramVals[vars[v]];
+					double mean=0, sd=0;
+					for(int n=0; n<numIterations; n++){mean+=x[n];}
+					mean/=numIterations;
+					for(int n=0; n<numIterations; n++){sd+=(x[n]-mean)*(x[n]-mean);}
+					sd=Math.sqrt(sd/numIterations);
+					for(int n=0; n<numIterations; n++){z[v][n]=(x[n]-mean)/sd;}
+				}
+				pairVals=new double[numIterations][numPairs];
+				for(int n=0; n<numIterations; n++){
+					int k=0;
+					for(int a=0; a<numVars; a++){
+						for(int b=a+1; b<numVars; b++){
+							pairVals[n][k]=z[a][n]*z[b][n];
+							k++;
+						}
+					}
+				}
+			}
+
+			//X'X
+			XtX=new double[numCols][numCols];
+			int cols[]=new int[4*numVars+numPairs];
+			double vals[]=new double[cols.length];
+			for(int n=0; n<numIterations; n++){
+				int nnz=getRow(n,pairStart,cols,vals);
+				for(int i=0; i<nnz; i++){
+					for(int j=0; j<nnz; j++){
+						XtX[cols[i]][cols[j]]+=vals[i]*vals[j];
+					}
+				}
+			}
+
+			//second-difference penalty on each spline, interactions are not penalized
+			penalty=new double[numCols][numCols];
+			for(int v=0; v<numVars; v++){
+				int c0=colStart[v];
+				for(int r=0; r<numBasis[v]-2; r++){
+					double d[]={1,-2,1};
+					for(int i=0; i<3; i++){
+						for(int j=0; j<3; j++){
+							penalty[c0+r+i][c0+r+j]+=d[i]*d[j];
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Gets non-zero columns and values of row n, returns number of non-zeros
+		 */
+		int getRow(int n, int pairStart, int cols[], double vals[]){
+			int nnz=0;
+			for(int v=0; v<numVars; v++){
+				double b[]=rowBasis[n][v];
+				for(int i=0; i<4; i++){
+					cols[nnz]=rowCol[n][v]+i;
+					vals[nnz]=b[i];
+					nnz++;
+				}
+			}
+			for(int k=0; k<numPairs; k++){
+				cols[nnz]=pairStart+k;
+				vals[nnz]=pairVals[n][k];
+				nnz++;
+			}
+			return(nnz);
+		}
+
+		/**
+		 * Fits incremental outcome of strategy s (vs. first strategy), returns fitted values
+		 */
+		double[] fit(int s) throws Exception{
+			int pairStart=numCols-numPairs;
+			int cols[]=new int[4*numVars+numPairs];
+			double vals[]=new double[cols.length];
+			double Xty[]=new double[numCols];
+			double yty=0;
+			for(int n=0; n<numIterations; n++){
+				double y=outcomes[s][n]-outcomes[0][n];
+				yty+=y*y;
+				int nnz=getRow(n,pairStart,cols,vals);
+				for(int i=0; i<nnz; i++){Xty[cols[i]]+=vals[i]*y;}
+			}
+
+			//scale smoothing to the data
+			double traceX=0, traceP=0;
+			for(int i=0; i<numCols; i++){traceX+=XtX[i][i]; traceP+=penalty[i][i];}
+			double scale=(traceP>0) ? traceX/traceP : 1;
+			double ridge=1e-8*traceX/numCols; //basis of each parameter includes the intercept
+
+			double bestGCV=Double.POSITIVE_INFINITY;
+			double bestCoef[]=null;
+			double A[][]=new double[numCols][numCols];
+			for(int l=-8; l<=12; l++){
+				double lambda=scale*Math.pow(10, l/2.0);
+				for(int i=0; i<numCols; i++){
+					for(int j=0; j<numCols; j++){
+						A[i][j]=XtX[i][j]+lambda*penalty[i][j];
+					}
+					A[i][i]+=ridge;
+				}
+				double L[][]=MathUtils.cholesky(A);
+				if(L==null){continue;}
+				double coef[]=MathUtils.solveCholesky(L,Xty);
+				//RSS=y'y - 2b'X'y + b'X'Xb
+				double rss=yty;
+				for(int i=0; i<numCols; i++){
+					rss-=2*coef[i]*Xty[i];
+					double row=0;
+					for(int j=0; j<numCols; j++){row+=XtX[i][j]*coef[j];}
+					rss+=coef[i]*row;
+				}
+				//effective degrees of freedom: tr(A^-1 X'X)
+				double edf=0;
+				double col[]=new double[numCols];
+				for(int j=0; j<numCols; j++){
+					for(int i=0; i<numCols; i++){col[i]=XtX[i][j];}
+					edf+=MathUtils.solveCholesky(L,col)[j];
+				}
+				double denom=numIterations-edf;
+				if(denom<=0){continue;}
+				double gcv=numIterations*Math.max(rss, 0)/(denom*denom);
+				if(gcv<bestGCV){
+					bestGCV=gcv;
+					bestCoef=coef;
+				}
+			}
+			if(bestCoef==null){
+				throw new Exception("Error: EVPPI regression failed");
+			}
+
+			double fitted[]=new double[numIterations];
+			for(int n=0; n<numIterations; n++){
+				int nnz=getRow(n,pairStart,cols,vals);
+				double val=0;
+				for(int i=0; i<nnz; i++){val+=vals[i]*bestCoef[cols[i]];}
+				fitted[n]=val;
+			}
+			return(fitted);
+		}
+	}
+
+	/**
+	 * Cubic B-spline knots with interior knots at quantiles
+	 */
+	double[] getKnots(double x[]){
+		double sorted[]=Arrays.copyOf(x, x.length);
+		Arrays.sort(sorted);
+		double min=sorted[0], max=sorted[sorted.length-1];
+		double interior[]=new double[numKnots];
+		int numInterior=0;
+		double last=min;
+		for(int k=1; k<=numKnots; k++){
+			double q=sorted[(int)((k/(numKnots+1.0))*(sorted.length-1))];
+			if(q>last && q<max){ //distinct
+				interior[numInterior]=q;
+				numInterior++;
+				last=q;
+			}
+		}
+		double knots[]=new double[numInterior+8];
+		for(int i=0; i<4; i++){
+			knots[i]=min;
+			knots[numInterior+4+i]=max;
+		}
+		for(int i=0; i<numInterior; i++){knots[4+i]=interior[i];}
+		return(knots);
+	}
+
+	/**
+	 * Returns span i with knots[i]<=x<knots[i+1] (last span at the upper boundary)
+	 */
+	static int findSpan(double knots[], double x){
+		int lo=3, hi=knots.length-5; //first and last span
+		if(x>=knots[hi+1]){return(hi);}
+		if(x<=knots[lo]){return(lo);}
+		while(hi-lo>1){
+			int mid=(lo+hi)>>>1;
+			if(x<knots[mid]){hi=mid;}
+			else{lo=mid;}
+		}
+		if(x>=knots[hi]){return(hi);}
+		return(lo);
+	}
+
+	/**
+	 * Non-zero cubic B-spline basis values at x (basis functions span-3 to span), Cox-de Boor recursion
+	 */
+	static double[] basis(double knots[], int span, double x){
+		double N[]=new double[4];
+		double left[]=new double[4], right[]=new double[4];
+		N[0]=1;
+		for(int j=1; j<=3; j++){
+			left[j]=x-knots[span+1-j];
+			right[j]=knots[span+j]-x;
+			double saved=0;
+			for(int r=0; r<j; r++){
+				double temp=N[r]/(right[r+1]+left[j-r]);
+				N[r]=saved+right[r+1]*temp;
+				saved=left[j-r]*temp;
+			}
+			N[j]=saved;
+		}
+		return(N);
+	}
+}
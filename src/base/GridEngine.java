@@ -0,0 +1,219 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.CEAHelper;
+import main.Parameter;
+import main.Variable;
+import math.Interpreter;
+import math.Numeric;
+import math.Token;
+
+/**
+ * Sensitivity grids (one-way, two-way, tornado, threshold) without a GUI.
+ * Each grid point sets the chosen parameters on a copy of the model and runs it.  Points are run in parallel on independent copies (see PSAEngine.getNumWorkers),
+ * which are kept between runs (e.g. for threshold searches) until the engine is closed.  The model itself is not changed.
+ */
+public class GridEngine{
+	AmuaModel myModel;
+	AmuaModel workers[];
+	int paramIndices[];
+	int numStrat, numDim, numSubgroups;
+	public int analysisType;
+
+	//Results of last run
+	/**
+	 * Expected values [group][dimension][strategy][point].  Group 0=Overall
+	 */
+	public double outcomes[][][][];
+	/**
+	 * CEA/BCA results (CEAHelper table) [group][point]
+	 */
+	public Object tables[][][][];
+
+	volatile boolean cancelled;
+
+	/**
+	 * Receives progress updates (called from worker threads as points finish, in any order)
+	 */
+	public interface Listener{
+		void update(int point, int numComplete);
+	}
+
+	//Constructor
+	public GridEngine(AmuaModel myModel){
+		this.myModel=myModel;
+	}
+
+	public void cancel(){
+		cancelled=true;
+	}
+
+	public boolean isCancelled(){
+		return(cancelled);
+	}
+
+	public int getNumSubgroups(){
+		return(numSubgroups);
+	}
+
+	/**
+	 * Runs the model at each point.  Model should be parsed without errors first.
+	 * @param paramIndices Parameters to set (index in model parameters)
+	 * @param points Parameter values [point][parameter].  NaN (and all other parameters) keep the base case value, e.g. to vary one parameter at a time
+	 */
+	public void run(int paramIndices[], final double points[][], final Listener listener) throws Exception{
+		cancelled=false;
+		this.paramIndices=paramIndices;
+		int numPoints=points.length;
+		numStrat=myModel.getStrategies();
+		numDim=myModel.dimInfo.dimNames.length;
+		analysisType=myModel.dimInfo.analysisType;
+		numSubgroups=0;
+		if(myModel.simType==1 && myModel.reportSubgroups){numSubgroups=myModel.subgroupNames.size();}
+
+		outcomes=new double[1+numSubgroups][numDim][numStrat][numPoints];
+		tables=null;
+		if(analysisType>0){tables=new Object[1+numSubgroups][numPoints][][];}
+
+		addWorkers(PSAEngine.getNumWorkers(myModel, numPoints));
+		final AtomicInteger numComplete=new AtomicInteger(0);
+		PSAEngine.runTasks(myModel, workers.length, numPoints, new ModelScheduler.ChunkTask(){
+			public void run(int n, int curThread) throws Exception{
+				if(cancelled){return;}
+				runPoint(workers[curThread],points[n],n);
+				int complete=numComplete.incrementAndGet();
+				if(listener!=null){listener.update(n,complete);}
+			}
+		});
+	}
+
+	/**
+	 * Creates model copies up to the number of workers needed (copies from earlier runs are re-used)
+	 */
+	private void addWorkers(int numWorkers) throws Exception{
+		if(numWorkers>1 && workers!=null && workers.length==1 && workers[0].numThreads>1){close();} //single copy used all threads
+		int numCur=0;
+		if(workers!=null){numCur=workers.length;}
+		if(numWorkers<=numCur){return;}
+		int numThreads=1; //parallel across copies
+		if(numWorkers==1){numThreads=myModel.numThreads;}
+		AmuaModel newWorkers[]=PSAEngine.createWorkers(myModel, numWorkers-numCur, numThreads);
+		AmuaModel allWorkers[]=new AmuaModel[numWorkers];
+		for(int w=0; w<numCur; w++){allWorkers[w]=workers[w];}
+		for(int w=numCur; w<numWorkers; w++){allWorkers[w]=newWorkers[w-numCur];}
+		workers=allWorkers;
+	}
+
+	private void runPoint(AmuaModel worker, double vals[], int n) throws Exception{
+		for(int p=0; p<paramIndices.length; p++){
+			if(!Double.isNaN(vals[p])){ //unlocked parameters are re-evaluated when parsed
+				Parameter curParam=worker.parameters.get(paramIndices[p]);
+				curParam.value=new Numeric(vals[p]);
+				curParam.locked=true;
+			}
+		}
+		ArrayList<String> errors=worker.parseModel();
+		if(errors.size()>0){
+			throw new Exception("Point "+(n+1)+": "+errors.get(0));
+		}
+
+		//Run model
+		worker.curGenerator=worker.generatorVar;
+		worker.runModelHeadless();
+
+		//Get EVs
+		for(int d=0; d<numDim; d++){
+			for(int s=0; s<numStrat; s++){
+				outcomes[0][d][s][n]=worker.getStrategyEV(s, d);
+				for(int g=0; g<numSubgroups; g++){
+					outcomes[g+1][d][s][n]=worker.getSubgroupEV(g, s, d);
+				}
+			}
+		}
+		if(analysisType==1){ //CEA
+			for(int g=0; g<numSubgroups+1; g++){
+				tables[g][n]=new CEAHelper().calculateICERs(worker,g-1,true);
+			}
+		}
+		else if(analysisType==2){ //BCA
+			for(int g=0; g<numSubgroups+1; g++){
+				tables[g][n]=new CEAHelper().calculateNMB(worker,g-1,true);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates an expression of x and y at each point of a grid [x][y].
+	 * Runs on the calling thread - there are no model runs, and the expression shares the model's parameter and variable values.
+	 */
+	public double[][] evaluateFunction(String expression, double xVals[], double yVals[], Listener listener) throws Exception{
+		cancelled=false;
+		if(myModel.innateVariables==null){
+			myModel.innateVariables=new ArrayList<Variable>();
+		}
+		Variable curX=addInnateVariable("x");
+		Variable curY=addInnateVariable("y");
+		try{
+			Token tokens[]=Interpreter.compile(expression, myModel); //x and y aren't cached
+			int numY=yVals.length;
+			double values[][]=new double[xVals.length][numY];
+			int count=0;
+			for(int i=0; i<xVals.length && !cancelled; i++){
+				curX.value[0]=new Numeric(xVals[i]);
+				for(int j=0; j<numY && !cancelled; j++){
+					curY.value[0]=new Numeric(yVals[j]);
+					values[i][j]=Interpreter.evaluateDouble(tokens, 0, false);
+					count++;
+					if(listener!=null){listener.update(i*numY+j,count);}
+				}
+			}
+			return(values);
+		} finally{
+			int index=myModel.getInnateVariableIndex("x");
+			if(index!=-1){myModel.innateVariables.remove(index);}
+			index=myModel.getInnateVariableIndex("y");
+			if(index!=-1){myModel.innateVariables.remove(index);}
+		}
+	}
+
+	private Variable addInnateVariable(String name){
+		Variable curVar=new Variable();
+		curVar.name=name;
+		int index=myModel.getInnateVariableIndex(name);
+		if(index!=-1){myModel.innateVariables.set(index, curVar);}
+		else{myModel.innateVariables.add(curVar);}
+		curVar.locked[0]=true;
+		return(curVar);
+	}
+
+	/**
+	 * Shuts down the model copies
+	 */
+	public void close(){
+		if(workers==null){return;}
+		for(int w=0; w<workers.length; w++){
+			if(workers[w].scheduler!=null){workers[w].scheduler.shutdown();}
+		}
+		workers=null;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Long-lived ForkJoin pool shared by the simulation engines of a model.
+ * Work is split into fine-grained chunks that are claimed dynamically by one lane per model thread,
+ * so a lane that finishes early takes over the remaining chunks instead of waiting at the barrier.
+ * Each lane has a fixed thread index (0 to numThreads-1) for the thread-specific model state (variable values, RNGs, etc.).
+ */
+public class ModelScheduler{
+	ForkJoinPool pool;
+	int numThreads;
+
+	/**
+	 * Work done for one chunk
+	 */
+	public interface ChunkTask{
+		void run(int chunk, int curThread) throws Exception;
+	}
+
+	//Constructor
+	public ModelScheduler(int numThreads){
+		this.numThreads=numThreads;
+		pool=new ForkJoinPool(numThreads);
+	}
+
+	public int getNumThreads(){
+		return(numThreads);
+	}
+
+	/**
+	 * Runs all chunks and waits for them to finish.  Chunks are claimed in order, the first error stops the remaining chunks and is thrown.
+	 * @param numChunks Number of chunks
+	 * @param task Chunk work
+	 */
+	public void run(int numChunks, final ChunkTask task) throws Exception{
+		if(numChunks<=0){return;}
+		final AtomicInteger nextChunk=new AtomicInteger(0);
+		final AtomicReference<Exception> error=new AtomicReference<Exception>();
+		final int chunks=numChunks;
+		int numLanes=Math.min(numThreads, numChunks);
+		ForkJoinTask<?> lanes[]=new ForkJoinTask<?>[numLanes];
+		for(int n=0; n<numLanes; n++){
+			final int finalN=n;
+			lanes[n]=pool.submit(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute(){
+					try{
+						int chunk=nextChunk.getAndIncrement();
+						while(chunk<chunks && error.get()==null){
+							task.run(chunk, finalN);
+							chunk=nextChunk.getAndIncrement();
+						}
+					}catch(Exception e){
+						error.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for(int n=0; n<numLanes; n++){ //join
+			lanes[n].join();
+		}
+		if(error.get()!=null){throw error.get();}
+	}
+
+	/**
+	 * Returns number of chunks of given size needed to cover all items
+	 */
+	public static int getNumChunks(int numItems, int chunkSize){
+		return((numItems+chunkSize-1)/chunkSize);
+	}
+
+	/**
+	 * Returns chunk size for splitting items into roughly maxChunks pieces (at least minSize items each).
+	 * Depends only on the number of items so chunks (and chunk-specific RNGs) don't change with the number of threads.
+	 */
+	public static int getChunkSize(int numItems, int minSize, int maxChunks){
+		int size=(numItems+maxChunks-1)/maxChunks;
+		return(Math.max(minSize, Math.max(1, size)));
+	}
+
+	public void shutdown(){
+		pool.shutdown();
+	}
+}
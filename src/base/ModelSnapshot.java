@@ -31,6 +31,10 @@ import main.Variable;
 import markov.MarkovTree;
 import tree.DecisionTree;
 
+/**
+ * Undoable state of a model.  Objects that are edited in place (parameters, variables, nodes, etc.) are copied,
+ * while large data that is only ever replaced (table data, parameter sets) is shared with the model and other snapshots.
+ */
 public class ModelSnapshot{
 
 	//Data
@@ -52,8 +56,10 @@ public class ModelSnapshot{
 	public int cohortSize=1000;
 	public boolean CRN;
 	public int crnSeed;
+	public boolean personRNG;
 	public boolean displayIndResults;
 	public int numThreads;
+	public boolean compileExpressions;
 	public boolean reportSubgroups;
 	public ArrayList<String> subgroupNames, subgroupDefinitions;
 	
@@ -90,20 +96,10 @@ public class ModelSnapshot{
 			Constraint copyConst=model.constraints.get(i).copy();
 			constraints.add(copyConst);
 		}
-		//parameter sets
+		//parameter sets - shared, sets are replaced (not changed) when new ones are generated or imported
 		simParamSets=model.simParamSets;
-		if(model.parameterNames!=null){
-			int numParams=model.parameterNames.length;
-			parameterNames=new String[numParams];
-			for(int i=0; i<numParams; i++){
-				parameterNames[i]=model.parameterNames[i];
-			}
-			int numSets=model.parameterSets.length;
-			parameterSets=new ParameterSet[numSets];
-			for(int i=0; i<numSets; i++){
-				parameterSets[i]=model.parameterSets[i].copy();
-			}
-		}
+		parameterNames=model.parameterNames;
+		parameterSets=model.parameterSets;
 		//scenarios
 		if(model.scenarios!=null){
 			scenarios=new ArrayList<Scenario>();
@@ -118,8 +114,10 @@ public class ModelSnapshot{
 		cohortSize=model.cohortSize;
 		CRN=model.CRN;
 		crnSeed=model.crnSeed;
+		personRNG=model.personRNG;
 		displayIndResults=model.displayIndResults;
 		numThreads=model.numThreads;
+		compileExpressions=model.compileExpressions;
 		
 		//subgroup settings
 		reportSubgroups=model.reportSubgroups;
@@ -135,6 +133,8 @@ public class ModelSnapshot{
 
 	//Re-points model data/objects
 	public void getSnapshot(AmuaModel model){
+		model.clearParseCache();
+		model.clearSymbols();
 		model.name=name;
 		model.type=type;
 		model.meta=meta; //reference
@@ -155,8 +155,10 @@ public class ModelSnapshot{
 		model.cohortSize=cohortSize;
 		model.CRN=CRN;
 		model.crnSeed=crnSeed;
+		model.personRNG=personRNG;
 		model.displayIndResults=displayIndResults;
 		model.numThreads=numThreads;
+		model.compileExpressions=compileExpressions;
 		
 		model.reportSubgroups=reportSubgroups;
 		model.subgroupNames=subgroupNames;
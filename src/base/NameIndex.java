@@ -0,0 +1,58 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Name to index lookup for a list of model objects (parameters, variables, tables).
+ * Built from the list's current names and not changed afterwards, so it can be read by any thread.
+ */
+public class NameIndex{
+	final List<?> list;
+	final int size;
+	final HashMap<String,Integer> indices;
+
+	//Constructor
+	public NameIndex(List<?> list, String names[]){
+		this.list=list;
+		this.size=names.length;
+		indices=new HashMap<String,Integer>(names.length*2);
+		for(int i=names.length-1; i>=0; i--){ //first match wins if names are repeated
+			indices.put(names[i], i);
+		}
+	}
+
+	/**
+	 * Returns true if index was built for this list and it hasn't been added to or removed from
+	 */
+	public boolean isCurrent(List<?> curList){
+		return(list==curList && size==curList.size());
+	}
+
+	/**
+	 * Returns index of name or -1 if not found
+	 */
+	public int get(String name){
+		Integer index=indices.get(name);
+		if(index==null){return(-1);}
+		return(index);
+	}
+}
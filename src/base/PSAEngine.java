@@ -0,0 +1,481 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import main.CEAHelper;
+import main.Constraint;
+import main.MersenneTwisterFast;
+import main.Parameter;
+import main.Scenario;
+import markov.MarkovTrace;
+import markov.MarkovTraceSummary;
+import math.Interpreter;
+import math.Numeric;
+
+/**
+ * Probabilistic sensitivity analysis (and batch runs) without a GUI.
+ * Parameter sets are sampled in order on the model (same random stream, constraints and checks as a sequential run),
+ * then iterations are run in parallel on independent copies of the model (one per thread, or one copy using all threads for microsimulation) and results are stored by iteration.
+ */
+public class PSAEngine{
+	AmuaModel myModel;
+	int numIterations;
+	boolean seedParams;
+	int seed;
+	/**
+	 * 0=Sample parameters (PSA), 1=Base case parameters (batch runs), 2=Parameter sets
+	 */
+	int paramMode=0;
+	Scenario scenario; //scenario updates applied to parameter sets
+	boolean seedRuns;
+	int runSeed;
+	int firstIteration=0; //index of first iteration (for shards of a larger run)
+	boolean iterationSeeds; //seed each iteration separately, so results don't depend on how iterations are split
+	int paramSeed;
+	boolean keepReports=true;
+	boolean summarizeTraces;
+
+	int numParams, numStrat, numDim, numSubgroups;
+	public int analysisType;
+
+	//Results
+	/**
+	 * Sampled parameter values [parameter][iteration]
+	 */
+	public double paramVals[][];
+	public RunReport reports[];
+	/**
+	 * Expected values [group][dimension][strategy][iteration].  Group 0=Overall
+	 */
+	public double outcomes[][][][];
+	/**
+	 * CEA/BCA results (CEAHelper table) [group][iteration]
+	 */
+	public Object tables[][][][];
+	/**
+	 * Markov trace summaries [chain][group] (if summarizing traces).  Group 0=Overall
+	 */
+	public MarkovTraceSummary traceSummaries[][];
+	MarkovTraceSummary chunkSummaries[][][]; //[chunk][chain][group], merged in chunk order so bounds don't depend on scheduling
+
+	Numeric sampledVals[][]; //[iteration][parameter]
+	volatile boolean cancelled;
+
+	/**
+	 * Receives progress updates (called from worker threads as iterations finish, in any order)
+	 */
+	public interface Listener{
+		void update(int iteration, int numComplete);
+	}
+
+	//Constructor
+	public PSAEngine(AmuaModel myModel, int numIterations){
+		this.myModel=myModel;
+		this.numIterations=numIterations;
+	}
+
+	public void setSeed(int seed){
+		seedParams=true;
+		this.seed=seed;
+	}
+
+	/**
+	 * Runs the model with its current parameter values each iteration (e.g. batch Monte Carlo runs)
+	 */
+	public void setBaseCase(){
+		paramMode=1;
+	}
+
+	/**
+	 * Cycles through the model's parameter sets, with any parameter overwrites from the scenario (can be null)
+	 */
+	public void setParameterSets(Scenario scenario){
+		paramMode=2;
+		this.scenario=scenario;
+	}
+
+	/**
+	 * Simulates each iteration with common random numbers seeded by seed+iteration, so runs are reproducible for any number of threads
+	 */
+	public void setRunSeed(int seed){
+		seedRuns=true;
+		runSeed=seed;
+	}
+
+	/**
+	 * Runs iterations first to first+numIterations-1 of a larger run (e.g. one shard of a distributed PSA)
+	 */
+	public void setIterationRange(int first){
+		firstIteration=first;
+	}
+
+	public int getFirstIteration(){
+		return(firstIteration);
+	}
+
+	/**
+	 * Parameters for each iteration are sampled from a stream seeded by (paramSeed, iteration) and models are run with common random numbers seeded by (runSeed, iteration).
+	 * Each iteration's results then only depend on its index, so shards give the same results as a single run.
+	 */
+	public void setIterationSeeds(int paramSeed, int runSeed){
+		iterationSeeds=true;
+		this.paramSeed=paramSeed;
+		seedRuns=true;
+		this.runSeed=runSeed;
+	}
+
+	/**
+	 * Derives an independent seed from a base seed, iteration and stream (SplitMix64 finalizer)
+	 */
+	public static int deriveSeed(int base, int iteration, int stream){
+		long z=((long)base<<32) ^ (iteration & 0xFFFFFFFFL);
+		z+=0x9E3779B97F4A7C15L*(stream+1);
+		z=(z ^ (z>>>30))*0xBF58476D1CE4E5B9L;
+		z=(z ^ (z>>>27))*0x94D049BB133111EBL;
+		z=z ^ (z>>>31);
+		return((int)(z ^ (z>>>32)));
+	}
+
+	/**
+	 * Set to false to only keep results (not the run reports and traces) for large runs
+	 */
+	public void setKeepReports(boolean keep){
+		keepReports=keep;
+	}
+
+	/**
+	 * Summarizes Markov traces as iterations finish (per thread, merged at the end) instead of from all kept traces
+	 */
+	public void setSummarizeTraces(boolean summarize){
+		summarizeTraces=summarize;
+	}
+
+	public void cancel(){
+		cancelled=true;
+	}
+
+	public boolean isCancelled(){
+		return(cancelled);
+	}
+
+	public int getNumSubgroups(){
+		return(numSubgroups);
+	}
+
+	public int getNumIterations(){
+		return(numIterations);
+	}
+
+	/**
+	 * Samples all parameter sets and runs the iterations.  Model should be parsed without errors first.
+	 */
+	public void run(final Listener listener) throws Exception{
+		cancelled=false;
+		numParams=myModel.parameters.size();
+		numStrat=myModel.getStrategies();
+		numDim=myModel.dimInfo.dimNames.length;
+		analysisType=myModel.dimInfo.analysisType;
+		numSubgroups=0;
+		if(myModel.simType==1 && myModel.reportSubgroups){numSubgroups=myModel.subgroupNames.size();}
+
+		reports=new RunReport[numIterations];
+		outcomes=new double[1+numSubgroups][numDim][numStrat][numIterations];
+		if(analysisType>0){tables=new Object[1+numSubgroups][numIterations][][];}
+
+		if(paramMode!=1){
+			paramVals=new double[numParams][numIterations];
+			sampleParameters();
+			if(cancelled){return;}
+		}
+
+		//run iterations on model copies
+		int numWorkers=getNumWorkers(myModel,numIterations);
+		int workerThreads=1; //parallel across copies
+		if(numWorkers==1){workerThreads=myModel.numThreads;}
+		final AmuaModel workers[]=createWorkers(myModel,numWorkers,workerThreads);
+		final AtomicInteger numComplete=new AtomicInteger(0);
+		//fixed chunks of iterations (run in order within a chunk) - don't depend on the number of threads
+		final int chunkSize=ModelScheduler.getChunkSize(numIterations, 1, 64);
+		int numChunks=ModelScheduler.getNumChunks(numIterations, chunkSize);
+		traceSummaries=null;
+		chunkSummaries=null;
+		if(summarizeTraces && myModel.type==1){chunkSummaries=new MarkovTraceSummary[numChunks][][];}
+		try{
+			runTasks(myModel, numWorkers, numChunks, new ModelScheduler.ChunkTask(){
+				public void run(int chunk, int curThread) throws Exception{
+					int end=Math.min((chunk+1)*chunkSize, numIterations);
+					for(int n=chunk*chunkSize; n<end; n++){
+						if(cancelled){return;}
+						runIteration(workers[curThread],n,chunk);
+						int complete=numComplete.incrementAndGet();
+						if(listener!=null){listener.update(n,complete);}
+					}
+				}
+			});
+			if(chunkSummaries!=null && !cancelled){mergeTraceSummaries();}
+		} finally{
+			for(int w=0; w<numWorkers; w++){
+				if(workers[w].scheduler!=null){workers[w].scheduler.shutdown();}
+			}
+		}
+	}
+
+	private void sampleParameters() throws Exception{
+		sampledVals=new Numeric[numIterations][numParams];
+		int numConstraints=myModel.constraints.size();
+
+		myModel.sampleParam=true;
+		myModel.generatorParam=new MersenneTwisterFast();
+		if(myModel.curGenerator==null){
+			myModel.curGenerator=new MersenneTwisterFast[1];
+		}
+		myModel.curGenerator[0]=myModel.generatorParam;
+		if(seedParams){
+			myModel.generatorParam.setSeed(seed);
+		}
+
+		//Get orig values for all parameters
+		Numeric origValues[]=new Numeric[numParams];
+		for(int v=0; v<numParams; v++){
+			origValues[v]=myModel.parameters.get(v).value.copy();
+		}
+
+		//Parse constraints
+		for(int c=0; c<numConstraints; c++){
+			myModel.constraints.get(c).parseConstraints();
+		}
+
+		try{
+			for(int n=0; n<numIterations && !cancelled; n++){
+				if(iterationSeeds){
+					myModel.generatorParam.setSeed(deriveSeed(paramSeed,firstIteration+n,0));
+				}
+				if(paramMode==2){ //parameter sets
+					int numSets=myModel.parameterSets.length;
+					myModel.parameterSets[(firstIteration+n)%numSets].setParameters(myModel);
+					if(scenario!=null){scenario.overwriteParams(myModel);}
+				}
+				boolean validParams=(paramMode==2);
+				while(validParams==false){
+					for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
+						Parameter curParam=myModel.parameters.get(v);
+						curParam.locked=false;
+						curParam.value=origValues[v];
+					}
+
+					for(int v=0; v<numParams; v++){ //sample all parameters
+						Parameter curParam=myModel.parameters.get(v);
+						if(curParam.locked==false) {
+							curParam.value=Interpreter.evaluateTokens(curParam.parsedTokens, 0, true);
+							curParam.locked=true;
+						}
+					}
+					//check constraints
+					validParams=true;
+					int c=0;
+					while(validParams==true && c<numConstraints){
+						Constraint curConst=myModel.constraints.get(c);
+						validParams=curConst.checkConstraints(myModel);
+						c++;
+					}
+					if(validParams){ //check model for valid params
+						ArrayList<String> errors=myModel.parseModel();
+						if(errors.size()!=0) {
+							validParams=false;
+						}
+					}
+				}
+
+				for(int v=0; v<numParams; v++){ //Record value
+					Parameter curParam=myModel.parameters.get(v);
+					Numeric curVal=curParam.value;
+					if(curParam.locked){sampledVals[n][v]=curVal.copy();} //not in parameter set if unlocked
+					try{
+						paramVals[v][n]=curVal.getDouble();
+					} catch(Exception e){
+						paramVals[v][n]=Double.NaN;
+					}
+					curParam.locked=false;
+				}
+			}
+		} finally{
+			//Reset all parameters
+			myModel.sampleParam=false;
+			for(int v=0; v<numParams; v++){ //Reset 'locked' for all parameter and orig values
+				Parameter curParam=myModel.parameters.get(v);
+				curParam.locked=false;
+				curParam.value=origValues[v];
+			}
+			myModel.validateModelObjects();
+		}
+	}
+
+	private void addTraces(RunReport report, int chunk){
+		MarkovTraceSummary summaries[][]=chunkSummaries[chunk];
+		int numChains=report.markovTraces.size();
+		if(summaries==null){
+			summaries=new MarkovTraceSummary[numChains][numSubgroups+1];
+			for(int c=0; c<numChains; c++){
+				summaries[c][0]=new MarkovTraceSummary(report.markovTraces.get(c));
+				for(int g=0; g<numSubgroups; g++){
+					summaries[c][g+1]=new MarkovTraceSummary(report.markovTracesGroup[g].get(c));
+				}
+			}
+			chunkSummaries[chunk]=summaries;
+		}
+		for(int c=0; c<numChains; c++){
+			summaries[c][0].add(report.markovTraces.get(c));
+			for(int g=0; g<numSubgroups; g++){
+				summaries[c][g+1].add(report.markovTracesGroup[g].get(c));
+			}
+		}
+	}
+
+	private void mergeTraceSummaries(){
+		for(int k=0; k<chunkSummaries.length; k++){ //in chunk order
+			MarkovTraceSummary summaries[][]=chunkSummaries[k];
+			if(summaries==null){continue;}
+			if(traceSummaries==null){traceSummaries=summaries;}
+			else{
+				for(int c=0; c<summaries.length; c++){
+					for(int g=0; g<summaries[c].length; g++){
+						traceSummaries[c][g].merge(summaries[c][g]);
+					}
+				}
+			}
+		}
+		chunkSummaries=null;
+		if(traceSummaries==null){return;}
+		for(int c=0; c<traceSummaries.length; c++){
+			for(int g=0; g<traceSummaries[c].length; g++){
+				traceSummaries[c][g].summarize();
+				if(keepReports){ //traces are kept with the reports, can be exported
+					MarkovTrace traces[]=new MarkovTrace[numIterations];
+					for(int n=0; n<numIterations; n++){
+						if(g==0){traces[n]=reports[n].markovTraces.get(c);}
+						else{traces[n]=reports[n].markovTracesGroup[g-1].get(c);}
+					}
+					traceSummaries[c][g].setTraces(traces);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Number of model copies to run tasks on.  One per thread, except for microsimulation models - each copy holds the population,
+	 * so a single copy runs the tasks one after another with all threads (people are simulated in parallel).
+	 */
+	static int getNumWorkers(AmuaModel myModel, int numTasks){
+		if(myModel.simType==1){return(1);}
+		return(Math.max(1, Math.min(myModel.getScheduler().getNumThreads(), numTasks)));
+	}
+
+	/**
+	 * Runs tasks on the model copies - in parallel (curThread is the copy) or, with one copy, in order on the calling thread
+	 */
+	static void runTasks(AmuaModel myModel, int numWorkers, int numTasks, ModelScheduler.ChunkTask task) throws Exception{
+		if(numWorkers==1){
+			for(int n=0; n<numTasks; n++){task.run(n, 0);}
+		}
+		else{
+			myModel.getScheduler().run(numTasks, task);
+		}
+	}
+
+	/**
+	 * Creates independent copies of the model (saved and re-opened without a GUI)
+	 * @param numThreads Threads used by each copy (1 if run in parallel across copies)
+	 */
+	static AmuaModel[] createWorkers(AmuaModel myModel, int numWorkers, int numThreads) throws Exception{
+		JAXBContext context=JAXBContext.newInstance(AmuaModel.class);
+		Marshaller m=context.createMarshaller();
+		ByteArrayOutputStream xml=new ByteArrayOutputStream();
+		m.marshal(myModel, xml);
+		byte bytes[]=xml.toByteArray();
+
+		Unmarshaller un=context.createUnmarshaller();
+		AmuaModel workers[]=new AmuaModel[numWorkers];
+		for(int w=0; w<numWorkers; w++){
+			AmuaModel worker=(AmuaModel) un.unmarshal(new ByteArrayInputStream(bytes));
+			worker.openHeadless(myModel.errorLog);
+			worker.numThreads=numThreads;
+			if(worker.type==1){worker.markov.showTrace=false;}
+			worker.getStrategies();
+			workers[w]=worker;
+		}
+		return(workers);
+	}
+
+	private void runIteration(AmuaModel worker, int n, int chunk) throws Exception{
+		//set sampled parameters
+		if(paramMode!=1){
+			for(int v=0; v<numParams; v++){
+				Parameter curParam=worker.parameters.get(v);
+				if(sampledVals[n][v]!=null){
+					curParam.value=sampledVals[n][v].copy();
+					curParam.locked=true;
+				}
+			}
+		}
+		ArrayList<String> errors=worker.parseModel();
+		if(errors.size()>0){
+			throw new Exception("Iteration "+(n+1)+": "+errors.get(0));
+		}
+		if(seedRuns){
+			worker.CRN=true;
+			if(iterationSeeds){worker.crnSeed=deriveSeed(runSeed,firstIteration+n,1);}
+			else{worker.crnSeed=runSeed+firstIteration+n;}
+		}
+
+		//Run model
+		worker.curGenerator=worker.generatorVar;
+		RunReport report=worker.runModelHeadless();
+		if(keepReports){reports[n]=report;}
+		if(chunkSummaries!=null){addTraces(report,chunk);}
+
+		//Get EVs
+		for(int d=0; d<numDim; d++){
+			for(int s=0; s<numStrat; s++){
+				outcomes[0][d][s][n]=worker.getStrategyEV(s, d);
+				for(int g=0; g<numSubgroups; g++){
+					outcomes[g+1][d][s][n]=worker.getSubgroupEV(g, s, d);
+				}
+			}
+		}
+		if(analysisType==1){ //CEA
+			for(int g=0; g<numSubgroups+1; g++){
+				tables[g][n]=new CEAHelper().calculateICERs(worker,g-1,true);
+			}
+		}
+		else if(analysisType==2){ //BCA
+			for(int g=0; g<numSubgroups+1; g++){
+				tables[g][n]=new CEAHelper().calculateNMB(worker,g-1,true);
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import math.MathUtils;
+
+/**
+ * Combines partial results (e.g. from shards of a PSA or scenario run) into one set of results ordered by run and iteration
+ */
+public class ResultMerger{
+	String headers[];
+	ArrayList<String> labels=new ArrayList<String>(); //in order of first appearance
+	HashMap<String,TreeMap<Integer,double[]>> rows=new HashMap<String,TreeMap<Integer,double[]>>();
+	HashMap<String,Integer> totals=new HashMap<String,Integer>(); //total iterations of each run
+	int numShards=-1; //-1 before the first file, 0 if not sharded
+	boolean shards[]; //[shard-1] true if added
+
+	/**
+	 * Adds all rows from a results file.  Files must have the same columns and runs, and can't overlap.
+	 */
+	public void add(String path) throws IOException{
+		ResultReader reader=new ResultReader(path);
+		try{
+			if(headers==null){headers=reader.headers;}
+			else if(!Arrays.equals(headers, reader.headers)){
+				throw new IOException(path+": Columns don't match other results");
+			}
+			addShard(path,reader);
+			if(reader.runLabels.size()==0){
+				throw new IOException(path+": Total iterations aren't recorded");
+			}
+			for(int r=0; r<reader.runLabels.size(); r++){
+				String label=reader.runLabels.get(r);
+				int total=reader.runIterations.get(r);
+				Integer prevTotal=totals.get(label);
+				if(prevTotal==null){
+					totals.put(label, total);
+					rows.put(label, new TreeMap<Integer,double[]>());
+					labels.add(label);
+				}
+				else if(prevTotal!=total){
+					throw new IOException(path+": "+label+" has "+total+" iterations in total ("+prevTotal+" in other results)");
+				}
+			}
+			while(reader.next()){
+				TreeMap<Integer,double[]> curRows=rows.get(reader.label);
+				if(curRows==null){
+					throw new IOException(path+": Run "+reader.label+" isn't in the header");
+				}
+				if(curRows.put(reader.iteration, reader.values)!=null){
+					throw new IOException(path+": Duplicate iteration "+reader.iteration+" ("+reader.label+")");
+				}
+			}
+		} finally{
+			reader.close();
+		}
+	}
+
+	public String[] getHeaders(){
+		return(headers);
+	}
+
+	private void addShard(String path, ResultReader reader) throws IOException{
+		if(numShards==-1){
+			numShards=reader.numShards;
+			shards=new boolean[numShards];
+		}
+		else if(reader.numShards!=numShards){
+			throw new IOException(path+": Shard "+reader.shard+"/"+reader.numShards+" doesn't match other results ("+numShards+" shards)");
+		}
+		if(numShards>0){
+			if(reader.shard<1 || reader.shard>numShards){throw new IOException(path+": Invalid shard "+reader.shard+"/"+numShards);}
+			if(shards[reader.shard-1]){throw new IOException(path+": Duplicate shard "+reader.shard+"/"+numShards);}
+			shards[reader.shard-1]=true;
+		}
+	}
+
+	/**
+	 * Throws an exception listing missing shards and runs without all iterations 1 to N (e.g. a shard that didn't finish)
+	 */
+	public void checkComplete() throws IOException{
+		String errors="";
+		for(int k=0; k<numShards; k++){
+			if(!shards[k]){errors+="\nShard "+(k+1)+"/"+numShards+" is missing";}
+		}
+		for(int l=0; l<labels.size(); l++){
+			String label=labels.get(l);
+			TreeMap<Integer,double[]> curRows=rows.get(label);
+			int total=totals.get(label);
+			int numOutside=curRows.headMap(1).size()+curRows.tailMap(total, false).size();
+			int numMissing=total-(curRows.size()-numOutside);
+			if(numOutside>0){errors+="\n"+label+": "+numOutside+" iterations outside 1 to "+total;}
+			if(numMissing>0){errors+="\n"+label+": "+numMissing+" missing iterations (of "+total+")";}
+		}
+		if(!errors.isEmpty()){throw new IOException("Incomplete results:"+errors);}
+	}
+
+	/**
+	 * Writes all rows in order (runs in order of first appearance, then by iteration)
+	 */
+	public void write(ResultWriter writer) throws IOException{
+		for(int l=0; l<labels.size(); l++){
+			writer.addRun(labels.get(l), totals.get(labels.get(l)));
+		}
+		writer.writeHeaders(headers);
+		for(int l=0; l<labels.size(); l++){
+			String label=labels.get(l);
+			for(Map.Entry<Integer,double[]> entry : rows.get(label).entrySet()){
+				writer.writeRow(label, entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Writes mean and 95% uncertainty interval of each column for each run as CSV (standard output if path is null).
+	 * Missing values (NaN) are ignored.
+	 */
+	public void writeSummary(String path) throws IOException{
+		BufferedWriter out;
+		if(path==null){out=new BufferedWriter(new OutputStreamWriter(System.out));}
+		else{out=new BufferedWriter(new FileWriter(path));}
+
+		int numCols=headers.length;
+		out.write("Run,Iterations");
+		for(int c=0; c<numCols; c++){
+			out.write(","+ResultWriter.quote(headers[c])+","+ResultWriter.quote(headers[c]+" (95% LB)")+","+ResultWriter.quote(headers[c]+" (95% UB)"));
+		}
+		out.newLine();
+		for(int l=0; l<labels.size(); l++){
+			String label=labels.get(l);
+			TreeMap<Integer,double[]> curRows=rows.get(label);
+			int numRows=curRows.size();
+			double vals[][]=new double[numCols][numRows];
+			int r=0;
+			for(double row[] : curRows.values()){
+				for(int c=0; c<numCols; c++){vals[c][r]=row[c];}
+				r++;
+			}
+			out.write(ResultWriter.quote(label)+","+numRows);
+			for(int c=0; c<numCols; c++){
+				double summary[]=summarize(vals[c]);
+				out.write(","+summary[0]+","+summary[1]+","+summary[2]);
+			}
+			out.newLine();
+		}
+		out.flush();
+		if(path!=null){out.close();}
+	}
+
+	/**
+	 * Returns {mean, 95% LB, 95% UB}
+	 */
+	private static double[] summarize(double vals[]){
+		int num=0;
+		double sorted[]=new double[vals.length];
+		double mean=0;
+		for(int i=0; i<vals.length; i++){
+			if(!Double.isNaN(vals[i])){
+				sorted[num]=vals[i];
+				mean+=vals[i];
+				num++;
+			}
+		}
+		if(num==0){return(new double[]{Double.NaN,Double.NaN,Double.NaN});}
+		mean/=(num*1.0);
+		Arrays.sort(sorted,0,num);
+		int bounds[]=MathUtils.getBoundIndices(num);
+		return(new double[]{mean,sorted[bounds[0]],sorted[bounds[1]]});
+	}
+}
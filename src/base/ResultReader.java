@@ -0,0 +1,184 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Reads results written by ResultWriter (CSV or binary, detected from the file header)
+ */
+public class ResultReader{
+	boolean binary;
+	DataInputStream data;
+	BufferedReader csv;
+	public String headers[];
+	int numCols;
+	public int shard, numShards; //0 if not sharded
+	public ArrayList<String> runLabels=new ArrayList<String>();
+	public ArrayList<Integer> runIterations=new ArrayList<Integer>(); //total iterations of each run
+
+	//Current row
+	public String label;
+	public int iteration;
+	public double values[];
+
+	//Constructor
+	public ResultReader(String path) throws IOException{
+		DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		int magic=0;
+		try{
+			magic=in.readInt();
+		} catch(EOFException e){
+			//empty or short file, treat as CSV
+		}
+		if(magic==ResultWriter.MAGIC){
+			binary=true;
+			data=in;
+			int version=data.readInt();
+			if(version!=ResultWriter.VERSION){
+				data.close();
+				throw new IOException(path+": Unsupported result version "+version);
+			}
+			shard=data.readInt();
+			numShards=data.readInt();
+			int numRuns=data.readInt();
+			for(int r=0; r<numRuns; r++){
+				runLabels.add(data.readUTF());
+				runIterations.add(data.readInt());
+			}
+			numCols=data.readInt();
+			headers=new String[numCols];
+			for(int c=0; c<numCols; c++){headers[c]=data.readUTF();}
+		}
+		else{
+			in.close();
+			csv=new BufferedReader(new FileReader(path));
+			String line=readRecord();
+			while(line!=null && line.startsWith("#")){ //shard and runs
+				String cols[]=split(line);
+				try{
+					if(cols[0].equals("#Shard") && cols.length==3){
+						shard=Integer.parseInt(cols[1]);
+						numShards=Integer.parseInt(cols[2]);
+					}
+					else if(cols[0].equals("#Run") && cols.length==3){
+						runLabels.add(cols[1]);
+						runIterations.add(Integer.parseInt(cols[2]));
+					}
+				} catch(NumberFormatException e){
+					csv.close();
+					throw new IOException(path+": Invalid header line: "+line);
+				}
+				line=readRecord();
+			}
+			if(line==null || !line.startsWith("Run,Iteration")){
+				csv.close();
+				throw new IOException(path+": Not a results file");
+			}
+			String cols[]=split(line);
+			numCols=cols.length-2;
+			headers=new String[numCols];
+			for(int c=0; c<numCols; c++){headers[c]=cols[c+2];}
+		}
+	}
+
+	/**
+	 * Reads next row into label, iteration and values.  Returns false at end of file.
+	 */
+	public boolean next() throws IOException{
+		values=new double[numCols];
+		if(binary){
+			try{
+				label=data.readUTF();
+			} catch(EOFException e){
+				return(false);
+			}
+			iteration=data.readInt();
+			for(int c=0; c<numCols; c++){values[c]=data.readDouble();}
+		}
+		else{
+			String line=readRecord();
+			while(line!=null && line.isEmpty()){line=readRecord();}
+			if(line==null){return(false);}
+			String cols[]=split(line);
+			if(cols.length!=numCols+2){throw new IOException("Wrong number of columns: "+line);}
+			label=cols[0];
+			iteration=Integer.parseInt(cols[1]);
+			for(int c=0; c<numCols; c++){values[c]=Double.parseDouble(cols[c+2]);}
+		}
+		return(true);
+	}
+
+	/**
+	 * Reads next CSV record, joining lines while a quoted field is open
+	 */
+	private String readRecord() throws IOException{
+		String line=csv.readLine();
+		while(line!=null && countQuotes(line)%2==1){
+			String next=csv.readLine();
+			if(next==null){throw new IOException("Unterminated quoted field: "+line);}
+			line+="\n"+next;
+		}
+		return(line);
+	}
+
+	private static int countQuotes(String line){
+		int count=0;
+		for(int i=0; i<line.length(); i++){
+			if(line.charAt(i)=='"'){count++;}
+		}
+		return(count);
+	}
+
+	/**
+	 * Splits CSV record on commas outside quotes and unescapes doubled quotes (see ResultWriter.quote)
+	 */
+	static String[] split(String line){
+		ArrayList<String> cols=new ArrayList<String>();
+		StringBuilder field=new StringBuilder();
+		boolean quoted=false;
+		for(int i=0; i<line.length(); i++){
+			char c=line.charAt(i);
+			if(quoted){
+				if(c=='"'){
+					if(i+1<line.length() && line.charAt(i+1)=='"'){field.append('"'); i++;}
+					else{quoted=false;}
+				}
+				else{field.append(c);}
+			}
+			else if(c=='"'){quoted=true;}
+			else if(c==','){cols.add(field.toString()); field.setLength(0);}
+			else{field.append(c);}
+		}
+		cols.add(field.toString());
+		return(cols.toArray(new String[cols.size()]));
+	}
+
+	public void close() throws IOException{
+		if(binary){data.close();}
+		else{csv.close();}
+	}
+}
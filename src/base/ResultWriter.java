@@ -0,0 +1,142 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+/**
+ * Writes iteration results row by row as CSV or binary.
+ * Each row has a run label (e.g. scenario name), an iteration number and one value per column.
+ * The header records the shard (k of K, 0 if not sharded) and the total number of iterations of each run, so merged results can be checked for completeness.
+ * Binary format (big-endian): int MAGIC, int VERSION, int shard, int numShards, int numRuns, runs (UTF label, int iterations), int numColumns, column names (UTF),
+ * then rows of UTF label, int iteration, double values[numColumns] until end of file.
+ * CSV format: '#Shard,k,K' and '#Run,label,iterations' lines, then 'Run,Iteration,columns...' and one line per row.
+ */
+public class ResultWriter{
+	public static final int MAGIC=0x414D5541; //"AMUA"
+	public static final int VERSION=2;
+
+	boolean binary;
+	BufferedWriter csv;
+	DataOutputStream data;
+	int numCols;
+	int shard, numShards;
+	ArrayList<String> runLabels=new ArrayList<String>();
+	ArrayList<Integer> runIterations=new ArrayList<Integer>();
+
+	/**
+	 * @param path Output file, or null for standard output (CSV only)
+	 * @param binary True for binary format, false for CSV
+	 */
+	public ResultWriter(String path, boolean binary) throws IOException{
+		this.binary=binary;
+		if(binary){
+			if(path==null){data=new DataOutputStream(new BufferedOutputStream(System.out));}
+			else{data=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));}
+		}
+		else{
+			if(path==null){csv=new BufferedWriter(new OutputStreamWriter(System.out));}
+			else{csv=new BufferedWriter(new FileWriter(path));}
+		}
+	}
+
+	/**
+	 * Sets shard k of K (1-based) - call before writeHeaders
+	 */
+	public void setShard(int shard, int numShards){
+		this.shard=shard;
+		this.numShards=numShards;
+	}
+
+	/**
+	 * Declares a run and its total number of iterations (over all shards) - call before writeHeaders
+	 */
+	public void addRun(String label, int numIterations){
+		runLabels.add(label);
+		runIterations.add(numIterations);
+	}
+
+	public void writeHeaders(String headers[]) throws IOException{
+		numCols=headers.length;
+		int numRuns=runLabels.size();
+		if(binary){
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(shard);
+			data.writeInt(numShards);
+			data.writeInt(numRuns);
+			for(int r=0; r<numRuns; r++){
+				data.writeUTF(runLabels.get(r));
+				data.writeInt(runIterations.get(r));
+			}
+			data.writeInt(numCols);
+			for(int c=0; c<numCols; c++){data.writeUTF(headers[c]);}
+		}
+		else{
+			if(numShards>0){
+				csv.write("#Shard,"+shard+","+numShards);
+				csv.newLine();
+			}
+			for(int r=0; r<numRuns; r++){
+				csv.write("#Run,"+quote(runLabels.get(r))+","+runIterations.get(r));
+				csv.newLine();
+			}
+			csv.write("Run,Iteration");
+			for(int c=0; c<numCols; c++){csv.write(","+quote(headers[c]));}
+			csv.newLine();
+		}
+	}
+
+	public int getNumColumns(){
+		return(numCols);
+	}
+
+	public void writeRow(String label, int iteration, double values[]) throws IOException{
+		if(binary){
+			data.writeUTF(label);
+			data.writeInt(iteration);
+			for(int c=0; c<numCols; c++){data.writeDouble(values[c]);}
+		}
+		else{
+			csv.write(quote(label)+","+iteration);
+			for(int c=0; c<numCols; c++){csv.write(","+values[c]);}
+			csv.newLine();
+		}
+	}
+
+	/**
+	 * Returns CSV field, quoted (with quotes doubled) if it contains a comma, quote or line break
+	 */
+	public static String quote(String field){
+		if(field.indexOf(',')==-1 && field.indexOf('"')==-1 && field.indexOf('\n')==-1 && field.indexOf('\r')==-1){return(field);}
+		return("\""+field.replace("\"", "\"\"")+"\"");
+	}
+
+	public void close() throws IOException{
+		if(binary){data.close();}
+		else{csv.close();}
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package base;
+
+import java.util.ArrayList;
+
+import org.apache.commons.math3.special.Erf;
+
+import math.MathUtils;
+
+/**
+ * Gaussian process emulator of a calibration score surface (lower is better).
+ * Inputs are scaled to the unit cube.  Squared exponential kernel with a length-scale for each input and a nugget for simulation noise,
+ * chosen by maximizing the marginal likelihood (coordinate search over a grid).  The constant mean and signal variance are profiled out.
+ * Points can be added with assumed values (e.g. the predicted mean, 'kriging believer') to choose batches of points to run.
+ */
+public class ScoreEmulator{
+	int numDims;
+	ArrayList<double[]> x; //[point][dim]
+	ArrayList<Double> y;
+	double mean, var; //constant mean, signal variance
+	double lengthScale[];
+	double nugget;
+	ArrayList<double[]> L; //lower triangular rows (row i has i+1 entries) of the correlation matrix
+	double alpha[]; //K^-1 (y-mean)
+
+	static final double LENGTH_GRID[]=new double[]{0.05, 0.1, 0.2, 0.4, 0.8, 1.6, 3.2};
+	static final double NUGGET_GRID[]=new double[]{1e-6, 1e-4, 1e-3, 1e-2, 1e-1};
+
+	//Constructor
+	/**
+	 * @param x Points in the unit cube [point][dim]
+	 * @param y Observed values
+	 */
+	public ScoreEmulator(double x[][], double y[]){
+		numDims=x[0].length;
+		this.x=new ArrayList<double[]>();
+		this.y=new ArrayList<Double>();
+		for(int i=0; i<x.length; i++){
+			this.x.add(x[i]);
+			this.y.add(y[i]);
+		}
+	}
+
+	/**
+	 * Chooses hyperparameters and factorizes the correlation matrix
+	 */
+	public void fit() throws Exception{
+		int n=x.size();
+		mean=0;
+		for(int i=0; i<n; i++){mean+=y.get(i);}
+		mean/=n;
+
+		lengthScale=new double[numDims];
+		for(int d=0; d<numDims; d++){lengthScale[d]=0.4;}
+		nugget=1e-3;
+		double bestLik=logLikelihood(lengthScale, nugget);
+		for(int pass=0; pass<2; pass++){
+			for(int d=0; d<numDims; d++){
+				double orig=lengthScale[d];
+				double best=orig;
+				for(int g=0; g<LENGTH_GRID.length; g++){
+					lengthScale[d]=LENGTH_GRID[g];
+					double lik=logLikelihood(lengthScale, nugget);
+					if(lik>bestLik){
+						bestLik=lik;
+						best=LENGTH_GRID[g];
+					}
+				}
+				lengthScale[d]=best;
+			}
+			double bestNugget=nugget;
+			for(int g=0; g<NUGGET_GRID.length; g++){
+				double lik=logLikelihood(lengthScale, NUGGET_GRID[g]);
+				if(lik>bestLik){
+					bestLik=lik;
+					bestNugget=NUGGET_GRID[g];
+				}
+			}
+			nugget=bestNugget;
+		}
+		if(bestLik==Double.NEGATIVE_INFINITY){
+			throw new Exception("Emulator could not be fit");
+		}
+
+		double chol[][]=MathUtils.cholesky(getCorrelation(lengthScale, nugget));
+		L=new ArrayList<double[]>();
+		for(int i=0; i<n; i++){
+			double row[]=new double[i+1];
+			for(int j=0; j<=i; j++){row[j]=chol[i][j];}
+			L.add(row);
+		}
+		updateAlpha();
+		double sum=0;
+		for(int i=0; i<n; i++){sum+=(y.get(i)-mean)*alpha[i];}
+		var=sum/n;
+	}
+
+	/**
+	 * Profile log-likelihood (mean and variance at their estimates), -Infinity if not positive definite
+	 */
+	private double logLikelihood(double scale[], double g){
+		int n=x.size();
+		double chol[][]=MathUtils.cholesky(getCorrelation(scale, g));
+		if(chol==null){return(Double.NEGATIVE_INFINITY);}
+		double resid[]=new double[n];
+		for(int i=0; i<n; i++){resid[i]=y.get(i)-mean;}
+		double a[]=MathUtils.solveCholesky(chol, resid);
+		double sum=0, logDet=0;
+		for(int i=0; i<n; i++){
+			sum+=resid[i]*a[i];
+			logDet+=Math.log(chol[i][i]);
+		}
+		if(sum<=0){return(Double.NEGATIVE_INFINITY);}
+		return(-0.5*n*Math.log(sum/n)-logDet);
+	}
+
+	private double[][] getCorrelation(double scale[], double g){
+		int n=x.size();
+		double K[][]=new double[n][n];
+		for(int i=0; i<n; i++){
+			K[i][i]=1+g;
+			for(int j=0; j<i; j++){
+				double k=kernel(x.get(i), x.get(j), scale);
+				K[i][j]=k;
+				K[j][i]=k;
+			}
+		}
+		return(K);
+	}
+
+	private double kernel(double a[], double b[], double scale[]){
+		double sum=0;
+		for(int d=0; d<numDims; d++){
+			double z=(a[d]-b[d])/scale[d];
+			sum+=z*z;
+		}
+		return(Math.exp(-0.5*sum));
+	}
+
+	/**
+	 * Returns {mean, variance} of the underlying (noise-free) surface at u
+	 */
+	public double[] predict(double u[]){
+		int n=x.size();
+		double k[]=new double[n];
+		for(int i=0; i<n; i++){k[i]=kernel(u, x.get(i), lengthScale);}
+		double mu=mean;
+		for(int i=0; i<n; i++){mu+=k[i]*alpha[i];}
+		double v[]=forward(k);
+		double sumSq=0;
+		for(int i=0; i<n; i++){sumSq+=v[i]*v[i];}
+		return(new double[]{mu, Math.max(0, var*(1-sumSq))});
+	}
+
+	/**
+	 * Expected improvement over best (minimization)
+	 */
+	public double expectedImprovement(double u[], double best){
+		double pred[]=predict(u);
+		double sd=Math.sqrt(pred[1]);
+		double diff=best-pred[0];
+		if(sd<1e-12){return(Math.max(0, diff));}
+		double z=diff/sd;
+		double cdf=0.5*Erf.erfc(-z/Math.sqrt(2));
+		double pdf=Math.exp(-0.5*z*z)/Math.sqrt(2*Math.PI);
+		return(diff*cdf+sd*pdf);
+	}
+
+	/**
+	 * Adds a point with an assumed value, keeping hyperparameters (extends the factorization)
+	 */
+	public void addPoint(double u[], double val){
+		int n=x.size();
+		double k[]=new double[n];
+		for(int i=0; i<n; i++){k[i]=kernel(u, x.get(i), lengthScale);}
+		double l[]=forward(k);
+		double sumSq=0;
+		for(int i=0; i<n; i++){sumSq+=l[i]*l[i];}
+		double row[]=new double[n+1];
+		for(int i=0; i<n; i++){row[i]=l[i];}
+		row[n]=Math.sqrt(Math.max(1+nugget-sumSq, nugget));
+		L.add(row);
+		x.add(u);
+		y.add(val);
+		updateAlpha();
+	}
+
+	private void updateAlpha(){
+		int n=x.size();
+		double resid[]=new double[n];
+		for(int i=0; i<n; i++){resid[i]=y.get(i)-mean;}
+		double z[]=forward(resid);
+		alpha=new double[n];
+		for(int i=n-1; i>=0; i--){
+			double sum=z[i];
+			for(int j=i+1; j<n; j++){sum-=L.get(j)[i]*alpha[j];}
+			alpha[i]=sum/L.get(i)[i];
+		}
+	}
+
+	/**
+	 * Solves Lz=b
+	 */
+	private double[] forward(double b[]){
+		int n=b.length;
+		double z[]=new double[n];
+		for(int i=0; i<n; i++){
+			double row[]=L.get(i);
+			double sum=b[i];
+			for(int j=0; j<i; j++){sum-=row[j]*z[j];}
+			z[i]=sum/row[i];
+		}
+		return(z);
+	}
+}
@@ -772,7 +772,7 @@ public class frmBatch {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Value");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Density");
 			for(int s=0; s<numStrat; s++){
-				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100);
+				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100, myModel.getScheduler());
 				chartDataResults.addSeries(myModel.strategyNames[s],kde);
 			}
 		}
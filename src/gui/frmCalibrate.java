@@ -59,10 +59,9 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import base.CalibrationEngine;
 import base.RunReport;
-import main.Constraint;
 import main.DimInfo;
-import main.MersenneTwisterFast;
 import main.Parameter;
 import main.ParameterSet;
 import main.ScaledIcon;
@@ -70,6 +69,7 @@ import main.StyledTextPane;
 import markov.MarkovNode;
 import math.Interpreter;
 import math.KernelSmooth;
+import math.MathUtils;
 import math.Numeric;
 
 /**
@@ -80,7 +80,6 @@ public class frmCalibrate {
 	public JFrame frmCalibrate;
 	AmuaModel myModel;
 	int numParams;
-	int numConst;
 	Numeric origValues[];
 	StyledTextPane textPaneExpression;
 	ArrayList<MarkovNode> chainRoots;
@@ -125,7 +124,6 @@ public class frmCalibrate {
 			frmCalibrate.getContentPane().setLayout(gridBagLayout);
 			
 			numParams=myModel.parameters.size();
-			numConst=myModel.constraints.size();
 			paramNames=new String[numParams];
 			origValues=new Numeric[numParams];
 			for(int i=0; i<numParams; i++){
@@ -489,9 +487,44 @@ public class frmCalibrate {
 						modelCalibSettings.setValueAt("Score Threshold", 0, 0);
 						tableCalibSettings.setEnabled(true);
 					}
+					else if(method==2){ //abc-smc
+						modelCalibSettings.setRowCount(3);
+						modelCalibSettings.setValueAt("Final Score Threshold", 0, 0);
+						modelCalibSettings.setValueAt("Max Generations", 1, 0);
+						modelCalibSettings.setValueAt("10", 1, 1);
+						modelCalibSettings.setValueAt("Tolerance Quantile", 2, 0);
+						modelCalibSettings.setValueAt("0.5", 2, 1);
+						tableCalibSettings.setEnabled(true);
+					}
+					else if(method==3){ //emulator
+						modelCalibSettings.setRowCount(3);
+						modelCalibSettings.setValueAt("Initial Design Size", 0, 0);
+						modelCalibSettings.setValueAt("100", 0, 1);
+						modelCalibSettings.setValueAt("Batches", 1, 0);
+						modelCalibSettings.setValueAt("20", 1, 1);
+						modelCalibSettings.setValueAt("Batch Size", 2, 0);
+						modelCalibSettings.setValueAt("10", 2, 1);
+						tableCalibSettings.setEnabled(true);
+					}
+					else if(method==4){ //nelder-mead
+						modelCalibSettings.setRowCount(2);
+						modelCalibSettings.setValueAt("Max Runs", 0, 0);
+						modelCalibSettings.setValueAt("1000", 0, 1);
+						modelCalibSettings.setValueAt("Score Tolerance", 1, 0);
+						modelCalibSettings.setValueAt("1E-6", 1, 1);
+						tableCalibSettings.setEnabled(true);
+					}
+					else if(method==5){ //cma-es
+						modelCalibSettings.setRowCount(2);
+						modelCalibSettings.setValueAt("Max Runs", 0, 0);
+						modelCalibSettings.setValueAt("2000", 0, 1);
+						modelCalibSettings.setValueAt("Population Size (0=auto)", 1, 0);
+						modelCalibSettings.setValueAt("0", 1, 1);
+						tableCalibSettings.setEnabled(true);
+					}
 				}
 			});
-			comboMethod.setModel(new DefaultComboBoxModel(new String[] {"Random", "Approximate Bayesian Computation"}));
+			comboMethod.setModel(new DefaultComboBoxModel(new String[] {"Random", "Approximate Bayesian Computation", "ABC Sequential Monte Carlo", "Gaussian Process Emulator", "Nelder-Mead", "CMA-ES"}));
 			comboMethod.setBounds(56, 38, 229, 26);
 			panel_2.add(comboMethod);
 			
@@ -591,102 +624,95 @@ public class frmCalibrate {
 								}
 								if(go){
 									
-									int method=comboMethod.getSelectedIndex();
+									final int method=comboMethod.getSelectedIndex();
 									numSets=Integer.parseInt(textNumSets.getText());
 									progress.setMaximum(numSets+1);
-									params=new ParameterSet[numSets];
+									progress.setMillisToPopup(0);
+									progress.setMillisToDecideToPopup(0);
+									progress.setProgress(0);
+									progress.setNote("Sampling...");
 									
 									modelParams.setRowCount(0);
-									
-									myModel.sampleParam=true;
-									myModel.generatorParam=new MersenneTwisterFast();
-									if(myModel.curGenerator==null){myModel.curGenerator=new MersenneTwisterFast[1];}
-									myModel.curGenerator[0]=myModel.generatorParam;
-									
-									
-									//Get orig values for all parameters
-									Numeric origValues[]=new Numeric[numParams];
-									for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters
-										origValues[v]=myModel.parameters.get(v).value.copy();
+									for(int v=0; v<numParams; v++){
 										modelParams.addRow(new Object[]{null});
 										modelParams.setValueAt(myModel.parameters.get(v).name, v, 0);
 										modelParams.setValueAt(myModel.parameters.get(v).expression, v, 1);
 									}
-									//Initialize constraint expressions
-									for(int c=0; c<numConst; c++){
-										myModel.constraints.get(c).parseConstraints();
-									}
 									
-									long startTime=System.currentTimeMillis();
-									boolean wasCancelled=false;
+									int numInitial=0, numBatches=0, batchSize=0;
+									if(method==3){ //emulator - progress by number of runs
+										numInitial=Integer.parseInt((String) tableCalibSettings.getValueAt(0,1));
+										numBatches=Integer.parseInt((String) tableCalibSettings.getValueAt(1,1));
+										batchSize=Integer.parseInt((String) tableCalibSettings.getValueAt(2,1));
+										progress.setMaximum(numInitial+numBatches*batchSize);
+									}
+									int maxRuns=0;
+									if(method==4 || method==5){ //optimizers
+										maxRuns=Integer.parseInt((String) tableCalibSettings.getValueAt(0,1));
+										progress.setMaximum(maxRuns);
+									}
 									
-									if(method==0){ //random
-										for(int i=0; i<numSets; i++){
-											progress.setProgress(i+1);
-											sampleAll();
-											RunReport curReport=new RunReport(myModel);
-											myModel.markov.runModel(false,curReport,false);
-											double curScore=Interpreter.evaluate(strScore, myModel, false).getDouble();
-											params[i]=new ParameterSet(myModel);
-											params[i].id=(i+1)+"";
-											params[i].score=curScore;
-											if(progress.isCanceled()){ //listen for cancel
-												numSets=i; //end for loop
-												wasCancelled=true;
+									final long startTime=System.currentTimeMillis();
+									final CalibrationEngine engine=new CalibrationEngine(myModel, strScore, curChain.name);
+									CalibrationEngine.Listener listener=new CalibrationEngine.Listener(){
+										public void update(int generation, double tolerance, int numAccepted, int numRuns){
+											if(progress.isCanceled()){engine.cancel();} //listen for cancel
+											if(method>=3){ //progress by number of runs
+												progress.setProgress(numRuns);
+												String label="Iteration ";
+												if(method==3){label="Batch ";}
+												else if(method==5){label="Generation ";}
+												if(generation==0){progress.setNote("Initial design: "+numRuns+" runs");}
+												else{progress.setNote(label+generation+" (best score "+MathUtils.round(tolerance, 4)+"): "+numRuns+" runs");}
+												return;
+											}
+											int i=Math.min(numAccepted, numSets);
+											progress.setProgress(i);
+											if(generation>0){
+												progress.setNote("Generation "+generation+" (tolerance "+MathUtils.round(tolerance, 4)+"): "+i+"/"+numSets);
+											}
+											else if(i>0){
+												progress.setNote("Time left: "+estimateTime(startTime,i-1,numSets));
 											}
-											//Update progress bar
-											String remTime=estimateTime(startTime,i,numSets);
-											progress.setNote("Time left: "+remTime);
 										}
+									};
+									
+									if(method==0){ //random
+										params=engine.runRandom(numSets, listener);
 									}
 									else if(method==1){ //ABC
 										double thresh=Double.parseDouble((String) tableCalibSettings.getValueAt(0,1));
-										progress.setMillisToPopup(0);
-										progress.setMillisToDecideToPopup(0);
-										progress.setProgress(0);
-										progress.setProgress(1);
-										progress.setNote("Sampling...");
-										
-										for(int i=0; i<numSets; i++){
-											progress.setProgress(i+1);
-											double curScore=thresh+1;
-											while(curScore>thresh){
-												sampleAll();
-												RunReport curReport=new RunReport(myModel);
-												myModel.markov.runModel(false,curReport,false);
-												curScore=Interpreter.evaluate(strScore, myModel, false).getDouble();
-												if(progress.isCanceled()){ //listen for cancel
-													curScore=thresh-1; //end while loop
-													numSets=i; //end for loop
-													wasCancelled=true;
-												}
-											}
-											if(wasCancelled==false){
-												params[i]=new ParameterSet(myModel);
-												params[i].id=(i+1)+"";
-												params[i].score=curScore;
-											}
-											
-											//Update progress bar
-											String remTime=estimateTime(startTime,i,numSets);
-											progress.setNote("Time left: "+remTime);
-											
+										params=engine.runRejection(numSets, thresh, listener);
+									}
+									else if(method==2){ //ABC-SMC
+										double thresh=Double.parseDouble((String) tableCalibSettings.getValueAt(0,1));
+										int maxGen=Integer.parseInt((String) tableCalibSettings.getValueAt(1,1));
+										double quantile=Double.parseDouble((String) tableCalibSettings.getValueAt(2,1));
+										engine.setSMCSettings(maxGen, quantile, 0.01);
+										params=engine.runSMC(numSets, thresh, listener);
+										if(params!=null && engine.reachedTarget==false){
+											double finalTol=engine.tolerances.get(engine.tolerances.size()-1);
+											JOptionPane.showMessageDialog(frmCalibrate, "Score threshold not reached - final tolerance: "+MathUtils.round(finalTol, 4));
 										}
 									}
+									else if(method==3){ //emulator
+										params=engine.runEmulator(numSets, numInitial, numBatches, batchSize, listener);
+									}
+									else if(method==4){ //Nelder-Mead
+										double tol=Double.parseDouble((String) tableCalibSettings.getValueAt(1,1));
+										params=engine.runNelderMead(numSets, maxRuns, tol, listener);
+									}
+									else if(method==5){ //CMA-ES
+										int popSize=Integer.parseInt((String) tableCalibSettings.getValueAt(1,1));
+										params=engine.runCMAES(numSets, maxRuns, popSize, listener);
+									}
+									if(params==null){params=new ParameterSet[0];} //cancelled
+									numSets=params.length;
 									
 									if(myModel.type==1){
 										myModel.markov.showTrace=origShowTrace;
 									}
 									
-									//Reset all parameters
-									myModel.sampleParam=false;
-									for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
-										Parameter curParam=myModel.parameters.get(v);
-										curParam.locked=false;
-										curParam.value=origValues[v];
-									}
-									myModel.validateModelObjects();
-									
 									//Get parameter values
 									paramVals=new double[numParams][numSets];
 									double scores[]=new double[numSets];
@@ -717,13 +743,34 @@ public class frmCalibrate {
 									while(chartDataScores.getSeriesCount()>0){ //clear chart
 										chartDataScores.removeSeries(chartDataScores.getSeriesKey(0));
 									}
-									double scoreData[][]=new double[2][numSets];
-									Arrays.sort(scores);
-									for(int i=0; i<numSets; i++){
-										scoreData[0][i]=i+1;
-										scoreData[1][i]=scores[i];
+									if(method>=3 && engine.bestScores!=null){ //convergence - best score by iteration
+										ArrayList<Double> best=engine.bestScores;
+										int numPoints=0;
+										for(int i=0; i<best.size(); i++){
+											if(!Double.isInfinite(best.get(i))){numPoints++;}
+										}
+										double scoreData[][]=new double[2][numPoints];
+										int index=0;
+										for(int i=0; i<best.size(); i++){
+											if(!Double.isInfinite(best.get(i))){
+												scoreData[0][index]=i;
+												scoreData[1][index]=best.get(i);
+												index++;
+											}
+										}
+										chartDataScores.addSeries("Best Score", scoreData);
+										chartScores.getXYPlot().getDomainAxis().setLabel("Iteration");
+									}
+									else{
+										double scoreData[][]=new double[2][numSets];
+										Arrays.sort(scores);
+										for(int i=0; i<numSets; i++){
+											scoreData[0][i]=i+1;
+											scoreData[1][i]=scores[i];
+										}
+										chartDataScores.addSeries("Scores", scoreData);
+										chartScores.getXYPlot().getDomainAxis().setLabel("Order");
 									}
-									chartDataScores.addSeries("Scores", scoreData);
 									chartScores.removeLegend();
 									
 									XYPlot plotScores = chartScores.getXYPlot();
@@ -770,40 +817,4 @@ public class frmCalibrate {
     	return(minutes+":"+seconds);
     }
 	
-	private void sampleAll(){
-		try{
-		//Sample parameters
-		boolean validParams=false;
-		while(validParams==false){
-			for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
-				Parameter curParam=myModel.parameters.get(v);
-				curParam.locked=false;
-				curParam.value=origValues[v];
-			}
-			
-			for(int v=0; v<numParams; v++){ //sample all parameters
-				Parameter curParam=myModel.parameters.get(v);
-				if(curParam.locked==false) {
-					curParam.value=Interpreter.evaluateTokens(curParam.parsedTokens, 0, true);
-					curParam.locked=true;
-				}
-			}
-			//check constraints
-			validParams=true;
-			int c=0;
-			while(validParams==true && c<numConst){
-				Constraint curConst=myModel.constraints.get(c);
-				validParams=curConst.checkConstraints(myModel);
-				c++;
-			}
-			if(validParams){ //check model for valid params
-				if(myModel.parseModel().size()!=0){validParams=false;}
-			}
-		}
-		}catch(Exception e){
-			e.printStackTrace();
-			JOptionPane.showMessageDialog(frmCalibrate, e.getMessage());
-			myModel.errorLog.recordError(e);
-		}
-	}
 }
@@ -921,6 +921,7 @@ public class frmDefineTable {
 		
 		table.numRows=viewTable.getRowCount();
 		table.numCols=viewTable.getColumnCount();
+		//new arrays - undo snapshots share the previous ones
 		table.headers=new String[table.numCols];
 		table.data=new double[table.numRows][table.numCols];
 		for(int c=0; c<table.numCols; c++){
@@ -936,6 +937,7 @@ public class frmDefineTable {
 		if(table.interpolate!=null && table.interpolate.matches("Cubic Splines")){
 			table.constructSplines();
 		}
+		table.compileLookup();
 	}
 
 	private void getTable(){
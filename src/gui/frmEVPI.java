@@ -34,8 +34,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
@@ -74,6 +72,7 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import base.EVPPIRegression;
 import filters.CSVFilter;
 import main.CEAHelper;
 import main.Constraint;
@@ -86,6 +85,7 @@ import math.Interpreter;
 import math.KernelSmooth;
 import math.MathUtils;
 import math.Numeric;
+import math.RunningStats;
 import javax.swing.JTextPane;
 import java.awt.Font;
 import javax.swing.JToolBar;
@@ -122,8 +122,8 @@ public class frmEVPI {
 	/**
 	 * [Group][Outcome][Strategy][x,y][Iteration]
 	 */
-	double dataResultsIter[][][][][], dataResultsVal[][][][][], dataResultsDens[][][], dataResultsCumDens[][][][][];
-	double dataParamsIter[][][], dataParamsVal[][][], dataParamsDens[][][], dataParamsCumDens[][][];
+	double dataResultsIter[][][][][], dataResultsDens[][][];
+	double dataParamsIter[][][], dataParamsDens[][][];
 	String CEAnotes[][][];
 	
 	JTextPane textEVPI;
@@ -133,8 +133,6 @@ public class frmEVPI {
 	 */
 	double results[][];
 	
-	ArrayList<SortedResult> sortedResults;
-	
 	double evppiBins[][][];
 	boolean exportReady=false;
 	
@@ -689,15 +687,10 @@ public class frmEVPI {
 									else{CEAnotes=null;}
 									
 									dataResultsIter=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
-									dataResultsVal=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
-									dataResultsCumDens=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
 
 									dataParamsIter=new double[numParams][2][numIterations];
-									dataParamsVal=new double[numParams][2][numIterations];
-									dataParamsCumDens=new double[numParams][2][numIterations];
 									
 									results=new double[numStrat][numIterations];
-									sortedResults=new ArrayList<SortedResult>();
 									
 									//Get orig values for all parameters
 									Numeric origValues[]=new Numeric[numParams];
@@ -764,13 +757,12 @@ public class frmEVPI {
 										}
 
 										for(int v=0; v<numParams; v++){ //Record value
-											dataParamsIter[v][0][n]=n; dataParamsVal[v][0][n]=n;
+											dataParamsIter[v][0][n]=n;
 											try{
 												dataParamsIter[v][1][n]=myModel.parameters.get(v).value.getDouble();
 											} catch(Exception e){
 												dataParamsIter[v][1][n]=Double.NaN;
 											}
-											dataParamsVal[v][1][n]=dataParamsIter[v][1][n];
 										} 
 
 										//Run model
@@ -782,14 +774,14 @@ public class frmEVPI {
 										for(int d=0; d<numDim; d++){
 											for(int s=0; s<numStrat; s++){
 												//overall
-												dataResultsIter[0][d][s][0][n]=n; dataResultsVal[0][d][s][0][n]=n;
+												dataResultsIter[0][d][s][0][n]=n;
 												double curOutcome=myModel.getStrategyEV(s, d);
-												dataResultsIter[0][d][s][1][n]=curOutcome; dataResultsVal[0][d][s][1][n]=curOutcome;
+												dataResultsIter[0][d][s][1][n]=curOutcome;
 												//subgroups
 												for(int g=0; g<numSubgroups; g++){
-													dataResultsIter[g+1][d][s][0][n]=n; dataResultsVal[g+1][d][s][0][n]=n;
+													dataResultsIter[g+1][d][s][0][n]=n;
 													curOutcome=myModel.getSubgroupEV(g, s, d);
-													dataResultsIter[g+1][d][s][1][n]=curOutcome; dataResultsVal[g+1][d][s][1][n]=curOutcome;
+													dataResultsIter[g+1][d][s][1][n]=curOutcome;
 												}
 											}
 										}
@@ -810,9 +802,9 @@ public class frmEVPI {
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
 														if(origStrat!=-1){
-															dataResultsIter[g][numDim][origStrat][0][n]=n; dataResultsVal[g][numDim][origStrat][0][n]=n;
+															dataResultsIter[g][numDim][origStrat][0][n]=n;
 															double curOutcome=(double) table[s][4];
-															dataResultsIter[g][numDim][origStrat][1][n]=curOutcome; dataResultsVal[g][numDim][origStrat][1][n]=curOutcome;
+															dataResultsIter[g][numDim][origStrat][1][n]=curOutcome;
 															CEAnotes[g][origStrat][n]=(String) table[s][5];
 														}
 													}
@@ -833,9 +825,9 @@ public class frmEVPI {
 													}
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
-														dataResultsIter[g][numDim][origStrat][0][n]=n;	dataResultsVal[g][numDim][origStrat][0][n]=n;
+														dataResultsIter[g][numDim][origStrat][0][n]=n;
 														double curOutcome=(double) table[s][4];
-														dataResultsIter[g][numDim][origStrat][1][n]=curOutcome; dataResultsVal[g][numDim][origStrat][1][n]=curOutcome;
+														dataResultsIter[g][numDim][origStrat][1][n]=curOutcome;
 													}
 												}
 											}
@@ -843,14 +835,9 @@ public class frmEVPI {
 										
 										
 										//Get EVPI results
-										SortedResult curResult=new SortedResult(n,numStrat,numParams);
-										for(int p=0; p<numParams; p++){ //Record parameter value
-											curResult.paramVals[p]=dataParamsIter[p][1][n];
-										} 
 										if(analysisType==0) { //EV
 											for(int s=0; s<numStrat; s++) {
 												results[s][n]=myModel.getStrategyEV(s, myModel.dimInfo.objectiveDim);
-												curResult.outcomes[s]=results[s][n];
 											}
 										}
 										else { //CEA or BCA
@@ -859,11 +846,8 @@ public class frmEVPI {
 												double effect=myModel.getStrategyEV(s, myModel.dimInfo.effectDim);
 												double NMB=myModel.dimInfo.WTP*effect-cost;
 												results[s][n]=NMB;
-												curResult.outcomes[s]=results[s][n];
 											}
 										}
-										
-										sortedResults.add(curResult);
 																		
 										if(progress.isCanceled()){  //End loop
 											n=numIterations;
@@ -888,34 +872,20 @@ public class frmEVPI {
 										double meanResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
 										double lbResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
 										double ubResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
-										int bounds[]=MathUtils.getBoundIndices(numIterations);
-										int indexLB=bounds[0], indexUB=bounds[1];
-										
-										//Sort ordered arrays
+										//Summarize results (the CDF and quantile charts sort values when shown)
 										for(int d=0; d<numOutcomes; d++){
 											for(int s=0; s<numStrat; s++){
 												for(int g=0; g<numSubgroups+1; g++){
-													Arrays.sort(dataResultsVal[g][d][s][1]);
-													for(int n=0; n<numIterations; n++){
-														dataResultsVal[g][d][s][0][n]=n/(numIterations*1.0);
-														dataResultsCumDens[g][d][s][0][n]=dataResultsVal[g][d][s][1][n];
-														dataResultsCumDens[g][d][s][1][n]=dataResultsVal[g][d][s][0][n];
-														meanResults[g][d][s]+=dataResultsVal[g][d][s][1][n];
-													}
-													meanResults[g][d][s]/=(numIterations*1.0);
-													lbResults[g][d][s]=dataResultsVal[g][d][s][1][indexLB];
-													ubResults[g][d][s]=dataResultsVal[g][d][s][1][indexUB];
+													RunningStats stats=new RunningStats();
+													double values[]=dataResultsIter[g][d][s][1];
+													for(int n=0; n<numIterations; n++){stats.add(values[n]);}
+													meanResults[g][d][s]=stats.getMean();
+													double bounds[]=stats.getBounds();
+													lbResults[g][d][s]=bounds[0];
+													ubResults[g][d][s]=bounds[1];
 												}
 											}
 										}
-										for(int v=0; v<numParams; v++){
-											Arrays.sort(dataParamsVal[v][1]);
-											for(int n=0; n<numIterations; n++){
-												dataParamsVal[v][0][n]=n/(numIterations*1.0);
-												dataParamsCumDens[v][0][n]=dataParamsVal[v][1][n];
-												dataParamsCumDens[v][1][n]=dataParamsVal[v][0][n];
-											}
-										}
 
 										//Calculate EVPI
 										int sign=1; //objective is to maximize outcome
@@ -924,6 +894,8 @@ public class frmEVPI {
 										}
 										
 										double meanOutcomes[]=new double[numStrat];
+										RunningStats resultStats[]=new RunningStats[numStrat]; //bounds for the report
+										for(int s=0; s<numStrat; s++){resultStats[s]=new RunningStats();}
 										int numBest[]=new int[numStrat];
 										double bestOutcome=0; //mean of max
 										for(int n=0; n<numIterations; n++) {
@@ -931,6 +903,7 @@ public class frmEVPI {
 											int bestS=-1;
 											for(int s=0; s<numStrat; s++) {
 												double curRes=sign*results[s][n];
+												resultStats[s].add(results[s][n]);
 												meanOutcomes[s]+=curRes;
 												if(curRes>curBest) {
 													curBest=curRes;
@@ -954,44 +927,19 @@ public class frmEVPI {
 										//EVPI: E[max] - max E[]
 										double evpi=bestOutcome-bestMean;
 																				
-										//Calculate EVPPI (for each parameter)
-										double bestPPI[]=new double[numParams];
-										double evppi[]=new double[numParams];
+										//Calculate EVPPI (for each parameter) by regression on parameter values
+										double paramIter[][]=new double[numParams][];
+										for(int p=0; p<numParams; p++) {
+											paramIter[p]=dataParamsIter[p][1];
+										}
+										EVPPIRegression regression=new EVPPIRegression(paramIter, results, sign);
+										double evppi[]=regression.getEVPPI(myModel.getScheduler());
 										
+										//Calculate EVPPI by binning sorted results (for comparison), and for varying bin sizes
+										double evppiBinned[]=new double[numParams];
 										int numBins=Integer.parseInt(textNumBins.getText());
 										int reportNumBins=numBins;
 										
-										int numSamp=numIterations/numBins;
-										for(int p=0; p<numParams; p++) {
-											Collections.sort(sortedResults, new ResultComparator(-1)); //order by iteration (reset previous ordering)
-											Collections.sort(sortedResults, new ResultComparator(p)); //re-sort ascending by parameter
-											double curMax[]=new double[numBins];
-											double avgMax=0;
-											for(int k=0; k<numBins; k++) {
-												int index0=k*numSamp;
-												int index1=index0+numSamp;
-												//calculate strategy mean within bin
-												double binMeans[]=new double[numStrat];
-												for(int i=index0; i<index1; i++) {
-													for(int s=0; s<numStrat; s++) {
-														binMeans[s]+=sortedResults.get(i).outcomes[s];
-													}
-												}
-												//get best strategy among bin means
-												double binMax=Double.NEGATIVE_INFINITY;
-												for(int s=0; s<numStrat; s++) {
-													binMeans[s]/=(numSamp*1.0);
-													binMax=Math.max(binMax, sign*binMeans[s]);
-												}
-												curMax[k]=binMax;
-												avgMax+=binMax;
-											}
-											avgMax/=(numBins*1.0);
-											bestPPI[p]=avgMax;
-											evppi[p]=avgMax-bestMean;
-										}
-										
-										//Calculate EVPPI for varying bin sizes
 										ArrayList<Integer> binSizes=new ArrayList<Integer>();
 										for(int b=1; b<numIterations/2; b++) {
 											if(numIterations%b==0) { //divides evenly
@@ -1001,37 +949,19 @@ public class frmEVPI {
 										
 										evppiBins=new double[numParams][2][binSizes.size()];
 										
+										double sorted[][]=new double[numStrat][numIterations];
 										for(int p=0; p<numParams; p++) {
-											Collections.sort(sortedResults, new ResultComparator(-1)); //order by iteration (reset previous ordering)
-											Collections.sort(sortedResults, new ResultComparator(p)); //re-sort ascending by parameter
-										
+											int order[]=sortIndices(dataParamsIter[p][1]); //ascending by parameter
+											for(int s=0; s<numStrat; s++) {
+												for(int i=0; i<numIterations; i++) {
+													sorted[s][i]=results[s][order[i]];
+												}
+											}
+											evppiBinned[p]=getBinnedMax(sorted,reportNumBins,numStrat,sign)-bestMean;
 											for(int b=0; b<binSizes.size(); b++) { //number of bins
 												numBins=binSizes.get(b);
 												evppiBins[p][0][b]=numBins;
-												numSamp=numIterations/numBins;
-												double curMax[]=new double[numBins];
-												double avgMax=0;
-												for(int k=0; k<numBins; k++) {
-													int index0=k*numSamp;
-													int index1=index0+numSamp;
-													//calculate strategy mean within bin
-													double binMeans[]=new double[numStrat];
-													for(int i=index0; i<index1; i++) {
-														for(int s=0; s<numStrat; s++) {
-															binMeans[s]+=sortedResults.get(i).outcomes[s];
-														}
-													}
-													//get best strategy among bin means
-													double binMax=Double.NEGATIVE_INFINITY;
-													for(int s=0; s<numStrat; s++) {
-														binMeans[s]/=(numSamp*1.0);
-														binMax=Math.max(binMax, sign*binMeans[s]);
-													}
-													curMax[k]=binMax;
-													avgMax+=binMax;
-												}
-												avgMax/=(numBins*1.0);
-												evppiBins[p][1][b]=avgMax-bestMean;
+												evppiBins[p][1][b]=getBinnedMax(sorted,numBins,numStrat,sign)-bestMean;
 											}
 										}
 										
@@ -1107,13 +1037,14 @@ public class frmEVPI {
 										
 										//evppi table
 										strReport+=("<table>");
-										strReport+=("<caption>Expected Value of Partial Perfect Information ("+reportNumBins+" bins)</caption>");
-										strReport+=("<tr><th>Parameter</th><th>Expression</th><th>EVPPI</th></tr>");
+										strReport+=("<caption>Expected Value of Partial Perfect Information</caption>");
+										strReport+=("<tr><th>Parameter</th><th>Expression</th><th>EVPPI (Regression)</th><th>EVPPI ("+reportNumBins+" bins)</th></tr>");
 										for(int p=0; p<numParams; p++) {
 											Parameter curParam=myModel.parameters.get(p);
 											strReport+=("<tr><td>"+curParam.name+"</td>");
 											strReport+=("<td>"+curParam.expression+"</td>");
-											strReport+=("<td align=\"right\">"+MathUtils.round(evppi[p],numDecimals)+"</td></tr>");
+											strReport+=("<td align=\"right\">"+MathUtils.round(evppi[p],numDecimals)+"</td>");
+											strReport+=("<td align=\"right\">"+MathUtils.round(evppiBinned[p],numDecimals)+"</td></tr>");
 										}
 										strReport+=("</table>");
 										strReport+=("<br><br>");
@@ -1129,9 +1060,9 @@ public class frmEVPI {
 											if(myModel.dimInfo.analysisType>0) { //NMB
 												String dimName="NMB";
 												double mean=MathUtils.round(meanOutcomes[s]*sign, numDecimals);
-												Arrays.sort(results[s]);
-												double lb=MathUtils.round(results[s][indexLB],numDecimals);
-												double ub=MathUtils.round(results[s][indexUB],numDecimals);
+												double bounds[]=resultStats[s].getBounds();
+												double lb=MathUtils.round(bounds[0],numDecimals);
+												double ub=MathUtils.round(bounds[1],numDecimals);
 												strReport+=("<tr><td>"+stratName+"</td><td>"+dimName+"</td>");
 												strReport+=("<td align=\"right\">"+mean+"</td>");
 												strReport+=("<td align=\"right\">"+lb+"</td>");
@@ -1207,6 +1138,60 @@ public class frmEVPI {
 		}
 	}
 
+	/**
+	 * Iteration indices in ascending order of values (stable merge sort, ties stay in iteration order)
+	 */
+	private static int[] sortIndices(double values[]){
+		int n=values.length;
+		int index[]=new int[n], temp[]=new int[n];
+		for(int i=0; i<n; i++){index[i]=i;}
+		for(int width=1; width<n; width*=2) {
+			for(int lo=0; lo<n-width; lo+=2*width) {
+				int mid=lo+width, hi=Math.min(lo+2*width, n);
+				int i=lo, j=mid, k=lo;
+				while(i<mid && j<hi) {
+					if(Double.compare(values[index[j]], values[index[i]])<0){temp[k++]=index[j++];}
+					else{temp[k++]=index[i++];}
+				}
+				while(i<mid){temp[k++]=index[i++];}
+				while(j<hi){temp[k++]=index[j++];}
+				System.arraycopy(temp, lo, index, lo, hi-lo);
+			}
+		}
+		return(index);
+	}
+	
+	/**
+	 * Mean of the best strategy's mean within equal-sized bins of the sorted results
+	 * @param sorted Strategy outcomes sorted by parameter value [strategy][iteration]
+	 */
+	private double getBinnedMax(double sorted[][], int numBins, int numStrat, int sign){
+		int numSamp=numIterations/numBins;
+		double avgMax=0;
+		double binMeans[]=new double[numStrat];
+		for(int k=0; k<numBins; k++) {
+			int index0=k*numSamp;
+			int index1=index0+numSamp;
+			//calculate strategy mean within bin
+			Arrays.fill(binMeans, 0);
+			for(int s=0; s<numStrat; s++) {
+				double outcomes[]=sorted[s];
+				for(int i=index0; i<index1; i++) {
+					binMeans[s]+=outcomes[i];
+				}
+			}
+			//get best strategy among bin means
+			double binMax=Double.NEGATIVE_INFINITY;
+			for(int s=0; s<numStrat; s++) {
+				binMeans[s]/=(numSamp*1.0);
+				binMax=Math.max(binMax, sign*binMeans[s]);
+			}
+			avgMax+=binMax;
+		}
+		avgMax/=(numBins*1.0);
+		return(avgMax);
+	}
+	
 	public void updateEVPPIChart(){
 		if(chartDataEVPPI.getSeriesCount()>0){
 			for(int p=0; p<numParams; p++){
@@ -1267,7 +1252,7 @@ public class frmEVPI {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Value");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Density");
 			for(int s=0; s<numStrat; s++){
-				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100);
+				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100, myModel.getScheduler());
 				chartDataResults.addSeries(myModel.strategyNames[s],kde);
 			}
 		}
@@ -1283,7 +1268,7 @@ public class frmEVPI {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Value");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Cumulative Distribution");
 			for(int s=0; s<numStrat; s++){
-				chartDataResults.addSeries(myModel.strategyNames[s],dataResultsCumDens[group][dim][s]);
+				chartDataResults.addSeries(myModel.strategyNames[s],KernelSmooth.cdf(dataResultsIter[group][dim][s][1]));
 			}
 		
 		}
@@ -1291,7 +1276,7 @@ public class frmEVPI {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Quantile");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Value");
 			for(int s=0; s<numStrat; s++){
-				chartDataResults.addSeries(myModel.strategyNames[s],dataResultsVal[group][dim][s]);
+				chartDataResults.addSeries(myModel.strategyNames[s],KernelSmooth.quantiles(dataResultsIter[group][dim][s][1]));
 			}
 		}
 		else if(selected==4){ //Iteration
@@ -1314,7 +1299,7 @@ public class frmEVPI {
 			chartParams.getXYPlot().getRangeAxis().setLabel("Density");
 			for(int v=0; v<numParams; v++){
 				if(listParams.isSelectedIndex(v)){
-					double kde[][]=KernelSmooth.density(dataParamsIter[v][1], 100);
+					double kde[][]=KernelSmooth.density(dataParamsIter[v][1], 100, myModel.getScheduler());
 					chartDataParams.addSeries(paramNames[v],kde);
 				}
 			}
@@ -1333,14 +1318,14 @@ public class frmEVPI {
 			chartParams.getXYPlot().getDomainAxis().setLabel("Value");
 			chartParams.getXYPlot().getRangeAxis().setLabel("Cumulative Distribution");
 			for(int v=0; v<numParams; v++){
-				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],dataParamsCumDens[v]);}
+				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],KernelSmooth.cdf(dataParamsIter[v][1]));}
 			}
 		}
 		else if(selected==3){ //Quantile
 			chartParams.getXYPlot().getDomainAxis().setLabel("Quantile");
 			chartParams.getXYPlot().getRangeAxis().setLabel("Value");
 			for(int v=0; v<numParams; v++){
-				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],dataParamsVal[v]);}
+				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],KernelSmooth.quantiles(dataParamsIter[v][1]));}
 			}
 		}
 		else if(selected==4){ //Iteration
@@ -1352,32 +1337,3 @@ public class frmEVPI {
 		}
 	}
 }
-
-class SortedResult{
-	int iteration;
-	double outcomes[]; //strategy outcome of interest (e.g. NMB)
-	double paramVals[];
-	
-	SortedResult(int i, int numStrat, int numParams){ //constructor
-		iteration=i;
-		outcomes=new double[numStrat];
-		paramVals=new double[numParams];
-	}
-}
-
-class ResultComparator implements Comparator<SortedResult> {
-	int pIndex; //parameter index to sort by
-	
-	ResultComparator(int p){ //Constructor
-		this.pIndex=p;
-	}
-	
-	@Override public int compare(SortedResult o1, SortedResult o2) {
-		if(pIndex==-1) { //sort by iteration
-			return(Double.compare(o1.iteration, o2.iteration));
-		}
-		else { //sort by parameter value
-			return(Double.compare(o1.paramVals[pIndex], o2.paramVals[pIndex]));
-		}
-	}
-}
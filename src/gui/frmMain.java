@@ -126,7 +126,7 @@ public class frmMain {
 	Console console;
 	//JTextArea console;
 	JFileChooser fc=new JFileChooser();
-	public String version="0.2.9";
+	public static final String version="0.2.9";
 	public main.Clipboard clipboard; //Clipboard
 
 	//Menu items to enable once a model is opened
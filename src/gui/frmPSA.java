@@ -35,7 +35,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
@@ -69,23 +68,20 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import base.PSAEngine;
 import base.RunReport;
 import base.RunReportSummary;
 import filters.CSVFilter;
 import main.CEAHelper;
 import main.Console;
 import main.ConsoleTable;
-import main.Constraint;
 import main.DimInfo;
-import main.MersenneTwisterFast;
 import main.Parameter;
 import markov.MarkovNode;
-import markov.MarkovTrace;
 import markov.MarkovTraceSummary;
-import math.Interpreter;
 import math.KernelSmooth;
 import math.MathUtils;
-import math.Numeric;
+import math.RunningStats;
 
 /**
  *
@@ -122,8 +118,8 @@ public class frmPSA {
 	/**
 	 * [Group][Outcome][Strategy][x,y][Iteration]
 	 */
-	double dataResultsIter[][][][][], dataResultsVal[][][][][], dataResultsDens[][][], dataResultsCumDens[][][][][];
-	double dataParamsIter[][][], dataParamsVal[][][], dataParamsDens[][][], dataParamsCumDens[][][];
+	double dataResultsIter[][][][][], dataResultsDens[][][];
+	double dataParamsIter[][][], dataParamsDens[][][];
 	double dataScatterAbs[][][][], dataScatterRel[][][][];
 	String CEAnotes[][][];
 	/**
@@ -136,6 +132,7 @@ public class frmPSA {
 	private JTextField textIterations;
 	int numIterations;
 	JCheckBox chckbxSeed;
+	JCheckBox chckbxKeepTraces;
 	private JTextField textSeed;
 	String outcome;
 	
@@ -403,6 +400,12 @@ public class frmPSA {
 			panel_2.add(textSeed);
 			textSeed.setColumns(10);
 
+			chckbxKeepTraces = new JCheckBox("Keep traces");
+			chckbxKeepTraces.setToolTipText("Keep the Markov trace of each iteration (to export all traces)");
+			chckbxKeepTraces.setBounds(162, 41, 120, 18);
+			chckbxKeepTraces.setVisible(myModel.type==1);
+			panel_2.add(chckbxKeepTraces);
+
 			tabbedPane = new JTabbedPane(JTabbedPane.TOP);
 			GridBagConstraints gbc_tabbedPane = new GridBagConstraints();
 			gbc_tabbedPane.fill = GridBagConstraints.BOTH;
@@ -734,18 +737,7 @@ public class frmPSA {
 								}
 								else{
 									boolean cancelled=false;
-
-									myModel.sampleParam=true;
-									myModel.generatorParam=new MersenneTwisterFast();
-									if(myModel.curGenerator==null){
-										myModel.curGenerator=new MersenneTwisterFast[1];
-									}
-									myModel.curGenerator[0]=myModel.generatorParam;
-									if(chckbxSeed.isSelected()){
-										int seed=Integer.parseInt(textSeed.getText());
-										myModel.generatorParam.setSeed(seed);
-									}
-																		
+									
 									numIterations=Integer.parseInt(textIterations.getText().replaceAll(",", ""));
 									progress.setMaximum(numIterations);
 
@@ -760,30 +752,14 @@ public class frmPSA {
 									else{CEAnotes=null;}
 									
 									dataResultsIter=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
-									dataResultsVal=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
-									dataResultsCumDens=new double[1+numSubgroups][numOutcomes][numStrat][2][numIterations];
 
 									dataParamsIter=new double[numParams][2][numIterations];
-									dataParamsVal=new double[numParams][2][numIterations];
-									dataParamsCumDens=new double[numParams][2][numIterations];
 
 									dataScatterAbs=new double[1+numSubgroups][numStrat][2][numIterations];
 									dataScatterRel=new double[1+numSubgroups][numStrat][2][numIterations];
 									
 									dataCEAC=new double[numStrat][][];
 									
-									//Get orig values for all parameters
-									Numeric origValues[]=new Numeric[numParams];
-									for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters
-										origValues[v]=myModel.parameters.get(v).value.copy();
-									}
-									
-									//Parse constraints
-									for(int c=0; c<numConstraints; c++){
-										myModel.constraints.get(c).parseConstraints();
-									}
-									
-									MarkovTrace traces[][][]=null;
 									ArrayList<MarkovNode> chainRoots=null;
 									int numChains = 0;
 									boolean origShowTrace=true;
@@ -795,103 +771,61 @@ public class frmPSA {
 											if(curNode.type==1){chainRoots.add(curNode);}
 										}
 										numChains=chainRoots.size();
-										traces=new MarkovTrace[numChains][numSubgroups+1][numIterations];
 										origShowTrace=myModel.markov.showTrace;
 										myModel.markov.showTrace=false;
 									}
 									
-									long startTime=System.currentTimeMillis();
-									
-									reports=new RunReport[numIterations];
-									
-									for(int n=0; n<numIterations; n++){
-										//Update progress
-										double prog=((n+1)/(numIterations*1.0))*100;
-										long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-										remTime=(long) (remTime*(100-prog));
-										remTime=remTime/1000;
-										String seconds = Integer.toString((int)(remTime % 60));
-										String minutes = Integer.toString((int)(remTime/60));
-										if(seconds.length()<2){seconds="0"+seconds;}
-										if(minutes.length()<2){minutes="0"+minutes;}
-										progress.setProgress(n+1);
-										progress.setNote("Time left: "+minutes+":"+seconds);
-										
-										//Sample parameters
-										myModel.curGenerator[0]=myModel.generatorParam;
-										boolean validParams=false;
-										while(validParams==false){
-											for(int v=0; v<numParams; v++){ //Reset 'fixed' for all parameters and orig values
-												Parameter curParam=myModel.parameters.get(v);
-												curParam.locked=false;
-												curParam.value=origValues[v];
-											}
-									
-											for(int v=0; v<numParams; v++){ //sample all parameters
-												Parameter curParam=myModel.parameters.get(v);
-												if(curParam.locked==false) {
-													curParam.value=Interpreter.evaluateTokens(curParam.parsedTokens, 0, true);
-													curParam.locked=true;
-												}
-											}
-											//check constraints
-											validParams=true;
-											int c=0;
-											while(validParams==true && c<numConstraints){
-												Constraint curConst=myModel.constraints.get(c);
-												validParams=curConst.checkConstraints(myModel);
-												c++;
-											}
-											if(validParams){ //check model for valid params
-												ArrayList<String> errors=myModel.parseModel();
-												if(errors.size()!=0) {
-													validParams=false;
-												}
-											}
+									//Sample parameters and run iterations in parallel
+									final long startTime=System.currentTimeMillis();
+									final PSAEngine engine=new PSAEngine(myModel,numIterations);
+									if(chckbxSeed.isSelected()){
+										engine.setSeed(Integer.parseInt(textSeed.getText()));
+									}
+									if(myModel.type==1 && origShowTrace && myModel.markov.compileTraces==false){
+										engine.setSummarizeTraces(true); //summarized as iterations finish
+									}
+									//reports are only needed for trace export, compiled trace summaries, and individual-level results
+									boolean keepTraces=myModel.type==1 && origShowTrace && (myModel.markov.compileTraces || chckbxKeepTraces.isSelected());
+									engine.setKeepReports(keepTraces || (myModel.simType==1 && myModel.displayIndResults));
+									engine.run(new PSAEngine.Listener(){
+										public void update(int iteration, int numComplete){
+											//Update progress
+											double prog=(numComplete/(numIterations*1.0))*100;
+											long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+											remTime=(long) (remTime*(100-prog));
+											remTime=remTime/1000;
+											String seconds = Integer.toString((int)(remTime % 60));
+											String minutes = Integer.toString((int)(remTime/60));
+											if(seconds.length()<2){seconds="0"+seconds;}
+											if(minutes.length()<2){minutes="0"+minutes;}
+											progress.setProgress(numComplete);
+											progress.setNote("Time left: "+minutes+":"+seconds);
+											if(progress.isCanceled()){engine.cancel();}
 										}
-
+									});
+									cancelled=engine.isCancelled();
+									reports=engine.reports;
+									
+									for(int n=0; n<numIterations && cancelled==false; n++){
 										for(int v=0; v<numParams; v++){ //Record value
-											dataParamsIter[v][0][n]=n; dataParamsVal[v][0][n]=n;
-											try{
-												dataParamsIter[v][1][n]=myModel.parameters.get(v).value.getDouble();
-											} catch(Exception e){
-												dataParamsIter[v][1][n]=Double.NaN;
-											}
-											dataParamsVal[v][1][n]=dataParamsIter[v][1][n];
+											dataParamsIter[v][0][n]=n;
+											dataParamsIter[v][1][n]=engine.paramVals[v][n];
 										} 
-
-										//Run model
-										myModel.curGenerator=myModel.generatorVar;
-										reports[n]=myModel.runModel(null, false);
-										
-										if(myModel.type==1){ //Markov model
-											for(int c=0; c<numChains; c++){
-												traces[c][0][n]=reports[n].markovTraces.get(c); //overall
-												for(int g=0; g<numSubgroups; g++){
-													traces[c][g+1][n]=reports[n].markovTracesGroup[g].get(c);
-												}
-											}
-										}
 																																								
 										//Get EVs
 										for(int d=0; d<numDim; d++){
 											for(int s=0; s<numStrat; s++){
-												//overall
-												dataResultsIter[0][d][s][0][n]=n; dataResultsVal[0][d][s][0][n]=n;
-												double curOutcome=myModel.getStrategyEV(s, d);
-												dataResultsIter[0][d][s][1][n]=curOutcome; dataResultsVal[0][d][s][1][n]=curOutcome;
-												//subgroups
-												for(int g=0; g<numSubgroups; g++){
-													dataResultsIter[g+1][d][s][0][n]=n; dataResultsVal[g+1][d][s][0][n]=n;
-													curOutcome=myModel.getSubgroupEV(g, s, d);
-													dataResultsIter[g+1][d][s][1][n]=curOutcome; dataResultsVal[g+1][d][s][1][n]=curOutcome;
+												for(int g=0; g<numSubgroups+1; g++){ //overall and subgroups
+													dataResultsIter[g][d][s][0][n]=n;
+													double curOutcome=engine.outcomes[g][d][s][n];
+													dataResultsIter[g][d][s][1][n]=curOutcome;
 												}
 											}
 										}
 										if(analysisType>0){ //CEA or BCA
 											if(analysisType==1){ //CEA
 												for(int g=0; g<numSubgroups+1; g++){
-													Object table[][]=new CEAHelper().calculateICERs(myModel,g-1,true);
+													Object table[][]=engine.tables[g][n];
 													//get baseline row
 													int baseIndex=myModel.getStrategyIndex(myModel.dimInfo.baseScenario);
 													int baseRow=-1,curRow=0;
@@ -905,9 +839,9 @@ public class frmPSA {
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
 														if(origStrat!=-1){
-															dataResultsIter[g][numDim][origStrat][0][n]=n; dataResultsVal[g][numDim][origStrat][0][n]=n;
+															dataResultsIter[g][numDim][origStrat][0][n]=n;
 															double curOutcome=(double) table[s][4];
-															dataResultsIter[g][numDim][origStrat][1][n]=curOutcome; dataResultsVal[g][numDim][origStrat][1][n]=curOutcome;
+															dataResultsIter[g][numDim][origStrat][1][n]=curOutcome;
 															CEAnotes[g][origStrat][n]=(String) table[s][5];
 															double cost=(double) table[s][2];
 															double benefit=(double) table[s][3];
@@ -923,7 +857,7 @@ public class frmPSA {
 											}
 											else if(analysisType==2){ //BCA
 												for(int g=0; g<numSubgroups+1; g++){
-													Object table[][]=new CEAHelper().calculateNMB(myModel,g-1,true);
+													Object table[][]=engine.tables[g][n];
 													//use first row as baseline
 													//int baseIndex=myModel.getStrategyIndex(myModel.dimInfo.baseScenario);
 													int baseIndex=0;
@@ -936,9 +870,9 @@ public class frmPSA {
 													}
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
-														dataResultsIter[g][numDim][origStrat][0][n]=n;	dataResultsVal[g][numDim][origStrat][0][n]=n;
+														dataResultsIter[g][numDim][origStrat][0][n]=n;
 														double curOutcome=(double) table[s][4];
-														dataResultsIter[g][numDim][origStrat][1][n]=curOutcome; dataResultsVal[g][numDim][origStrat][1][n]=curOutcome;
+														dataResultsIter[g][numDim][origStrat][1][n]=curOutcome;
 														double benefit=(double) table[s][2];
 														double cost=(double) table[s][3];
 														dataScatterAbs[g][origStrat][0][n]=benefit;
@@ -952,21 +886,7 @@ public class frmPSA {
 												}
 											}
 										}
-								
-										if(progress.isCanceled()){  //End loop
-											n=numIterations;
-											cancelled=true;
-										}
 									}
-
-									//Reset all parameters
-									myModel.sampleParam=false;
-									for(int v=0; v<numParams; v++){ //Reset 'locked' for all parameter and orig values
-										Parameter curParam=myModel.parameters.get(v);
-										curParam.locked=false;
-										curParam.value=origValues[v];
-									}
-									myModel.validateModelObjects();
 									
 									if(myModel.type==1){
 										myModel.markov.showTrace=origShowTrace;
@@ -976,34 +896,20 @@ public class frmPSA {
 										double meanResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
 										double lbResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
 										double ubResults[][][]=new double[numSubgroups+1][numOutcomes][numStrat];
-										int bounds[]=MathUtils.getBoundIndices(numIterations);
-										int indexLB=bounds[0], indexUB=bounds[1];
-										
-										//Sort ordered arrays
+										//Summarize results (the CDF and quantile charts sort values when shown)
 										for(int d=0; d<numOutcomes; d++){
 											for(int s=0; s<numStrat; s++){
 												for(int g=0; g<numSubgroups+1; g++){
-													Arrays.sort(dataResultsVal[g][d][s][1]);
-													for(int n=0; n<numIterations; n++){
-														dataResultsVal[g][d][s][0][n]=n/(numIterations*1.0);
-														dataResultsCumDens[g][d][s][0][n]=dataResultsVal[g][d][s][1][n];
-														dataResultsCumDens[g][d][s][1][n]=dataResultsVal[g][d][s][0][n];
-														meanResults[g][d][s]+=dataResultsVal[g][d][s][1][n];
-													}
-													meanResults[g][d][s]/=(numIterations*1.0);
-													lbResults[g][d][s]=dataResultsVal[g][d][s][1][indexLB];
-													ubResults[g][d][s]=dataResultsVal[g][d][s][1][indexUB];
+													RunningStats stats=new RunningStats();
+													double values[]=dataResultsIter[g][d][s][1];
+													for(int n=0; n<numIterations; n++){stats.add(values[n]);}
+													meanResults[g][d][s]=stats.getMean();
+													double bounds[]=stats.getBounds();
+													lbResults[g][d][s]=bounds[0];
+													ubResults[g][d][s]=bounds[1];
 												}
 											}
 										}
-										for(int v=0; v<numParams; v++){
-											Arrays.sort(dataParamsVal[v][1]);
-											for(int n=0; n<numIterations; n++){
-												dataParamsVal[v][0][n]=n/(numIterations*1.0);
-												dataParamsCumDens[v][0][n]=dataParamsVal[v][1][n];
-												dataParamsCumDens[v][1][n]=dataParamsVal[v][0][n];
-											}
-										}
 
 										//Update results chart
 										updateResultsChart();
@@ -1044,10 +950,7 @@ public class frmPSA {
 											if(myModel.markov.compileTraces==false) {
 												//get mean and bounds of results
 												for(int c=0; c<numChains; c++){
-													MarkovTraceSummary traceSummaries[]=new MarkovTraceSummary[numSubgroups+1];
-													for(int g=0; g<numSubgroups+1; g++){
-														traceSummaries[g]=new MarkovTraceSummary(traces[c][g]);
-													}
+													MarkovTraceSummary traceSummaries[]=engine.traceSummaries[c];
 													frmTraceSummary showSummary=new frmTraceSummary(traceSummaries,myModel.errorLog,subgroupNames);
 													showSummary.frmTraceSummary.setVisible(true);
 												}
@@ -1193,7 +1096,7 @@ public class frmPSA {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Value");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Density");
 			for(int s=0; s<numStrat; s++){
-				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100);
+				double kde[][]=KernelSmooth.density(dataResultsIter[group][dim][s][1], 100, myModel.getScheduler());
 				chartDataResults.addSeries(myModel.strategyNames[s],kde);
 			}
 		}
@@ -1209,7 +1112,7 @@ public class frmPSA {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Value");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Cumulative Distribution");
 			for(int s=0; s<numStrat; s++){
-				chartDataResults.addSeries(myModel.strategyNames[s],dataResultsCumDens[group][dim][s]);
+				chartDataResults.addSeries(myModel.strategyNames[s],KernelSmooth.cdf(dataResultsIter[group][dim][s][1]));
 			}
 		
 		}
@@ -1217,7 +1120,7 @@ public class frmPSA {
 			chartResults.getXYPlot().getDomainAxis().setLabel("Quantile");
 			chartResults.getXYPlot().getRangeAxis().setLabel("Value");
 			for(int s=0; s<numStrat; s++){
-				chartDataResults.addSeries(myModel.strategyNames[s],dataResultsVal[group][dim][s]);
+				chartDataResults.addSeries(myModel.strategyNames[s],KernelSmooth.quantiles(dataResultsIter[group][dim][s][1]));
 			}
 		}
 		else if(selected==4){ //Iteration
@@ -1240,7 +1143,7 @@ public class frmPSA {
 			chartParams.getXYPlot().getRangeAxis().setLabel("Density");
 			for(int v=0; v<numParams; v++){
 				if(listParams.isSelectedIndex(v)){
-					double kde[][]=KernelSmooth.density(dataParamsIter[v][1], 100);
+					double kde[][]=KernelSmooth.density(dataParamsIter[v][1], 100, myModel.getScheduler());
 					chartDataParams.addSeries(paramNames[v],kde);
 				}
 			}
@@ -1259,14 +1162,14 @@ public class frmPSA {
 			chartParams.getXYPlot().getDomainAxis().setLabel("Value");
 			chartParams.getXYPlot().getRangeAxis().setLabel("Cumulative Distribution");
 			for(int v=0; v<numParams; v++){
-				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],dataParamsCumDens[v]);}
+				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],KernelSmooth.cdf(dataParamsIter[v][1]));}
 			}
 		}
 		else if(selected==3){ //Quantile
 			chartParams.getXYPlot().getDomainAxis().setLabel("Quantile");
 			chartParams.getXYPlot().getRangeAxis().setLabel("Value");
 			for(int v=0; v<numParams; v++){
-				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],dataParamsVal[v]);}
+				if(listParams.isSelectedIndex(v)){chartDataParams.addSeries(paramNames[v],KernelSmooth.quantiles(dataParamsIter[v][1]));}
 			}
 		}
 		else if(selected==4){ //Iteration
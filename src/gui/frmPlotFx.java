@@ -64,6 +64,7 @@ import main.Table;
 import main.Variable;
 import math.Interpreter;
 import math.Numeric;
+import math.Token;
 
 /**
  *
@@ -321,6 +322,7 @@ public class frmPlotFx {
 						if(index!=-1){myModel.innateVariables.set(index, curX);}
 						else{myModel.innateVariables.add(curX);}
 						curX.locked[0]=true;
+						Token tokens[]=Interpreter.compile(fx, myModel); //x isn't cached (a new variable for each plot)
 						
 						double curData[][]=new double[2][numIntervals+1];
 						for(int i=0; i<=numIntervals; i++){
@@ -336,7 +338,7 @@ public class frmPlotFx {
 							
 							double curY;
 							try{
-								curY=Interpreter.evaluate(fx, myModel,false).getDouble();
+								curY=Interpreter.evaluateDouble(tokens, 0, false);
 							}catch(Exception e1){
 								curY=Double.NaN;
 								e1.printStackTrace();
@@ -44,13 +44,12 @@ import javax.swing.SwingConstants;
 import javax.swing.table.DefaultTableModel;
 
 import base.AmuaModel;
+import base.GridEngine;
 import main.Parameter;
 import main.ScaledIcon;
 import main.StyledTextPane;
 import main.Table;
 import main.Variable;
-import math.Interpreter;
-import math.Numeric;
 import surface.SurfaceModel;
 import surface.SurfacePanel;
 
@@ -239,97 +238,35 @@ public class frmPlotSurface {
 							myModel.variables=new ArrayList<Variable>();
 							myModel.tables=new ArrayList<Table>();
 						}
-						if(myModel.innateVariables==null){
-							myModel.innateVariables=new ArrayList<Variable>();
-						}
-						
-						//Get orig values for all variables
-						/*int numVars=myModel.variables.size();
-						double origValues[]=new double[numVars];
-						for(int v=0; v<numVars; v++){ //Reset 'fixed' for all variables
-							origValues[v]=myModel.variables.get(v).value;
-						}*/
-						
-						//Create innate variable x
-						Variable curX=new Variable();
-						curX.name="x";
-						int index=myModel.getInnateVariableIndex("x");
-						if(index!=-1){myModel.innateVariables.set(index, curX);}
-						else{myModel.innateVariables.add(curX);}
-						curX.locked[0]=true;
-
-						Variable curY=new Variable();
-						curY.name="y";
-						index=myModel.getInnateVariableIndex("y");
-						if(index!=-1){myModel.innateVariables.set(index, curY);}
-						else{myModel.innateVariables.add(curY);}
-						curY.locked[0]=true;
 						
-						double dataSurface[][][]=new double[1][numIntervals+1][numIntervals+1];
-						int prog=0;
+						//Grid points
+						double xVals[]=new double[numIntervals+1];
+						double yVals[]=new double[numIntervals+1];
 						for(int i=0; i<=numIntervals; i++){
-							for(int j=0; j<=numIntervals; j++){
-								/*for(int v=0; v<numVars; v++){ //Reset 'fixed' for all variables and orig values
-									Variable curVar=myModel.variables.get(v);
-									curVar.fixed=false;
-									curVar.value=origValues[v];
-								}*/
-
-								double x=minX+stepX*i;
-								curX.value[0]=new Numeric(x);
-								
-								double y=minY+stepY*j;
-								curY.value[0]=new Numeric(y);
-								
-								double curVal;
-								try{
-									curVal=Interpreter.evaluate(fx, myModel,false).getDouble();
-								}catch(Exception e1){
-									curVal=Double.NaN;
-									e1.printStackTrace();
-									JOptionPane.showMessageDialog(frmPlotSurface, e1.getMessage());
-									i=numIntervals; //end loop
-									j=numIntervals;
-								}
-								
-								dataSurface[0][i][j]=curVal;
-
-								prog++;
-								progress.setProgress(prog);
-								
-							}
+							xVals[i]=minX+stepX*i;
+							yVals[i]=minY+stepY*i;
 						}
-
-						//Remove vars
-						index=myModel.getInnateVariableIndex("x");
-						if(index!=-1){myModel.innateVariables.remove(index);}
-						index=myModel.getInnateVariableIndex("y");
-						if(index!=-1){myModel.innateVariables.remove(index);}
-
-						//Reset all variables
-						/*for(int v=0; v<numVars; v++){ //Reset 'fixed' for all variables and orig values
-							Variable curVar=myModel.variables.get(v);
-							curVar.fixed=false;
-							curVar.value=origValues[v];
-						}
-						for(int v=0; v<numVars; v++){ //Evaluate all variables
-							myModel.variables.get(v).evaluate(myModel);
-						}*/
+						
+						final GridEngine engine=new GridEngine(myModel);
+						double dataSurface[][][]=new double[1][][];
+						dataSurface[0]=engine.evaluateFunction(fx, xVals, yVals, new GridEngine.Listener(){
+							public void update(int point, int numComplete){
+								progress.setProgress(numComplete);
+								if(progress.isCanceled()){engine.cancel();}
+							}
+						});
 
 						//Update chart
-						surfaceModel = new SurfaceModel(dataSurface,0,numIntervals,minX,maxX,minY,maxY,"x","y","f(x,y)");
-						surfacePanel.setModel(surfaceModel);
-						surfacePanel.repaint();
+						if(engine.isCancelled()==false){
+							surfaceModel = new SurfaceModel(dataSurface,0,numIntervals,minX,maxX,minY,maxY,"x","y","f(x,y)");
+							surfacePanel.setModel(surfaceModel);
+							surfacePanel.repaint();
+						}
 
 						progress.close();
 					}
 
 				} catch (Exception e) {
-					int index=myModel.getInnateVariableIndex("x");
-					if(index!=-1){myModel.innateVariables.remove(index);}
-					index=myModel.getInnateVariableIndex("y");
-					if(index!=-1){myModel.innateVariables.remove(index);}
-
 					e.printStackTrace();
 					progress.close();
 					JOptionPane.showMessageDialog(frmPlotSurface, e.getMessage());
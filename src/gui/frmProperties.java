@@ -103,14 +103,18 @@ public class frmProperties {
 	private DefaultTableModel modelAnalysis;
 	private analysisTable tableAnalysis;
 	
+	private JTextField textUndoLevels;
+	
 	//Simulation
 	JComboBox comboSimType;
 	JLabel lblCohortSize;
 	private JTextField textCohortSize;
 	JCheckBox chckbxCRN;
 	private JTextField textCRNSeed;
+	JCheckBox chckbxPersonRNG;
 	JCheckBox chckbxDisplayIndResults;
 	JCheckBox chckbxMultithread;
+	JCheckBox chckbxCompileExpressions;
 	private JTextField textNumThreads;
 	JLabel lblThreads;
 	JButton btnSetToMax;
@@ -197,6 +201,16 @@ public class frmProperties {
 			});
 			btnCancel.setBounds(364, 252, 90, 28);
 			frmProperties.getContentPane().add(btnCancel);
+			
+			JLabel lblUndoLevels = new JLabel("Undo levels:");
+			lblUndoLevels.setBounds(10, 258, 73, 16);
+			frmProperties.getContentPane().add(lblUndoLevels);
+			
+			textUndoLevels = new JTextField();
+			textUndoLevels.setToolTipText("Maximum number of edits that can be undone");
+			textUndoLevels.setBounds(85, 252, 57, 28);
+			frmProperties.getContentPane().add(textUndoLevels);
+			textUndoLevels.setColumns(10);
 
 			tabbedPane = new JTabbedPane(JTabbedPane.TOP);
 			tabbedPane.setBounds(6, 6, 448, 234);
@@ -457,6 +471,7 @@ public class frmProperties {
 						lblCohortSize.setText("Cohort size:");
 						chckbxCRN.setEnabled(false);
 						textCRNSeed.setEnabled(false);
+						chckbxPersonRNG.setEnabled(false);
 						chckbxDisplayIndResults.setEnabled(false);
 						tabbedPane.setEnabledAt(4, false); //no subgroups
 					}
@@ -465,6 +480,7 @@ public class frmProperties {
 						chckbxCRN.setEnabled(true);
 						if(chckbxCRN.isSelected()){textCRNSeed.setEnabled(true);}
 						else{textCRNSeed.setEnabled(false);}
+						chckbxPersonRNG.setEnabled(true);
 						chckbxDisplayIndResults.setEnabled(true);
 						tabbedPane.setEnabledAt(4, true);
 					}
@@ -506,6 +522,12 @@ public class frmProperties {
 			panelSimulation.add(textCRNSeed);
 			textCRNSeed.setColumns(10);
 			
+			chckbxPersonRNG = new JCheckBox("Per-person random streams");
+			chckbxPersonRNG.setToolTipText("Each person gets their own random numbers - results are the same for any number of threads, and common random numbers are matched by person across strategies");
+			chckbxPersonRNG.setEnabled(false);
+			chckbxPersonRNG.setBounds(240, 78, 190, 18);
+			panelSimulation.add(chckbxPersonRNG);
+			
 			JLabel lblstOrder = new JLabel("(1st-order uncertainty)");
 			lblstOrder.setHorizontalAlignment(SwingConstants.CENTER);
 			lblstOrder.setFont(new Font("SansSerif", Font.PLAIN, 9));
@@ -558,6 +580,11 @@ public class frmProperties {
 			panelSimulation.add(textNumThreads);
 			textNumThreads.setColumns(10);
 			
+			chckbxCompileExpressions = new JCheckBox("Compile expressions");
+			chckbxCompileExpressions.setToolTipText("Generate Java classes for model expressions at run time");
+			chckbxCompileExpressions.setBounds(240, 135, 160, 18);
+			panelSimulation.add(chckbxCompileExpressions);
+			
 			
 			
 			//Markov #######################################################################
@@ -777,6 +804,7 @@ public class frmProperties {
 	}
 
 	private void refreshDisplay(){
+		textUndoLevels.setText(myModel.undoLevels+"");
 		displayMetadata(myModel.meta);
 		displayAnalysisSettings();
 		displaySimSettings();
@@ -824,7 +852,9 @@ public class frmProperties {
 			textCRNSeed.setEnabled(true);
 			textCRNSeed.setText(myModel.crnSeed+"");
 		}
+		chckbxPersonRNG.setSelected(myModel.personRNG);
 		chckbxDisplayIndResults.setSelected(myModel.displayIndResults);
+		chckbxCompileExpressions.setSelected(myModel.compileExpressions);
 		if(myModel.numThreads>1){
 			chckbxMultithread.setSelected(true);
 			textNumThreads.setText(myModel.numThreads+"");
@@ -1067,6 +1097,7 @@ public class frmProperties {
 		int cohortSize=-1;
 		boolean CRN=false;
 		int crnSeed=-1;
+		boolean personRNG=false;
 		boolean displayIndResults=false;
 		int numThreads=1;
 		if(simType==0){ //Cohort
@@ -1096,6 +1127,7 @@ public class frmProperties {
 			}
 			
 			CRN=chckbxCRN.isSelected(); //CRN
+			personRNG=chckbxPersonRNG.isSelected();
 			displayIndResults=chckbxDisplayIndResults.isSelected();
 			if(CRN){ //get seed
 				try{
@@ -1120,6 +1152,18 @@ public class frmProperties {
 			}
 		}
 		
+		//Check undo levels
+		int undoLevels=myModel.undoLevels;
+		try{
+			undoLevels=Integer.parseInt(textUndoLevels.getText().replaceAll(",",""));
+		} catch(Exception er){
+			undoLevels=-1;
+		}
+		if(undoLevels<1){
+			valid=false;
+			JOptionPane.showMessageDialog(frmProperties, "Please enter a valid number of undo levels!");
+		}
+		
 		//Check Markov settings
 		int maxCycles=10000, statePrevDecimals=4;
 		boolean halfCycleCorrection=false;
@@ -1236,8 +1280,11 @@ public class frmProperties {
 			myModel.cohortSize=cohortSize;
 			myModel.CRN=CRN;
 			myModel.crnSeed=crnSeed;
+			myModel.personRNG=personRNG;
 			myModel.displayIndResults=displayIndResults;
 			myModel.numThreads=numThreads;
+			myModel.compileExpressions=chckbxCompileExpressions.isSelected();
+			myModel.undoLevels=undoLevels;
 			
 			//markov settings
 			if(myModel.type==1){
@@ -52,8 +52,8 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import base.GridEngine;
 import filters.CSVFilter;
-import main.CEAHelper;
 import main.DimInfo;
 import main.Parameter;
 import math.Numeric;
@@ -402,7 +402,6 @@ public class frmSensOneWay {
 									}
 
 									if(error==false){
-										boolean cancelled=false;
 										//Run model...
 										numStrat=myModel.getStrategies();
 										int numOutcomes=comboDimensions.getItemCount();
@@ -422,37 +421,56 @@ public class frmSensOneWay {
 										curParam.sensMin=strMin;
 										curParam.sensMax=strMax;
 										
-										long startTime=System.currentTimeMillis();
-										
-										boolean origShowTrace=false;
-										if(myModel.type==1) {
-											origShowTrace=myModel.markov.showTrace;
-											myModel.markov.showTrace=false;
+										//Grid points
+										double points[][]=new double[intervals+1][1];
+										for(int i=0; i<=intervals; i++){
+											points[i][0]=min+(step*i);
+										}
+										final int numRuns=intervals+1;
+										final long startTime=System.currentTimeMillis();
+										final GridEngine engine=new GridEngine(myModel);
+										try{
+											engine.run(new int[]{row}, points, new GridEngine.Listener(){
+												public void update(int point, int numComplete){
+													//Update progress
+													double prog=(numComplete/(numRuns*1.0))*100;
+													long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+													remTime=(long) (remTime*(100-prog));
+													remTime=remTime/1000;
+													String seconds = Integer.toString((int)(remTime % 60));
+													String minutes = Integer.toString((int)(remTime/60));
+													if(seconds.length()<2){seconds="0"+seconds;}
+													if(minutes.length()<2){minutes="0"+minutes;}
+													progress.setProgress(numComplete);
+													progress.setNote("Time left: "+minutes+":"+seconds);
+													
+													if(progress.isCanceled()){engine.cancel();}
+												}
+											});
+										} finally{
+											engine.close();
 										}
+										boolean cancelled=engine.isCancelled();
 										
-										for(int i=0; i<=intervals; i++){
-											double curVal=min+(step*i);
-											curParam.value.setDouble(curVal);
-											curParam.locked=true;
-											myModel.parseModel();
-											myModel.runModel(null, false);
+										for(int i=0; i<=intervals && !cancelled; i++){
+											double curVal=points[i][0];
 											
 											//Get EVs
 											for(int d=0; d<numDim; d++){
 												for(int s=0; s<numStrat; s++){
 													results[d][s][0][i]=curVal;
-													results[d][s][1][i]=myModel.getStrategyEV(s, d);
+													results[d][s][1][i]=engine.outcomes[0][d][s][i];
 													//subgroups
 													for(int g=0; g<numSubgroups; g++){
 														resultsGroup[g][d][s][0][i]=curVal;
-														resultsGroup[g][d][s][1][i]=myModel.getSubgroupEV(g,s,d);
+														resultsGroup[g][d][s][1][i]=engine.outcomes[g+1][d][s][i];
 													}
 												}
 											}
 											if(analysisType>0){ //CEA or BCA
 												if(analysisType==1){ //CEA
 													//overall
-													Object table[][]=new CEAHelper().calculateICERs(myModel,-1,true);
+													Object table[][]=engine.tables[0][i];
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
 														if(origStrat!=-1){
@@ -463,7 +481,7 @@ public class frmSensOneWay {
 													}
 													//subgroups
 													for(int g=0; g<numSubgroups; g++){
-														table=new CEAHelper().calculateICERs(myModel, g, true);
+														table=engine.tables[g+1][i];
 														for(int s=0; s<table.length; s++){
 															int origStrat=(int) table[s][0];
 															if(origStrat!=-1){
@@ -475,7 +493,7 @@ public class frmSensOneWay {
 													}
 												}
 												else if(analysisType==2){
-													Object table[][]=new CEAHelper().calculateNMB(myModel,-1,true);
+													Object table[][]=engine.tables[0][i];
 													for(int s=0; s<table.length; s++){	
 														int origStrat=(int) table[s][0];
 														results[numDim][origStrat][0][i]=curVal;
@@ -483,7 +501,7 @@ public class frmSensOneWay {
 													}
 													//subgroups
 													for(int g=0; g<numSubgroups; g++){
-														table=new CEAHelper().calculateNMB(myModel, g, true);
+														table=engine.tables[g+1][i];
 														for(int s=0; s<table.length; s++){
 															int origStrat=(int) table[s][0];
 															resultsGroup[g][numDim][origStrat][0][i]=curVal;
@@ -492,34 +510,12 @@ public class frmSensOneWay {
 													}
 												}
 											}
-											
-											//Update progress
-											double prog=(i/(intervals*1.0))*100;
-											long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-											remTime=(long) (remTime*(100-prog));
-											remTime=remTime/1000;
-											String seconds = Integer.toString((int)(remTime % 60));
-											String minutes = Integer.toString((int)(remTime/60));
-											if(seconds.length()<2){seconds="0"+seconds;}
-											if(minutes.length()<2){minutes="0"+minutes;}
-											progress.setProgress(i);
-											progress.setNote("Time left: "+minutes+":"+seconds);
-											
-											
-											if(progress.isCanceled()){ //End loop
-												cancelled=true;
-												i=intervals+1;
-											}
 										}
 										//Reset param value
 										curParam.value=origValue;
 										curParam.locked=false;
 										myModel.validateModelObjects();
 										
-										if(myModel.type==1) {
-											myModel.markov.showTrace=origShowTrace;
-										}
-										
 										if(cancelled==false){
 											updateChart();
 											if(numOutcomes>1){
@@ -28,6 +28,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.awt.event.ActionEvent;
 
 import javax.swing.DefaultComboBoxModel;
@@ -61,8 +62,8 @@ import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.TextAnchor;
 
 import base.AmuaModel;
+import base.GridEngine;
 import filters.CSVFilter;
-import main.CEAHelper;
 import main.DimInfo;
 import main.Parameter;
 import math.MathUtils;
@@ -387,69 +388,8 @@ public class frmSensOneWayStacked {
 									JOptionPane.showMessageDialog(frmSensOneWayStacked, "Errors in base case model!");
 								}
 								else{
-									boolean origShowTrace=false;
-									if(myModel.type==1) {
-										origShowTrace=myModel.markov.showTrace;
-										myModel.markov.showTrace=false;
-									}
-									
-									//Get baseline results
-									myModel.runModel(null, false);
 									int numDim=myModel.dimInfo.dimNames.length;
 									numStrat=myModel.getStrategies();
-									resultsBase=new double[numDim+1][numStrat];
-									resultsBaseGroup=new double[numSubgroups][numDim+1][numStrat];
-									for(int s=0; s<numStrat; s++) {
-										for(int d=0; d<numDim; d++) {
-											resultsBase[d][s]=myModel.getStrategyEV(s, d);
-										}
-									}
-									for(int g=0; g<numSubgroups; g++) {
-										for(int s=0; s<numStrat; s++) {
-											for(int d=0; d<numDim; d++) {
-												resultsBaseGroup[g][d][s]=myModel.getSubgroupEV(g, s, d);
-											}
-										}
-									}
-									if(myModel.dimInfo.analysisType==1){ //CEA
-										//overall
-										Object table[][]=new CEAHelper().calculateICERs(myModel,-1,true);
-										for(int s=0; s<table.length; s++){	
-											int origStrat=(int) table[s][0];
-											if(origStrat!=-1){
-												resultsBase[numDim][origStrat]=(double) table[s][4];
-												//CEAnotes[origStrat][i]=(String) table[s][5];
-											}
-										}
-										//subgroups
-										for(int g=0; g<numSubgroups; g++){
-											table=new CEAHelper().calculateICERs(myModel, g, true);
-											for(int s=0; s<table.length; s++){
-												int origStrat=(int) table[s][0];
-												if(origStrat!=-1){
-													resultsBaseGroup[g][numDim][origStrat]=(double) table[s][4];
-													//CEAnotesGroup[g][origStrat][i]=(String) table[s][5];
-												}
-											}
-										}
-									}
-									else if(myModel.dimInfo.analysisType==2){
-										Object table[][]=new CEAHelper().calculateNMB(myModel,-1,true);
-										for(int s=0; s<table.length; s++){	
-											int origStrat=(int) table[s][0];
-											resultsBase[numDim][origStrat]=(double) table[s][4];
-										}
-										//subgroups
-										for(int g=0; g<numSubgroups; g++){
-											table=new CEAHelper().calculateNMB(myModel, g, true);
-											for(int s=0; s<table.length; s++){
-												int origStrat=(int) table[s][0];
-												resultsBaseGroup[g][numDim][origStrat]=(double) table[s][4];
-											}
-										}
-									}
-									
-									
 									
 									//Get parameters
 									boolean proceed=true;
@@ -479,6 +419,8 @@ public class frmSensOneWayStacked {
 										intervals=Integer.parseInt(textIntervals.getText());
 										numParams=paramIndices.size();
 										
+										resultsBase=new double[numDim+1][numStrat];
+										resultsBaseGroup=new double[numSubgroups][numDim+1][numStrat];
 										results=new double[numDim+1][numStrat][numParams][intervals+1];
 										resultsGroup=new double[numSubgroups][numDim+1][numStrat][numParams][intervals+1];
 										int analysisType=myModel.dimInfo.analysisType;
@@ -490,17 +432,22 @@ public class frmSensOneWayStacked {
 											CEAnotes=null; CEAnotesGroup=null;
 										}
 										
-										boolean cancelled=false;
-										long startTime=System.currentTimeMillis();
-										double maxProg=numParams*(intervals+1);
-										progress.setMaximum((int)maxProg);
-										
 										paramNames=new String[numParams];
 										paramVals=new double[numParams][2];
 										paramValsBase=new double[numParams];
+										
+										//Grid points - base case, then each parameter at each interval (others at base case)
+										int indices[]=new int[numParams];
+										int firstPoint[]=new int[numParams];
+										ArrayList<double[]> points=new ArrayList<double[]>();
+										double basePoint[]=new double[numParams];
+										Arrays.fill(basePoint, Double.NaN);
+										points.add(basePoint);
 
 										for(int p=0; p<numParams; p++) {
 											int pIndex=paramIndices.get(p);
+											indices[p]=pIndex;
+											firstPoint[p]=-1;
 											String strMin=(String)tableParams.getValueAt(pIndex, 2);
 											String strMax=(String)tableParams.getValueAt(pIndex, 3);
 											strMin=strMin.replaceAll(",",""); //Replace any commas
@@ -523,15 +470,14 @@ public class frmSensOneWayStacked {
 											curParam.value.setDouble(max);
 											ArrayList<String> errorsMax=myModel.parseModel();
 											curParam.value=origValue; //Reset
+											curParam.locked=false;
 											if(errorsMin.size()>0){
 												error=true;
-												curParam.locked=false;
 												myModel.validateModelObjects();
 												JOptionPane.showMessageDialog(frmSensOneWayStacked, "Error: Min value");
 											}
 											if(errorsMax.size()>0){
 												error=true;
-												curParam.locked=false;
 												myModel.validateModelObjects();
 												JOptionPane.showMessageDialog(frmSensOneWayStacked, "Error: Max value");
 											}
@@ -541,95 +487,102 @@ public class frmSensOneWayStacked {
 												curParam.sensMin=strMin;
 												curParam.sensMax=strMax;
 
+												firstPoint[p]=points.size();
 												for(int i=0; i<=intervals; i++){
-													double curVal=min+(step*i);
-													curParam.value.setDouble(curVal);
-													curParam.locked=true;
-													myModel.parseModel();
-													myModel.runModel(null, false);
+													double curPoint[]=new double[numParams];
+													Arrays.fill(curPoint, Double.NaN);
+													curPoint[p]=min+(step*i);
+													points.add(curPoint);
+												}
+											}
+										}  //end parameter loop
+
+										myModel.validateModelObjects();
+										
+										//Run model...
+										final double maxProg=points.size();
+										progress.setMaximum((int)maxProg);
+										final long startTime=System.currentTimeMillis();
+										final GridEngine engine=new GridEngine(myModel);
+										try{
+											engine.run(indices, points.toArray(new double[0][]), new GridEngine.Listener(){
+												public void update(int point, int numComplete){
+													//Update progress
+													double prog=(numComplete/maxProg)*100;
+													long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+													remTime=(long) (remTime*(100-prog));
+													remTime=remTime/1000;
+													String seconds = Integer.toString((int)(remTime % 60));
+													String minutes = Integer.toString((int)(remTime/60));
+													if(seconds.length()<2){seconds="0"+seconds;}
+													if(minutes.length()<2){minutes="0"+minutes;}
+													progress.setProgress(numComplete);
+													progress.setNote("Time left: "+minutes+":"+seconds);
 
+													if(progress.isCanceled()){engine.cancel();}
+												}
+											});
+										} finally{
+											engine.close();
+										}
+										boolean cancelled=engine.isCancelled();
+										
+										if(cancelled==false){
+											//Get baseline results
+											for(int s=0; s<numStrat; s++) {
+												for(int d=0; d<numDim; d++) {
+													resultsBase[d][s]=engine.outcomes[0][d][s][0];
+												}
+											}
+											for(int g=0; g<numSubgroups; g++) {
+												for(int s=0; s<numStrat; s++) {
+													for(int d=0; d<numDim; d++) {
+														resultsBaseGroup[g][d][s]=engine.outcomes[g+1][d][s][0];
+													}
+												}
+											}
+											if(analysisType>0){ //CEA or BCA
+												for(int g=-1; g<numSubgroups; g++){
+													Object table[][]=engine.tables[g+1][0];
+													for(int s=0; s<table.length; s++){	
+														int origStrat=(int) table[s][0];
+														if(origStrat!=-1){
+															if(g==-1){resultsBase[numDim][origStrat]=(double) table[s][4];}
+															else{resultsBaseGroup[g][numDim][origStrat]=(double) table[s][4];}
+														}
+													}
+												}
+											}
+											
+											//Get parameter results
+											for(int p=0; p<numParams; p++){
+												if(firstPoint[p]==-1){continue;} //error
+												for(int i=0; i<=intervals; i++){
+													int n=firstPoint[p]+i;
 													//Get EVs
 													for(int d=0; d<numDim; d++){
 														for(int s=0; s<numStrat; s++){
-															results[d][s][p][i]=myModel.getStrategyEV(s, d);
+															results[d][s][p][i]=engine.outcomes[0][d][s][n];
 															//subgroups
 															for(int g=0; g<numSubgroups; g++){
-																resultsGroup[g][d][s][p][i]=myModel.getSubgroupEV(g,s,d);
+																resultsGroup[g][d][s][p][i]=engine.outcomes[g+1][d][s][n];
 															}
 														}
 													}
-													if(myModel.dimInfo.analysisType==1){ //CEA
-														//overall
-														Object table[][]=new CEAHelper().calculateICERs(myModel,-1,true);
-														for(int s=0; s<table.length; s++){	
-															int origStrat=(int) table[s][0];
-															if(origStrat!=-1){
-																results[numDim][origStrat][p][i]=(double) table[s][4];
-																//CEAnotes[origStrat][i]=(String) table[s][5];
-															}
-														}
-														//subgroups
-														for(int g=0; g<numSubgroups; g++){
-															table=new CEAHelper().calculateICERs(myModel, g, true);
-															for(int s=0; s<table.length; s++){
+													if(analysisType>0){ //CEA or BCA
+														for(int g=-1; g<numSubgroups; g++){
+															Object table[][]=engine.tables[g+1][n];
+															for(int s=0; s<table.length; s++){	
 																int origStrat=(int) table[s][0];
 																if(origStrat!=-1){
-																	resultsGroup[g][numDim][origStrat][p][i]=(double) table[s][4];
-																	//CEAnotesGroup[g][origStrat][i]=(String) table[s][5];
+																	if(g==-1){results[numDim][origStrat][p][i]=(double) table[s][4];}
+																	else{resultsGroup[g][numDim][origStrat][p][i]=(double) table[s][4];}
 																}
 															}
 														}
 													}
-													else if(myModel.dimInfo.analysisType==2){
-														Object table[][]=new CEAHelper().calculateNMB(myModel,-1,true);
-														for(int s=0; s<table.length; s++){	
-															int origStrat=(int) table[s][0];
-															results[numDim][origStrat][p][i]=(double) table[s][4];
-														}
-														//subgroups
-														for(int g=0; g<numSubgroups; g++){
-															table=new CEAHelper().calculateNMB(myModel, g, true);
-															for(int s=0; s<table.length; s++){
-																int origStrat=(int) table[s][0];
-																resultsGroup[g][numDim][origStrat][p][i]=(double) table[s][4];
-															}
-														}
-													}
-													
-													
-													
-													//Update progress
-													double prog=((p*intervals+i)/maxProg)*100;
-													long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-													remTime=(long) (remTime*(100-prog));
-													remTime=remTime/1000;
-													String seconds = Integer.toString((int)(remTime % 60));
-													String minutes = Integer.toString((int)(remTime/60));
-													if(seconds.length()<2){seconds="0"+seconds;}
-													if(minutes.length()<2){minutes="0"+minutes;}
-													progress.setProgress(p*intervals+i);
-													progress.setNote("Time left: "+minutes+":"+seconds);
-
-													if(progress.isCanceled()){ //End loop
-														cancelled=true;
-														i=intervals+1;
-														p=numParams;
-													}
-													
-												} //end interval loop
-
-												//Reset param value
-												curParam.value=origValue;
-												curParam.locked=false;
-
-
-											} //end error check
-										}  //end parameter loop
-
-										myModel.validateModelObjects();
-
-										if(myModel.type==1) {
-											myModel.markov.showTrace=origShowTrace;
+												}
+											}
 										}
 
 										if(cancelled==false){
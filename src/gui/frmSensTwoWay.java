@@ -75,8 +75,8 @@ import org.jfree.data.Range;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
+import base.GridEngine;
 import filters.CSVFilter;
-import main.CEAHelper;
 import main.DimInfo;
 import main.Parameter;
 import math.Numeric;
@@ -491,15 +491,6 @@ public class frmSensTwoWay {
 									}
 
 									if(error==false){
-										boolean cancelled=false;
-										//Run model...
-
-										boolean origShowTrace=false;
-										if(myModel.type==1) {
-											origShowTrace=myModel.markov.showTrace;
-											myModel.markov.showTrace=false;
-										}
-
 										int group=-1;
 										if(comboGroup.isEnabled()){group=comboGroup.getSelectedIndex()-1;}
 
@@ -509,25 +500,56 @@ public class frmSensTwoWay {
 										bestStrategy=new int[intervals+1][intervals+1];
 										param1Vals=new double[intervals+1][intervals+1];
 										param2Vals=new double[intervals+1][intervals+1];
-										int numRuns=(intervals+1)*(intervals+1);
+										final int numRuns=(intervals+1)*(intervals+1);
 										progress.setMaximum(numRuns);
 
-										long startTime=System.currentTimeMillis();
-
+										//Grid points
+										double points[][]=new double[numRuns][2];
 										int count=0;
 										for(int i=0; i<=intervals; i++){
 											double curVal1=min1+(step1*i);
-											curParam1.value.setDouble(curVal1);
 											for(int j=0; j<=intervals; j++){
 												double curVal2=min2+(step2*j);
 												param1Vals[i][j]=curVal1;
 												param2Vals[i][j]=curVal2;
-												
-												curParam2.value.setDouble(curVal2);
-												curParam1.locked=true; curParam2.locked=true;
-												myModel.parseModel();
-												myModel.runModel(null, false);
+												points[count][0]=curVal1;
+												points[count][1]=curVal2;
+												count++;
+											}
+										}
+
+										//Run model...
+										final long startTime=System.currentTimeMillis();
+										final GridEngine engine=new GridEngine(myModel);
+										try{
+											engine.run(new int[]{row1,row2}, points, new GridEngine.Listener(){
+												public void update(int point, int numComplete){
+													//Update progress
+													double prog=(numComplete/(numRuns*1.0))*100;
+													long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+													remTime=(long) (remTime*(100-prog));
+													remTime=remTime/1000;
+													String seconds = Integer.toString((int)(remTime % 60));
+													String minutes = Integer.toString((int)(remTime/60));
+													if(seconds.length()<2){seconds="0"+seconds;}
+													if(minutes.length()<2){minutes="0"+minutes;}
+													progress.setProgress(numComplete);
+													progress.setNote("Time left: "+minutes+":"+seconds);
+
+													if(progress.isCanceled()){engine.cancel();}
+												}
+											});
+										} finally{
+											engine.close();
+										}
+										boolean cancelled=engine.isCancelled();
+										double outcomes[][][]=engine.outcomes[group+1];
+										Object tables[][][]=null;
+										if(engine.tables!=null){tables=engine.tables[group+1];}
 
+										count=0;
+										for(int i=0; i<=intervals && !cancelled; i++){
+											for(int j=0; j<=intervals; j++){
 												if(analysisType==0){ //EV
 													double maxEV=Double.NEGATIVE_INFINITY;
 													double minEV=Double.POSITIVE_INFINITY;
@@ -535,9 +557,7 @@ public class frmSensTwoWay {
 													for(int s=0; s<numStrat; s++){
 														//dataEV[s][0][count]=curVal1;
 														//dataEV[s][1][count]=Double.NaN;
-														double curOutcome;
-														if(group==-1){curOutcome=myModel.getStrategyEV(s, dim);}
-														else{curOutcome=myModel.getSubgroupEV(group, s, dim);}
+														double curOutcome=outcomes[dim][s][count];
 														if(curOutcome>maxEV){maxEV=curOutcome; maxStrat=s;}
 														if(curOutcome<minEV){minEV=curOutcome; minStrat=s;}
 														dataSurface[s][i][j]=curOutcome;
@@ -560,15 +580,8 @@ public class frmSensTwoWay {
 													int bestStrat=-1;
 
 													for(int s=0; s<numStrat; s++) {
-														double cost=0, effect=0;
-														if(group==-1){
-															cost=myModel.getStrategyEV(s, costDim);
-															effect=myModel.getStrategyEV(s, effectDim);
-														}
-														else{
-															cost=myModel.getSubgroupEV(group, s, costDim);
-															effect=myModel.getSubgroupEV(group, s, effectDim);
-														}
+														double cost=outcomes[costDim][s][count];
+														double effect=outcomes[effectDim][s][count];
 														double curNMB=(effect*wtp)-cost;
 														if(curNMB>maxNMB) {
 															maxNMB=curNMB;
@@ -579,7 +592,7 @@ public class frmSensTwoWay {
 
 													//get ICERs or NMBs
 													if(analysisType==1){ //CEA
-														Object table[][]=new CEAHelper().calculateICERs(myModel,group,true);
+														Object table[][]=tables[count];
 														double bestICER=Double.NEGATIVE_INFINITY;
 														bestStrat=-1;
 														for(int s=0; s<table.length; s++){	
@@ -600,7 +613,7 @@ public class frmSensTwoWay {
 														}
 													}
 													else if(analysisType==2){ //BCA
-														Object table[][]=new CEAHelper().calculateNMB(myModel,group,true);
+														Object table[][]=tables[count];
 														maxNMB=Double.NEGATIVE_INFINITY;
 														int maxStrat=-1;
 														for(int s=0; s<table.length; s++){	
@@ -619,23 +632,6 @@ public class frmSensTwoWay {
 												}
 
 												count++;
-												//Update progress
-												double prog=(count/(numRuns*1.0))*100;
-												long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-												remTime=(long) (remTime*(100-prog));
-												remTime=remTime/1000;
-												String seconds = Integer.toString((int)(remTime % 60));
-												String minutes = Integer.toString((int)(remTime/60));
-												if(seconds.length()<2){seconds="0"+seconds;}
-												if(minutes.length()<2){minutes="0"+minutes;}
-												progress.setProgress(count);
-												progress.setNote("Time left: "+minutes+":"+seconds);
-
-												if(progress.isCanceled()){ //End loop
-													cancelled=true;
-													j=intervals+1;
-													i=intervals+1;
-												}
 											}
 										}
 										//Reset parameter values
@@ -643,10 +639,6 @@ public class frmSensTwoWay {
 										curParam1.locked=false; curParam2.locked=false;
 										myModel.validateModelObjects();
 
-										if(myModel.type==1) {
-											myModel.markov.showTrace=origShowTrace;
-										}
-
 										if(cancelled==false){
 											//Update chart
 											chart.getXYPlot().getDomainAxis().setLabel(curParam1.name);
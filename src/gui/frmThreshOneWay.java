@@ -49,7 +49,7 @@ import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.xy.DefaultXYDataset;
 
 import base.AmuaModel;
-import main.CEAHelper;
+import base.GridEngine;
 import main.DimInfo;
 import main.Parameter;
 import math.MathUtils;
@@ -399,8 +399,6 @@ public class frmThreshOneWay {
 									}
 
 									if(error==false){
-										boolean cancelled=false;
-										//Run model...
 										int numStrat=myModel.strategyNames.length;
 										double minDist=Double.POSITIVE_INFINITY;
 										int minIndex=-1;
@@ -410,47 +408,40 @@ public class frmThreshOneWay {
 										if(analysisType==1){CEAnotes=new String[numStrat][intervals+1];} //CEA
 										else{CEAnotes=null;}
 										
-										boolean origShowTrace=false;
-										if(myModel.type==1) {
-											origShowTrace=myModel.markov.showTrace;
-											myModel.markov.showTrace=false;
+										//Run model...
+										double points[][]=new double[intervals+1][1];
+										for(int i=0; i<=intervals; i++){
+											points[i][0]=min+(step*i);
 										}
+										final GridEngine engine=new GridEngine(myModel);
+										engine.run(new int[]{row}, points, new GridEngine.Listener(){
+											public void update(int point, int numComplete){
+												progress.setProgress(numComplete);
+												if(progress.isCanceled()){engine.cancel();}
+											}
+										});
+										boolean cancelled=engine.isCancelled();
 										
 										double diffs[]=new double[intervals+1];
-										for(int i=0; i<=intervals; i++){
-											double curVal=min+(step*i);
-											curParam.value.setDouble(curVal);
-											curParam.locked=true;
-											myModel.parseModel();
-											myModel.runModel(null, false);
-											
+										for(int i=0; i<=intervals && !cancelled; i++){
+											double curVal=points[i][0];
 											if(analysisType==0){ //EV
 												for(int s=0; s<numStrat; s++){
 													dataEV[s][0][i]=curVal;
-													if(group==-1){dataEV[s][1][i]=myModel.getStrategyEV(s, dim);}
-													else{dataEV[s][1][i]=myModel.getSubgroupEV(group, s, dim);}
+													dataEV[s][1][i]=engine.outcomes[group+1][dim][s][i];
 												}
 											}
-											else if(analysisType==1){ //CEA
-												Object table[][]=new CEAHelper().calculateICERs(myModel,group,true);
+											else{ //CEA or BCA
+												Object table[][]=engine.tables[group+1][i];
 												for(int s=0; s<table.length; s++){	
 													int origStrat=(int) table[s][0];
 													if(origStrat!=-1){
 														dataEV[origStrat][0][i]=curVal;
 														dataEV[origStrat][1][i]=(double) table[s][4];
-														CEAnotes[origStrat][i]=(String) table[s][5];
+														if(analysisType==1){CEAnotes[origStrat][i]=(String) table[s][5];}
 													}
 												}
 											}
-											else if(analysisType==2){ //BCA
-												Object table[][]=new CEAHelper().calculateNMB(myModel,group,true);
-												for(int s=0; s<table.length; s++){	
-													int origStrat=(int) table[s][0];
-													dataEV[origStrat][0][i]=curVal;
-													dataEV[origStrat][1][i]=(double) table[s][4];
-												}
-											}
-											
 											
 											diffs[i]=dataEV[strat1][1][i]-dataEV[strat2][1][i];
 											double curDist=Math.abs(diffs[i]);
@@ -458,11 +449,6 @@ public class frmThreshOneWay {
 												minDist=curDist;
 												minIndex=i;
 											}
-											progress.setProgress(i);
-											if(progress.isCanceled()){ //End loop
-												cancelled=true;
-												i=intervals+1;
-											}
 										}
 
 										if(cancelled==false){
@@ -497,79 +483,14 @@ public class frmThreshOneWay {
 														progress.setProgress(i);
 														progress.setNote("Distance: "+MathUtils.round(minDist, dec));
 														
-														//Left
+														//Left and right
 														double valL=minVal-(step/2.0);
 														valL=Math.max(valL, min); //floor of min
-														curParam.value.setDouble(valL);
-														curParam.locked=true;
-														myModel.parseModel();
-														myModel.runModel(null, false);
-														
-														double result1L=0, result2L=0;
-														if(analysisType==0){ //EV
-															if(group==-1){
-																result1L=myModel.getStrategyEV(strat1, dim);
-																result2L=myModel.getStrategyEV(strat2, dim);
-															}
-															else{
-																result1L=myModel.getSubgroupEV(group,strat1, dim);
-																result2L=myModel.getSubgroupEV(group,strat2, dim);
-															}
-														}
-														else if(analysisType==1){ //CEA
-															Object table[][]=new CEAHelper().calculateICERs(myModel,group,true);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1L=(double) table[s][4];}
-																if(origStrat==strat2){result2L=(double) table[s][4];}
-															}
-														}
-														else if(analysisType==2){ //BCA
-															Object table[][]=new CEAHelper().calculateNMB(myModel,group,true);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1L=(double) table[s][4];}
-																if(origStrat==strat2){result2L=(double) table[s][4];}
-															}
-														}
-														double distL=Math.abs(result1L-result2L);
-														
-														//Right
 														double valR=minVal+(step/2.0);
 														valR=Math.min(valR, max); //ceiling of max
-														curParam.value.setDouble(valR);
-														curParam.locked=true;
-														myModel.parseModel();
-														myModel.runModel(null, false);
-														
-														double result1R=0, result2R=0;
-														if(analysisType==0){ //EV
-															if(group==-1){
-																result1R=myModel.getStrategyEV(strat1, dim);
-																result2R=myModel.getStrategyEV(strat2, dim);
-															}
-															else{
-																result1R=myModel.getSubgroupEV(group,strat1, dim);
-																result2R=myModel.getSubgroupEV(group,strat2, dim);
-															}
-														}
-														else if(analysisType==1){ //CEA
-															Object table[][]=new CEAHelper().calculateICERs(myModel,group,true);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1R=(double) table[s][4];}
-																if(origStrat==strat2){result2R=(double) table[s][4];}
-															}
-														}
-														else if(analysisType==2){ //BCA
-															Object table[][]=new CEAHelper().calculateNMB(myModel,group,true);
-															for(int s=0; s<table.length; s++){	
-																int origStrat=(int) table[s][0];
-																if(origStrat==strat1){result1R=(double) table[s][4];}
-																if(origStrat==strat2){result2R=(double) table[s][4];}
-															}
-														}
-														double distR=Math.abs(result1R-result2R);
+														engine.run(new int[]{row}, new double[][]{{valL},{valR}}, null);
+														double distL=getDistance(engine,0,group,dim,analysisType,strat1,strat2);
+														double distR=getDistance(engine,1,group,dim,analysisType,strat1,strat2);
 														
 														//Move to lowest dist (or stay)
 														if(distL<minDist){
@@ -629,15 +550,13 @@ public class frmThreshOneWay {
 											plot.addDomainMarker(new ValueMarker(baselineParamValue, Color.BLACK, fill));
 										}
 
+										engine.close();
+
 										//Reset param value
 										curParam.value=origValue;
 										curParam.locked=false;
 										myModel.validateModelObjects();
 										
-										if(myModel.type==1) {
-											myModel.markov.showTrace=origShowTrace;
-										}
-										
 										progress.close();
 									}
 								}
@@ -678,4 +597,24 @@ public class frmThreshOneWay {
 			myModel.errorLog.recordError(ex);
 		}
 	}
+
+	/**
+	 * Returns distance between the outcomes (EV, ICER, or NMB) of the 2 strategies at a grid point
+	 */
+	private double getDistance(GridEngine engine, int point, int group, int dim, int analysisType, int strat1, int strat2){
+		double result1=0, result2=0;
+		if(analysisType==0){ //EV
+			result1=engine.outcomes[group+1][dim][strat1][point];
+			result2=engine.outcomes[group+1][dim][strat2][point];
+		}
+		else{ //CEA or BCA
+			Object table[][]=engine.tables[group+1][point];
+			for(int s=0; s<table.length; s++){	
+				int origStrat=(int) table[s][0];
+				if(origStrat==strat1){result1=(double) table[s][4];}
+				if(origStrat==strat2){result2=(double) table[s][4];}
+			}
+		}
+		return(Math.abs(result1-result2));
+	}
 }
@@ -28,6 +28,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.awt.event.ActionEvent;
 
@@ -62,8 +63,8 @@ import org.jfree.chart.renderer.category.StandardBarPainter;
 import org.jfree.data.category.DefaultIntervalCategoryDataset;
 
 import base.AmuaModel;
+import base.GridEngine;
 import filters.CSVFilter;
-import main.CEAHelper;
 import main.DimInfo;
 import main.Parameter;
 import math.Numeric;
@@ -476,56 +477,17 @@ public class frmTornadoDiagram {
 									
 									if(proceed==true) {
 
-										boolean origShowTrace=false;
-										if(myModel.type==1) {
-											origShowTrace=myModel.markov.showTrace;
-											myModel.markov.showTrace=false;
-										}
-										progress.setMaximum(numRuns+1);
-										int curProg=1;
-										progress.setProgress(curProg);
-
-										//Get baseline
-										myModel.runModel(null, false);
-										curProg++; progress.setProgress(curProg);
-
-										baseOutcomes=new double[1+numSubgroups][numStrategies][numOutcomes];
-
-										int numDim=myModel.dimInfo.dimNames.length;
-										for(int s=0; s<numStrategies; s++) {
-											for(int d=0; d<numDim; d++) {
-												baseOutcomes[0][s][d]=myModel.getStrategyEV(s, d); //overall
-												//subgroups
-												for(int g=0; g<numSubgroups; g++) {
-													baseOutcomes[g+1][s][d]=myModel.getSubgroupEV(g, s, d);
-												}
-											}
-										}
-										if(myModel.dimInfo.analysisType>0) { // CEA/BCA
-											//overall
-											Object table[][]=null;
-											if(myModel.dimInfo.analysisType==1) {table=new CEAHelper().calculateICERs(myModel,-1,true);}
-											else if(myModel.dimInfo.analysisType==2) {table=new CEAHelper().calculateNMB(myModel,-1,true);}
-											for(int s=0; s<table.length; s++){	
-												int origStrat=(int) table[s][0];
-												baseOutcomes[0][origStrat][numDim]=(double) table[s][4];
-											}
-											//subgroups
-											for(int g=0; g<numSubgroups; g++) {
-												table=new CEAHelper().calculateICERs(myModel,g,true);
-												for(int s=0; s<table.length; s++){	
-													int origStrat=(int) table[s][0];
-													baseOutcomes[g+1][origStrat][numDim]=(double) table[s][4];
-												}
-											}
-										}
-										
 										numParams=paramIndices.size();
-										results=new double[1+numSubgroups][numStrategies][numOutcomes][numParams][2];
 										paramNames=new String[numParams];
+										int indices[]=new int[numParams];
 										
-										for(int p=0; p<numParams; p++){
+										//Grid points - baseline, then min and max of each parameter (others at base case)
+										double points[][]=new double[numRuns][numParams];
+										for(int n=0; n<numRuns; n++){Arrays.fill(points[n], Double.NaN);}
+										boolean error=false;
+										for(int p=0; p<numParams && error==false; p++){
 											int pIndex=paramIndices.get(p);
+											indices[p]=pIndex;
 											paramNames[p]=(String)tableParams.getValueAt(pIndex, 0);
 											String strMin=(String)tableParams.getValueAt(pIndex, 2);
 											String strMax=(String)tableParams.getValueAt(pIndex, 3);
@@ -539,112 +501,68 @@ public class frmTornadoDiagram {
 
 											Numeric origValue=curParam.value.copy();
 
-											//Min
+											//Test parameter at min and max...
 											curParam.value.setDouble(min);
 											curParam.locked=true;
 											ArrayList<String> errorsMin=myModel.parseModel();
+											curParam.value.setDouble(max);
+											ArrayList<String> errorsMax=myModel.parseModel();
+											curParam.value=origValue;
+											curParam.locked=false;
 											if(errorsMin.size()>0){
-												curParam.value=origValue;
-												curParam.locked=false;
-												myModel.validateModelObjects();
+												error=true;
 												JOptionPane.showMessageDialog(frmTornadoDiagram, "Error: "+paramNames[p]+" - Min value");
-												break;
 											}
-											else{
-												myModel.parseModel();
-												myModel.runModel(null, false);
-												curProg++; progress.setProgress(curProg);
-
-												//get results
-												for(int s=0; s<numStrategies; s++) {
-													for(int d=0; d<numDim; d++) {
-														results[0][s][d][p][0]=myModel.getStrategyEV(s, d); //overall
-														//subgroups
-														for(int g=0; g<numSubgroups; g++) {
-															results[g+1][s][d][p][0]=myModel.getSubgroupEV(g, s, d);
-														}
-													}
-												}
-												if(myModel.dimInfo.analysisType>0) { // CEA/BCA
-													//overall
-													Object table[][]=null;
-													if(myModel.dimInfo.analysisType==1) {table=new CEAHelper().calculateICERs(myModel,-1,true);}
-													else if(myModel.dimInfo.analysisType==2) {table=new CEAHelper().calculateNMB(myModel,-1,true);}
-													for(int s=0; s<table.length; s++){	
-														int origStrat=(int) table[s][0];
-														results[0][origStrat][numDim][p][0]=(double) table[s][4];
-													}
-													//subgroups
-													for(int g=0; g<numSubgroups; g++) {
-														table=new CEAHelper().calculateICERs(myModel,g,true);
-														for(int s=0; s<table.length; s++){	
-															int origStrat=(int) table[s][0];
-															results[g+1][origStrat][numDim][p][0]=(double) table[s][4];
-														}
-													}
-												}
-											}
-
-											//Max
-											curParam.value.setDouble(max);
-											curParam.locked=true;
-											ArrayList<String> errorsMax=myModel.parseModel();
-											if(errorsMax.size()>0){
-												curParam.value=origValue;
-												curParam.locked=false;
-												myModel.validateModelObjects();
+											else if(errorsMax.size()>0){
+												error=true;
 												JOptionPane.showMessageDialog(frmTornadoDiagram, "Error: "+paramNames[p]+" - Max value");
-												break;
 											}
-											else{
-												myModel.parseModel();
-												myModel.runModel(null, false);
-												curProg++; progress.setProgress(curProg);
-
-												//get results
-												for(int s=0; s<numStrategies; s++) {
-													for(int d=0; d<numDim; d++) {
-														results[0][s][d][p][1]=myModel.getStrategyEV(s, d); //overall
-														//subgroups
-														for(int g=0; g<numSubgroups; g++) {
-															results[g+1][s][d][p][1]=myModel.getSubgroupEV(g, s, d);
-														}
-													}
-												}
-												if(myModel.dimInfo.analysisType>0) { // CEA/BCA
-													//overall
-													Object table[][]=null;
-													if(myModel.dimInfo.analysisType==1) {table=new CEAHelper().calculateICERs(myModel,-1,true);}
-													else if(myModel.dimInfo.analysisType==2) {table=new CEAHelper().calculateNMB(myModel,-1,true);}
-													for(int s=0; s<table.length; s++){	
-														int origStrat=(int) table[s][0];
-														results[0][origStrat][numDim][p][1]=(double) table[s][4];
+											points[1+p*2][p]=min;
+											points[2+p*2][p]=max;
+										} //end param loop
+										myModel.validateModelObjects();
+
+										if(error==false){
+											//Run model...
+											progress.setMaximum(numRuns);
+											final GridEngine engine=new GridEngine(myModel);
+											try{
+												engine.run(indices, points, new GridEngine.Listener(){
+													public void update(int point, int numComplete){
+														progress.setProgress(numComplete);
+														if(progress.isCanceled()){engine.cancel();}
 													}
-													//subgroups
-													for(int g=0; g<numSubgroups; g++) {
-														table=new CEAHelper().calculateICERs(myModel,g,true);
-														for(int s=0; s<table.length; s++){	
-															int origStrat=(int) table[s][0];
-															results[g+1][origStrat][numDim][p][1]=(double) table[s][4];
+												});
+											} finally{
+												engine.close();
+											}
+
+											if(engine.isCancelled()==false){
+												//Get baseline
+												baseOutcomes=new double[1+numSubgroups][numStrategies][numOutcomes];
+												getOutcomes(engine,0,baseOutcomes);
+
+												//Get results
+												results=new double[1+numSubgroups][numStrategies][numOutcomes][numParams][2];
+												double curOutcomes[][][]=new double[1+numSubgroups][numStrategies][numOutcomes];
+												for(int p=0; p<numParams; p++){
+													for(int k=0; k<2; k++){ //min, max
+														getOutcomes(engine,1+p*2+k,curOutcomes);
+														for(int g=0; g<1+numSubgroups; g++){
+															for(int s=0; s<numStrategies; s++){
+																for(int d=0; d<numOutcomes; d++){
+																	results[g][s][d][p][k]=curOutcomes[g][s][d];
+																}
+															}
 														}
 													}
 												}
-
-												curParam.value=origValue;
-												curParam.locked=false;
+												
+												enablePlot(true);
+												btnExport.setEnabled(true);
 											}
-
-										} //end param loop
-										progress.close();
-
-										myModel.validateModelObjects();
-
-										enablePlot(true);
-										btnExport.setEnabled(true);
-
-										if(myModel.type==1) {
-											myModel.markov.showTrace=origShowTrace;
 										}
+										progress.close();
 
 									} //end proceed check
 								}
@@ -679,6 +597,27 @@ public class frmTornadoDiagram {
 		
 	}
 
+	/**
+	 * Gets EVs (and ICERs/NMBs) of a grid point [group][strategy][outcome]
+	 */
+	private void getOutcomes(GridEngine engine, int point, double outcomes[][][]){
+		int numDim=myModel.dimInfo.dimNames.length;
+		for(int g=0; g<1+numSubgroups; g++){
+			for(int s=0; s<numStrategies; s++){
+				for(int d=0; d<numDim; d++){
+					outcomes[g][s][d]=engine.outcomes[g][d][s][point];
+				}
+			}
+			if(engine.tables!=null){ //CEA/BCA
+				Object table[][]=engine.tables[g][point];
+				for(int s=0; s<table.length; s++){	
+					int origStrat=(int) table[s][0];
+					if(origStrat!=-1){outcomes[g][origStrat][numDim]=(double) table[s][4];}
+				}
+			}
+		}
+	}
+
 	private void enablePlot(boolean enabled) {
 		lblStrategies.setEnabled(enabled);
 		listStrategies.setEnabled(enabled);
@@ -31,6 +31,11 @@ public class Amua {
 	 * Launch the application.
 	 */
 	public static void main(String[] args) {
+		if(args.length>0){ //command line run, no GUI
+			AmuaCLI.main(args);
+			return;
+		}
+		
 		//get current OS
 		String curOS=System.getProperty("os.name").toLowerCase();
 		if(curOS.contains("mac")){ //if Mac
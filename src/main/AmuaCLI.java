@@ -0,0 +1,503 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+
+import base.AmuaModel;
+import base.PSAEngine;
+import base.ResultMerger;
+import base.ResultWriter;
+import gui.frmMain;
+import math.MathUtils;
+
+/**
+ * Runs PSA, batch and scenario analyses from the command line without a GUI.
+ * Usage: Amua -model file.amua -analysis psa|batch|scenarios [-iterations N] [-threads T] [-seed S] [-scenario name] [-out file] [-format csv|bin]
+ * Runs can be split into shards (-shard k/K) that each run a disjoint range of iterations with seeds derived from the iteration,
+ * and partial results combined with -analysis merge.  -shards K runs all shards as local processes and merges them.
+ */
+public class AmuaCLI{
+	String modelPath;
+	String analysis="psa";
+	int numIterations=1000;
+	int numThreads=-1;
+	boolean useSeed=false;
+	int seed;
+	ArrayList<String> scenarioNames=new ArrayList<String>();
+	String outPath=null;
+	boolean binary=false;
+	int shard=0, numShards=0; //shard k of K (1-based), 0 if not sharded
+	int numLocalShards=0;
+	ArrayList<String> inPaths=new ArrayList<String>();
+	String summaryPath=null;
+	ArrayList<String> shardArgs=new ArrayList<String>(); //arguments passed on to local shard processes
+
+	ErrorLog errorLog;
+	ResultWriter writer;
+	int numParams, numStrat, numDim, numSubgroups;
+
+	public static void main(String[] args){
+		System.setProperty("java.awt.headless", "true"); //never initialize AWT
+		int status=0;
+		try{
+			AmuaCLI cli=new AmuaCLI();
+			if(cli.parseArgs(args)==false){
+				printUsage();
+				status=2;
+			}
+			else{
+				cli.run();
+			}
+		} catch(Exception e){
+			System.err.println("Error: "+e.getMessage());
+			e.printStackTrace();
+			status=1;
+		}
+		System.exit(status);
+	}
+
+	static void printUsage(){
+		System.err.println("Usage: Amua -model file.amua -analysis psa|batch|scenarios [options]");
+		System.err.println("       Amua -analysis merge -in file [-in file ...] [-out file] [-summary file]");
+		System.err.println("  -iterations N   Number of iterations (psa/batch, default 1000)");
+		System.err.println("  -threads T      Number of threads (default model setting)");
+		System.err.println("  -seed S         Seed for parameter sampling (psa) or model runs (batch)");
+		System.err.println("  -scenario name  Scenario to run (repeatable, default all)");
+		System.err.println("  -out file       Output file (default standard output)");
+		System.err.println("  -format csv|bin Output format (default csv)");
+		System.err.println("  -shard k/K      Run shard k of K (iterations split evenly, seeds derived from model seed and iteration)");
+		System.err.println("  -shards K       Run K shards as local processes and merge results (requires -out)");
+		System.err.println("  -in file        Partial results to merge (repeatable)");
+		System.err.println("  -summary file   Write mean and 95% interval of each column per run (CSV)");
+	}
+
+	boolean parseArgs(String args[]){
+		int i=0;
+		while(i<args.length){
+			String arg=args[i];
+			if(i+1>=args.length){
+				System.err.println("Missing value for "+arg);
+				return(false);
+			}
+			String value=args[i+1];
+			try{
+				if(arg.equals("-model")){modelPath=value;}
+				else if(arg.equals("-analysis")){analysis=value.toLowerCase();}
+				else if(arg.equals("-iterations")){numIterations=Integer.parseInt(value);}
+				else if(arg.equals("-threads")){numThreads=Integer.parseInt(value);}
+				else if(arg.equals("-seed")){useSeed=true; seed=Integer.parseInt(value);}
+				else if(arg.equals("-scenario")){scenarioNames.add(value);}
+				else if(arg.equals("-out")){outPath=value;}
+				else if(arg.equals("-format")){
+					if(value.equalsIgnoreCase("bin")){binary=true;}
+					else if(value.equalsIgnoreCase("csv")){binary=false;}
+					else{
+						System.err.println("Unknown format: "+value);
+						return(false);
+					}
+				}
+				else if(arg.equals("-shard")){
+					String parts[]=value.split("/");
+					if(parts.length!=2){
+						System.err.println("Shard should be k/K: "+value);
+						return(false);
+					}
+					shard=Integer.parseInt(parts[0]);
+					numShards=Integer.parseInt(parts[1]);
+					if(numShards<1 || shard<1 || shard>numShards){
+						System.err.println("Invalid shard: "+value);
+						return(false);
+					}
+				}
+				else if(arg.equals("-shards")){numLocalShards=Integer.parseInt(value);}
+				else if(arg.equals("-in")){inPaths.add(value);}
+				else if(arg.equals("-summary")){summaryPath=value;}
+				else{
+					System.err.println("Unknown option: "+arg);
+					return(false);
+				}
+				if(!arg.equals("-shards") && !arg.equals("-out") && !arg.equals("-format") && !arg.equals("-summary") && !arg.equals("-threads")){
+					shardArgs.add(arg); shardArgs.add(value);
+				}
+			} catch(NumberFormatException e){
+				System.err.println("Invalid number for "+arg+": "+value);
+				return(false);
+			}
+			i+=2;
+		}
+		if(analysis.equals("merge")){
+			if(inPaths.size()==0){
+				System.err.println("No results to merge");
+				return(false);
+			}
+			return(true);
+		}
+		if(modelPath==null){
+			System.err.println("No model specified");
+			return(false);
+		}
+		if(numLocalShards>0 && (outPath==null || numShards>0)){
+			System.err.println("-shards requires -out and can't be used with -shard");
+			return(false);
+		}
+		if(!analysis.equals("psa") && !analysis.equals("batch") && !analysis.equals("scenarios")){
+			System.err.println("Unknown analysis: "+analysis);
+			return(false);
+		}
+		if(numIterations<1){
+			System.err.println("Number of iterations must be at least 1");
+			return(false);
+		}
+		return(true);
+	}
+
+	void run() throws Exception{
+		if(analysis.equals("merge")){
+			merge(inPaths);
+			return;
+		}
+		if(numLocalShards>0){
+			runLocalShards();
+			return;
+		}
+		errorLog=new ErrorLog(frmMain.version); //compile-time constant, GUI is not loaded
+		writer=new ResultWriter(outPath,binary);
+		if(numShards>0){writer.setShard(shard, numShards);}
+		try{
+			if(analysis.equals("scenarios")){runScenarios();}
+			else{
+				AmuaModel myModel=openModel();
+				if(analysis.equals("psa")){
+					if(myModel.parameters.size()==0){throw new Exception("No parameters to sample");}
+					writer.addRun("PSA", numIterations);
+					writer.writeHeaders(getHeaders(myModel,true,myModel.dimInfo.analysisType==1,myModel.dimInfo.analysisType==2));
+					PSAEngine engine=createEngine(myModel,numIterations);
+					if(numShards>0){engine.setIterationSeeds(useSeed ? seed : myModel.crnSeed, myModel.crnSeed);}
+					else if(useSeed){engine.setSeed(seed);}
+					runEngine(engine,myModel,"PSA",true,false);
+				}
+				else{ //batch
+					writer.addRun("Batch", numIterations);
+					writer.writeHeaders(getHeaders(myModel,false,myModel.dimInfo.analysisType==1,myModel.dimInfo.analysisType==2));
+					PSAEngine engine=createEngine(myModel,numIterations);
+					engine.setBaseCase();
+					int runSeed=useSeed ? seed : myModel.crnSeed;
+					if(numShards>0){engine.setIterationSeeds(runSeed, runSeed);}
+					else if(useSeed){engine.setRunSeed(seed);}
+					runEngine(engine,myModel,"Batch",false,false);
+				}
+				myModel.getScheduler().shutdown();
+			}
+		} finally{
+			writer.close();
+		}
+		if(errorLog.errors!=null && errorLog.errors.size()>0){
+			for(int e=0; e<errorLog.errors.size(); e++){System.err.println(errorLog.errors.get(e));}
+		}
+	}
+
+	/**
+	 * Each scenario is run on a freshly opened model, with parameters and ICER/NMB columns in all rows so the output has the same columns for every scenario
+	 */
+	void runScenarios() throws Exception{
+		AmuaModel myModel=openModel();
+		if(myModel.scenarios==null || myModel.scenarios.size()==0){throw new Exception("No scenarios defined");}
+		ArrayList<String> names=new ArrayList<String>();
+		if(scenarioNames.size()==0){
+			for(int s=0; s<myModel.scenarios.size(); s++){names.add(myModel.scenarios.get(s).name);}
+		}
+		else{
+			for(int s=0; s<scenarioNames.size(); s++){
+				if(getScenario(myModel,scenarioNames.get(s))==null){throw new Exception("Scenario not found: "+scenarioNames.get(s));}
+				names.add(scenarioNames.get(s));
+			}
+		}
+		for(int i=0; i<names.size(); i++){
+			writer.addRun(names.get(i), Math.max(1, getScenario(myModel,names.get(i)).numIterations));
+		}
+		writer.writeHeaders(getHeaders(myModel,true,true,true));
+		myModel.getScheduler().shutdown();
+
+		for(int i=0; i<names.size(); i++){
+			AmuaModel curModel=openModel();
+			Scenario curScenario=getScenario(curModel,names.get(i));
+			System.err.println("Scenario: "+curScenario.name);
+			curScenario.parseUpdates(curModel);
+			curScenario.applyUpdates(curModel);
+			curModel.validateModelObjects();
+			ArrayList<String> errors=curModel.parseModel();
+			if(errors.size()>0){throw new Exception("Scenario "+curScenario.name+": "+errors.get(0));}
+			curScenario.applySettings(curModel);
+
+			PSAEngine engine=createEngine(curModel,Math.max(1, curScenario.numIterations));
+			if(curScenario.sampleParams){
+				if(numShards>0){engine.setIterationSeeds(curScenario.crn2 ? curScenario.seed2 : curScenario.seed1, curScenario.seed1);}
+				else if(curScenario.crn2){engine.setSeed(curScenario.seed2);}
+			}
+			else{
+				if(curScenario.useParamSets && curModel.parameterSets!=null && curModel.parameterSets.length>0){
+					engine.setParameterSets(curScenario);
+				}
+				else{
+					engine.setBaseCase();
+				}
+				if(numShards>0){engine.setIterationSeeds(curScenario.seed1, curScenario.seed1);}
+			}
+			runEngine(engine,curModel,curScenario.name,true,true);
+			curModel.getScheduler().shutdown();
+		}
+	}
+
+	/**
+	 * Creates engine for this shard's range of iterations (all iterations if not sharded)
+	 */
+	PSAEngine createEngine(AmuaModel myModel, int totalIterations){
+		if(numShards==0){return(new PSAEngine(myModel,totalIterations));}
+		int first=(int)(((long)totalIterations*(shard-1))/numShards);
+		int last=(int)(((long)totalIterations*shard)/numShards);
+		PSAEngine engine=new PSAEngine(myModel,last-first);
+		engine.setIterationRange(first);
+		return(engine);
+	}
+
+	AmuaModel openModel() throws Exception{
+		File file=new File(modelPath);
+		if(!file.exists()){throw new Exception("Model not found: "+modelPath);}
+		JAXBContext context=JAXBContext.newInstance(AmuaModel.class);
+		Unmarshaller un=context.createUnmarshaller();
+		AmuaModel myModel=(AmuaModel) un.unmarshal(file);
+		myModel.filepath=file.getAbsolutePath();
+		myModel.name=file.getName().replaceAll(".amua", "");
+		myModel.openHeadless(errorLog);
+		if(numThreads>0){myModel.numThreads=numThreads;}
+		ArrayList<String> errors=myModel.parseModel();
+		if(errors.size()>0){
+			for(int e=0; e<errors.size(); e++){System.err.println(errors.get(e));}
+			throw new Exception("Model has errors");
+		}
+		return(myModel);
+	}
+
+	Scenario getScenario(AmuaModel myModel, String name){
+		for(int s=0; s<myModel.scenarios.size(); s++){
+			if(myModel.scenarios.get(s).name.equals(name)){return(myModel.scenarios.get(s));}
+		}
+		return(null);
+	}
+
+	String[] getHeaders(AmuaModel myModel, boolean includeParams, boolean includeICER, boolean includeNMB){
+		numParams=includeParams ? myModel.parameters.size() : 0;
+		numStrat=myModel.getStrategies();
+		numDim=myModel.dimInfo.dimNames.length;
+		numSubgroups=0;
+		if(myModel.simType==1 && myModel.reportSubgroups){numSubgroups=myModel.subgroupNames.size();}
+
+		ArrayList<String> headers=new ArrayList<String>();
+		for(int v=0; v<numParams; v++){headers.add(myModel.parameters.get(v).name);}
+		for(int g=0; g<numSubgroups+1; g++){
+			String group="";
+			if(g>0){group=myModel.subgroupNames.get(g-1)+" ";}
+			for(int d=0; d<numDim; d++){
+				for(int s=0; s<numStrat; s++){headers.add(group+myModel.dimInfo.dimNames[d]+" "+myModel.strategyNames[s]);}
+			}
+			if(includeICER){
+				for(int s=0; s<numStrat; s++){headers.add(group+"ICER "+myModel.strategyNames[s]);}
+			}
+			if(includeNMB){
+				for(int s=0; s<numStrat; s++){headers.add(group+"NMB "+myModel.strategyNames[s]);}
+			}
+		}
+		String array[]=new String[headers.size()];
+		return(headers.toArray(array));
+	}
+
+	/**
+	 * Runs engine and writes rows in iteration order as they finish
+	 */
+	void runEngine(final PSAEngine engine, AmuaModel myModel, final String label, final boolean includeParams, final boolean allCEA) throws Exception{
+		final int numIter=engine.getNumIterations();
+		final boolean done[]=new boolean[numIter];
+		final int next[]=new int[]{0};
+		final int analysisType=myModel.dimInfo.analysisType;
+		final boolean includeICER=allCEA || analysisType==1;
+		final boolean includeNMB=allCEA || analysisType==2;
+		final int numCols=writer.getNumColumns();
+		final Exception writeError[]=new Exception[1];
+		final long startTime=System.currentTimeMillis();
+		if(numIter==0){return;} //nothing in this shard
+
+		engine.setKeepReports(false);
+		engine.run(new PSAEngine.Listener(){
+			public void update(int iteration, int numComplete){
+				synchronized(done){
+					done[iteration]=true;
+					try{
+						while(next[0]<numIter && done[next[0]]){
+							writeRow(engine,label,next[0],numCols,includeParams,analysisType,includeICER,includeNMB);
+							next[0]++;
+						}
+					} catch(Exception e){
+						writeError[0]=e;
+						engine.cancel();
+					}
+					if(numComplete%100==0 || numComplete==numIter){
+						System.err.println(label+": "+numComplete+"/"+numIter+" iterations");
+					}
+				}
+			}
+		});
+		if(writeError[0]!=null){throw writeError[0];}
+		double runTime=(System.currentTimeMillis()-startTime)/1000.0;
+		System.err.println(label+": finished in "+runTime+" s");
+		printSummary(engine,myModel,label);
+	}
+
+	private void writeRow(PSAEngine engine, String label, int n, int numCols, boolean includeParams, int analysisType, boolean includeICER, boolean includeNMB) throws Exception{
+		double row[]=new double[numCols];
+		int c=0;
+		if(includeParams){
+			for(int v=0; v<numParams; v++){
+				if(engine.paramVals==null){row[c]=Double.NaN;}
+				else{row[c]=engine.paramVals[v][n];}
+				c++;
+			}
+		}
+		for(int g=0; g<numSubgroups+1; g++){
+			for(int d=0; d<numDim; d++){
+				for(int s=0; s<numStrat; s++){
+					row[c]=engine.outcomes[g][d][s][n];
+					c++;
+				}
+			}
+			if(includeICER){
+				fillTable(row,c,engine,g,n,analysisType==1);
+				c+=numStrat;
+			}
+			if(includeNMB){
+				fillTable(row,c,engine,g,n,analysisType==2);
+				c+=numStrat;
+			}
+		}
+		writer.writeRow(label, engine.getFirstIteration()+n+1, row);
+	}
+
+	/**
+	 * Puts CEA/BCA outcome (column 4) for each original strategy at row[start+strategy], NaN if not available
+	 */
+	private void fillTable(double row[], int start, PSAEngine engine, int g, int n, boolean available){
+		for(int s=0; s<numStrat; s++){row[start+s]=Double.NaN;}
+		if(available==false || engine.tables==null){return;}
+		Object table[][]=engine.tables[g][n];
+		for(int s=0; s<table.length; s++){
+			int origStrat=(int) table[s][0];
+			if(origStrat>=0 && origStrat<numStrat){
+				row[start+origStrat]=toDouble(table[s][4]);
+			}
+		}
+	}
+
+	private static double toDouble(Object value){
+		if(value instanceof Number){return(((Number)value).doubleValue());}
+		return(Double.NaN);
+	}
+
+	/**
+	 * Runs each shard in its own JVM (local stand-in for cluster nodes), then merges the partial results
+	 */
+	void runLocalShards() throws Exception{
+		String java=System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		String classpath=System.getProperty("java.class.path");
+		int shardThreads=numThreads;
+		if(shardThreads<1){shardThreads=Math.max(1, Runtime.getRuntime().availableProcessors()/numLocalShards);}
+
+		Process processes[]=new Process[numLocalShards];
+		ArrayList<String> shardPaths=new ArrayList<String>();
+		for(int k=0; k<numLocalShards; k++){
+			String shardPath=outPath+".shard"+(k+1);
+			shardPaths.add(shardPath);
+			ArrayList<String> command=new ArrayList<String>();
+			command.add(java);
+			command.add("-cp"); command.add(classpath);
+			command.add(Amua.class.getName());
+			command.addAll(shardArgs);
+			command.add("-shard"); command.add((k+1)+"/"+numLocalShards);
+			command.add("-threads"); command.add(shardThreads+"");
+			command.add("-format"); command.add("bin");
+			command.add("-out"); command.add(shardPath);
+			ProcessBuilder builder=new ProcessBuilder(command);
+			builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			processes[k]=builder.start();
+		}
+		int numFailed=0;
+		for(int k=0; k<numLocalShards; k++){
+			if(processes[k].waitFor()!=0){
+				System.err.println("Shard "+(k+1)+" failed");
+				numFailed++;
+			}
+		}
+		if(numFailed>0){throw new Exception(numFailed+" shards failed");}
+		merge(shardPaths);
+		for(int k=0; k<numLocalShards; k++){new File(shardPaths.get(k)).delete();}
+	}
+
+	/**
+	 * Combines partial results in order of runs and iterations, and writes the summary
+	 */
+	void merge(ArrayList<String> paths) throws Exception{
+		ResultMerger merger=new ResultMerger();
+		for(int i=0; i<paths.size(); i++){merger.add(paths.get(i));}
+		merger.checkComplete(); //all shards and iterations 1 to N of every run
+		if(outPath!=null){
+			ResultWriter merged=new ResultWriter(outPath,binary);
+			try{
+				merger.write(merged);
+			} finally{
+				merged.close();
+			}
+		}
+		if(summaryPath!=null || outPath==null){merger.writeSummary(summaryPath);}
+	}
+
+	private void printSummary(PSAEngine engine, AmuaModel myModel, String label){
+		int numIter=engine.getNumIterations();
+		int bounds[]=MathUtils.getBoundIndices(numIter);
+		System.err.println(label+" summary (mean, 95% UI)");
+		for(int g=0; g<numSubgroups+1; g++){
+			String group="";
+			if(g>0){group=myModel.subgroupNames.get(g-1)+" ";}
+			for(int d=0; d<numDim; d++){
+				for(int s=0; s<numStrat; s++){
+					double vals[]=Arrays.copyOf(engine.outcomes[g][d][s], numIter);
+					double mean=0;
+					for(int n=0; n<numIter; n++){mean+=vals[n];}
+					mean/=(numIter*1.0);
+					Arrays.sort(vals);
+					System.err.println("  "+group+myModel.dimInfo.dimNames[d]+" "+myModel.strategyNames[s]+": "+MathUtils.round(mean,6)+" ("+MathUtils.round(vals[bounds[0]],6)+", "+MathUtils.round(vals[bounds[1]],6)+")");
+				}
+			}
+		}
+	}
+}
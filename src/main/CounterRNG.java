@@ -0,0 +1,79 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+/**
+ * Counter-based random numbers (SplitMix64).  Draw i is a hash of the key and i, where the key is set from (seed, stream, index, cycle).
+ * The numbers a person gets therefore depend only on the key - not on which thread or chunk simulates them, or on how many
+ * draws other people made first.  Re-keying is cheap (no state to initialize), so generators are re-keyed for each person and cycle.
+ * Only nextDouble() is supported - it is the only draw used by the model (the Mersenne Twister state is never initialized).  Not thread-safe.
+ */
+public class CounterRNG extends MersenneTwisterFast{
+	private static final long serialVersionUID=1L;
+	private static final long GAMMA=0x9e3779b97f4a7c15L; //golden ratio increment
+	private static final double DOUBLE_UNIT=1.0/(1L<<53);
+
+	long key;
+	long counter;
+
+	//Constructor
+	public CounterRNG(){
+		super(0); //calls setSeed below - no Mersenne Twister seeding
+	}
+
+	/**
+	 * Keys stream 0 by seed instead of seeding the Mersenne Twister
+	 */
+	@Override
+	public void setSeed(long seed){
+		setKey(seed, 0, 0, 0);
+	}
+
+	/**
+	 * Starts a new stream of draws
+	 * @param seed Run seed (e.g. CRN seed)
+	 * @param stream Purpose of draws (e.g. initialization, simulation)
+	 * @param index Person index
+	 * @param cycle Markov cycle (0 if not used)
+	 */
+	public void setKey(long seed, int stream, long index, int cycle){
+		long h=mix(seed+GAMMA);
+		h=mix(h+(stream+1)*GAMMA);
+		h=mix(h+(index+1)*GAMMA);
+		h=mix(h+(cycle+1)*GAMMA);
+		key=h;
+		counter=0;
+	}
+
+	@Override
+	public double nextDouble(){
+		counter++;
+		long z=mix(key+counter*GAMMA);
+		return((z>>>11)*DOUBLE_UNIT);
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 */
+	private static long mix(long z){
+		z=(z^(z>>>30))*0xbf58476d1ce4e5b9L;
+		z=(z^(z>>>27))*0x94d049bb133111ebL;
+		return(z^(z>>>31));
+	}
+}
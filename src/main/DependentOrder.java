@@ -0,0 +1,178 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import math.Interpreter;
+
+/**
+ * All variables that depend (directly or indirectly) on a source variable, in topological order.
+ * Updates walk this list once instead of following the dependents graph recursively,
+ * so each variable is evaluated at most once and after all of its inputs.
+ */
+public class DependentOrder{
+	final Variable vars[];
+	/**
+	 * Positions of each variable's inputs within the order [position][input]
+	 */
+	final int inputs[][];
+	final boolean direct[]; //depends on the source directly
+	/**
+	 * Variables changed in the current pass [thread][position]
+	 */
+	final boolean changed[][];
+	final int numThreads;
+
+	//Constructor
+	public DependentOrder(Variable source, int numThreads){
+		this.numThreads=numThreads;
+
+		//find all dependents (breadth-first)
+		ArrayList<Variable> reached=new ArrayList<Variable>();
+		HashMap<Variable,Integer> index=new HashMap<Variable,Integer>();
+		ArrayDeque<Variable> queue=new ArrayDeque<Variable>();
+		queue.add(source);
+		while(!queue.isEmpty()){
+			Variable curVar=queue.poll();
+			if(curVar.dependents==null){continue;}
+			for(int d=0; d<curVar.dependents.size(); d++){
+				Variable curDep=curVar.dependents.get(d);
+				if(curDep!=source && !index.containsKey(curDep)){
+					index.put(curDep, reached.size());
+					reached.add(curDep);
+					queue.add(curDep);
+				}
+			}
+		}
+		int numDep=reached.size();
+
+		//count inputs from within the reached set
+		int numInputs[]=new int[numDep];
+		for(int i=0; i<numDep; i++){
+			Variable curVar=reached.get(i);
+			for(int d=0; d<curVar.dependents.size(); d++){
+				Integer j=index.get(curVar.dependents.get(d));
+				if(j!=null && j!=i){numInputs[j]++;}
+			}
+		}
+
+		//topological sort (Kahn), any variables in circular definitions are added at the end in the order found
+		int order[]=new int[numDep];
+		boolean placed[]=new boolean[numDep];
+		int remaining[]=numInputs.clone();
+		int numPlaced=0;
+		ArrayDeque<Integer> ready=new ArrayDeque<Integer>();
+		for(int i=0; i<numDep; i++){
+			if(remaining[i]==0){ready.add(i);}
+		}
+		while(!ready.isEmpty()){
+			int i=ready.poll();
+			order[numPlaced]=i; placed[i]=true; numPlaced++;
+			Variable curVar=reached.get(i);
+			for(int d=0; d<curVar.dependents.size(); d++){
+				Integer j=index.get(curVar.dependents.get(d));
+				if(j!=null && j!=i){
+					remaining[j]--;
+					if(remaining[j]==0){ready.add(j);}
+				}
+			}
+		}
+		for(int i=0; i<numDep; i++){
+			if(!placed[i]){order[numPlaced]=i; numPlaced++;}
+		}
+
+		int position[]=new int[numDep];
+		vars=new Variable[numDep];
+		for(int p=0; p<numDep; p++){
+			vars[p]=reached.get(order[p]);
+			position[order[p]]=p;
+		}
+
+		//inputs by position
+		direct=new boolean[numDep];
+		for(int d=0; d<source.dependents.size(); d++){
+			Integer j=index.get(source.dependents.get(d));
+			if(j!=null){direct[position[j]]=true;}
+		}
+		inputs=new int[numDep][];
+		int count[]=new int[numDep];
+		for(int p=0; p<numDep; p++){inputs[p]=new int[numInputs[order[p]]];}
+		for(int i=0; i<numDep; i++){
+			Variable curVar=reached.get(i);
+			for(int d=0; d<curVar.dependents.size(); d++){
+				Integer j=index.get(curVar.dependents.get(d));
+				if(j!=null && j!=i){
+					int p=position[j];
+					inputs[p][count[p]]=position[i];
+					count[p]++;
+				}
+			}
+		}
+
+		changed=new boolean[numThreads][numDep];
+	}
+
+	/**
+	 * Evaluates unlocked dependents that are reached through the source or updated inputs, and locks them
+	 */
+	public void update(int curThread) throws Exception{
+		boolean curChanged[]=changed[curThread];
+		Arrays.fill(curChanged, false);
+		for(int p=0; p<vars.length; p++){
+			if(isReached(p,curChanged)){
+				Variable curDep=vars[p];
+				if(curDep.locked[curThread]==false){
+					curDep.locked[curThread]=true;
+					curDep.value[curThread]=Interpreter.evaluateTokens(curDep.parsedTokens, curThread, false);
+					curChanged[p]=true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unlocks locked dependents that are reached through the source or unlocked inputs
+	 */
+	public void unlock(int curThread){
+		boolean curChanged[]=changed[curThread];
+		Arrays.fill(curChanged, false);
+		for(int p=0; p<vars.length; p++){
+			if(isReached(p,curChanged)){
+				Variable curDep=vars[p];
+				if(curDep.locked[curThread]==true){
+					curDep.locked[curThread]=false;
+					curChanged[p]=true;
+				}
+			}
+		}
+	}
+
+	private boolean isReached(int p, boolean curChanged[]){
+		if(direct[p]){return(true);}
+		int curInputs[]=inputs[p];
+		for(int i=0; i<curInputs.length; i++){
+			if(curChanged[curInputs[i]]){return(true);}
+		}
+		return(false);
+	}
+}
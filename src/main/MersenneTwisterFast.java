@@ -828,8 +828,8 @@ public strictfp class MersenneTwisterFast implements Serializable, Cloneable
         }
 
     /** Returns a random double in the half-open range from [0.0,1.0).  Thus 0.0 is a valid
-        result but 1.0 is not. */
-    public final double nextDouble()
+        result but 1.0 is not.  Not final - overridden by CounterRNG. */
+    public double nextDouble()
         {
         int y;
         int z;
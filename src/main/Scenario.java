@@ -122,6 +122,41 @@ public class Scenario{
 		return(copyScenario);
 	}
 	
+	/**
+	 * Applies scenario run settings (cohort size, seed, analysis type, Markov settings) to the model
+	 */
+	public void applySettings(AmuaModel myModel) throws Exception{
+		myModel.cohortSize=cohortSize;
+		myModel.CRN=crn1;
+		myModel.crnSeed=seed1;
+		
+		//analysis
+		myModel.dimInfo.analysisType=analysisType;
+		myModel.dimInfo.objective=objective;
+		myModel.dimInfo.objectiveDim=objectiveDim;
+		myModel.dimInfo.costDim=costDim;
+		myModel.dimInfo.effectDim=effectDim;
+		myModel.dimInfo.WTP=WTP;
+		myModel.dimInfo.baseScenario=baseScenario;
+		myModel.dimInfo.extendedDim=extendedDim;
+		
+		//markov
+		if(myModel.type==1) {
+			myModel.markov.halfCycleCorrection=halfCycleCorrection;
+			myModel.markov.discountRewards=discountRewards;
+			if(discountRewards) {
+				int numDim=myModel.dimInfo.dimNames.length;
+				if(discountRates==null || discountRates.length!=numDim) {
+					throw new NumericException("Incorrect model dimensions in Scenario "+name,"Scenario");
+				}
+				for(int d=0; d<numDim; d++) {
+					myModel.markov.discountRates[d]=discountRates[d];
+				}
+				myModel.markov.discountStartCycle=discountStartCycle;
+			}
+		}
+	}
+	
 	public void parseUpdates(AmuaModel myModel) throws Exception{
 		if(objectUpdates.isEmpty()){
 			baseCase=true;
@@ -46,6 +46,7 @@ public class Table{
 	@XmlTransient double value;
 	@XmlTransient public CubicSpline splines[];
 	@XmlTransient public AmuaModel myModel;
+	@XmlTransient TableLookup lookup;
 
 	//Constructor
 	public Table(){
@@ -61,16 +62,12 @@ public class Table{
 		copyTable.boundary=boundary;
 		copyTable.extrapolate=extrapolate;
 		copyTable.numRows=numRows; copyTable.numCols=numCols;
-		copyTable.headers=new String[numCols];
-		copyTable.data=new double[numRows][numCols];
-		for(int c=0; c<numCols; c++){
-			copyTable.headers[c]=headers[c];
-			for(int r=0; r<numRows; r++){
-				copyTable.data[r][c]=data[r][c];
-			}
-		}
+		//headers and data are shared (copy-on-write) - editing a table replaces the arrays, they are never changed in place
+		copyTable.headers=headers; //pointer
+		copyTable.data=data; //pointer
 		copyTable.notes=notes;
 		copyTable.splines=splines; //pointer
+		copyTable.lookup=lookup; //compiled for the same data
 		copyTable.myModel=myModel;
 		return(copyTable);
 	}
@@ -98,67 +95,46 @@ public class Table{
 		return(col);
 	}
 	
-	public double getLookupValue(double index, String colText){
-		//Get column index
-		int col=getColumnIndex(colText);
-		if(col<1 || col>(numCols-1)){return(Double.NaN);} //Throw error
-
-		double val=Double.NaN;
-		if(lookupMethod.matches("Exact")){
-			int row=-1;
-			boolean found=false;
-			while(found==false && row<numRows){
-				row++;
-				if(index==data[row][0]){found=true;}
+	/**
+	 * Returns column index if it can be resolved without evaluating (quoted header or integer), otherwise -1
+	 */
+	public int getConstantColumnIndex(String colText){
+		String text=colText.trim();
+		if(text.contains("\"") || text.contains("\'")){ //String
+			text=text.replace("\"","");
+			text=text.replace("\'","");
+			for(int c=0; c<numCols; c++){
+				if(text.equals(headers[c])){return(c);}
 			}
-			if(found){val=data[row][col];}
+			return(-1);
 		}
-		else if(lookupMethod.matches("Truncate")){
-			if(index<data[0][0]){val=Double.NaN;} //Below first value - error
-			else if(index>=data[numRows-1][0]){val=data[numRows-1][col];} //Above last value
-			else{
-				int row=0;
-				while(data[row][0]<index){row++;}
-				if(index==data[row][0]){val=data[row][col];}
-				else{val=data[row-1][col];}
-			}
+		try{
+			return(Integer.parseInt(text));
+		} catch(NumberFormatException e){
+			return(-1);
 		}
-		else if(lookupMethod.matches("Interpolate")){
-			if(interpolate.matches("Linear")){
-				if(index<=data[0][0]){ //Below or at first index
-					double slope=(data[1][col]-data[0][col])/(data[1][0]-data[0][0]);
-					val=data[0][col]-(data[0][0]-index)*slope;
-				}
-				else if(index>data[numRows-1][0]){ //Above last index
-					double slope=(data[numRows-1][col]-data[numRows-2][col])/(data[numRows-1][0]-data[numRows-2][0]);
-					val=data[numRows-1][col]+(index-data[numRows-1][0])*slope;
-				}
-				else{ //Between
-					int row=0;
-					while(data[row][0]<index){row++;}
-					double slope=(data[row][col]-data[row-1][col])/(data[row][0]-data[row-1][0]);
-					val=data[row-1][col]+(index-data[row-1][0])*slope;
-				}
-			}
-			else if(interpolate.matches("Cubic Splines")){
-				val=splines[col-1].evaluate(index);
-			}
-
-			//Check extrapolation conditions
-			if(extrapolate.matches("No")){
-				if(index<=data[0][0]){val=data[0][col];} //Below or at first index
-				else if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
-			}
-			else if(extrapolate.matches("Left only")){ //truncate right
-				if(index>data[numRows-1][0]){val=data[numRows-1][col];} //Above last index
-			}
-			else if(extrapolate.matches("Right only")){ //truncate left
-				if(index<=data[0][0]){val=data[0][col];} //Below or at first index
-			}
-
+	}
+	
+	public double getLookupValue(double index, String colText){
+		return(getLookupValue(index,getColumnIndex(colText)));
+	}
+	
+	public double getLookupValue(double index, int col){
+		if(col<1 || col>(numCols-1)){return(Double.NaN);} //Throw error
+		TableLookup curLookup=lookup;
+		if(curLookup==null || curLookup.data!=data){ //compile on first use or if data was replaced
+			curLookup=compileLookup();
 		}
-
-		return(val);
+		return(curLookup.getValue(index, col));
+	}
+	
+	/**
+	 * Compiles lookup method for the current table data and settings
+	 */
+	public TableLookup compileLookup(){
+		TableLookup curLookup=new TableLookup(this);
+		lookup=curLookup;
+		return(curLookup);
 	}
 
 	public void constructSplines(){
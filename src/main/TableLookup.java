@@ -0,0 +1,176 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package main;
+
+import math.CubicSpline;
+
+/**
+ * Lookup method of a table compiled once from its settings.
+ * Rows are found by direct indexing if the keys are evenly spaced, otherwise by binary search (linear scan if keys aren't sorted).
+ */
+public class TableLookup{
+	//methods
+	static final int NONE=-1, EXACT=0, TRUNCATE=1, LINEAR=2, SPLINES=3;
+	//extrapolation
+	static final int BOTH=0, NO=1, LEFT=2, RIGHT=3;
+
+	final int method, extrapolate;
+	final double data[][]; //table data this lookup was compiled for
+	final double keys[];
+	final int numRows;
+	final boolean sorted;
+	final boolean even; //evenly spaced keys
+	final double first, step;
+	final CubicSpline splines[];
+
+	//Constructor
+	public TableLookup(Table table){
+		data=table.data;
+		numRows=table.numRows;
+		splines=table.splines;
+
+		if(table.lookupMethod==null){method=NONE;}
+		else if(table.lookupMethod.equals("Exact")){method=EXACT;}
+		else if(table.lookupMethod.equals("Truncate")){method=TRUNCATE;}
+		else if(table.lookupMethod.equals("Interpolate") && table.interpolate!=null){
+			if(table.interpolate.equals("Linear")){method=LINEAR;}
+			else if(table.interpolate.equals("Cubic Splines")){method=SPLINES;}
+			else{method=NONE;}
+		}
+		else{method=NONE;}
+
+		if(table.extrapolate==null){extrapolate=BOTH;}
+		else if(table.extrapolate.equals("No")){extrapolate=NO;}
+		else if(table.extrapolate.equals("Left only")){extrapolate=LEFT;}
+		else if(table.extrapolate.equals("Right only")){extrapolate=RIGHT;}
+		else{extrapolate=BOTH;}
+
+		keys=new double[numRows];
+		boolean isSorted=true;
+		for(int r=0; r<numRows; r++){
+			keys[r]=data[r][0];
+			if(r>0 && !(keys[r]>keys[r-1])){isSorted=false;}
+		}
+		sorted=isSorted;
+
+		boolean isEven=false;
+		double curStep=0;
+		if(sorted && numRows>1){
+			curStep=(keys[numRows-1]-keys[0])/(numRows-1);
+			isEven=true;
+			double tol=1e-9*Math.max(1, Math.abs(curStep));
+			for(int r=1; r<numRows && isEven; r++){
+				if(Math.abs(keys[r]-(keys[0]+r*curStep))>tol){isEven=false;}
+			}
+		}
+		even=isEven;
+		step=curStep;
+		first=(numRows>0) ? keys[0] : 0;
+	}
+
+	/**
+	 * Returns value of column col at index.  Column should be valid (1 to numCols-1).
+	 */
+	public double getValue(double index, int col){
+		if(numRows==0 || Double.isNaN(index)){return(Double.NaN);}
+		int last=numRows-1;
+		double val=Double.NaN;
+		if(method==EXACT){
+			if(sorted){
+				int row=lowerBound(index);
+				if(row<numRows && keys[row]==index){val=data[row][col];}
+			}
+			else{
+				for(int r=0; r<numRows; r++){
+					if(keys[r]==index){return(data[r][col]);}
+				}
+			}
+		}
+		else if(method==TRUNCATE){
+			if(index<keys[0]){val=Double.NaN;} //Below first value - error
+			else if(index>=keys[last]){val=data[last][col];} //Above last value
+			else{
+				int row=lowerBound(index);
+				if(index==keys[row]){val=data[row][col];}
+				else{val=data[row-1][col];}
+			}
+		}
+		else if(method==LINEAR || method==SPLINES){
+			if(method==LINEAR){
+				if(index<=keys[0]){ //Below or at first index
+					double slope=(data[1][col]-data[0][col])/(keys[1]-keys[0]);
+					val=data[0][col]-(keys[0]-index)*slope;
+				}
+				else if(index>keys[last]){ //Above last index
+					double slope=(data[last][col]-data[last-1][col])/(keys[last]-keys[last-1]);
+					val=data[last][col]+(index-keys[last])*slope;
+				}
+				else{ //Between
+					int row=lowerBound(index);
+					double slope=(data[row][col]-data[row-1][col])/(keys[row]-keys[row-1]);
+					val=data[row-1][col]+(index-keys[row-1])*slope;
+				}
+			}
+			else{
+				val=splines[col-1].evaluate(index);
+			}
+
+			//Check extrapolation conditions
+			if(extrapolate==NO){
+				if(index<=keys[0]){val=data[0][col];} //Below or at first index
+				else if(index>keys[last]){val=data[last][col];} //Above last index
+			}
+			else if(extrapolate==LEFT){ //truncate right
+				if(index>keys[last]){val=data[last][col];} //Above last index
+			}
+			else if(extrapolate==RIGHT){ //truncate left
+				if(index<=keys[0]){val=data[0][col];} //Below or at first index
+			}
+		}
+		return(val);
+	}
+
+	/**
+	 * Returns first row with key>=index (numRows if none)
+	 */
+	int lowerBound(double index){
+		if(!sorted){ //scan
+			int row=0;
+			while(row<numRows && keys[row]<index){row++;}
+			return(row);
+		}
+		if(even){ //estimate row directly, then correct for rounding
+			double pos=Math.ceil((index-first)/step);
+			int row;
+			if(pos<=0){row=0;}
+			else if(pos>=numRows){row=numRows;}
+			else{row=(int)pos;}
+			while(row>0 && keys[row-1]>=index){row--;}
+			while(row<numRows && keys[row]<index){row++;}
+			return(row);
+		}
+		int lo=0, hi=numRows;
+		while(lo<hi){
+			int mid=(lo+hi)>>>1;
+			if(keys[mid]<index){lo=mid+1;}
+			else{hi=mid;}
+		}
+		return(lo);
+	}
+}
@@ -41,6 +41,7 @@ public class Variable{
 	@XmlTransient public Numeric value[]; //thread-specific
 	@XmlTransient public boolean locked[]; //thread-specific
 	@XmlTransient public Token parsedTokens[];
+	@XmlTransient DependentOrder dependentOrder; //compiled on first use
 	
 	//Constructor
 	public Variable(){
@@ -63,9 +64,10 @@ public class Variable{
 		//Parse word by word
 		String text=expression;
 		int len=text.length();
-		while(len>0){
-			int index=Interpreter.getNextBreakIndex(text);
-			String word=text.substring(0, index);
+		int start=0;
+		while(start<len){
+			int index=Interpreter.getNextBreakIndex(text,start);
+			String word=text.substring(start, index);
 			int varIndex=myModel.getVariableIndex(word);
 			if(varIndex!=-1){ //is variable
 				independent=false;
@@ -80,33 +82,39 @@ public class Variable{
 					t.dependents.add(this); //add myself as dependent
 				}
 			}
-			
-			if(index==len){len=0;} //End of word
-			else{
-				text=text.substring(index+1);
-				len=text.length();
-			}
+			start=index+1;
 		}
 	}
 	
 	public void updateDependents(AmuaModel myModel, int curThread) throws Exception{
-		for(int d=0; d<dependents.size(); d++){
-			Variable curDep=dependents.get(d);
-			if(curDep.locked[curThread]==false){
-				curDep.locked[curThread]=true;
-				curDep.value[curThread]=Interpreter.evaluateTokens(curDep.parsedTokens, curThread, false);
-				curDep.updateDependents(myModel, curThread);
-			}
-		}
+		getDependentOrder(curThread).update(curThread);
 	}
 	
 	public void unlockDependents(int curThread) {
-		for(int d=0; d<dependents.size(); d++) {
-			Variable curDep=dependents.get(d);
-			if(curDep.locked[curThread]==true) {
-				curDep.locked[curThread]=false;
-				curDep.unlockDependents(curThread);
+		getDependentOrder(curThread).unlock(curThread);
+	}
+	
+	/**
+	 * Returns dependents in topological order, compiled the first time they're needed (or for more threads)
+	 */
+	private DependentOrder getDependentOrder(int curThread){
+		DependentOrder order=dependentOrder;
+		if(order==null || order.numThreads<=curThread){
+			synchronized(this){
+				order=dependentOrder;
+				if(order==null || order.numThreads<=curThread){
+					order=new DependentOrder(this, Math.max(curThread+1, locked.length));
+					dependentOrder=order;
+				}
 			}
 		}
+		return(order);
+	}
+	
+	/**
+	 * Clears compiled dependents (e.g. when dependents are rebuilt)
+	 */
+	public void clearDependentOrder(){
+		dependentOrder=null;
 	}
 }
\ No newline at end of file
@@ -18,12 +18,15 @@
 
 package markov;
 
+import java.util.Arrays;
+
 import base.AmuaModel;
 import main.Variable;
 import math.Interpreter;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
+import math.Token;
 
 public class MarkovCohort{
 	MarkovNode chainRoot;
@@ -42,6 +45,23 @@ public class MarkovCohort{
 	AmuaModel myModel;
 	int curThread;
 	
+	/**
+	 * 0: traverse tree each cycle (nodes below the chain update variables), 1: transition matrix built once, 2: transition matrix re-evaluated each cycle
+	 */
+	int chainMode;
+	//flattened chain - nodes below each state in pre-order
+	int numFlat;
+	MarkovNode flatNodes[];
+	int flatParent[]; //-1 for states
+	int flatState[];
+	int flatSlot[]; //matrix entry of transition nodes, -1 otherwise
+	double pathProb[]; //probability of reaching node from its state
+	//sparse transition matrix (rows=from state), self-transitions are left out
+	int rowStart[];
+	int slotTo[];
+	double slotProb[];
+	double stateRewards[][]; //[dim][state] rewards and costs per person in state
+	
 	//Constructor
 	public MarkovCohort(MarkovNode chainRoot, int curThread){
 		this.chainRoot=chainRoot;
@@ -67,10 +87,11 @@ public class MarkovCohort{
 			variables[c]=myModel.variables.get(c);
 		}
 		trace=new MarkovTrace(chainRoot);
-		myModel.traceMarkov=trace;
+		myModel.traceMarkov[curThread]=trace;
 		//Get state indices for all transition nodes
 		chainRoot.transFrom=-1;
 		getTransitionIndex(chainRoot);
+		flattenChain();
 	}
 	
 	public void simulate() throws NumericException, Exception{
@@ -103,12 +124,12 @@ public class MarkovCohort{
 		double sumProb=0;
 		int indexCompProb=-1;
 		for(int s=0; s<numStates; s++){
-			if(states[s].prob.matches("C") || states[s].prob.matches("c")){ //Complementary
+			if(states[s].probComplementary){ //Complementary
 				states[s].curProb[0]=-1;
 				indexCompProb=s;
 			}
 			else{ //Evaluate text
-				states[s].curProb[0]=Interpreter.evaluateTokens(states[s].curProbTokens, curThread, false).getDouble();
+				states[s].curProb[0]=Interpreter.evaluateDouble(states[s].curProbTokens, curThread, false);
 				sumProb+=states[s].curProb[0];
 			}
 		}
@@ -156,12 +177,18 @@ public class MarkovCohort{
 				}
 			}
 			
-			for(int s=0; s<numStates; s++){ //Update each state
-				for(int d=0; d<numDim; d++){ //Update state rewards
-					double curReward=Interpreter.evaluateTokens(states[s].curRewardTokens[d], curThread, false).getDouble();
-					cycleRewards[d]+=curReward*curPrev[s];
+			if(chainMode==0){
+				for(int s=0; s<numStates; s++){ //Update each state
+					for(int d=0; d<numDim; d++){ //Update state rewards
+						double curReward=Interpreter.evaluateDouble(states[s].curRewardTokens[d], curThread, false);
+						cycleRewards[d]+=curReward*curPrev[s];
+					}
+					traverseNode(states[s],curPrev[s]);
 				}
-				traverseNode(states[s],curPrev[s]);
+			}
+			else{
+				if(t==0 || chainMode==2){evaluateChain();}
+				advanceChain();
 			}
 			updateTrace(t);
 			terminate=checkTerminationCondition(); //check condition
@@ -189,7 +216,7 @@ public class MarkovCohort{
 		}
 		if(chainRoot.hasCost) {
 			for(int d=0; d<numDim; d++){
-				double curCost=Interpreter.evaluateTokens(chainRoot.curCostTokens[d],curThread,false).getDouble();
+				double curCost=Interpreter.evaluateDouble(chainRoot.curCostTokens[d],curThread,false);
 				curCost*=myModel.cohortSize;
 				chainRoot.expectedValues[d]+=curCost;
 				chainRoot.expectedValuesDis[d]+=curCost;
@@ -204,13 +231,12 @@ public class MarkovCohort{
 	private boolean checkTerminationCondition(){
 		boolean terminate=false;
 		try{
-			Numeric check=Interpreter.evaluateTokens(chainRoot.curTerminationTokens, curThread, false);
-			if(check.getBool()){ //termination condition true
+			if(chainRoot.curTerminationCompiled.evaluateBool(curThread, false)){ //termination condition true
 				terminate=true;
 			}
 		}catch(Exception e){
 			e.printStackTrace();
-			chainRoot.panel.errorLog.recordError(e);
+			myModel.errorLog.recordError(e);
 			curT.value[curThread].setInt(0);
 		}
 		return(terminate);
@@ -231,7 +257,7 @@ public class MarkovCohort{
 		//Update costs
 		if(node.hasCost){
 			for(int d=0; d<numDim; d++){
-				double curCost=Interpreter.evaluateTokens(node.curCostTokens[d],curThread,false).getDouble();
+				double curCost=Interpreter.evaluateDouble(node.curCostTokens[d],curThread,false);
 				cycleRewards[d]+=curCost*nodePrev;
 			}
 		}
@@ -250,48 +276,176 @@ public class MarkovCohort{
 		
 		//Calculate probabilities for children
 		if(node.numChildren>0){
-			double sumProb=0;
-			int indexCompProb=-1;
+			calcChildProbs(node);
+		}
+		
+		if(node.type==4){ //Transition node, end of branch
+			newPrev[node.transFrom]-=nodePrev; //from state
+			newPrev[node.transTo]+=nodePrev; //next state
+		}
+		else{
 			for(int c=0; c<node.numChildren; c++){
 				MarkovNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
-					curChild.curProb[0]=-1;
-					indexCompProb=c;
+				traverseNode(curChild,nodePrev);
+			}
+		}
+	}
+	
+	
+	private void calcChildProbs(MarkovNode node) throws Exception{
+		double sumProb=0;
+		int indexCompProb=-1;
+		for(int c=0; c<node.numChildren; c++){
+			MarkovNode curChild=node.children[c];
+			if(curChild.probComplementary){ //Complementary
+				curChild.curProb[0]=-1;
+				indexCompProb=c;
+			}
+			else{ //Evaluate expression
+				curChild.curProb[0]=curChild.curProbCompiled.evaluate(curThread);
+				sumProb+=curChild.curProb[0];
+			}
+		}
+		if(indexCompProb==-1){
+			if(Math.abs(1.0-sumProb)>MathUtils.tolerance){ //throw error
+				throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			}
+		}
+		else{
+			if(sumProb>1.0 || sumProb<0.0){ //throw error
+				throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			}
+			else{
+				MarkovNode curChild=node.children[indexCompProb];
+				curChild.curProb[0]=1.0-sumProb;
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates probabilities, costs and rewards below each state into the transition matrix and state rewards
+	 */
+	private void evaluateChain() throws Exception{
+		Arrays.fill(slotProb, 0);
+		for(int i=0; i<numFlat; i++){
+			MarkovNode node=flatNodes[i];
+			int s=flatState[i];
+			double path=1;
+			if(flatParent[i]==-1){ //state
+				for(int d=0; d<numDim; d++){
+					stateRewards[d][s]=node.curRewardCompiled[d].evaluate(curThread);
 				}
-				else{ //Evaluate text
-					curChild.curProb[0]=Interpreter.evaluateTokens(curChild.curProbTokens, curThread, false).getDouble();
-					sumProb+=curChild.curProb[0];
+			}
+			else{
+				path=pathProb[flatParent[i]]*node.curProb[0];
+			}
+			pathProb[i]=path;
+			if(node.hasCost && node.curCostCompiled!=null){
+				for(int d=0; d<numDim; d++){
+					stateRewards[d][s]+=node.curCostCompiled[d].evaluate(curThread)*path;
 				}
 			}
-			if(indexCompProb==-1){
-				if(Math.abs(1.0-sumProb)>MathUtils.tolerance){ //throw error
-					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			if(node.numChildren>0){
+				calcChildProbs(node);
+			}
+			if(flatSlot[i]!=-1){
+				slotProb[flatSlot[i]]+=path;
+			}
+		}
+	}
+	
+	/**
+	 * Accumulates cycle rewards and moves prevalence along the transition matrix
+	 */
+	private void advanceChain(){
+		for(int s=0; s<numStates; s++){
+			double prev=curPrev[s];
+			for(int d=0; d<numDim; d++){
+				cycleRewards[d]+=stateRewards[d][s]*prev;
+			}
+			for(int k=rowStart[s]; k<rowStart[s+1]; k++){
+				double flow=prev*slotProb[k];
+				newPrev[s]-=flow;
+				newPrev[slotTo[k]]+=flow;
+			}
+		}
+	}
+	
+	/**
+	 * Lists nodes below each state and merges transitions to the same state into one matrix entry
+	 */
+	private void flattenChain(){
+		boolean update=false, fixed=true;
+		numFlat=0;
+		for(int s=0; s<numStates; s++){numFlat+=countNodes(states[s]);}
+		flatNodes=new MarkovNode[numFlat];
+		flatParent=new int[numFlat];
+		flatState=new int[numFlat];
+		flatSlot=new int[numFlat];
+		pathProb=new double[numFlat];
+		int pos=0;
+		for(int s=0; s<numStates; s++){pos=addNodes(states[s],-1,s,pos);}
+		
+		int slotIndex[]=new int[numStates]; //slot by next state for current row
+		int numSlots=0;
+		rowStart=new int[numStates+1];
+		int tempTo[]=new int[numFlat];
+		Arrays.fill(flatSlot, -1);
+		for(int i=0; i<numFlat; i++){ //nodes of each state are contiguous, starting with the state
+			MarkovNode node=flatNodes[i];
+			int s=flatState[i];
+			if(node.hasVarUpdates){update=true;}
+			if(flatParent[i]==-1){ //next row
+				rowStart[s]=numSlots;
+				Arrays.fill(slotIndex, -1);
+				for(int d=0; d<numDim; d++){
+					if(!Token.isStatic(node.curRewardTokens[d])){fixed=false;}
 				}
 			}
-			else{
-				if(sumProb>1.0 || sumProb<0.0){ //throw error
-					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			else if(!node.probComplementary && !Token.isStatic(node.curProbTokens)){fixed=false;}
+			if(node.hasCost && node.curCostTokens!=null){
+				for(int d=0; d<numDim; d++){
+					if(!Token.isStatic(node.curCostTokens[d])){fixed=false;}
 				}
-				else{
-					MarkovNode curChild=node.children[indexCompProb];
-					curChild.curProb[0]=1.0-sumProb;
+			}
+			if(node.type==4 && node.transTo!=s){
+				if(slotIndex[node.transTo]==-1){
+					slotIndex[node.transTo]=numSlots;
+					tempTo[numSlots]=node.transTo;
+					numSlots++;
 				}
+				flatSlot[i]=slotIndex[node.transTo];
 			}
 		}
+		rowStart[numStates]=numSlots;
+		slotTo=Arrays.copyOf(tempTo, numSlots);
+		slotProb=new double[numSlots];
+		stateRewards=new double[numDim][numStates];
 		
-		
-		if(node.type==4){ //Transition node, end of branch
-			newPrev[node.transFrom]-=nodePrev; //from state
-			newPrev[node.transTo]+=nodePrev; //next state
-		}
-		else{
-			for(int c=0; c<node.numChildren; c++){
-				MarkovNode curChild=node.children[c];
-				traverseNode(curChild,nodePrev);
-			}
+		if(update){chainMode=0;}
+		else if(fixed){chainMode=1;}
+		else{chainMode=2;}
+	}
+	
+	private int countNodes(MarkovNode node){
+		int count=1;
+		if(node.type!=4){
+			for(int c=0; c<node.numChildren; c++){count+=countNodes(node.children[c]);}
 		}
+		return(count);
 	}
 	
+	private int addNodes(MarkovNode node, int parent, int s, int pos){
+		int index=pos;
+		flatNodes[index]=node;
+		flatParent[index]=parent;
+		flatState[index]=s;
+		pos++;
+		if(node.type!=4){
+			for(int c=0; c<node.numChildren; c++){pos=addNodes(node.children[c],index,s,pos);}
+		}
+		return(pos);
+	}
 	
 	private void updateTrace(int t) throws NumericException{
 		trace.cycles.add(t);
@@ -337,13 +491,11 @@ public class MarkovCohort{
 			cycleVariables[c]=variables[c].value[curThread].getDouble();
 			trace.cycleVariables[c].add(cycleVariables[c]);
 		}
-		
-		trace.updateTable(t);
 	}
 	
 	private void getTransitionIndex(MarkovNode node){
 		if(node.type==4){ //get transition to
-			String nextState=(String) node.comboTransition.getSelectedItem();
+			String nextState=node.transition;
 			node.transTo=getStateIndex(nextState);
 		}
 		else{
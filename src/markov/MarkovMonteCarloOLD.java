@@ -298,7 +298,7 @@ public class MarkovMonteCarloOLD{
 			cycleVariablesGroup=new double[numSubgroups][numVars][numThreads]; cycleVariablesDenomGroup=new int[numSubgroups][numVars][numThreads];
 
 			trace=new MarkovTrace(curChain);
-			myModel.traceMarkov=trace;
+			myModel.setTrace(trace,numThreads);
 			microStats=new MicroStats(myModel, numPeople);
 			
 			//Subgroups
@@ -358,7 +358,7 @@ public class MarkovMonteCarloOLD{
 					evalCosts(curChain,n);
 					for(int s=0; s<numStates; s++){
 						for(int d=0; d<numDim; d++){
-							double curReward=Interpreter.evaluateTokens(states[s].curRewardTokens[d], n, false).getDouble();
+							double curReward=Interpreter.evaluateDouble(states[s].curRewardTokens[d], n, false);
 							states[s].curRewards[d][n]=curReward;
 						}
 					}
@@ -638,7 +638,7 @@ public class MarkovMonteCarloOLD{
 									curPerson.rewardsDis[d]+=states[curState].curRewards[d][finalN]*discountFactor[d];
 								}
 								else{ //has variable, re-evaluate reward
-									double curReward=Interpreter.evaluateTokens(states[curState].curRewardTokens[d], finalN, false).getDouble();
+									double curReward=Interpreter.evaluateDouble(states[curState].curRewardTokens[d], finalN, false);
 									cycleRewards[d][finalN]+=curReward;
 									for(int g=0; g<numSubgroups; g++){
 										if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][finalN]+=curReward;}
@@ -747,7 +747,7 @@ public class MarkovMonteCarloOLD{
 					curPerson.rewardsDis[d]+=node.curCosts[d][curThread]*discountFactor[d];
 				}
 				else{ //has variable, re-evaluate cost
-					double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
+					double curCost=Interpreter.evaluateDouble(node.curCostTokens[d], curThread, false);
 					cycleRewards[d][curThread]+=curCost;
 					for(int g=0; g<numSubgroups; g++){
 						if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][curThread]+=curCost;}
@@ -790,7 +790,7 @@ public class MarkovMonteCarloOLD{
 	private void evalCosts(MarkovNode node,int curThread) throws NumericException, Exception{
 		if(node.hasCost){
 			for(int d=0; d<numDim; d++){
-				double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
+				double curCost=Interpreter.evaluateDouble(node.curCostTokens[d], curThread, false);
 				node.curCosts[d][curThread]=curCost;
 			}
 		}
@@ -817,7 +817,7 @@ public class MarkovMonteCarloOLD{
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb[curThread]=Interpreter.evaluateTokens(curChild.curProbTokens, curThread, false).getDouble();
+					curChild.curProb[curThread]=Interpreter.evaluateDouble(curChild.curProbTokens, curThread, false);
 					sumProb+=curChild.curProb[curThread];
 				}
 			}
@@ -903,7 +903,6 @@ public class MarkovMonteCarloOLD{
 			double mean=num/(denom*1.0);
 			trace.cycleVariables[v].add(mean);
 		}
-		trace.updateTable(t);
 	}
 	
 	private void updateTraceGroup(int g, int t){
@@ -954,7 +953,6 @@ public class MarkovMonteCarloOLD{
 			double mean=num/(denom*1.0);
 			traceGroup[g].cycleVariables[v].add(mean);
 		}
-		traceGroup[g].updateTable(t);
 	}
 	
 	private void getTransitionIndex(MarkovNode node){
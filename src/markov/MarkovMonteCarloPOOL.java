@@ -18,15 +18,15 @@
 
 package markov;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ProgressMonitor;
 
 import base.AmuaModel;
 import base.MicroStats;
+import base.ModelScheduler;
 import base.RunReport;
+import main.CounterRNG;
 import main.MersenneTwisterFast;
 import main.Variable;
 import math.Interpreter;
@@ -38,61 +38,56 @@ public class MarkovMonteCarloPOOL{
 	AmuaModel myModel;
 	MarkovTree markovTree;
 	RunReport runReport;
-	
+
 	int numDim;
 	int numVars;
 	Variable variables[];
 	Numeric origVariableVals[];
-	
+
 	//people
 	int numPeople;
-	MarkovPerson people[];
+	MarkovPopulation population; //initial values and subgroups, shared by all chains
 	int numSubgroups;
 	int subgroupSize[];
-	
+
 	//Markov chain
 	int numChains;
-	int numStates;
-	MarkovNode states[];
-	double initPrev[][]; //[state][curThread]
-	double curPrev[][], newPrev[][], curPrevGroup[][][], newPrevGroup[][][];
-	double cycleRewards[][],cumRewards[];
-	double cycleRewardsDis[],cumRewardsDis[];
-	double cycleRewardsGroup[][][], cumRewardsGroup[][], cycleRewardsDisGroup[][], cumRewardsDisGroup[][];
-	double cycleVariables[][]; int cycleVariablesDenom[][];
-	double cycleVariablesGroup[][][]; int cycleVariablesDenomGroup[][][];
-	
-	MarkovTrace trace, traceGroup[];
-	MicroStats microStats, microStatsGroup[];
 	Variable curT;
-	
-	MersenneTwisterFast generator[];
+
+	MersenneTwisterFast generator[]; //thread-specific, for cohort-level expressions
+	MersenneTwisterFast initGenerator[]; //chunk-specific, for initializing people
+	MersenneTwisterFast seedGenerator; //seeds chain generators if not using CRN
+	boolean personRNG; //counter-based RNG - keyed by person and cycle instead of chunk
+	CounterRNG personGenerator[]; //thread-specific, re-keyed for each person
+	long initSeed;
+	static final int STREAM_INIT=0, STREAM_CHAIN=1, STREAM_COHORT=2;
 	ProgressMonitor progress;
 	double discountFactor[];
-	
-	
+
+
 	int numThreads=1;
-	int blockSize;
+	ModelScheduler scheduler;
+	int chunkSize, numChunks;
 	double maxProg;
 	long startTime, endTime;
-	boolean cancelled;
-	Exception threadError; //caught inside multithread and thrown outside
+	volatile boolean cancelled;
 	int guessMaxCycles=100;
 	int curProg=0;
-	
+
 	//Constructor
 	public MarkovMonteCarloPOOL(MarkovTree tree, RunReport runReport){
 		this.markovTree=tree;
 		this.myModel=tree.myModel;
 		this.runReport=runReport;
-		
+
 		numChains=tree.chains.size();
 		numDim=myModel.dimInfo.dimNames.length;
-		
+
 		//threads
 		numThreads=myModel.numThreads;
-		threadError=null;
-		
+		scheduler=myModel.getScheduler();
+		myModel.traceMarkov=new MarkovTrace[numThreads];
+
 		//Get innate variable 't'
 		int indexT=myModel.getInnateVariableIndex("t");
 		curT=myModel.innateVariables.get(indexT);
@@ -102,7 +97,7 @@ public class MarkovMonteCarloPOOL{
 			curT.value[n]=new Numeric(0);
 			curT.locked[n]=true;
 		}
-		
+
 		numVars=myModel.variables.size();
 		variables=new Variable[numVars];
 		origVariableVals=new Numeric[numVars];
@@ -113,145 +108,140 @@ public class MarkovMonteCarloPOOL{
 			variables[v].locked=new boolean[numThreads];
 		}
 	}
-	
+
 	public void simulate(boolean showProgress) throws NumericException, Exception{
 		cancelled=false;
 		maxProg=(numChains+1)*guessMaxCycles; //initialize + simulate
-		progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, (int) maxProg);
+		if(showProgress){
+			progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, (int) maxProg);
+		}
 		startTime=System.currentTimeMillis();
-		
+
 		initializePeople(showProgress); //create people and assign subgroups
 		if(cancelled==false){
 			runChains(showProgress); //simulate each Markov chain
 		}
-		
-		progress.close();
+
+		if(progress!=null){progress.close();}
 		endTime=System.currentTimeMillis();
 	}
-	
-	
+
+
 	private void initializePeople(final boolean showProgress) throws Exception{
 		numPeople=myModel.cohortSize;
-		people=new MarkovPerson[numPeople];
-		
+
 		numSubgroups=0;
 		if(myModel.reportSubgroups){
 			numSubgroups=myModel.subgroupNames.size();
 			myModel.parseSubgroups();
 		}
-		
-		//Initialize random number generator
+
+		//Split people into chunks
+		chunkSize=ModelScheduler.getChunkSize(numPeople, 64, 1024);
+		numChunks=ModelScheduler.getNumChunks(numPeople, chunkSize);
+
+		//Initialize random number generators
+		personRNG=myModel.personRNG;
 		generator=new MersenneTwisterFast[numThreads];
 		myModel.generatorVar=new MersenneTwisterFast[numThreads];
 		myModel.curGenerator=new MersenneTwisterFast[numThreads];
 		for(int i=0; i<numThreads; i++){
-			generator[i]=new MersenneTwisterFast(System.currentTimeMillis()+i); //offset so that not all get the same time in millis
-			if(myModel.CRN){ //Common random numbers
-				generator[i].setSeed(myModel.crnSeed+i+555); //initialization seed
+			if(personRNG){ //keyed for each chain and cycle
+				generator[i]=new CounterRNG();
+			}
+			else{
+				generator[i]=new MersenneTwisterFast(System.currentTimeMillis()+i); //offset so that not all get the same time in millis
+				if(myModel.CRN){ //Common random numbers
+					generator[i].setSeed(myModel.crnSeed-1-i); //cohort-level seed, not shared with chunks
+				}
+			}
+			bindGenerator(generator[i],i);
+		}
+		seedGenerator=new MersenneTwisterFast(System.currentTimeMillis()+numThreads);
+		if(personRNG){
+			personGenerator=new CounterRNG[numThreads];
+			for(int i=0; i<numThreads; i++){
+				personGenerator[i]=new CounterRNG();
+			}
+			initSeed=getSeed();
+		}
+		else{
+			initGenerator=new MersenneTwisterFast[numChunks];
+			for(int k=0; k<numChunks; k++){
+				initGenerator[k]=new MersenneTwisterFast(seedGenerator.nextLong());
+				if(myModel.CRN){ //Common random numbers
+					initGenerator[k].setSeed(myModel.crnSeed+k+555); //initialization seed
+				}
 			}
-			myModel.generatorVar[i]=generator[i];
-			myModel.curGenerator[i]=myModel.generatorVar[i];
 		}
-		
-		//Initialize people
-		blockSize = numPeople/numThreads;
-		Thread[] threads = new Thread[numThreads];
-		for(int n=0; n<numThreads; n++){
-			final int finalN = n;
-			threads[n] = new Thread() {
-				public void run(){
-					try{
-						int threadProg=0;
-						final int beginIndex = finalN * blockSize;
-						final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
-						for(int p=beginIndex; p<endIndex; p++){
-							people[p]=new MarkovPerson();
-							people[p].rewards=new double[numDim];
-							people[p].rewardsDis=new double[numDim];
-							people[p].prevRewards=new double[numDim];
-							people[p].prevRewardsDis=new double[numDim];
-							
-							//initialize variables
-							people[p].initVariableVals=new Numeric[numVars];
-							people[p].variableVals=new Numeric[numVars];
-							//eval independent vars
-							myModel.unlockVarsAll(finalN);
-							for(int v=0; v<numVars; v++){
-								if(variables[v].independent){
-									variables[v].locked[finalN]=true;
-									variables[v].value[finalN]=Interpreter.evaluateTokens(variables[v].parsedTokens, finalN, true);
-								}
-							}
-							//Update any dependent variables
-							for(int v=0; v<numVars; v++){
-								variables[v].updateDependents(myModel,finalN);
-							}
-							//assign vals to person
-							for(int v=0; v<numVars; v++) {
-								people[p].initVariableVals[v]=variables[v].value[finalN];
-							}
-							
-
-							//get subgroup
-							if(myModel.reportSubgroups){
-								people[p].inSubgroup=new boolean[numSubgroups];
-								for(int g=0; g<numSubgroups; g++){
-									Numeric curVal=Interpreter.evaluateTokens(myModel.subgroupTokens[g], finalN, false);
-									people[p].inSubgroup[g]=curVal.getBool();
-								}
-							}
 
-							if(finalN==0 && showProgress){ //update progress from thread 0
-								threadProg++;
-								int prog=threadProg*numThreads;
-								double curProg=(prog/(numPeople*1.0))*guessMaxCycles; //convert to cycle prog
-								updateProgress((int)curProg);
-								if(progress.isCanceled()){
-									cancelled=true;	p=numPeople;
-								}
-							}
+		//Initialize people
+		population=new MarkovPopulation(numPeople,numDim,numVars,numSubgroups,numThreads);
+		final AtomicInteger numInitialized=new AtomicInteger(0);
+		scheduler.run(numChunks, new ModelScheduler.ChunkTask(){
+			public void run(int chunk, int curThread) throws Exception{
+				if(cancelled){return;}
+				if(personRNG){bindGenerator(personGenerator[curThread],curThread);}
+				else{bindGenerator(initGenerator[chunk],curThread);}
+				int beginIndex=chunk*chunkSize;
+				int endIndex=Math.min(numPeople, beginIndex+chunkSize);
+				for(int p=beginIndex; p<endIndex; p++){
+					if(personRNG){personGenerator[curThread].setKey(initSeed, STREAM_INIT, p, 0);}
+					//initialize variables
+					//eval independent vars
+					myModel.unlockVarsAll(curThread);
+					for(int v=0; v<numVars; v++){
+						if(variables[v].independent){
+							variables[v].locked[curThread]=true;
+							variables[v].value[curThread]=Interpreter.evaluateTokens(variables[v].parsedTokens, curThread, true);
+						}
+					}
+					//Update any dependent variables
+					for(int v=0; v<numVars; v++){
+						variables[v].updateDependents(myModel,curThread);
+					}
+					//assign vals to person
+					for(int v=0; v<numVars; v++) {
+						population.setInitValue(v, p, variables[v].value[curThread]);
+					}
 
+					//get subgroup
+					if(myModel.reportSubgroups){
+						for(int g=0; g<numSubgroups; g++){
+							Numeric curVal=Interpreter.evaluateTokens(myModel.subgroupTokens[g], curThread, false);
+							population.inSubgroup[g][p]=curVal.getBool();
 						}
-					} catch(Exception e){
-						threadError=e;
 					}
 				}
-			};
-			threads[n].start();
-		}
-		//Wait for threads to finish
-		for(int n=0; n<numThreads; n++){
-			try{
-				threads[n].join();
-			} catch (InterruptedException e){
-				System.exit(-1);
+				int prog=numInitialized.addAndGet(endIndex-beginIndex);
+				if(curThread==0 && showProgress){ //update progress from thread 0
+					double curProg=(prog/(numPeople*1.0))*guessMaxCycles; //convert to cycle prog
+					updateProgress((int)curProg);
+					if(progress.isCanceled()){
+						cancelled=true;
+					}
+				}
 			}
-		}
-		
-		//Check for error
-		if(threadError!=null){
-			throw threadError;
-		}
-		
+		});
+
 		//Get subgroup indices
 		subgroupSize=new int[numSubgroups];
 		int subgroupCounters[]=new int[numSubgroups];
 		for(int p=0; p<numPeople; p++){
-			people[p].subgroupIndex=new int[numSubgroups];
 			for(int g=0; g<numSubgroups; g++){
-				if(people[p].inSubgroup[g]){
+				if(population.inSubgroup[g][p]){
 					subgroupSize[g]++;
-					people[p].subgroupIndex[g]=subgroupCounters[g];
+					population.subgroupIndex[g][p]=subgroupCounters[g];
 					subgroupCounters[g]++;
 				}
 			}
 		}
-		
+
 		for(int g=0; g<numSubgroups; g++){
 			runReport.subgroupSizes[g]=subgroupSize[g];
 		}
 	}
-	
+
 	private void runChains(final boolean showProgress) throws NumericException, Exception{
 		//set threads
 		for(int i=0; i<markovTree.nodes.size(); i++){
@@ -260,29 +250,322 @@ public class MarkovMonteCarloPOOL{
 			curNode.curCosts=new double[numDim][numThreads];
 			curNode.curChildProbs=new double[curNode.numChildren][numThreads];
 		}
-		
-		//Chain
+		discountFactor=new double[numDim];
+
+		//Simulate chains together until there are enough chunks to keep all threads busy (each chain has its own population state)
+		int batchSize=(numThreads*64+numChunks-1)/numChunks;
+		batchSize=Math.max(1, Math.min(numChains, batchSize));
+
 		curProg=guessMaxCycles;
-		for(int c=0; c<numChains; c++){
-			final MarkovNode curChain=markovTree.chains.get(c);
-			final int finalC=c;
-			
-			//Reset t
+		for(int b=0; b<numChains && cancelled==false; b+=batchSize){
+			int numRuns=Math.min(batchSize, numChains-b);
+			ChainRun runs[]=new ChainRun[numRuns];
+			for(int r=0; r<numRuns; r++){
+				runs[r]=new ChainRun(markovTree.chains.get(b+r));
+			}
+
+			simulateChains(runs,showProgress);
+
+			//Get chain results in order
+			if(cancelled==false){
+				for(int r=0; r<numRuns; r++){
+					runs[r].recordResults();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Simulates chains together - each cycle runs (chain x chunk) tasks until all chains have terminated
+	 */
+	private void simulateChains(final ChainRun runs[], boolean showProgress) throws Exception{
+		//Reset t
+		for(int n=0; n<numThreads; n++){
+			curT.value[n].setInt(0);
+		}
+
+		for(int r=0; r<runs.length; r++){
+			runs[r].initialize();
+		}
+
+		//Initialize state for all people - multithread
+		scheduler.run(runs.length*numChunks, new ModelScheduler.ChunkTask(){
+			public void run(int task, int curThread) throws Exception{
+				runs[task/numChunks].initializeChunk(task%numChunks, curThread);
+			}
+		});
+
+		//Simulate chain cycles
+		int t=0;
+		ChainRun active[]=runs;
+		while(active.length>0 && t<markovTree.maxCycles){
+			if(showProgress){
+				curProg+=active.length;
+				updateProgress(curProg);
+			}
+
+			//Update discount factor
+			if(markovTree.discountRewards){
+				for(int d=0; d<numDim; d++) {
+					double discountRate=markovTree.discountRates[d]/100.0;
+					if(t<markovTree.discountStartCycle) { //don't discount yet
+						discountFactor[d]=1.0;
+					}
+					else { //discount
+						int disCycle=(t-markovTree.discountStartCycle)+1;
+						double disYear=disCycle/markovTree.cyclesPerYear; //convert to years
+						discountFactor[d]=1.0/Math.pow(1+discountRate, disYear);
+					}
+				}
+			}
+
+			//Update expressions for costs/rewards and probs
+			for(int r=0; r<active.length; r++){
+				active[r].updateCycleValues(t);
+			}
+
+			//Sim cycle
+			final ChainRun curRuns[]=active;
+			final int finalT=t;
+			scheduler.run(curRuns.length*numChunks, new ModelScheduler.ChunkTask(){
+				public void run(int task, int curThread) throws Exception{
+					curRuns[task/numChunks].simChunk(task%numChunks, curThread, finalT);
+				}
+			});
+
+			//Update traces, drop terminated chains
+			int numActive=0;
+			for(int r=0; r<active.length; r++){
+				if(active[r].endCycle(t)==false){numActive++;}
+			}
+			if(numActive<active.length){
+				ChainRun stillActive[]=new ChainRun[numActive];
+				int index=0;
+				for(int r=0; r<active.length; r++){
+					if(active[r].terminated==false){
+						stillActive[index]=active[r]; index++;
+					}
+				}
+				active=stillActive;
+			}
+
+			t++; //next cycle
 			for(int n=0; n<numThreads; n++){
-				curT.value[n].setInt(0);
+				curT.value[n].setInt(t);
+			}
+
+			if(progress!=null && progress.isCanceled()){
+				cancelled=true;
+				active=new ChainRun[0];
+			}
+
+		} //end cycle loop
+
+		//Update max cycle guess
+		guessMaxCycles=t;
+		maxProg=(numChains+1)*guessMaxCycles; //initialize + simulate
+		if(progress!=null){progress.setMaximum((int) maxProg);}
+
+		//Reset variable 't'
+		for(int n=0; n<numThreads; n++){
+			curT.value[n].setInt(0);
+		}
+
+		//repoint variable vals
+		for(int v=0; v<numVars; v++){
+			variables[v].value[0]=origVariableVals[v];
+		}
+	}
+
+	/**
+	 * Seed for counter-based RNG - CRN seed (same person draws for each chain) or random
+	 */
+	private long getSeed(){
+		if(myModel.CRN){return(myModel.crnSeed);}
+		return(seedGenerator.nextLong());
+	}
+
+	/**
+	 * Points thread's random number generator to the given one (chunk or thread-specific)
+	 */
+	private void bindGenerator(MersenneTwisterFast curGenerator, int curThread){
+		myModel.generatorVar[curThread]=curGenerator;
+		myModel.curGenerator[curThread]=curGenerator;
+	}
+
+	private void updateProgress(int curProg){
+		progress.setProgress(curProg);
+		//Update progress
+		double prog=((curProg+1)/maxProg)*100;
+		long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
+		remTime=(long) (remTime*(100-prog));
+		remTime=remTime/1000;
+		String seconds = Integer.toString((int)(remTime % 60));
+		String minutes = Integer.toString((int)(remTime/60));
+		if(seconds.length()<2){seconds="0"+seconds;}
+		if(minutes.length()<2){minutes="0"+minutes;}
+		progress.setProgress(curProg+1);
+		progress.setNote("Time left: "+minutes+":"+seconds);
+	}
+
+	/**
+	 * Re-evaluates costs each cycle
+	 * @param node
+	 * @throws NumericException
+	 * @throws Exception
+	 */
+	private void evalCosts(MarkovNode node,int curThread) throws NumericException, Exception{
+		if(node.hasCost){
+			for(int d=0; d<numDim; d++){
+				double curCost=node.curCostCompiled[d].evaluate(curThread);
+				node.curCosts[d][curThread]=curCost;
+			}
+		}
+		for(int c=0; c<node.numChildren; c++){
+			evalCosts(node.children[c],curThread);
+		}
+	}
+
+	/**
+	 * Re-evaluates child probs
+	 * @param node
+	 * @throws NumericException
+	 * @throws Exception
+	 */
+	private void evalChildProbs(MarkovNode node, boolean recursive, int curThread) throws NumericException, Exception{
+		if(node.type!=4){ //not transition node
+			//Calculate probabilities for children
+			double sumProb=0;
+			int indexCompProb=-1;
+			for(int c=0; c<node.numChildren; c++){
+				MarkovNode curChild=node.children[c];
+				if(curChild.probComplementary){ //Complementary
+					curChild.curProb[curThread]=-1;
+					indexCompProb=c;
+				}
+				else{ //Evaluate text
+					curChild.curProb[curThread]=curChild.curProbCompiled.evaluate(curThread);
+					sumProb+=curChild.curProb[curThread];
+				}
+			}
+			if(indexCompProb==-1){
+				if(Math.abs(1.0-sumProb)>MathUtils.tolerance){ //throw error
+					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+				}
+			}
+			else{
+				if(sumProb>1.0 || sumProb<0.0){ //throw error
+					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+				}
+				else{
+					MarkovNode curChild=node.children[indexCompProb];
+					curChild.curProb[curThread]=1.0-sumProb;
+				}
+			}
+
+			//Get cum. child probs
+			MarkovNode curChild=node.children[0];
+			node.curChildProbs[0][curThread]=curChild.curProb[curThread];
+			for(int c=1; c<node.numChildren; c++){
+				curChild=node.children[c];
+				node.curChildProbs[c][curThread]=node.curChildProbs[c-1][curThread]+curChild.curProb[curThread];
+			}
+
+			if(recursive==true){ //move down tree
+				for(int c=0; c<node.numChildren; c++){
+					curChild=node.children[c];
+					evalChildProbs(curChild,recursive,curThread);
+				}
+			}
+		}
+	}
+
+	private void checkForVariables(MarkovNode node){
+		if(node.hasCost){ //cost
+			node.costHasVariables=new boolean[numDim];
+			for(int d=0; d<numDim; d++){
+				node.costHasVariables[d]=myModel.textHasVariable(node.cost[d]);
+			}
+		}
+		if(node.type==2){ //state, check rewards
+			node.rewardHasVariables=new boolean[numDim];
+			for(int d=0; d<numDim; d++){
+				node.rewardHasVariables[d]=myModel.textHasVariable(node.rewards[d]);
 			}
-			
+		}
+
+		node.probHasVariables=myModel.textHasVariable(node.prob); //prob
+		node.childHasProbVariables=false;
+
+		//move down tree
+		for(int c=0; c<node.numChildren; c++){
+			MarkovNode curChild=node.children[c];
+			checkForVariables(curChild);
+			if(curChild.probHasVariables==true){node.childHasProbVariables=true;}
+		}
+	}
+
+
+	/**
+	 * Simulation of one Markov chain - own population state, RNGs, cycle totals, and traces
+	 */
+	private class ChainRun{
+		MarkovNode curChain;
+		MarkovPopulation people;
+		MersenneTwisterFast chunkGenerator[]; //chunk-specific, for people
+		long chainSeed; //counter-based RNG
+		boolean terminated;
+
+		int numStates;
+		MarkovNode states[];
+		double initPrev[][]; //[state][curThread]
+		//cycle totals are kept per chunk [...][chunk] and summed in chunk order
+		double curPrev[][], newPrev[][], curPrevGroup[][][], newPrevGroup[][][];
+		double cycleRewards[][],cumRewards[];
+		double cycleRewardsDis[],cumRewardsDis[];
+		double cycleRewardsGroup[][][], cumRewardsGroup[][], cycleRewardsDisGroup[][], cumRewardsDisGroup[][];
+		double cycleVariables[][]; int cycleVariablesDenom[][];
+		double cycleVariablesGroup[][][]; int cycleVariablesDenomGroup[][][];
+
+		MarkovTrace trace, traceGroup[];
+		MicroStats microStats, microStatsGroup[];
+
+		//Constructor
+		ChainRun(MarkovNode curChain){
+			this.curChain=curChain;
+			people=new MarkovPopulation(population,numThreads);
+
 			//initialize RNG
-			for(int n=0; n<numThreads; n++){
+			if(personRNG){
+				chainSeed=getSeed();
+				return;
+			}
+			chunkGenerator=new MersenneTwisterFast[numChunks];
+			for(int k=0; k<numChunks; k++){
 				if(myModel.CRN){ //Common random numbers
-					myModel.generatorVar[n].setSeed(myModel.crnSeed+n);
+					chunkGenerator[k]=new MersenneTwisterFast(myModel.crnSeed+k);
 				}
-				myModel.curGenerator[n]=myModel.generatorVar[n];
-			
+				else{
+					chunkGenerator[k]=new MersenneTwisterFast(seedGenerator.nextLong());
+				}
+			}
+		}
+
+		void initialize() throws Exception{
+			trace=new MarkovTrace(curChain);
+			for(int n=0; n<numThreads; n++){
+				if(personRNG){
+					((CounterRNG)generator[n]).setKey(chainSeed, STREAM_COHORT, 0, 0); //same draws on each thread
+				}
+				else if(myModel.CRN){
+					generator[n].setSeed(myModel.crnSeed-1-n);
+				}
+				bindThread(n);
+
 				evalCosts(curChain,n); //Update expressions for costs/rewards
 				evalChildProbs(curChain,true,n); //Update probs
 			}
-			
+
 			//Get Markov States
 			numStates=curChain.stateNames.size();
 			states=new MarkovNode[numStates];
@@ -293,23 +576,21 @@ public class MarkovMonteCarloPOOL{
 			}
 
 			//Prev/rewards - overall
-			curPrev=new double[numStates][numThreads]; newPrev=new double[numStates][numThreads];
-			cycleRewards=new double[numDim][numThreads]; cycleRewardsDis=new double[numDim];
+			curPrev=new double[numStates][numChunks]; newPrev=new double[numStates][numChunks];
+			cycleRewards=new double[numDim][numChunks]; cycleRewardsDis=new double[numDim];
 			cumRewards=new double[numDim]; cumRewardsDis=new double[numDim];
-			cycleVariables=new double[numVars][numThreads]; cycleVariablesDenom=new int[numVars][numThreads];
+			cycleVariables=new double[numVars][numChunks]; cycleVariablesDenom=new int[numVars][numChunks];
 
 			//subgroup
-			curPrevGroup=new double[numSubgroups][numStates][numThreads]; newPrevGroup=new double[numSubgroups][numStates][numThreads];
-			cycleRewardsGroup=new double[numSubgroups][numDim][numThreads]; cycleRewardsDisGroup=new double[numSubgroups][numDim];
+			curPrevGroup=new double[numSubgroups][numStates][numChunks]; newPrevGroup=new double[numSubgroups][numStates][numChunks];
+			cycleRewardsGroup=new double[numSubgroups][numDim][numChunks]; cycleRewardsDisGroup=new double[numSubgroups][numDim];
 			cumRewardsGroup=new double[numSubgroups][numDim]; cumRewardsDisGroup=new double[numSubgroups][numDim];
-			cycleVariablesGroup=new double[numSubgroups][numVars][numThreads]; cycleVariablesDenomGroup=new int[numSubgroups][numVars][numThreads];
+			cycleVariablesGroup=new double[numSubgroups][numVars][numChunks]; cycleVariablesDenomGroup=new int[numSubgroups][numVars][numChunks];
 
-			trace=new MarkovTrace(curChain);
-			myModel.traceMarkov=trace;
 			if(myModel.displayIndResults){
 				microStats=new MicroStats(myModel, numPeople);
 			}
-			
+
 			//Subgroups
 			traceGroup=null;
 			if(myModel.reportSubgroups){
@@ -324,13 +605,13 @@ public class MarkovMonteCarloPOOL{
 					}
 				}
 			}
-			
+
 			//Get state indices for all transition nodes
 			curChain.transFrom=-1;
 			getTransitionIndex(curChain);
 			//Get evaluation tree - check for variables
 			checkForVariables(curChain);
-			
+
 			//Initialize state prevalence probabilities (assume static probs initially, will be updated for each person if depends on variable)
 			initPrev=new double[numStates][numThreads];
 			for(int n=0; n<numThreads; n++){
@@ -339,845 +620,492 @@ public class MarkovMonteCarloPOOL{
 					initPrev[s][n]=initPrev[s-1][n]+states[s].curProb[0];
 				}
 			}
-			
-			initializeChain(curChain,showProgress,finalC);
-			
-			//Simulate chain cycles
-			int t=0;
-			discountFactor=new double[numDim];
-			
-			boolean terminate=false;
-						
-			ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
-						
-			while(terminate==false && t<markovTree.maxCycles){
-				if(showProgress){
-					curProg++;
-					updateProgress(curProg);
+		}
+
+		/**
+		 * Points thread to this chain's trace and the thread-specific RNG (cohort-level expressions)
+		 */
+		void bindThread(int curThread){
+			bindGenerator(generator[curThread],curThread);
+			myModel.traceMarkov[curThread]=trace;
+		}
+
+		/**
+		 * Points thread to this chain's trace and the chunk's RNG (or the thread's person RNG)
+		 */
+		void bindChunk(int chunk, int curThread){
+			if(personRNG){bindGenerator(personGenerator[curThread],curThread);}
+			else{bindGenerator(chunkGenerator[chunk],curThread);}
+			myModel.traceMarkov[curThread]=trace;
+		}
+
+		void initializeChunk(int chunk, int curThread) throws Exception{
+			bindChunk(chunk,curThread);
+			int beginIndex=chunk*chunkSize;
+			int endIndex=Math.min(numPeople, beginIndex+chunkSize);
+			for(int p=beginIndex; p<endIndex; p++){
+				if(personRNG){personGenerator[curThread].setKey(chainSeed, STREAM_CHAIN, p, 0);}
+				people.reset(p); //initial variable values, reset rewards
+				people.bindVariables(p, variables, curThread); //get person-specific variables
+
+				//initialize state
+				if(curChain.hasVarUpdates && curChain.curVariableUpdatesT0!=null){
+					//Perform variable updates
+					for(int u=0; u<curChain.curVariableUpdatesT0.length; u++){
+						curChain.curVariableUpdatesT0[u].update(true,curThread);
+					}
+					//Update any dependent variables
+					for(int u=0; u<curChain.curVariableUpdatesT0.length; u++){
+						curChain.curVariableUpdatesT0[u].variable.updateDependents(myModel,curThread);
+					}
+					//store updated values
+					people.storeVariables(p, variables, curThread);
 				}
-				
-				//Update discount factor
-				if(markovTree.discountRewards){
-					for(int d=0; d<numDim; d++) {
-						double discountRate=markovTree.discountRates[d]/100.0;
-						if(t<markovTree.discountStartCycle) { //don't discount yet
-							discountFactor[d]=1.0;
-						}
-						else { //discount
-							int disCycle=(t-markovTree.discountStartCycle)+1;
-							double disYear=disCycle/markovTree.cyclesPerYear; //convert to years
-							discountFactor[d]=1.0/Math.pow(1+discountRate, disYear);
-						}
+				//assign starting state
+				if(curChain.childHasProbVariables){
+					evalChildProbs(curChain,false,curThread);
+					initPrev[0][curThread]=states[0].curProb[curThread];
+					for(int s=1; s<numStates; s++){
+						initPrev[s][curThread]=initPrev[s-1][curThread]+states[s].curProb[curThread];
 					}
 				}
-				
-				//Update expressions for costs/rewards
-				for(int n=0; n<numThreads; n++){
-					evalCosts(curChain,n);
-					for(int s=0; s<numStates; s++){
-						for(int d=0; d<numDim; d++){
-							double curReward=Interpreter.evaluateTokens(states[s].curRewardTokens[d], n, false).getDouble();
-							states[s].curRewards[d][n]=curReward;
-						}
+
+				double rand=myModel.generatorVar[curThread].nextDouble();
+				int k=0;
+				while(rand>initPrev[k][curThread]){k++;}
+				people.curState[p]=k;
+
+				curPrev[k][chunk]++; newPrev[k][chunk]++;
+				for(int g=0; g<numSubgroups; g++){
+					if(people.inSubgroup[g][p]){
+						curPrevGroup[g][k][chunk]++; newPrevGroup[g][k][chunk]++;
 					}
 				}
-				
-				//Update probs
-				for(int n=0; n<numThreads; n++){
-					evalChildProbs(curChain,true,n);
+			} //end simulate loop
+		}
+
+		/**
+		 * Updates cohort-level costs/rewards and probs for each thread
+		 */
+		void updateCycleValues(int t) throws Exception{
+			for(int n=0; n<numThreads; n++){
+				if(personRNG){
+					((CounterRNG)generator[n]).setKey(chainSeed, STREAM_COHORT, 0, t+1);
 				}
-				
-				//Sim cycle
-				
-				//thread pool
-				Future futures[]=new Future[numThreads];
-				for(int n=0; n<numThreads; n++){
-					int beginIndex = n * blockSize;
-					int endIndex = (n==numThreads-1) ? numPeople :(n+1)*blockSize;
-					
-					Runnable worker = new simCycleThread(beginIndex,endIndex,n,t,curChain);
-					futures[n]=executor.submit(worker);
+				bindThread(n);
+				evalCosts(curChain,n);
+				for(int s=0; s<numStates; s++){
+					for(int d=0; d<numDim; d++){
+						double curReward=states[s].curRewardCompiled[d].evaluate(n);
+						states[s].curRewards[d][n]=curReward;
+					}
 				}
-				for(int n=0; n<numThreads; n++){ //join
-					futures[n].get();
+			}
+			for(int n=0; n<numThreads; n++){
+				evalChildProbs(curChain,true,n);
+			}
+		}
+
+		void simChunk(int chunk, int curThread, int t) throws Exception{
+			bindChunk(chunk,curThread);
+			int beginIndex=chunk*chunkSize;
+			int endIndex=Math.min(numPeople, beginIndex+chunkSize);
+			//Update each person
+			for(int p=beginIndex; p<endIndex; p++){
+				if(personRNG){personGenerator[curThread].setKey(chainSeed, STREAM_CHAIN, p, t+1);}
+				int start=p*numDim;
+
+				//point variables to person's values
+				people.bindVariables(p, variables, curThread);
+
+				//update time dependent variables
+				if(t>0) {
+					curT.unlockDependents(curThread);
+					curT.updateDependents(myModel, curThread);
 				}
-								
-				updateTrace(t);
-				for(int g=0; g<numSubgroups; g++){updateTraceGroup(g,t);}
-				
-								
-				terminate=checkTerminationCondition(curChain); //check condition
-				if(terminate && markovTree.halfCycleCorrection==true){ //half-cycle correction - last cycle
-					//overall
-					trace.updateHalfCycle();
-					for(int d=0; d<numDim; d++){ //adjust cum rewards
-						cumRewards[d]=trace.cumRewards[d].get(t);
-						if(markovTree.discountRewards){
-							cumRewardsDis[d]=trace.cumRewardsDis[d].get(t);
-						}
+
+				//chain root variable updates
+				if(t>0 && curChain.hasVarUpdates && curChain.curVariableUpdates!=null){
+					//Perform variable updates
+					for(int u=0; u<curChain.curVariableUpdates.length; u++){
+						curChain.curVariableUpdates[u].update(true,curThread);
 					}
-					//subgroups
-					for(int g=0; g<numSubgroups; g++){
-						traceGroup[g].updateHalfCycle();
-						for(int d=0; d<numDim; d++){
-							cumRewardsGroup[g][d]=traceGroup[g].cumRewards[d].get(t);
-							if(markovTree.discountRewards){
-								cumRewardsDisGroup[g][d]=traceGroup[g].cumRewardsDis[d].get(t);
-							}
+					//Update any dependent variables
+					for(int u=0; u<curChain.curVariableUpdates.length; u++){
+						curChain.curVariableUpdates[u].variable.updateDependents(myModel,curThread);
+					}
+				}
+
+				//rewards
+				int curState=people.curState[p];
+				for(int d=0; d<numDim; d++){ //Update state rewards
+					//record prev cum rewards
+					people.prevRewards[start+d]=people.rewards[start+d];
+					people.prevRewardsDis[start+d]=people.rewardsDis[start+d];
+					//update rewards
+					if(states[curState].rewardHasVariables[d]==false){ //use pre-calculated reward
+						cycleRewards[d][chunk]+=states[curState].curRewards[d][curThread];
+						for(int g=0; g<numSubgroups; g++){
+							if(people.inSubgroup[g][p]){cycleRewardsGroup[g][d][chunk]+=states[curState].curRewards[d][curThread];}
 						}
+						people.rewards[start+d]+=states[curState].curRewards[d][curThread];
+						people.rewardsDis[start+d]+=states[curState].curRewards[d][curThread]*discountFactor[d];
 					}
-					//individual level
-					for(int p=0; p<numPeople; p++) {
-						MarkovPerson curPerson=people[p];
-						for(int d=0; d<numDim; d++) {
-							double lastCycleRewards=curPerson.rewards[d]-curPerson.prevRewards[d];
-							curPerson.rewards[d]=curPerson.prevRewards[d]+(lastCycleRewards/2.0);
-							lastCycleRewards=curPerson.rewardsDis[d]-curPerson.prevRewardsDis[d];
-							curPerson.rewardsDis[d]=curPerson.prevRewardsDis[d]+(lastCycleRewards/2.0);
+					else{ //has variable, re-evaluate reward
+						double curReward=states[curState].curRewardCompiled[d].evaluate(curThread);
+						cycleRewards[d][chunk]+=curReward;
+						for(int g=0; g<numSubgroups; g++){
+							if(people.inSubgroup[g][p]){cycleRewardsGroup[g][d][chunk]+=curReward;}
 						}
+						people.rewards[start+d]+=curReward;
+						people.rewardsDis[start+d]+=curReward*discountFactor[d];
 					}
 				}
 
-				t++; //next cycle
-				for(int n=0; n<numThreads; n++){
-					curT.value[n].setInt(t);
-				}
-				
-				if(progress.isCanceled()){
-					cancelled=true;
-					terminate=true;
+				//state transition
+				traverseNode(states[curState],p,chunk,curThread);
+
+				//update variables
+				for(int v=0; v<numVars; v++){
+					double val=variables[v].value[curThread].getDouble();
+					cycleVariables[v][chunk]+=val; cycleVariablesDenom[v][chunk]++;
+					for(int g=0; g<numSubgroups; g++){
+						if(people.inSubgroup[g][p]){
+							cycleVariablesGroup[g][v][chunk]+=val; cycleVariablesDenomGroup[g][v][chunk]++;
+						}
+					}
 				}
-				
-			} //end cycle loop
-			
-			executor.shutdown();
-			
-			//Update max cycle guess
-			guessMaxCycles=t;
-			maxProg=(numChains+1)*guessMaxCycles; //initialize + simulate
-			progress.setMaximum((int) maxProg);
-			
-			//Reset variable 't'
-			for(int n=0; n<numThreads; n++){
-				curT.value[n].setInt(0);
+				//store person's values
+				people.storeVariables(p, variables, curThread);
 			}
-			
-			//repoint variable vals
-			for(int v=0; v<numVars; v++){
-				variables[v].value[0]=origVariableVals[v];
-			}
-			
-			//Get chain EVs
-			if(cancelled==false){
-				final double chainCosts[]=new double[numDim]; //up-front costs
-				if(curChain.hasCost) {
-					for(int d=0; d<numDim; d++){
-						double curCost=Interpreter.evaluateTokens(curChain.curCostTokens[d],0,false).getDouble();
-						chainCosts[d]=curCost;
+		}
+
+		/**
+		 * Updates traces and checks termination condition
+		 * @return true if chain has terminated
+		 */
+		boolean endCycle(int t) throws Exception{
+			updateTrace(t);
+			for(int g=0; g<numSubgroups; g++){updateTraceGroup(g,t);}
+
+			bindThread(0);
+			terminated=checkTerminationCondition(); //check condition
+			if(terminated && markovTree.halfCycleCorrection==true){ //half-cycle correction - last cycle
+				//overall
+				trace.updateHalfCycle();
+				for(int d=0; d<numDim; d++){ //adjust cum rewards
+					cumRewards[d]=trace.cumRewards[d].get(t);
+					if(markovTree.discountRewards){
+						cumRewardsDis[d]=trace.cumRewardsDis[d].get(t);
 					}
 				}
-				
-				curChain.expectedValues=new double[numDim];
-				curChain.expectedValuesDis=new double[numDim];
-				for(int d=0; d<numDim; d++){
-					curChain.expectedValues[d]=cumRewards[d]+(chainCosts[d]*numPeople);
-					curChain.expectedValuesDis[d]=cumRewardsDis[d]+(chainCosts[d]*numPeople);
-				}
 				//subgroups
-				curChain.expectedValuesGroup=new double[numSubgroups][numDim];
-				curChain.expectedValuesDisGroup=new double[numSubgroups][numDim];
 				for(int g=0; g<numSubgroups; g++){
+					traceGroup[g].updateHalfCycle();
 					for(int d=0; d<numDim; d++){
-						curChain.expectedValuesGroup[g][d]=cumRewardsGroup[g][d]+(chainCosts[d]*subgroupSize[g]);
-						curChain.expectedValuesDisGroup[g][d]=cumRewardsDisGroup[g][d]+(chainCosts[d]*subgroupSize[g]);
-					}
-				}
-			
-				//record individual results
-				if(myModel.displayIndResults){
-					Thread[] threads = new Thread[numThreads];
-					for(int n=0; n<numThreads; n++){
-						final int finalN = n;
-						threads[n] = new Thread() {
-							public void run(){
-								try{
-									final int beginIndex = finalN * blockSize;
-									final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
-									//Update each person
-									for(int p=beginIndex; p<endIndex; p++){ 
-										MarkovPerson curPerson=people[p];
-										//overall
-										for(int d=0; d<numDim; d++){
-											if(markovTree.discountRewards){microStats.outcomes[d][p]=curPerson.rewardsDis[d]+chainCosts[d];}
-											else{microStats.outcomes[d][p]=curPerson.rewards[d]+chainCosts[d];}
-										}
-										for(int v=0; v<numVars; v++){
-											microStats.variables[v][p]=curPerson.variableVals[v].getValue();
-										}
-										//subgroups
-										for(int g=0; g<numSubgroups; g++){
-											if(curPerson.inSubgroup[g]){
-												int z=curPerson.subgroupIndex[g];
-												for(int d=0; d<numDim; d++){
-													if(markovTree.discountRewards){microStatsGroup[g].outcomes[d][z]=curPerson.rewardsDis[d]+chainCosts[d];}
-													else{microStatsGroup[g].outcomes[d][z]=curPerson.rewards[d]+chainCosts[d];}
-												}
-												for(int v=0; v<numVars; v++){
-													microStatsGroup[g].variables[v][z]=curPerson.variableVals[v].getValue();
-												}
-											}
-										}
-									}
-								} catch(Exception e){
-									threadError=e;
-								}
-							}
-						};
-						threads[n].start();
-					}
-					//Wait for threads to finish
-					for(int n=0; n<numThreads; n++){
-						try{
-							threads[n].join();
-						} catch (InterruptedException e){
-							System.exit(-1);
+						cumRewardsGroup[g][d]=traceGroup[g].cumRewards[d].get(t);
+						if(markovTree.discountRewards){
+							cumRewardsDisGroup[g][d]=traceGroup[g].cumRewardsDis[d].get(t);
 						}
 					}
-
-					//Check for error
-					if(threadError!=null){throw threadError;}
 				}
-				
-				//update run report
-				runReport.names.add(curChain.name);
-				runReport.markovTraces.add(trace);
-				for(int g=0; g<runReport.numSubgroups; g++){
-					runReport.markovTracesGroup[g].add(traceGroup[g]);
+				//individual level
+				int numEntries=numPeople*numDim;
+				for(int i=0; i<numEntries; i++) {
+					double lastCycleRewards=people.rewards[i]-people.prevRewards[i];
+					people.rewards[i]=people.prevRewards[i]+(lastCycleRewards/2.0);
+					lastCycleRewards=people.rewardsDis[i]-people.prevRewardsDis[i];
+					people.rewardsDis[i]=people.prevRewardsDis[i]+(lastCycleRewards/2.0);
 				}
-				if(myModel.displayIndResults){
-					runReport.microStats.add(microStats);
-					for(int g=0; g<runReport.numSubgroups; g++){
-						runReport.microStatsGroup[g].add(microStatsGroup[g]);
-					}
+			}
+			return(terminated);
+		}
+
+		/**
+		 * Gets chain EVs and individual results, and updates run report
+		 */
+		void recordResults() throws Exception{
+			bindThread(0);
+			final double chainCosts[]=new double[numDim]; //up-front costs
+			if(curChain.hasCost) {
+				for(int d=0; d<numDim; d++){
+					double curCost=curChain.curCostCompiled[d].evaluate(0);
+					chainCosts[d]=curCost;
 				}
-				
 			}
-			else{ //was cancelled
-				c=numChains; //end loop
+
+			curChain.expectedValues=new double[numDim];
+			curChain.expectedValuesDis=new double[numDim];
+			for(int d=0; d<numDim; d++){
+				curChain.expectedValues[d]=cumRewards[d]+(chainCosts[d]*numPeople);
+				curChain.expectedValuesDis[d]=cumRewardsDis[d]+(chainCosts[d]*numPeople);
 			}
-		} //end chain Loop
-	}
-	
-	private void initializeChain(final MarkovNode curChain, final boolean showProgress, final int finalC) throws Exception{
-		//Initialize state for all people - multithread
-		Thread[] threads = new Thread[numThreads];
-		for(int n=0; n<numThreads; n++){
-			final int finalN = n;
-			threads[n] = new Thread() {
-				public void run(){
-					try{
-						final int beginIndex = finalN * blockSize;
-						final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
-						for(int p=beginIndex; p<endIndex; p++){
-							MarkovPerson curPerson=people[p];
-							for(int v=0; v<numVars; v++){ //get person-specific variables
-								curPerson.variableVals[v]=curPerson.initVariableVals[v].copy();
-								variables[v].value[finalN]=curPerson.variableVals[v];
-							}
-							for(int d=0; d<numDim; d++){ //reset rewards
-								people[p].rewards[d]=0;	people[p].rewardsDis[d]=0;
-							}
-	
-							//initialize state
-							if(curChain.hasVarUpdates && curChain.curVariableUpdatesT0!=null){
-								//Perform variable updates
-								for(int u=0; u<curChain.curVariableUpdatesT0.length; u++){
-									curChain.curVariableUpdatesT0[u].update(true,finalN);
-								}
-								//Update any dependent variables
-								for(int u=0; u<curChain.curVariableUpdatesT0.length; u++){
-									curChain.curVariableUpdatesT0[u].variable.updateDependents(myModel,finalN);
-								}
-								//re-point variables
-								for(int v=0; v<numVars; v++){
-									curPerson.variableVals[v]=variables[v].value[finalN];
-								}
-								
-							}
-							//assign starting state
-							if(curChain.childHasProbVariables){
-								evalChildProbs(curChain,false,finalN);
-								initPrev[0][finalN]=states[0].curProb[finalN];
-								for(int s=1; s<numStates; s++){
-									initPrev[s][finalN]=initPrev[s-1][finalN]+states[s].curProb[finalN];
-								}
-							}
-	
-							double rand=generator[finalN].nextDouble();
-							int k=0;
-							while(rand>initPrev[k][finalN]){k++;}
-							people[p].curState=k;
-							
-							curPrev[k][finalN]++; newPrev[k][finalN]++;
-							for(int g=0; g<numSubgroups; g++){
-								if(curPerson.inSubgroup[g]){
-									curPrevGroup[g][k][finalN]++; newPrevGroup[g][k][finalN]++;
-								}
-							}
-						} //end simulate loop
-					} catch(Exception e){
-						threadError=e;
-					}
+			//subgroups
+			curChain.expectedValuesGroup=new double[numSubgroups][numDim];
+			curChain.expectedValuesDisGroup=new double[numSubgroups][numDim];
+			for(int g=0; g<numSubgroups; g++){
+				for(int d=0; d<numDim; d++){
+					curChain.expectedValuesGroup[g][d]=cumRewardsGroup[g][d]+(chainCosts[d]*subgroupSize[g]);
+					curChain.expectedValuesDisGroup[g][d]=cumRewardsDisGroup[g][d]+(chainCosts[d]*subgroupSize[g]);
 				}
-			};
-			threads[n].start();
-		}
-		//Wait for threads to finish
-		for(int n=0; n<numThreads; n++){
-			try{
-				threads[n].join();
-			} catch (InterruptedException e){
-				System.exit(-1);
 			}
-		}
-		
-		//Check for error
-		if(threadError!=null){throw threadError;}
-		
-		
-	}
 
-	/**
-	 * @deprecated
-	 * @param curChain
-	 * @param t
-	 * @throws Exception
-	 */
-	private void simCycle(final MarkovNode curChain, final int t) throws Exception{
-		//multi-thread
-		Thread[] threads = new Thread[numThreads];
-		for(int n=0; n<numThreads; n++){
-			final int finalN = n;
-			threads[n] = new Thread() {
-				public void run(){
-					try{
-						final int beginIndex = finalN * blockSize;
-						final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
+			//record individual results
+			if(myModel.displayIndResults){
+				scheduler.run(numChunks, new ModelScheduler.ChunkTask(){
+					public void run(int chunk, int curThread){
+						int beginIndex=chunk*chunkSize;
+						int endIndex=Math.min(numPeople, beginIndex+chunkSize);
 						//Update each person
-						for(int p=beginIndex; p<endIndex; p++){ 
-							MarkovPerson curPerson=people[p];
-							
-							//re-point variables
-							for(int v=0; v<numVars; v++){
-								variables[v].value[finalN]=curPerson.variableVals[v];
-							}
-							
-							//update time dependent variables
-							if(t>0) {
-								//myModel.unlockVars(finalN);
-								curT.unlockDependents(finalN);
-								curT.updateDependents(myModel, finalN);
+						for(int p=beginIndex; p<endIndex; p++){
+							int start=p*numDim;
+							//overall
+							for(int d=0; d<numDim; d++){
+								if(markovTree.discountRewards){microStats.outcomes[d][p]=people.rewardsDis[start+d]+chainCosts[d];}
+								else{microStats.outcomes[d][p]=people.rewards[start+d]+chainCosts[d];}
 							}
-
-							//chain root variable updates
-							if(t>0 && curChain.hasVarUpdates && curChain.curVariableUpdates!=null){
-								//myModel.unlockVars(finalN);
-								//Perform variable updates
-								for(int u=0; u<curChain.curVariableUpdates.length; u++){
-									curChain.curVariableUpdates[u].update(true,finalN);
-								}
-								//Update any dependent variables
-								for(int u=0; u<curChain.curVariableUpdates.length; u++){
-									curChain.curVariableUpdates[u].variable.updateDependents(myModel,finalN);
-								}
+							for(int v=0; v<numVars; v++){
+								microStats.variables[v][p]=people.getValue(v, p);
 							}
-
-							//rewards
-							int curState=curPerson.curState;
-							for(int d=0; d<numDim; d++){ //Update state rewards
-								if(states[curState].rewardHasVariables[d]==false){ //use pre-calculated reward
-									cycleRewards[d][finalN]+=states[curState].curRewards[d][finalN];
-									for(int g=0; g<numSubgroups; g++){
-										if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][finalN]+=states[curState].curRewards[d][finalN];}
-									}
-									curPerson.rewards[d]+=states[curState].curRewards[d][finalN];
-									curPerson.rewardsDis[d]+=states[curState].curRewards[d][finalN]*discountFactor[d];
-								}
-								else{ //has variable, re-evaluate reward
-									double curReward=Interpreter.evaluateTokens(states[curState].curRewardTokens[d], finalN, false).getDouble();
-									cycleRewards[d][finalN]+=curReward;
-									for(int g=0; g<numSubgroups; g++){
-										if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][finalN]+=curReward;}
+							//subgroups
+							for(int g=0; g<numSubgroups; g++){
+								if(people.inSubgroup[g][p]){
+									int z=people.subgroupIndex[g][p];
+									for(int d=0; d<numDim; d++){
+										if(markovTree.discountRewards){microStatsGroup[g].outcomes[d][z]=people.rewardsDis[start+d]+chainCosts[d];}
+										else{microStatsGroup[g].outcomes[d][z]=people.rewards[start+d]+chainCosts[d];}
 									}
-									curPerson.rewards[d]+=curReward;
-									curPerson.rewardsDis[d]+=curReward*discountFactor[d];
-								}
-							}
-							
-							//state transition
-							traverseNode(states[curState],curPerson,finalN);
-							
-							//record variable values
-							for(int v=0; v<numVars; v++){
-								double val=variables[v].value[finalN].getDouble();
-								cycleVariables[v][finalN]+=val; cycleVariablesDenom[v][finalN]++;
-								for(int g=0; g<numSubgroups; g++){
-									if(curPerson.inSubgroup[g]){
-										cycleVariablesGroup[g][v][finalN]+=val; cycleVariablesDenomGroup[g][v][finalN]++;
+									for(int v=0; v<numVars; v++){
+										microStatsGroup[g].variables[v][z]=people.getValue(v, p);
 									}
 								}
 							}
 						}
-
-					} catch(Exception e){
-						threadError=e;
 					}
+				});
+			}
+
+			//update run report
+			runReport.names.add(curChain.name);
+			runReport.markovTraces.add(trace);
+			for(int g=0; g<runReport.numSubgroups; g++){
+				runReport.markovTracesGroup[g].add(traceGroup[g]);
+			}
+			if(myModel.displayIndResults){
+				runReport.microStats.add(microStats);
+				for(int g=0; g<runReport.numSubgroups; g++){
+					runReport.microStatsGroup[g].add(microStatsGroup[g]);
 				}
-			};
-			threads[n].start();
-		}
-		//Wait for threads to finish
-		for(int n=0; n<numThreads; n++){
-			try{
-				threads[n].join();
-			} catch (InterruptedException e){
-				System.exit(-1);
 			}
 		}
-		
-		//Check for error
-		if(threadError!=null){
-			throw threadError;
-		}
-		
-		updateTrace(t);
-		for(int g=0; g<numSubgroups; g++){updateTraceGroup(g,t);}
-		
-	}
-	
-	
-	private void updateProgress(int curProg){
-		progress.setProgress(curProg);
-		//Update progress
-		double prog=((curProg+1)/maxProg)*100;
-		long remTime=(long) ((System.currentTimeMillis()-startTime)/prog); //Number of miliseconds per percent
-		remTime=(long) (remTime*(100-prog));
-		remTime=remTime/1000;
-		String seconds = Integer.toString((int)(remTime % 60));
-		String minutes = Integer.toString((int)(remTime/60));
-		if(seconds.length()<2){seconds="0"+seconds;}
-		if(minutes.length()<2){minutes="0"+minutes;}
-		progress.setProgress(curProg+1);
-		progress.setNote("Time left: "+minutes+":"+seconds);
-	}
-	
-		
-	private boolean checkTerminationCondition(MarkovNode curChain) throws Exception{
-		boolean terminate=false;
-		Numeric check=Interpreter.evaluateTokens(curChain.curTerminationTokens, 0, false);
-		if(check.getBool()){ //termination condition true
-			terminate=true;
-		}
-		return(terminate);
-	}
-		
-	
-	/**
-	 * Recursively traverse tree
-	 * @throws Exception 
-	 */
-	
-	private void traverseNode(MarkovNode node, MarkovPerson curPerson, int curThread) throws Exception{
-		//Update variables
-		if(node.hasVarUpdates){
-			//myModel.unlockVars(curThread);
-			//Perform variable updates
-			for(int u=0; u<node.curVariableUpdates.length; u++){
-				node.curVariableUpdates[u].update(true,curThread);
-			}
-			//Update any dependent variables
-			for(int u=0; u<node.curVariableUpdates.length; u++){
-				node.curVariableUpdates[u].variable.updateDependents(myModel,curThread);
+
+		private boolean checkTerminationCondition() throws Exception{
+			boolean terminate=false;
+			if(curChain.curTerminationCompiled.evaluateBool(0, false)){ //termination condition true
+				terminate=true;
 			}
+			return(terminate);
 		}
-		
-		//Update costs
-		if(node.hasCost){
-			for(int d=0; d<numDim; d++){
-				if(node.costHasVariables[d]==false){ //use pre-calculated cost
-					cycleRewards[d][curThread]+=node.curCosts[d][curThread];
-					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][curThread]+=node.curCosts[d][curThread];}
-					}
-					curPerson.rewards[d]+=node.curCosts[d][curThread];
-					curPerson.rewardsDis[d]+=node.curCosts[d][curThread]*discountFactor[d];
+
+		/**
+		 * Recursively traverse tree
+		 * @throws Exception
+		 */
+		private void traverseNode(MarkovNode node, int p, int chunk, int curThread) throws Exception{
+			//Update variables
+			if(node.hasVarUpdates){
+				//myModel.unlockVars(curThread);
+				//Perform variable updates
+				for(int u=0; u<node.curVariableUpdates.length; u++){
+					node.curVariableUpdates[u].update(true,curThread);
 				}
-				else{ //has variable, re-evaluate cost
-					double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
-					cycleRewards[d][curThread]+=curCost;
-					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][curThread]+=curCost;}
-					}
-					curPerson.rewards[d]+=curCost;
-					curPerson.rewardsDis[d]+=curCost*discountFactor[d];
+				//Update any dependent variables
+				for(int u=0; u<node.curVariableUpdates.length; u++){
+					node.curVariableUpdates[u].variable.updateDependents(myModel,curThread);
 				}
 			}
-		}
-		
-		if(node.type==4){ //Transition node, end of branch
-			newPrev[node.transFrom][curThread]--; //from state
-			newPrev[node.transTo][curThread]++; //next state
-			for(int g=0; g<numSubgroups; g++){
-				if(curPerson.inSubgroup[g]){
-					newPrevGroup[g][node.transFrom][curThread]--;
-					newPrevGroup[g][node.transTo][curThread]++;
+
+			//Update costs
+			if(node.hasCost){
+				for(int d=0; d<numDim; d++){
+					if(node.costHasVariables[d]==false){ //use pre-calculated cost
+						cycleRewards[d][chunk]+=node.curCosts[d][curThread];
+						for(int g=0; g<numSubgroups; g++){
+							if(people.inSubgroup[g][p]){cycleRewardsGroup[g][d][chunk]+=node.curCosts[d][curThread];}
+						}
+						people.rewards[p*numDim+d]+=node.curCosts[d][curThread];
+						people.rewardsDis[p*numDim+d]+=node.curCosts[d][curThread]*discountFactor[d];
+					}
+					else{ //has variable, re-evaluate cost
+						double curCost=node.curCostCompiled[d].evaluate(curThread);
+						cycleRewards[d][chunk]+=curCost;
+						for(int g=0; g<numSubgroups; g++){
+							if(people.inSubgroup[g][p]){cycleRewardsGroup[g][d][chunk]+=curCost;}
+						}
+						people.rewards[p*numDim+d]+=curCost;
+						people.rewardsDis[p*numDim+d]+=curCost*discountFactor[d];
+					}
 				}
 			}
-			curPerson.curState=node.transTo;
-		}
-		else{ //sim chance node
-			double rand=generator[curThread].nextDouble();
-			int k=0;
-			if(node.childHasProbVariables==true){ //re-evaluate child probs
-				evalChildProbs(node,false,curThread);
+
+			if(node.type==4){ //Transition node, end of branch
+				newPrev[node.transFrom][chunk]--; //from state
+				newPrev[node.transTo][chunk]++; //next state
+				for(int g=0; g<numSubgroups; g++){
+					if(people.inSubgroup[g][p]){
+						newPrevGroup[g][node.transFrom][chunk]--;
+						newPrevGroup[g][node.transTo][chunk]++;
+					}
+				}
+				people.curState[p]=node.transTo;
 			}
-			while(rand>node.curChildProbs[k][curThread]){k++;}
-			MarkovNode curChild=node.children[k];
-			traverseNode(curChild,curPerson,curThread);
-		}
-	}
-	
-	/**
-	 * Re-evaluates costs each cycle
-	 * @param node
-	 * @throws NumericException
-	 * @throws Exception
-	 */
-	private void evalCosts(MarkovNode node,int curThread) throws NumericException, Exception{
-		if(node.hasCost){
-			for(int d=0; d<numDim; d++){
-				double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
-				node.curCosts[d][curThread]=curCost;
+			else{ //sim chance node
+				double rand=myModel.generatorVar[curThread].nextDouble();
+				int k=0;
+				if(node.childHasProbVariables==true){ //re-evaluate child probs
+					evalChildProbs(node,false,curThread);
+				}
+				while(rand>node.curChildProbs[k][curThread]){k++;}
+				MarkovNode curChild=node.children[k];
+				traverseNode(curChild,p,chunk,curThread);
 			}
 		}
-		for(int c=0; c<node.numChildren; c++){
-			evalCosts(node.children[c],curThread);
-		}
-	}
-	
-	/**
-	 * Re-evaluates child probs
-	 * @param node
-	 * @throws NumericException
-	 * @throws Exception
-	 */
-	private void evalChildProbs(MarkovNode node, boolean recursive, int curThread) throws NumericException, Exception{
-		if(node.type!=4){ //not transition node
-			//Calculate probabilities for children
-			double sumProb=0;
-			int indexCompProb=-1;
-			for(int c=0; c<node.numChildren; c++){
-				MarkovNode curChild=node.children[c];
-				if(curChild.prob.matches("C") || curChild.prob.matches("c")){ //Complementary
-					curChild.curProb[curThread]=-1;
-					indexCompProb=c;
-				}
-				else{ //Evaluate text
-					curChild.curProb[curThread]=Interpreter.evaluateTokens(curChild.curProbTokens, curThread, false).getDouble();
-					sumProb+=curChild.curProb[curThread];
+
+		//Sum across chunks and update trace
+		private void updateTrace(int t){
+			trace.cycles.add(t);
+			//Update prev
+			for(int s=0; s<numStates; s++){
+				double totalPrev=0;
+				for(int n=0; n<numChunks; n++){
+					totalPrev+=curPrev[s][n];
+					curPrev[s][n]=newPrev[s][n];
 				}
+				trace.prev[s].add(totalPrev); //prev at beginning of cycle
 			}
-			if(indexCompProb==-1){
-				if(Math.abs(1.0-sumProb)>MathUtils.tolerance){ //throw error
-					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			//Check for half-cycle correction - first cycle
+			if(t==0 && markovTree.halfCycleCorrection==true){
+				for(int d=0; d<numDim; d++){
+					for(int n=0; n<numChunks; n++){
+						cycleRewards[d][n]*=0.5; //half-cycle correction
+					}
+				}
+				//individual-level
+				int numEntries=numPeople*numDim;
+				for(int i=0; i<numEntries; i++) {
+					people.rewards[i]*=0.5;
+					people.rewardsDis[i]*=0.5;
 				}
 			}
-			else{
-				if(sumProb>1.0 || sumProb<0.0){ //throw error
-					throw new Exception("Error: Probabilities sum to "+sumProb+" ("+node.name+")");
+			//Update rewards
+			for(int d=0; d<numDim; d++){
+				double curCycleRewards=0;
+				for(int n=0; n<numChunks; n++){
+					curCycleRewards+=cycleRewards[d][n];
 				}
-				else{
-					MarkovNode curChild=node.children[indexCompProb];
-					curChild.curProb[curThread]=1.0-sumProb;
+				cumRewards[d]+=curCycleRewards;
+				trace.cycleRewards[d].add(curCycleRewards);
+				trace.cumRewards[d].add(cumRewards[d]);
+				if(markovTree.discountRewards){
+					cycleRewardsDis[d]=curCycleRewards*discountFactor[d];
+					cumRewardsDis[d]+=cycleRewardsDis[d];
+					trace.cycleRewardsDis[d].add(cycleRewardsDis[d]);
+					trace.cumRewardsDis[d].add(cumRewardsDis[d]);
 				}
+				//reset
+				for(int n=0; n<numChunks; n++){cycleRewards[d][n]=0;}
+				cycleRewardsDis[d]=0;
 			}
-
-			//Get cum. child probs
-			MarkovNode curChild=node.children[0];
-			node.curChildProbs[0][curThread]=curChild.curProb[curThread];
-			for(int c=1; c<node.numChildren; c++){
-				curChild=node.children[c];
-				node.curChildProbs[c][curThread]=node.curChildProbs[c-1][curThread]+curChild.curProb[curThread];
-			}
-
-			if(recursive==true){ //move down tree
-				for(int c=0; c<node.numChildren; c++){
-					curChild=node.children[c];
-					evalChildProbs(curChild,recursive,curThread);
+			//Update variables
+			for(int v=0; v<numVars; v++){
+				double num=0, denom=0;
+				for(int n=0; n<numChunks; n++){
+					num+=cycleVariables[v][n]; cycleVariables[v][n]=0;
+					denom+=cycleVariablesDenom[v][n]; cycleVariablesDenom[v][n]=0;
 				}
+				double mean=num/(denom*1.0);
+				trace.cycleVariables[v].add(mean);
 			}
 		}
-	}
 
-	
-	//Sum across threads and update trace
-	private void updateTrace(int t){
-		trace.cycles.add(t);
-		//Update prev
-		for(int s=0; s<numStates; s++){
-			double totalPrev=0;
-			for(int n=0; n<numThreads; n++){
-				totalPrev+=curPrev[s][n];
-				curPrev[s][n]=newPrev[s][n];
-			}
-			trace.prev[s].add(totalPrev); //prev at beginning of cycle
-		}
-		//Check for half-cycle correction - first cycle
-		if(t==0 && markovTree.halfCycleCorrection==true){
-			for(int d=0; d<numDim; d++){
-				for(int n=0; n<numThreads; n++){
-					cycleRewards[d][n]*=0.5; //half-cycle correction
+		private void updateTraceGroup(int g, int t){
+			traceGroup[g].cycles.add(t);
+			//Update prev
+			for(int s=0; s<numStates; s++){
+				double totalPrev=0;
+				for(int n=0; n<numChunks; n++){
+					totalPrev+=curPrevGroup[g][s][n];
+					curPrevGroup[g][s][n]=newPrevGroup[g][s][n];
 				}
+				traceGroup[g].prev[s].add(totalPrev); //prev at beginning of cycle
 			}
-			//individual-level
-			for(int p=0; p<numPeople; p++) {
-				MarkovPerson curPerson=people[p];
-				for(int d=0; d<numDim; d++) {
-					curPerson.rewards[d]*=0.5;
-					curPerson.rewardsDis[d]*=0.5;
+			//Check for half-cycle correction - first and last cycle
+			if(t==0 && markovTree.halfCycleCorrection==true){
+				for(int d=0; d<numDim; d++){
+					for(int n=0; n<numChunks; n++){
+						cycleRewardsGroup[g][d][n]*=0.5; //half-cycle correction
+					}
 				}
 			}
-		}
-		//Update rewards
-		for(int d=0; d<numDim; d++){
-			double curCycleRewards=0;
-			for(int n=0; n<numThreads; n++){
-				curCycleRewards+=cycleRewards[d][n];
-			}
-			cumRewards[d]+=curCycleRewards;
-			trace.cycleRewards[d].add(curCycleRewards);
-			trace.cumRewards[d].add(cumRewards[d]);
-			if(markovTree.discountRewards){
-				cycleRewardsDis[d]=curCycleRewards*discountFactor[d];
-				cumRewardsDis[d]+=cycleRewardsDis[d];
-				trace.cycleRewardsDis[d].add(cycleRewardsDis[d]);
-				trace.cumRewardsDis[d].add(cumRewardsDis[d]);
-			}
-			//reset
-			for(int n=0; n<numThreads; n++){cycleRewards[d][n]=0;} 
-			cycleRewardsDis[d]=0;
-		}
-		//Update variables
-		for(int v=0; v<numVars; v++){
-			double num=0, denom=0;
-			for(int n=0; n<numThreads; n++){
-				num+=cycleVariables[v][n]; cycleVariables[v][n]=0;
-				denom+=cycleVariablesDenom[v][n]; cycleVariablesDenom[v][n]=0;
-			}
-			double mean=num/(denom*1.0);
-			trace.cycleVariables[v].add(mean);
-		}
-		trace.updateTable(t);
-	}
-	
-	private void updateTraceGroup(int g, int t){
-		traceGroup[g].cycles.add(t);
-		//Update prev
-		for(int s=0; s<numStates; s++){
-			double totalPrev=0;
-			for(int n=0; n<numThreads; n++){
-				totalPrev+=curPrevGroup[g][s][n];
-				curPrevGroup[g][s][n]=newPrevGroup[g][s][n];
-			}
-			traceGroup[g].prev[s].add(totalPrev); //prev at beginning of cycle
-		}
-		//Check for half-cycle correction - first and last cycle
-		if(t==0 && markovTree.halfCycleCorrection==true){
+			//Update rewards
 			for(int d=0; d<numDim; d++){
-				for(int n=0; n<numThreads; n++){
-					cycleRewardsGroup[g][d][n]*=0.5; //half-cycle correction
+				double curCycleRewards=0;
+				for(int n=0; n<numChunks; n++){
+					curCycleRewards+=cycleRewardsGroup[g][d][n];
 				}
+				cumRewardsGroup[g][d]+=curCycleRewards;
+				traceGroup[g].cycleRewards[d].add(curCycleRewards);
+				traceGroup[g].cumRewards[d].add(cumRewardsGroup[g][d]);
+				if(markovTree.discountRewards){
+					cycleRewardsDisGroup[g][d]=curCycleRewards*discountFactor[d];
+					cumRewardsDisGroup[g][d]+=cycleRewardsDisGroup[g][d];
+					traceGroup[g].cycleRewardsDis[d].add(cycleRewardsDisGroup[g][d]);
+					traceGroup[g].cumRewardsDis[d].add(cumRewardsDisGroup[g][d]);
+				}
+				//reset
+				for(int n=0; n<numChunks; n++){cycleRewardsGroup[g][d][n]=0;}
+				cycleRewardsDisGroup[g][d]=0;
 			}
-		}
-		//Update rewards
-		for(int d=0; d<numDim; d++){
-			double curCycleRewards=0;
-			for(int n=0; n<numThreads; n++){
-				curCycleRewards+=cycleRewardsGroup[g][d][n];
-			}
-			cumRewardsGroup[g][d]+=curCycleRewards;
-			traceGroup[g].cycleRewards[d].add(curCycleRewards);
-			traceGroup[g].cumRewards[d].add(cumRewardsGroup[g][d]);
-			if(markovTree.discountRewards){
-				cycleRewardsDisGroup[g][d]=curCycleRewards*discountFactor[d];
-				cumRewardsDisGroup[g][d]+=cycleRewardsDisGroup[g][d];
-				traceGroup[g].cycleRewardsDis[d].add(cycleRewardsDisGroup[g][d]);
-				traceGroup[g].cumRewardsDis[d].add(cumRewardsDisGroup[g][d]);
-			}
-			//reset
-			for(int n=0; n<numThreads; n++){cycleRewardsGroup[g][d][n]=0;} 
-			cycleRewardsDisGroup[g][d]=0;
-		}
-		//Update variables
-		for(int v=0; v<numVars; v++){
-			double num=0, denom=0;
-			for(int n=0; n<numThreads; n++){
-				num+=cycleVariablesGroup[g][v][n]; cycleVariablesGroup[g][v][n]=0;
-				denom+=cycleVariablesDenomGroup[g][v][n]; cycleVariablesDenomGroup[g][v][n]=0;
-			}
-			double mean=num/(denom*1.0);
-			traceGroup[g].cycleVariables[v].add(mean);
-		}
-		traceGroup[g].updateTable(t);
-	}
-	
-	private void getTransitionIndex(MarkovNode node){
-		if(node.type==4){ //get transition to
-			String nextState=(String) node.comboTransition.getSelectedItem();
-			node.transTo=getStateIndex(nextState);
-		}
-		else{
-			if(node.type==2){ //state, get transition from
-				node.transFrom=getStateIndex(node.name);
-			}
-			for(int c=0; c<node.numChildren; c++){
-				MarkovNode curChild=node.children[c];
-				curChild.transFrom=node.transFrom; //pass to child
-				getTransitionIndex(curChild);
-			}
-		}
-	}
-	
-	private int getStateIndex(String name){
-		int index=-1;
-		boolean found=false;
-		while(found==false){
-			index++;
-			if(states[index].name.equals(name)){
-				found=true;
+			//Update variables
+			for(int v=0; v<numVars; v++){
+				double num=0, denom=0;
+				for(int n=0; n<numChunks; n++){
+					num+=cycleVariablesGroup[g][v][n]; cycleVariablesGroup[g][v][n]=0;
+					denom+=cycleVariablesDenomGroup[g][v][n]; cycleVariablesDenomGroup[g][v][n]=0;
+				}
+				double mean=num/(denom*1.0);
+				traceGroup[g].cycleVariables[v].add(mean);
 			}
 		}
-		return(index);
-	}
-	
-	private void checkForVariables(MarkovNode node){
-		if(node.hasCost){ //cost
-			node.costHasVariables=new boolean[numDim];
-			for(int d=0; d<numDim; d++){
-				node.costHasVariables[d]=myModel.textHasVariable(node.cost[d]);
+
+		private void getTransitionIndex(MarkovNode node){
+			if(node.type==4){ //get transition to
+				String nextState=node.transition;
+				node.transTo=getStateIndex(nextState);
 			}
-		}
-		if(node.type==2){ //state, check rewards
-			node.rewardHasVariables=new boolean[numDim];
-			for(int d=0; d<numDim; d++){
-				node.rewardHasVariables[d]=myModel.textHasVariable(node.rewards[d]);
+			else{
+				if(node.type==2){ //state, get transition from
+					node.transFrom=getStateIndex(node.name);
+				}
+				for(int c=0; c<node.numChildren; c++){
+					MarkovNode curChild=node.children[c];
+					curChild.transFrom=node.transFrom; //pass to child
+					getTransitionIndex(curChild);
+				}
 			}
 		}
-		
-		node.probHasVariables=myModel.textHasVariable(node.prob); //prob
-		node.childHasProbVariables=false;
-		
-		//move down tree
-		for(int c=0; c<node.numChildren; c++){
-			MarkovNode curChild=node.children[c];
-			checkForVariables(curChild);
-			if(curChild.probHasVariables==true){node.childHasProbVariables=true;}
-		}
-	}
-	
-	
-	private class simCycleThread implements Runnable{
-		private int beginIndex, endIndex;
-		private int finalN; //cur thread
-		private int t;
-		private MarkovNode curChain;
-		
-		public simCycleThread(int beginIndex, int endIndex, int finalN, int t, MarkovNode curChain){
-			this.beginIndex=beginIndex;
-			this.endIndex=endIndex;
-			this.finalN=finalN;
-			this.t=t;
-			this.curChain=curChain;
-		}
-		
-		@Override
-		public void run(){
-			try{
-				//Update each person
-				for(int p=beginIndex; p<endIndex; p++){ 
-					MarkovPerson curPerson=people[p];
-
-					//re-point variables
-					for(int v=0; v<numVars; v++){
-						variables[v].value[finalN]=curPerson.variableVals[v];
-					}
-					
-					//update time dependent variables
-					if(t>0) {
-						curT.unlockDependents(finalN);
-						curT.updateDependents(myModel, finalN);
-					}
-
-					//chain root variable updates
-					if(t>0 && curChain.hasVarUpdates && curChain.curVariableUpdates!=null){
-						//Perform variable updates
-						for(int u=0; u<curChain.curVariableUpdates.length; u++){
-							curChain.curVariableUpdates[u].update(true,finalN);
-						}
-						//Update any dependent variables
-						for(int u=0; u<curChain.curVariableUpdates.length; u++){
-							curChain.curVariableUpdates[u].variable.updateDependents(myModel,finalN);
-						}
-					}
-
-					//rewards
-					int curState=curPerson.curState;
-					for(int d=0; d<numDim; d++){ //Update state rewards
-						//record prev cum rewards
-						curPerson.prevRewards[d]=curPerson.rewards[d];
-						curPerson.prevRewardsDis[d]=curPerson.rewardsDis[d];
-						//update rewards
-						if(states[curState].rewardHasVariables[d]==false){ //use pre-calculated reward
-							cycleRewards[d][finalN]+=states[curState].curRewards[d][finalN];
-							for(int g=0; g<numSubgroups; g++){
-								if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][finalN]+=states[curState].curRewards[d][finalN];}
-							}
-							curPerson.rewards[d]+=states[curState].curRewards[d][finalN];
-							curPerson.rewardsDis[d]+=states[curState].curRewards[d][finalN]*discountFactor[d];
-						}
-						else{ //has variable, re-evaluate reward
-							double curReward=Interpreter.evaluateTokens(states[curState].curRewardTokens[d], finalN, false).getDouble();
-							cycleRewards[d][finalN]+=curReward;
-							for(int g=0; g<numSubgroups; g++){
-								if(curPerson.inSubgroup[g]){cycleRewardsGroup[g][d][finalN]+=curReward;}
-							}
-							curPerson.rewards[d]+=curReward;
-							curPerson.rewardsDis[d]+=curReward*discountFactor[d];
-						}
-					}
-
-					//state transition
-					traverseNode(states[curState],curPerson,finalN);
 
-					//update variables
-					for(int v=0; v<numVars; v++){
-						double val=variables[v].value[finalN].getDouble();
-						cycleVariables[v][finalN]+=val; cycleVariablesDenom[v][finalN]++;
-						for(int g=0; g<numSubgroups; g++){
-							if(curPerson.inSubgroup[g]){
-								cycleVariablesGroup[g][v][finalN]+=val; cycleVariablesDenomGroup[g][v][finalN]++;
-							}
-						}
-					}
-					//re-point variables
-					for(int v=0; v<numVars; v++){
-						curPerson.variableVals[v]=variables[v].value[finalN];
-					}
+		private int getStateIndex(String name){
+			int index=-1;
+			boolean found=false;
+			while(found==false){
+				index++;
+				if(states[index].name.equals(name)){
+					found=true;
 				}
-			}catch(Exception e){
-				e.printStackTrace();
 			}
-		} //end run function
-	} //end thread class
+			return(index);
+		}
+	} //end chain class
 
-}
\ No newline at end of file
+}
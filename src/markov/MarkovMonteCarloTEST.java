@@ -341,7 +341,7 @@ public class MarkovMonteCarloTEST{
 			cycleVariablesGroup=new double[maxCycles][numSubgroups][numVars][numThreads]; cycleVariablesDenomGroup=new int[maxCycles][numSubgroups][numVars][numThreads];
 
 			trace=new MarkovTrace(curChain);
-			myModel.traceMarkov=trace;
+			myModel.setTrace(trace,numThreads);
 			microStats=new MicroStats(myModel, numPeople);
 			
 			//Subgroups
@@ -413,7 +413,7 @@ public class MarkovMonteCarloTEST{
 									
 									for(int d=0; d<numDim; d++){ //Update state rewards
 										if(states[curState].rewardHasVariables[d]==true){
-											states[curState].curRewards[d][finalN]=Interpreter.evaluateTokens(states[curState].curRewardTokens[d], finalN, false).getDouble();
+											states[curState].curRewards[d][finalN]=Interpreter.evaluateDouble(states[curState].curRewardTokens[d], finalN, false);
 										}
 										cycleRewards[t][d][finalN]+=states[curState].curRewards[d][finalN];
 										for(int g=0; g<numSubgroups; g++){
@@ -664,7 +664,7 @@ public class MarkovMonteCarloTEST{
 		if(node.hasCost){
 			for(int d=0; d<numDim; d++){
 				if(node.costHasVariables[d]==true){
-					node.curCosts[d][curThread]=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
+					node.curCosts[d][curThread]=Interpreter.evaluateDouble(node.curCostTokens[d], curThread, false);
 				}
 				cycleRewards[t][d][curThread]+=node.curCosts[d][curThread];
 				for(int g=0; g<numSubgroups; g++){
@@ -700,7 +700,7 @@ public class MarkovMonteCarloTEST{
 		if(node.hasCost){
 			for(int d=0; d<numDim; d++){
 				//double curCost=Interpreter.evaluate(node.cost[d],myModel,false,curThread).getDouble();
-				double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
+				double curCost=Interpreter.evaluateDouble(node.curCostTokens[d], curThread, false);
 				node.curCosts[d][curThread]=curCost;
 			}
 		}
@@ -712,7 +712,7 @@ public class MarkovMonteCarloTEST{
 	private void evalRewards(int curThread) throws NumericException, Exception{
 		for(int s=0; s<numStates; s++){ //get pointers
 			for(int d=0; d<numDim; d++){
-				states[s].curRewards[d][curThread]=Interpreter.evaluateTokens(states[s].curRewardTokens[d], curThread, false).getDouble();
+				states[s].curRewards[d][curThread]=Interpreter.evaluateDouble(states[s].curRewardTokens[d], curThread, false);
 			}
 		}
 	}
@@ -736,7 +736,7 @@ public class MarkovMonteCarloTEST{
 				}
 				else{ //Evaluate text
 					//curChild.curProb[curThread]=Interpreter.evaluate(curChild.prob,myModel,false,curThread).getDouble();
-					curChild.curProb[curThread]=Interpreter.evaluateTokens(curChild.curProbTokens, curThread, false).getDouble();
+					curChild.curProb[curThread]=Interpreter.evaluateDouble(curChild.curProbTokens, curThread, false);
 					sumProb+=curChild.curProb[curThread];
 				}
 			}
@@ -813,7 +813,6 @@ public class MarkovMonteCarloTEST{
 				double mean=num/(denom*1.0);
 				trace.cycleVariables[v].add(mean);
 			}
-			trace.updateTable(t);
 		}
 	}
 	
@@ -854,7 +853,6 @@ public class MarkovMonteCarloTEST{
 				double mean=num/(denom*1.0);
 				traceGroup[g].cycleVariables[v].add(mean);
 			}
-			traceGroup[g].updateTable(t);
 		}
 	}
 	
@@ -45,6 +45,7 @@ import javax.xml.bind.annotation.XmlTransient;
 
 import base.ModelNode;
 import main.VariableUpdate;
+import math.CompiledExpression;
 import math.MathUtils;
 import math.Token;
 
@@ -63,6 +64,8 @@ public class MarkovNode extends ModelNode{
 	@XmlTransient Token curProbTokens[]; //[token]
 	@XmlTransient Token curCostTokens[][], curRewardTokens[][]; //[dim][token]
 	@XmlTransient Token curTerminationTokens[];
+	@XmlTransient CompiledExpression curProbCompiled, curCostCompiled[], curRewardCompiled[], curTerminationCompiled; //expression trees built from tokens
+	@XmlTransient boolean probComplementary;
 	@XmlTransient double curProb[]; //Current probability used to run the model - not saved
 	@XmlTransient double curCosts[][]; //thread-specific
 	@XmlTransient double curRewards[][];
@@ -1084,6 +1087,14 @@ public class MarkovNode extends ModelNode{
 		}
 	}
 
+	public void highlightTransition(Color color){
+		if(comboTransition!=null){
+			if(color==null){comboTransition.setBackground(new Color(0,0,0,0));}
+			else{comboTransition.setBackground(color);}
+			comboTransition.setBorder(null);
+		}
+	}
+
 	public void showNode(boolean show, ArrayList<MarkovNode> nodes){
 		visible=show;
 		showComponent(show,textName);
@@ -0,0 +1,222 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package markov;
+
+import main.Variable;
+import math.Numeric;
+
+/**
+ * Column-oriented storage for a Monte Carlo population (alternative to one MarkovPerson object per individual).
+ * State, rewards and variable values are kept in flat primitive arrays.
+ * Variable values are bound to thread-specific Numerics while a person is simulated.
+ */
+public class MarkovPopulation{
+	//variable value types
+	static final byte INTEGER=0, DOUBLE=1, BOOL=2, OBJECT=3;
+
+	int numPeople, numDim, numVars, numSubgroups;
+
+	int curState[];
+	/**
+	 * Cumulative rewards [person*numDim+dim]
+	 */
+	double rewards[], rewardsDis[];
+	/**
+	 * Cumulative rewards from last cycle [person*numDim+dim] - for last cycle half-cycle correction
+	 */
+	double prevRewards[], prevRewardsDis[];
+
+	/**
+	 * Current variable values [variable][person]
+	 */
+	double varValue[][];
+	byte varType[][];
+	Numeric varObject[][]; //non-scalar values, only allocated if needed
+	/**
+	 * Initial variable values [variable][person]
+	 */
+	double initValue[][];
+	byte initType[][];
+	Numeric initObject[][];
+
+	/**
+	 * [subgroup][person]
+	 */
+	boolean inSubgroup[][];
+	int subgroupIndex[][];
+
+	/**
+	 * Numerics used to hold scalar variable values while simulating [thread][variable]
+	 */
+	Numeric bound[][];
+
+	//Constructor
+	public MarkovPopulation(int numPeople, int numDim, int numVars, int numSubgroups, int numThreads){
+		this.numPeople=numPeople;
+		this.numDim=numDim;
+		this.numVars=numVars;
+		this.numSubgroups=numSubgroups;
+
+		initValue=new double[numVars][numPeople];
+		initType=new byte[numVars][numPeople];
+		initObject=new Numeric[numVars][];
+
+		inSubgroup=new boolean[numSubgroups][numPeople];
+		subgroupIndex=new int[numSubgroups][numPeople];
+
+		allocateState(numThreads);
+	}
+
+	/**
+	 * Creates population with its own state (e.g. for another chain) that shares initial values and subgroups with source
+	 */
+	public MarkovPopulation(MarkovPopulation source, int numThreads){
+		numPeople=source.numPeople;
+		numDim=source.numDim;
+		numVars=source.numVars;
+		numSubgroups=source.numSubgroups;
+
+		initValue=source.initValue;
+		initType=source.initType;
+		initObject=source.initObject;
+
+		inSubgroup=source.inSubgroup;
+		subgroupIndex=source.subgroupIndex;
+
+		allocateState(numThreads);
+	}
+
+	private void allocateState(int numThreads){
+		curState=new int[numPeople];
+		rewards=new double[numPeople*numDim];
+		rewardsDis=new double[numPeople*numDim];
+		prevRewards=new double[numPeople*numDim];
+		prevRewardsDis=new double[numPeople*numDim];
+
+		varValue=new double[numVars][numPeople];
+		varType=new byte[numVars][numPeople];
+		varObject=new Numeric[numVars][];
+
+		bound=new Numeric[numThreads][numVars];
+		for(int n=0; n<numThreads; n++){
+			for(int v=0; v<numVars; v++){
+				bound[n][v]=new Numeric(0);
+			}
+		}
+	}
+
+	/**
+	 * Records initial value of variable v for person p
+	 */
+	public void setInitValue(int v, int p, Numeric value){
+		byte type=getType(value);
+		initType[v][p]=type;
+		if(type==OBJECT){
+			if(initObject[v]==null){allocateObjects(v);}
+			initObject[v][p]=value;
+		}
+		else{
+			initValue[v][p]=value.getValue();
+		}
+	}
+
+	/**
+	 * Resets person's variables to their initial values and clears rewards
+	 */
+	public void reset(int p){
+		for(int v=0; v<numVars; v++){
+			byte type=initType[v][p];
+			varType[v][p]=type;
+			if(type==OBJECT){
+				setObject(v,p,initObject[v][p].copy());
+			}
+			else{
+				varValue[v][p]=initValue[v][p];
+			}
+		}
+		int start=p*numDim;
+		for(int d=0; d<numDim; d++){
+			rewards[start+d]=0; rewardsDis[start+d]=0;
+		}
+	}
+
+	/**
+	 * Points model variables to person's values for the current thread
+	 */
+	public void bindVariables(int p, Variable variables[], int curThread){
+		Numeric curBound[]=bound[curThread];
+		for(int v=0; v<numVars; v++){
+			byte type=varType[v][p];
+			if(type==OBJECT){
+				variables[v].value[curThread]=varObject[v][p];
+			}
+			else{
+				Numeric curVal=curBound[v];
+				if(type==INTEGER){curVal.setInt((int)varValue[v][p]);}
+				else if(type==DOUBLE){curVal.setDouble(varValue[v][p]);}
+				else{curVal.setBool(varValue[v][p]!=0);}
+				variables[v].value[curThread]=curVal;
+			}
+		}
+	}
+
+	/**
+	 * Stores current values of model variables for person
+	 */
+	public void storeVariables(int p, Variable variables[], int curThread){
+		for(int v=0; v<numVars; v++){
+			Numeric curVal=variables[v].value[curThread];
+			byte type=getType(curVal);
+			varType[v][p]=type;
+			if(type==OBJECT){
+				setObject(v,p,curVal);
+			}
+			else{
+				varValue[v][p]=curVal.getValue();
+			}
+		}
+	}
+
+	/**
+	 * Returns value of variable v for person p (boolean as indicator, NaN for matrix)
+	 */
+	public double getValue(int v, int p){
+		if(varType[v][p]==OBJECT){return(varObject[v][p].getValue());}
+		return(varValue[v][p]);
+	}
+
+	private void setObject(int v, int p, Numeric value){
+		if(varObject[v]==null){allocateObjects(v);}
+		varObject[v][p]=value;
+	}
+	
+	private void allocateObjects(int v){
+		synchronized(initObject){ //shared with other populations
+			if(varObject[v]==null){varObject[v]=new Numeric[numPeople];}
+			if(initObject[v]==null){initObject[v]=new Numeric[numPeople];}
+		}
+	}
+
+	private static byte getType(Numeric value){
+		if(value.isInteger()){return(INTEGER);}
+		else if(value.isDouble()){return(DOUBLE);}
+		else if(value.isBoolean()){return(BOOL);}
+		return(OBJECT);
+	}
+}
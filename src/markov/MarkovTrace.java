@@ -21,7 +21,6 @@ package markov;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 
 import javax.swing.table.DefaultTableModel;
 
@@ -33,173 +32,165 @@ import math.NumericException;
 
 public class MarkovTrace{
 	public String traceName;
-	public ArrayList<Integer> cycles;
+	public TraceColumn cycles;
 	int numStates;
 	public String stateNames[];
-	public ArrayList<Double> prev[];
+	public TraceColumn prev[];
 	String dimSymbols[];
 	public String dimNames[];
 	public int numDim;
 	public boolean discounted;
-	public ArrayList<Double> cycleRewards[], cycleRewardsDis[];
-	public ArrayList<Double> cumRewards[], cumRewardsDis[];
+	public TraceColumn cycleRewards[], cycleRewardsDis[];
+	public TraceColumn cumRewards[], cumRewardsDis[];
 	public int numVariables;
 	public String varNames[];
-	public ArrayList<Double> cycleVariables[];
-	public DefaultTableModel modelTraceRounded;
-	DefaultTableModel modelTraceRaw;
+	public TraceColumn cycleVariables[];
+	/**
+	 * Table columns (cycle, prev, rewards, variables) - point to the series above
+	 */
+	TraceColumn columns[];
+	String colNames[];
+	DefaultTableModel modelTraceRounded; //built when first displayed
 	AmuaModel myModel;
 	
 	//Constructor
 	public MarkovTrace(MarkovNode chainRoot){
 		traceName=chainRoot.name;
 		myModel=chainRoot.myModel;
-		cycles=new ArrayList<Integer>();
+		int capacity=Math.min(chainRoot.tree.maxCycles+1, 256);
+		cycles=new TraceColumn(capacity);
 		numStates=chainRoot.stateNames.size();
 		stateNames=new String[numStates];
-		prev=new ArrayList[numStates];
+		prev=new TraceColumn[numStates];
 		MarkovTree tree=chainRoot.tree;
 		for(int s=0; s<numStates; s++){
 			int index=chainRoot.childIndices.get(s);
 			stateNames[s]=tree.nodes.get(index).name;
-			prev[s]=new ArrayList<Double>();
+			prev[s]=new TraceColumn(capacity);
 		}
 		numDim=chainRoot.numDimensions;
 		dimSymbols=chainRoot.myModel.dimInfo.dimSymbols;
 		dimNames=chainRoot.myModel.dimInfo.dimNames;
-		cycleRewards=new ArrayList[numDim]; cycleRewardsDis=new ArrayList[numDim];
-		cumRewards=new ArrayList[numDim]; cumRewardsDis=new ArrayList[numDim];
+		cycleRewards=new TraceColumn[numDim]; cycleRewardsDis=new TraceColumn[numDim];
+		cumRewards=new TraceColumn[numDim]; cumRewardsDis=new TraceColumn[numDim];
 		discounted=myModel.markov.discountRewards;
 		for(int d=0; d<numDim; d++){
-			cycleRewards[d]=new ArrayList<Double>(); cycleRewardsDis[d]=new ArrayList<Double>();
-			cumRewards[d]=new ArrayList<Double>(); cumRewardsDis[d]=new ArrayList<Double>();
+			cycleRewards[d]=new TraceColumn(capacity); cycleRewardsDis[d]=new TraceColumn(capacity);
+			cumRewards[d]=new TraceColumn(capacity); cumRewardsDis[d]=new TraceColumn(capacity);
 		}
 		numVariables=chainRoot.myModel.variables.size();
 		varNames=new String[numVariables];
-		cycleVariables=new ArrayList[numVariables];
+		cycleVariables=new TraceColumn[numVariables];
 		for(int c=0; c<numVariables; c++){
 			varNames[c]=chainRoot.myModel.variables.get(c).name;
-			cycleVariables[c]=new ArrayList<Double>();
+			cycleVariables[c]=new TraceColumn(capacity);
 		}
-		//Build Model headers
-		modelTraceRaw=new DefaultTableModel(); modelTraceRounded=new DefaultTableModel();
-		modelTraceRaw.addColumn("Cycle"); modelTraceRounded.addColumn("Cycle");
+		//Build column headers
+		int numCols=1+numStates+2*numDim+numVariables;
+		if(discounted){numCols+=2*numDim;}
+		columns=new TraceColumn[numCols];
+		colNames=new String[numCols];
+		int curCol=0;
+		columns[curCol]=cycles; colNames[curCol]="Cycle"; curCol++;
 		for(int s=0; s<numStates; s++){
-			modelTraceRaw.addColumn(stateNames[s]);
-			modelTraceRounded.addColumn(stateNames[s]);
+			columns[curCol]=prev[s]; colNames[curCol]=stateNames[s]; curCol++;
 		}
 		//undiscounted
 		for(int d=0; d<numDim; d++){
-			modelTraceRaw.addColumn("Cycle_"+dimSymbols[d]);
-			modelTraceRounded.addColumn("Cycle_"+dimSymbols[d]);
+			columns[curCol]=cycleRewards[d]; colNames[curCol]="Cycle_"+dimSymbols[d]; curCol++;
 		}
 		for(int d=0; d<numDim; d++){
-			modelTraceRaw.addColumn("Cum_"+dimSymbols[d]);
-			modelTraceRounded.addColumn("Cum_"+dimSymbols[d]);
+			columns[curCol]=cumRewards[d]; colNames[curCol]="Cum_"+dimSymbols[d]; curCol++;
 		}
 		//discounted
 		if(discounted==true){
 			for(int d=0; d<numDim; d++){
-				modelTraceRaw.addColumn("Cycle_Dis_"+dimSymbols[d]);
-				modelTraceRounded.addColumn("Cycle_Dis_"+dimSymbols[d]);
+				columns[curCol]=cycleRewardsDis[d]; colNames[curCol]="Cycle_Dis_"+dimSymbols[d]; curCol++;
 			}
 			for(int d=0; d<numDim; d++){
-				modelTraceRaw.addColumn("Cum_Dis_"+dimSymbols[d]);
-				modelTraceRounded.addColumn("Cum_Dis_"+dimSymbols[d]);
+				columns[curCol]=cumRewardsDis[d]; colNames[curCol]="Cum_Dis_"+dimSymbols[d]; curCol++;
 			}
 		}
 		//variables
 		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.addColumn(chainRoot.myModel.variables.get(c).name);
-			modelTraceRounded.addColumn(chainRoot.myModel.variables.get(c).name);
+			columns[curCol]=cycleVariables[c]; colNames[curCol]=varNames[c]; curCol++;
 		}
 	}
 	
-	public void updateTable(int t){
-		modelTraceRaw.addRow(new Object[]{null}); modelTraceRounded.addRow(new Object[]{null});
-		int curCol=0;
-		modelTraceRaw.setValueAt(cycles.get(t), t, curCol); modelTraceRounded.setValueAt(cycles.get(t), t, curCol); //cycle
-		curCol++;
-		//state prevalence
-		for(int s=0; s<numStates; s++){
-			modelTraceRaw.setValueAt(prev[s].get(t), t, curCol);
-			double roundedPrev=MathUtils.round(prev[s].get(t),myModel.markov.stateDecimals);
-			modelTraceRounded.setValueAt(roundedPrev, t, curCol);
-			curCol++;
-		}
-		//undiscounted
-		for(int d=0; d<numDim; d++){
-			modelTraceRaw.setValueAt(cycleRewards[d].get(t),t,curCol);
-			modelTraceRounded.setValueAt(MathUtils.round(cycleRewards[d].get(t),myModel.dimInfo.decimals[d]),t,curCol);
-			curCol++;
-		}
-		for(int d=0; d<numDim; d++){
-			modelTraceRaw.setValueAt(cumRewards[d].get(t),t,curCol);
-			modelTraceRounded.setValueAt(MathUtils.round(cumRewards[d].get(t),myModel.dimInfo.decimals[d]),t,curCol);
-			curCol++;
-		}
-		//discounted
-		if(discounted==true){
-			for(int d=0; d<numDim; d++){
-				modelTraceRaw.setValueAt(cycleRewardsDis[d].get(t),t,curCol);
-				modelTraceRounded.setValueAt(MathUtils.round(cycleRewardsDis[d].get(t),myModel.dimInfo.decimals[d]),t,curCol);
-				curCol++;
-			}
-			for(int d=0; d<numDim; d++){
-				modelTraceRaw.setValueAt(cumRewardsDis[d].get(t),t,curCol);
-				modelTraceRounded.setValueAt(MathUtils.round(cumRewardsDis[d].get(t),myModel.dimInfo.decimals[d]),t,curCol);
-				curCol++;
+	public int getNumCycles(){
+		return(cycles.size());
+	}
+	
+	/**
+	 * Returns rounded table of the trace for display, built on first use
+	 */
+	public DefaultTableModel getTableModel(){
+		int numRows=cycles.size();
+		if(modelTraceRounded==null || modelTraceRounded.getRowCount()!=numRows){
+			DefaultTableModel model=new DefaultTableModel();
+			for(int c=0; c<colNames.length; c++){model.addColumn(colNames[c]);}
+			for(int t=0; t<numRows; t++){
+				Object row[]=new Object[colNames.length];
+				int curCol=0;
+				row[curCol]=(int)cycles.get(t); curCol++;
+				//state prevalence
+				for(int s=0; s<numStates; s++){
+					row[curCol]=MathUtils.round(prev[s].get(t),myModel.markov.stateDecimals); curCol++;
+				}
+				//undiscounted
+				for(int d=0; d<numDim; d++){
+					row[curCol]=MathUtils.round(cycleRewards[d].get(t),myModel.dimInfo.decimals[d]); curCol++;
+				}
+				for(int d=0; d<numDim; d++){
+					row[curCol]=MathUtils.round(cumRewards[d].get(t),myModel.dimInfo.decimals[d]); curCol++;
+				}
+				//discounted
+				if(discounted==true){
+					for(int d=0; d<numDim; d++){
+						row[curCol]=MathUtils.round(cycleRewardsDis[d].get(t),myModel.dimInfo.decimals[d]); curCol++;
+					}
+					for(int d=0; d<numDim; d++){
+						row[curCol]=MathUtils.round(cumRewardsDis[d].get(t),myModel.dimInfo.decimals[d]); curCol++;
+					}
+				}
+				//variables
+				for(int c=0; c<numVariables; c++){
+					row[curCol]=cycleVariables[c].get(t); curCol++;
+				}
+				model.addRow(row);
 			}
+			modelTraceRounded=model;
 		}
-		//variables
-		for(int c=0; c<numVariables; c++){
-			modelTraceRaw.setValueAt(cycleVariables[c].get(t), t, curCol);
-			modelTraceRounded.setValueAt(cycleVariables[c].get(t), t, curCol);
-			curCol++;
-		}
-	}	
+		return(modelTraceRounded);
+	}
 	
 	public void updateHalfCycle(){
-		int row=modelTraceRaw.getRowCount()-1; //get last row
+		int row=cycles.size()-1; //get last row
 		//update cycle rewards and cum rewards
-		int curCol=numStates+1;
-		
 		//undiscounted
 		for(int d=0; d<numDim; d++){
 			double halfReward=cycleRewards[d].get(row)*0.5;
 			cycleRewards[d].set(row, halfReward); //update with half-cycle reward
-			modelTraceRaw.setValueAt(halfReward,row,curCol);
-			modelTraceRounded.setValueAt(MathUtils.round(halfReward,myModel.dimInfo.decimals[d]),row,curCol);
-			curCol++;
 		}
 		for(int d=0; d<numDim; d++){
 			double rewardPrev=cumRewards[d].get(row-1);
 			double halfReward=cycleRewards[d].get(row);
 			cumRewards[d].set(row, rewardPrev+halfReward); //update with half-cycle reward
-			modelTraceRaw.setValueAt(rewardPrev+halfReward,row,curCol);
-			modelTraceRounded.setValueAt(MathUtils.round(rewardPrev+halfReward,myModel.dimInfo.decimals[d]),row,curCol);
-			curCol++;
 		}
 		//discounted
 		if(discounted==true){
 			for(int d=0; d<numDim; d++){
 				double halfReward=cycleRewardsDis[d].get(row)*0.5;
 				cycleRewardsDis[d].set(row, halfReward); //update with half-cycle reward
-				modelTraceRaw.setValueAt(halfReward,row,curCol);
-				modelTraceRounded.setValueAt(MathUtils.round(halfReward,myModel.dimInfo.decimals[d]),row,curCol);
-				curCol++;
 			}
 			for(int d=0; d<numDim; d++){
 				double rewardPrev=cumRewardsDis[d].get(row-1);
 				double halfReward=cycleRewardsDis[d].get(row);
 				cumRewardsDis[d].set(row, rewardPrev+halfReward); //update with half-cycle reward
-				modelTraceRaw.setValueAt(rewardPrev+halfReward,row,curCol);
-				modelTraceRounded.setValueAt(MathUtils.round(rewardPrev+halfReward,myModel.dimInfo.decimals[d]),row,curCol);
-				curCol++;
 			}
 		}
-		
-	}	
+		modelTraceRounded=null;
+	}
 	
 	public void setT0(MarkovNode chainRoot){
 		cycles.add(0);
@@ -220,7 +211,6 @@ public class MarkovTrace{
 		for(int c=0; c<numVariables; c++){
 			cycleVariables[c].add(0.0);
 		}
-		updateTable(0);
 	}
 	
 	/*public double getValue(int t, String colText){
@@ -235,8 +225,8 @@ public class MarkovTrace{
 	
 	public Numeric getValue(String row, String col) throws NumericException, Exception{
 		double traceVals[][];
-		int numRows=modelTraceRaw.getRowCount();
-		int numCols=modelTraceRaw.getColumnCount();
+		int numRows=cycles.size();
+		int numCols=columns.length;
 		int startRow, endRow;
 		int startCol, endCol;
 		if(row.contains(":")){ //Multiple rows
@@ -272,7 +262,7 @@ public class MarkovTrace{
 		traceVals=new double[endRow-startRow+1][endCol-startCol+1];
 		for(int i=startRow; i<=endRow; i++){
 			for(int j=startCol; j<=endCol; j++){
-				traceVals[i-startRow][j-startCol]=(double) modelTraceRaw.getValueAt(i, j);
+				traceVals[i-startRow][j-startCol]=columns[j].get(i);
 			}
 		}
 		
@@ -286,9 +276,9 @@ public class MarkovTrace{
 			colText=colText.replace("\"","");
 			colText=colText.replace("\'","");
 			boolean found=false;
-			while(found==false && col<modelTraceRaw.getColumnCount()){
+			while(found==false && col<colNames.length-1){
 				col++;
-				if(colText.equals(modelTraceRaw.getColumnName(col))){found=true;}
+				if(colText.equals(colNames[col])){found=true;}
 			}
 			if(found==false){
 				throw new NumericException("Can't find column: "+colText,"trace");
@@ -315,21 +305,21 @@ public class MarkovTrace{
 		FileWriter fstream = new FileWriter(curFilepath+".csv"); //Create new file
 		BufferedWriter out = new BufferedWriter(fstream);
 		
-		int numRows=modelTraceRaw.getRowCount();
-		int numCols=modelTraceRaw.getColumnCount();
+		int numRows=cycles.size();
+		int numCols=columns.length;
 		
 		//Headers
-		out.write(modelTraceRaw.getColumnName(0));
+		out.write(colNames[0]);
 		for(int i=1; i<numCols; i++){
-			out.write(","+modelTraceRaw.getColumnName(i));
+			out.write(","+colNames[i]);
 		}
 		out.newLine();
 		
 		//Data
 		for(int r=0; r<numRows; r++){
-			out.write(modelTraceRaw.getValueAt(r, 0)+"");
+			out.write((int)cycles.get(r)+"");
 			for(int i=1; i<numCols; i++){
-				out.write(","+modelTraceRaw.getValueAt(r,i));
+				out.write(","+columns[i].get(r));
 			}
 			out.newLine();
 		}
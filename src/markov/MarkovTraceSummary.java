@@ -22,13 +22,12 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 
 import javax.swing.table.DefaultTableModel;
 
 import base.AmuaModel;
 import math.MathUtils;
+import math.RunningStats;
 
 public class MarkovTraceSummary{
 	public String traceName;
@@ -40,7 +39,6 @@ public class MarkovTraceSummary{
 	//trace summaries
 	public boolean discounted;
 	public int maxCyclesGlobal;
-	int maxCyclesLocal[];
 	public double expectedValues[][], expectedValuesDis[][]; //[dim][mean/lb/ub]
 	public double prev[][][]; //[state][mean/lb/ub][cycle]
 	public double cycleRewards[][][], cycleRewardsDis[][][]; //[dim][mean/lb/ub][cycle]
@@ -55,21 +53,47 @@ public class MarkovTraceSummary{
 	
 	MarkovTrace allTraces[];
 	
+	//running summaries
+	int numSeries;
+	/**
+	 * [cycle][series] - prev, cycle rewards, cum rewards, discounted cycle/cum rewards, variables
+	 */
+	ArrayList<RunningStats[]> cycleStats;
+	RunningStats finalStats[][]; //[undiscounted/discounted][dim] cum rewards at last cycle
+	
 	//Constructor
 	public MarkovTraceSummary(MarkovTrace traces[]){
+		this(traces[0]);
 		allTraces=traces;
+		for(int t=0; t<traces.length; t++){
+			add(traces[t]);
+		}
+		summarize();
+	}
+	
+	/**
+	 * Empty summary for traces of the same chain as the template.  Traces are added as they finish (add/merge) and summarize() gets the results, so traces don't need to be kept.
+	 */
+	public MarkovTraceSummary(MarkovTrace template){
 		//get names
-		int numTraces=traces.length;
-		traceName=traces[0].traceName;
-		myModel=traces[0].myModel;
-		numStates=traces[0].numStates;
-		stateNames=traces[0].stateNames;
-		numDim=traces[0].numDim;
-		dimSymbols=traces[0].dimSymbols;
-		dimNames=traces[0].dimNames;
-		discounted=traces[0].discounted;
-		numVariables=traces[0].numVariables;
-		varNames=traces[0].varNames;
+		traceName=template.traceName;
+		myModel=template.myModel;
+		numStates=template.numStates;
+		stateNames=template.stateNames;
+		numDim=template.numDim;
+		dimSymbols=template.dimSymbols;
+		dimNames=template.dimNames;
+		discounted=template.discounted;
+		numVariables=template.numVariables;
+		varNames=template.varNames;
+		numSeries=numStates+2*numDim+numVariables;
+		if(discounted){numSeries+=2*numDim;}
+		cycleStats=new ArrayList<RunningStats[]>();
+		finalStats=new RunningStats[2][numDim];
+		for(int d=0; d<numDim; d++){
+			finalStats[0][d]=new RunningStats();
+			finalStats[1][d]=new RunningStats();
+		}
 		//Build Model headers
 		modelTraceRaw=new DefaultTableModel(); modelTraceRounded=new DefaultTableModel();
 		modelTraceRaw.addColumn("Cycle"); modelTraceRounded.addColumn("Cycle");
@@ -98,50 +122,84 @@ public class MarkovTraceSummary{
 		}
 		//variables
 		for(int v=0; v<numVariables; v++) {
-			modelTraceRaw.addColumn(traces[0].varNames[v]+"_Mean"); modelTraceRaw.addColumn(traces[0].varNames[v]+"_LB"); modelTraceRaw.addColumn(traces[0].varNames[v]+"_UB");
-			modelTraceRounded.addColumn(traces[0].varNames[v]+"_Mean"); modelTraceRounded.addColumn(traces[0].varNames[v]+"_LB"); modelTraceRounded.addColumn(traces[0].varNames[v]+"_UB");
+			modelTraceRaw.addColumn(varNames[v]+"_Mean"); modelTraceRaw.addColumn(varNames[v]+"_LB"); modelTraceRaw.addColumn(varNames[v]+"_UB");
+			modelTraceRounded.addColumn(varNames[v]+"_Mean"); modelTraceRounded.addColumn(varNames[v]+"_LB"); modelTraceRounded.addColumn(varNames[v]+"_UB");
 		}
 		modelTraceRaw.addColumn("Num_Sims"); modelTraceRounded.addColumn("Num_Sims");
-		
-		//get max cycles
-		maxCyclesLocal=new int[numTraces];
-		maxCyclesLocal[0]=traces[0].cycles.size(); maxCyclesGlobal=maxCyclesLocal[0]; 
-		for(int i=1; i<numTraces; i++){
-			maxCyclesLocal[i]=traces[i].cycles.size(); maxCyclesGlobal=Math.max(maxCyclesGlobal, maxCyclesLocal[i]);
+	}
+	
+	/**
+	 * Adds a trace to the running summaries
+	 */
+	public void add(MarkovTrace trace){
+		int numCycles=trace.cycles.size();
+		while(cycleStats.size()<numCycles){addCycle();}
+		for(int c=0; c<numCycles; c++){
+			RunningStats stats[]=cycleStats.get(c);
+			int i=0;
+			for(int s=0; s<numStates; s++){stats[i].add(trace.prev[s].get(c)); i++;}
+			for(int d=0; d<numDim; d++){stats[i].add(trace.cycleRewards[d].get(c)); i++;}
+			for(int d=0; d<numDim; d++){stats[i].add(trace.cumRewards[d].get(c)); i++;}
+			if(discounted){
+				for(int d=0; d<numDim; d++){stats[i].add(trace.cycleRewardsDis[d].get(c)); i++;}
+				for(int d=0; d<numDim; d++){stats[i].add(trace.cumRewardsDis[d].get(c)); i++;}
+			}
+			for(int v=0; v<numVariables; v++){stats[i].add(trace.cycleVariables[v].get(c)); i++;}
+		}
+		int last=numCycles-1; //max cycle observed
+		for(int d=0; d<numDim; d++){
+			finalStats[0][d].add(trace.cumRewards[d].get(last));
+			if(discounted){finalStats[1][d].add(trace.cumRewardsDis[d].get(last));}
 		}
+	}
+	
+	/**
+	 * Combines running summaries of another set of traces (e.g. from another thread)
+	 */
+	public void merge(MarkovTraceSummary other){
+		for(int c=0; c<other.cycleStats.size(); c++){
+			if(c==cycleStats.size()){addCycle();}
+			RunningStats stats[]=cycleStats.get(c), otherStats[]=other.cycleStats.get(c);
+			for(int i=0; i<numSeries; i++){stats[i].merge(otherStats[i]);}
+		}
+		for(int d=0; d<numDim; d++){
+			finalStats[0][d].merge(other.finalStats[0][d]);
+			finalStats[1][d].merge(other.finalStats[1][d]);
+		}
+	}
+	
+	private void addCycle(){
+		RunningStats stats[]=new RunningStats[numSeries];
+		for(int i=0; i<numSeries; i++){stats[i]=new RunningStats();}
+		cycleStats.add(stats);
+	}
+	
+	/**
+	 * Sets traces to export with writeAllTraces
+	 */
+	public void setTraces(MarkovTrace traces[]){
+		allTraces=traces;
+	}
+	
+	/**
+	 * Gets means and bounds from the running summaries and builds the table
+	 */
+	public void summarize(){
+		maxCyclesGlobal=cycleStats.size();
 		int numSims[]=new int[maxCyclesGlobal];
-		for(int i=0; i<numTraces; i++){
-			for(int j=0; j<maxCyclesLocal[i]; j++){
-				numSims[j]++;
-			}
+		for(int c=0; c<maxCyclesGlobal; c++){
+			numSims[c]=cycleStats.get(c)[0].getCount();
 		}
 		
 		//get final cum expected values
 		expectedValues=new double[numDim][3]; expectedValuesDis=new double[numDim][3];
 		for(int d=0; d<numDim; d++){
-			double mean=0, meanDis=0;
-			double curVal[]=new double[numTraces], curValDis[]=new double[numTraces];
-			for(int t=0; t<numTraces; t++){
-				int c=maxCyclesLocal[t]-1; //max cycle observed
-				double val=traces[t].cumRewards[d].get(c);
-				mean+=val; curVal[t]=val;
-				if(discounted){
-					val=traces[t].cumRewardsDis[d].get(c);
-					meanDis+=val; curValDis[t]=val;
-				}
-			}
-			expectedValues[d][0]=mean/(numTraces*1.0);
-			Arrays.sort(curVal);
-			int bounds[]=MathUtils.getBoundIndices(numTraces); int lb=bounds[0], ub=bounds[1];
-			expectedValues[d][1]=curVal[lb]; expectedValues[d][2]=curVal[ub];
+			getSummary(finalStats[0][d],expectedValues[d]);
 			if(discounted){
-				expectedValuesDis[d][0]=meanDis/(numTraces*1.0);
-				Arrays.sort(curValDis);
-				expectedValuesDis[d][1]=curValDis[lb]; expectedValuesDis[d][2]=curValDis[ub];
+				getSummary(finalStats[1][d],expectedValuesDis[d]);
 			}
 		}
 		
-		
 		//initialize trace summaries
 		prev=new double[numStates][3][maxCyclesGlobal];
 		cycleRewards=new double[numDim][3][maxCyclesGlobal];
@@ -154,86 +212,40 @@ public class MarkovTraceSummary{
 			cycleVars=new double[numVariables][3][maxCyclesGlobal];
 		}
 		
-		//calculate prev
-		for(int s=0; s<numStates; s++){
-			for(int c=0; c<maxCyclesGlobal; c++){
-				ArrayList<Double> curPrev=new ArrayList<Double>();
-				double mean=0, denom=0;
-				for(int t=0; t<numTraces; t++){
-					if(maxCyclesLocal[t]>c){ //cycle observed
-						double val=traces[t].prev[s].get(c);
-						curPrev.add(val);
-						mean+=val; denom++;
-					}
-				}
-				prev[s][0][c]=mean/denom;
-				Collections.sort(curPrev);
-				int bounds[]=MathUtils.getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-				prev[s][1][c]=curPrev.get(lb); prev[s][2][c]=curPrev.get(ub);
+		double curSummary[]=new double[3];
+		for(int c=0; c<maxCyclesGlobal; c++){
+			RunningStats stats[]=cycleStats.get(c);
+			int i=0;
+			for(int s=0; s<numStates; s++){
+				getSummary(stats[i],curSummary); i++;
+				for(int k=0; k<3; k++){prev[s][k][c]=curSummary[k];}
 			}
-		}
-		//calculate rewards
-		for(int d=0; d<numDim; d++){
-			for(int c=0; c<maxCyclesGlobal; c++){
-				ArrayList<Double> curRewards= new ArrayList<Double>();
-				ArrayList<Double> curCum= new ArrayList<Double>();
-				double mean=0, meanCum=0, denom=0;
-				for(int t=0; t<numTraces; t++){
-					if(maxCyclesLocal[t]>c){ //cycle observed
-						double val=traces[t].cycleRewards[d].get(c), valCum=traces[t].cumRewards[d].get(c);
-						curRewards.add(val); curCum.add(valCum);
-						mean+=val; meanCum+=valCum; denom++;
-					}
-				}
-				cycleRewards[d][0][c]=mean/denom; cumRewards[d][0][c]=meanCum/denom;
-				Collections.sort(curRewards); Collections.sort(curCum);
-				int bounds[]=MathUtils.getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-				cycleRewards[d][1][c]=curRewards.get(lb); cycleRewards[d][2][c]=curRewards.get(ub);
-				cumRewards[d][1][c]=curCum.get(lb); cumRewards[d][2][c]=curCum.get(ub);
+			for(int d=0; d<numDim; d++){
+				getSummary(stats[i],curSummary); i++;
+				for(int k=0; k<3; k++){cycleRewards[d][k][c]=curSummary[k];}
 			}
-		}
-		//discounted rewards
-		if(discounted){
 			for(int d=0; d<numDim; d++){
-				for(int c=0; c<maxCyclesGlobal; c++){
-					ArrayList<Double> curRewards= new ArrayList<Double>();
-					ArrayList<Double> curCum= new ArrayList<Double>();
-					double mean=0, meanCum=0, denom=0;
-					for(int t=0; t<numTraces; t++){
-						if(maxCyclesLocal[t]>c){ //cycle observed
-							double val=traces[t].cycleRewardsDis[d].get(c), valCum=traces[t].cumRewardsDis[d].get(c);
-							curRewards.add(val); curCum.add(valCum);
-							mean+=val; meanCum+=valCum; denom++;
-						}
-					}
-					cycleRewardsDis[d][0][c]=mean/denom; cumRewardsDis[d][0][c]=meanCum/denom;
-					Collections.sort(curRewards); Collections.sort(curCum);
-					int bounds[]=MathUtils.getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-					cycleRewardsDis[d][1][c]=curRewards.get(lb); cycleRewardsDis[d][2][c]=curRewards.get(ub);
-					cumRewardsDis[d][1][c]=curCum.get(lb); cumRewardsDis[d][2][c]=curCum.get(ub);
-				}
+				getSummary(stats[i],curSummary); i++;
+				for(int k=0; k<3; k++){cumRewards[d][k][c]=curSummary[k];}
 			}
-		}
-		//calculate variables
-		for(int v=0; v<numVariables; v++){
-			for(int c=0; c<maxCyclesGlobal; c++){
-				ArrayList<Double> curVars= new ArrayList<Double>();
-				double mean=0, denom=0;
-				for(int t=0; t<numTraces; t++){
-					if(maxCyclesLocal[t]>c){ //cycle observed
-						double val=traces[t].cycleVariables[v].get(c);
-						curVars.add(val);
-						mean+=val; denom++;
-					}
+			if(discounted){
+				for(int d=0; d<numDim; d++){
+					getSummary(stats[i],curSummary); i++;
+					for(int k=0; k<3; k++){cycleRewardsDis[d][k][c]=curSummary[k];}
 				}
-				cycleVars[v][0][c]=mean/denom;
-				Collections.sort(curVars);
-				int bounds[]=MathUtils.getBoundIndices(denom); int lb=bounds[0], ub=bounds[1];
-				cycleVars[v][1][c]=curVars.get(lb); cycleVars[v][2][c]=curVars.get(ub);
+				for(int d=0; d<numDim; d++){
+					getSummary(stats[i],curSummary); i++;
+					for(int k=0; k<3; k++){cumRewardsDis[d][k][c]=curSummary[k];}
+				}
+			}
+			for(int v=0; v<numVariables; v++){
+				getSummary(stats[i],curSummary); i++;
+				for(int k=0; k<3; k++){cycleVars[v][k][c]=curSummary[k];}
 			}
 		}
 		
 		//build table
+		modelTraceRaw.setRowCount(0); modelTraceRounded.setRowCount(0);
 		for(int t=0; t<maxCyclesGlobal; t++){
 			modelTraceRaw.addRow(new Object[]{null}); modelTraceRounded.addRow(new Object[]{null});
 			int curCol=0;
@@ -320,7 +332,19 @@ public class MarkovTraceSummary{
 		out.close();
 	}
 	
+	/**
+	 * Gets mean, lb, ub
+	 */
+	private void getSummary(RunningStats stats, double summary[]){
+		double bounds[]=stats.getBounds();
+		summary[0]=stats.getMean();
+		summary[1]=bounds[0]; summary[2]=bounds[1];
+	}
+	
 	public void writeAllTraces(String filepath) throws IOException {
+		if(allTraces==null){
+			throw new IOException("Individual traces were not kept for this run");
+		}
 		int numSets=allTraces.length;
 		for(int s=0; s<numSets; s++) {
 			allTraces[s].write(filepath,(s+1));
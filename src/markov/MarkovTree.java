@@ -24,6 +24,7 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
 import base.AmuaModel;
+import base.ModelScheduler;
 import base.RunReport;
 import gui.frmTrace;
 import gui.frmTraceMulti;
@@ -32,6 +33,8 @@ import main.ConsoleTable;
 import main.DimInfo;
 import main.Variable;
 import main.VariableUpdate;
+import math.CompiledExpression;
+import math.ExpressionJIT;
 import math.Interpreter;
 import math.MathUtils;
 import math.Numeric;
@@ -62,7 +65,7 @@ public class MarkovTree{
 	@XmlTransient ArrayList<String> errors;
 	@XmlTransient public AmuaModel myModel;
 	@XmlTransient ArrayList<MarkovNode> chains;
-	@XmlTransient Exception threadError; //caught inside multithread and thrown outside
+	@XmlTransient ArrayList<CompiledExpression> compiled; //expressions parsed in this pass, generated in one batch
 	
 	//Constructor
 	/**
@@ -127,6 +130,27 @@ public class MarkovTree{
 		}
 		return(copy);
 	}
+	
+	/**
+	 * Links nodes to the model without a display panel (headless runs)
+	 */
+	public void openTree(AmuaModel myModel){
+		this.myModel=myModel;
+		int numDim=myModel.dimInfo.dimNames.length;
+		MarkovNode root=nodes.get(0);
+		root.cost=new String[numDim];
+		for(int i=0; i<nodes.size(); i++){
+			MarkovNode curNode=nodes.get(i);
+			curNode.tree=this;
+			curNode.myModel=myModel;
+			curNode.curScale=myModel.scale;
+			curNode.numDimensions=numDim;
+			if(curNode.type==1 && curNode.stateNames==null){ //no state names saved
+				curNode.stateNames=new ArrayList<String>();
+			}
+		}
+		updateMarkovChain(root);
+	}
 
 	/**
 	 * Parse text entries and ensure tree inputs are plausible.
@@ -141,6 +165,7 @@ public class MarkovTree{
 		root.curCosts=new double[myModel.dimInfo.dimNames.length][1];
 		
 		chains=new ArrayList<MarkovNode>();
+		compiled=new ArrayList<CompiledExpression>();
 		
 		//Parse tree inputs and variables
 		validProbs=true;
@@ -166,6 +191,7 @@ public class MarkovTree{
 				checkTerminationCondition(nodes.get(i));
 			}
 		}
+		generateExpressions();
 
 		return(errors);
 	}
@@ -173,6 +199,7 @@ public class MarkovTree{
 	public ArrayList<String> parseChain(MarkovNode chainRoot){
 		chains=new ArrayList<MarkovNode>();
 		chains.add(chainRoot);
+		compiled=new ArrayList<CompiledExpression>();
 		myModel.validateModelObjects();
 		errors=new ArrayList<String>();
 		//Parse chain inputs and variables
@@ -183,25 +210,85 @@ public class MarkovTree{
 			checkProbs(chainRoot);
 			checkTerminationCondition(chainRoot);
 		}
+		generateExpressions();
 		return(errors);
 	}
+	
+	private CompiledExpression compile(Token tokens[]){
+		CompiledExpression expr=CompiledExpression.compile(tokens);
+		if(expr!=null){compiled.add(expr);}
+		return(expr);
+	}
+	
+	private VariableUpdate compile(VariableUpdate update){
+		if(update.getCompiled()!=null){compiled.add(update.getCompiled());}
+		return(update);
+	}
+	
+	/**
+	 * Generates classes for all parsed expressions at once (if enabled and there are no errors)
+	 */
+	private void generateExpressions(){
+		if(myModel.compileExpressions && errors.isEmpty()){
+			ExpressionJIT.compile(compiled);
+		}
+		compiled=null;
+	}
+	
+	/**
+	 * Reads current parameter values into generated expressions
+	 */
+	private void bindExpressions() throws Exception{
+		for(int i=0; i<nodes.size(); i++){
+			MarkovNode curNode=nodes.get(i);
+			if(curNode.curProbCompiled!=null){curNode.curProbCompiled.bind();}
+			if(curNode.curTerminationCompiled!=null){curNode.curTerminationCompiled.bind();}
+			bindExpressions(curNode.curCostCompiled);
+			bindExpressions(curNode.curRewardCompiled);
+			bindUpdates(curNode.curVariableUpdates);
+			bindUpdates(curNode.curVariableUpdatesT0);
+		}
+	}
+	
+	private void bindExpressions(CompiledExpression exprs[]) throws Exception{
+		if(exprs==null){return;}
+		for(int d=0; d<exprs.length; d++){
+			if(exprs[d]!=null){exprs[d].bind();}
+		}
+	}
+	
+	private void bindUpdates(VariableUpdate updates[]) throws Exception{
+		if(updates==null){return;}
+		for(int u=0; u<updates.length; u++){
+			if(updates[u]!=null && updates[u].getCompiled()!=null){updates[u].getCompiled().bind();}
+		}
+	}
 
 	private void parseNode(MarkovNode curNode){
 		//reset all parsed values
 		curNode.curProb=null;
 		curNode.curCostTokens=null;
 		curNode.curRewardTokens=null;
+		curNode.curProbCompiled=null;
+		curNode.curCostCompiled=null;
+		curNode.curRewardCompiled=null;
+		curNode.curTerminationCompiled=null;
+		curNode.probComplementary=false;
 		curNode.curVariableUpdates=null;
 		curNode.curVariableUpdatesT0=null;
 		
 		if(curNode.parentType!=0){ //Validate probability
 			curNode.highlightTextField(0,null); //Prob
 			curNode.curProb=new double[1];
-			if(curNode.prob.matches("C") || curNode.prob.matches("c")){curNode.curProb[0]=-1;} //Complementary
+			if(curNode.prob.matches("C") || curNode.prob.matches("c")){ //Complementary
+				curNode.curProb[0]=-1;
+				curNode.probComplementary=true;
+			}
 			else{ //Evaluate text
 				try{
 					curNode.curProbTokens=Interpreter.parse(curNode.prob, myModel);
-					curNode.curProb[0]=Interpreter.evaluateTokens(curNode.curProbTokens, 0, false).getDouble();
+					curNode.curProbCompiled=compile(curNode.curProbTokens);
+					curNode.curProb[0]=Interpreter.evaluateDouble(curNode.curProbTokens, 0, false);
 				}catch(Exception e){
 					validProbs=false;
 					curNode.highlightTextField(0, Color.YELLOW); //Prob
@@ -221,12 +308,10 @@ public class MarkovTree{
 			}
 		}
 		else{ //Transition, validate next state
-			curNode.comboTransition.setBackground(new Color(0,0,0,0));
-			curNode.comboTransition.setBorder(null);
+			curNode.highlightTransition(null);
 			int index=curNode.chain.stateNames.indexOf(curNode.transition);
 			if(index==-1){
-				curNode.comboTransition.setBackground(Color.YELLOW);
-				curNode.comboTransition.setBorder(null);
+				curNode.highlightTransition(Color.YELLOW);
 				errors.add("Node "+curNode.name+": State Transition not found ("+curNode.transition+")");
 			}
 		}
@@ -235,10 +320,12 @@ public class MarkovTree{
 			curNode.highlightTextField(1,null); //Cost
 			int numDim=myModel.dimInfo.dimNames.length;
 			curNode.curCostTokens=new Token[numDim][];
+			curNode.curCostCompiled=new CompiledExpression[numDim];
 			for(int c=0; c<numDim; c++){
 				try{
 					curNode.curCostTokens[c]=Interpreter.parse(curNode.cost[c], myModel);
-					double testVal=Interpreter.evaluateTokens(curNode.curCostTokens[c], 0, false).getDouble();
+					curNode.curCostCompiled[c]=compile(curNode.curCostTokens[c]);
+					double testVal=Interpreter.evaluateDouble(curNode.curCostTokens[c], 0, false);
 					
 					if(Double.isNaN(testVal)){
 						curNode.highlightTextField(1, Color.YELLOW); //Cost
@@ -254,10 +341,12 @@ public class MarkovTree{
 			curNode.highlightTextField(3, null); //rewards
 			int numDim=myModel.dimInfo.dimNames.length;
 			curNode.curRewardTokens=new Token[numDim][];
+			curNode.curRewardCompiled=new CompiledExpression[numDim];
 			for(int c=0; c<numDim; c++){
 				try{
 					curNode.curRewardTokens[c]=Interpreter.parse(curNode.rewards[c], myModel);
-					double testVal=Interpreter.evaluateTokens(curNode.curRewardTokens[c], 0, false).getDouble();
+					curNode.curRewardCompiled[c]=compile(curNode.curRewardTokens[c]);
+					double testVal=Interpreter.evaluateDouble(curNode.curRewardTokens[c], 0, false);
 					
 					if(Double.isNaN(testVal)){
 						curNode.highlightTextField(3, Color.YELLOW); //rewards
@@ -290,7 +379,7 @@ public class MarkovTree{
 				curNode.curVariableUpdates=new VariableUpdate[numUpdates];
 				for(int u=0; u<updates.length; u++){
 					curU=u; //update for error catching
-					curNode.curVariableUpdates[u]=new VariableUpdate(updates[u],myModel);
+					curNode.curVariableUpdates[u]=compile(new VariableUpdate(updates[u],myModel));
 					double testVal=curNode.curVariableUpdates[u].testVal.getDouble();
 					if(Double.isNaN(testVal)){
 						curNode.highlightTextField(4, Color.YELLOW); //Variable updates
@@ -322,7 +411,7 @@ public class MarkovTree{
 						curNode.curVariableUpdatesT0=new VariableUpdate[numUpdates];
 						for(int u=0; u<updates.length; u++){
 							curU=u; //update for error catching
-							curNode.curVariableUpdatesT0[u]=new VariableUpdate(updates[u],myModel);
+							curNode.curVariableUpdatesT0[u]=compile(new VariableUpdate(updates[u],myModel));
 							double testVal=curNode.curVariableUpdatesT0[u].testVal.getDouble();
 							if(Double.isNaN(testVal)){
 								curNode.highlightTextField(6, Color.YELLOW); //Variable updates
@@ -343,7 +432,7 @@ public class MarkovTree{
 						curNode.curVariableUpdates=new VariableUpdate[numUpdates];
 						for(int u=0; u<updates.length; u++){
 							curU=u; //update for error catching
-							curNode.curVariableUpdates[u]=new VariableUpdate(updates[u],myModel);
+							curNode.curVariableUpdates[u]=compile(new VariableUpdate(updates[u],myModel));
 							double testVal=curNode.curVariableUpdates[u].testVal.getDouble();
 							if(Double.isNaN(testVal)){
 								curNode.highlightTextField(4, Color.YELLOW); //Variable updates
@@ -427,10 +516,12 @@ public class MarkovTree{
 		if(curNode.type==1){ //Chain, check termination condition
 			try{
 				//Initialize trace
-				myModel.traceMarkov=new MarkovTrace(curNode);
-				myModel.traceMarkov.setT0(curNode);
+				myModel.setTrace(new MarkovTrace(curNode),1);
+				myModel.traceMarkov[0].setT0(curNode);
 				
 				curNode.curTerminationTokens=Interpreter.parse(curNode.terminationCondition, myModel);
+				curNode.curTerminationCompiled=CompiledExpression.compileCondition(curNode.curTerminationTokens);
+				if(curNode.curTerminationCompiled!=null){compiled.add(curNode.curTerminationCompiled);}
 				Numeric check=Interpreter.evaluateTokens(curNode.curTerminationTokens, 0, false);
 				if(check==null){ //if not parseable
 					//curNode.lblTermination.setBackground(Color.YELLOW);
@@ -462,7 +553,7 @@ public class MarkovTree{
 		if(node.curCosts==null || node.curCosts.length!=numDim){node.curCosts=new double[numDim][1];}
 		if(node.hasCost){
 			for(int c=0; c<numDim; c++){
-				node.curCosts[c][0]=Interpreter.evaluateTokens(node.curCostTokens[c], 0, false).getDouble();
+				node.curCosts[c][0]=Interpreter.evaluateDouble(node.curCostTokens[c], 0, false);
 				node.curCosts[c][0]*=myModel.cohortSize; //scale costs by cohort size
 			}
 		}
@@ -541,7 +632,7 @@ public class MarkovTree{
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb[0]=Interpreter.evaluateTokens(curChild.curProbTokens, 0, false).getDouble();
+					curChild.curProb[0]=Interpreter.evaluateDouble(curChild.curProbTokens, 0, false);
 					sumProb+=curChild.curProb[0];
 				}
 			}
@@ -602,6 +693,7 @@ public class MarkovTree{
 		//Run all chains and then get expected values
 		MarkovNode root=nodes.get(0);
 		long startTime=System.currentTimeMillis();
+		bindExpressions();
 		
 		if(myModel.simType==0){ //Cohort
 			runCohort(runReport,display);
@@ -662,40 +754,21 @@ public class MarkovTree{
 		curT.value=new Numeric[numThreads];
 		curT.locked=new boolean[numThreads];
 		
-		final int blockSize= numChains/numThreads;
-		Thread[] threads = new Thread[numThreads];
-		for(int n=0; n<numThreads; n++){
-			final int finalN = n;
-			threads[n] = new Thread() {
-				public void run(){
-					try{
-						final int beginIndex = finalN * blockSize;
-						final int endIndex = (finalN==numThreads-1) ? numChains :(finalN+1)*blockSize;
-						for(int c=beginIndex; c<endIndex; c++){
-							MarkovNode curChain=chains.get(c);
-							MarkovCohort cohortModel=new MarkovCohort(curChain,finalN);
-							cohortModel.simulate();
-							runReport.names.add(curChain.name);
-							runReport.markovTraces.add(cohortModel.trace);
-						}
-					} catch(Exception e){
-						threadError=e;
-					}
-				}
-			};
-			threads[n].start();
-		}
-		//Wait for threads to finish
-		for(int n=0; n<numThreads; n++){
-			try{
-				threads[n].join();
-			} catch (InterruptedException e){
-				System.exit(-1);
+		myModel.traceMarkov=new MarkovTrace[numThreads];
+		
+		//run chains in parallel, record results in chain order
+		final MarkovTrace traces[]=new MarkovTrace[numChains];
+		myModel.getScheduler().run(numChains, new ModelScheduler.ChunkTask(){
+			public void run(int c, int curThread) throws Exception{
+				MarkovNode curChain=chains.get(c);
+				MarkovCohort cohortModel=new MarkovCohort(curChain,curThread);
+				cohortModel.simulate();
+				traces[c]=cohortModel.trace;
 			}
-		}
-		//Check for error
-		if(threadError!=null){
-			throw threadError;
+		});
+		for(int c=0; c<numChains; c++){
+			runReport.names.add(chains.get(c).name);
+			runReport.markovTraces.add(traces[c]);
 		}
 		
 		//Display traces
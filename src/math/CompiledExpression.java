@@ -0,0 +1,425 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.util.ArrayList;
+
+import main.Variable;
+
+/**
+ * Expression tree built once from parsed (post-fix) tokens and evaluated as a real number or a boolean (e.g. termination conditions).
+ * Arithmetic is done on primitive doubles with per-thread integer/boolean flags so results match Interpreter.evaluateTokens
+ * (integer arithmetic is preserved, divisions close to an integer are rounded) without allocating a Numeric per operation.
+ * Booleans are held as 1/0.  Leaves that turn out to be matrices, or operands the interpreter would reject (e.g. a boolean in arithmetic),
+ * fall back to the interpreter - the expression is then evaluated again, so sampled operands are drawn again that once.
+ */
+public class CompiledExpression{
+
+	Token tokens[];
+	int numThreads;
+	/**
+	 * Root of expression tree - null if the expression must be interpreted
+	 */
+	Node root;
+	/**
+	 * Generated class for this tree (JIT mode) - null if not compiled
+	 */
+	GeneratedExpression jit;
+	/**
+	 * True if evaluated as a boolean (evaluateBool)
+	 */
+	boolean condition;
+	/**
+	 * Thread-specific: true if last result was an integer
+	 */
+	boolean resultInt[];
+
+	private CompiledExpression(Token tokens[]){
+		this.tokens=tokens;
+		numThreads=1;
+		if(tokens.length>0){numThreads=tokens[0].numThreads;}
+		resultInt=new boolean[numThreads];
+	}
+
+	/**
+	 * Builds expression tree from post-fix tokens.  Classes are generated later for all of a model's expressions at once (ExpressionJIT.compile)
+	 * @param tokens Parsed tokens (Interpreter.parse)
+	 * @return Compiled expression, or null if no tokens
+	 */
+	public static CompiledExpression compile(Token tokens[]){
+		if(tokens==null){return(null);}
+		CompiledExpression expr=new CompiledExpression(tokens);
+		expr.root=expr.buildTree();
+		return(expr);
+	}
+
+	/**
+	 * Builds expression tree for a condition evaluated with evaluateBool
+	 */
+	public static CompiledExpression compileCondition(Token tokens[]){
+		CompiledExpression expr=compile(tokens);
+		if(expr!=null){expr.condition=true;}
+		return(expr);
+	}
+
+	/**
+	 * Reads current parameter values into the generated class - call before each run
+	 */
+	public void bind() throws Exception{
+		GeneratedExpression curJit=jit;
+		if(curJit==null){return;}
+		try{
+			curJit.bind();
+		}catch(NotScalarException e){ //non-scalar parameter, use the tree
+			jit=null;
+		}
+	}
+
+	/**
+	 * Evaluates expression as a real number (not sampled)
+	 */
+	public double evaluate(int curThread) throws NumericException, Exception{
+		return(evaluate(curThread,false));
+	}
+
+	/**
+	 * Evaluates expression as a real number
+	 * @param sample Sample distributions (e.g. variable updates in Monte Carlo simulations)
+	 */
+	public double evaluate(int curThread, boolean sample) throws NumericException, Exception{
+		GeneratedExpression curJit=jit;
+		if(curJit!=null && curJit.bound){
+			try{
+				double result=curJit.evaluate(curThread,sample);
+				resultInt[curThread]=curJit.resultInt[curThread];
+				return(result);
+			}catch(NotScalarException e){ //non-scalar operand, interpret from now on
+				jit=null;
+				root=null;
+			}
+		}
+		Node curRoot=root;
+		if(curRoot!=null){
+			try{
+				double result=curRoot.eval(curThread,sample);
+				if(curRoot.isBool[curThread]){throw NotScalarException.INSTANCE;}
+				resultInt[curThread]=curRoot.isInt[curThread];
+				return(result);
+			}catch(NotScalarException e){
+				root=null;
+			}
+		}
+		Numeric result=Interpreter.evaluateTokens(tokens,curThread,sample);
+		resultInt[curThread]=(result.format==Format.INTEGER);
+		return(result.getDouble());
+	}
+
+	/**
+	 * Evaluates expression as a boolean
+	 */
+	public boolean evaluateBool(int curThread, boolean sample) throws NumericException, Exception{
+		GeneratedExpression curJit=jit;
+		if(curJit!=null && curJit.bound){
+			try{
+				return(curJit.evaluateBool(curThread,sample));
+			}catch(NotScalarException e){
+				jit=null;
+				root=null;
+			}
+		}
+		Node curRoot=root;
+		if(curRoot!=null){
+			try{
+				double result=curRoot.eval(curThread,sample);
+				if(!curRoot.isBool[curThread]){throw NotScalarException.INSTANCE;}
+				return(result!=0);
+			}catch(NotScalarException e){
+				root=null;
+			}
+		}
+		return(Interpreter.evaluateTokens(tokens,curThread,sample).getBool());
+	}
+
+	/**
+	 * Returns true if the last real number evaluated on this thread was an integer
+	 */
+	public boolean isInteger(int curThread){
+		return(resultInt[curThread]);
+	}
+
+	public boolean isCompiled(){
+		return(root!=null);
+	}
+
+	public boolean isGenerated(){
+		return(jit!=null);
+	}
+
+	public Token[] getTokens(){
+		return(tokens);
+	}
+
+	private Node buildTree(){
+		ArrayList<Node> stack=new ArrayList<Node>();
+		try{
+			for(int i=0; i<tokens.length; i++){
+				Token curToken=tokens[i];
+				if(curToken.type==Type.OPERATOR){
+					int op=curToken.opCode;
+					if(op<Operators.ADD || op>Operators.XOR || stack.size()<2){return(null);}
+					Node right=stack.remove(stack.size()-1);
+					Node left=stack.remove(stack.size()-1);
+					if(left instanceof ConstantNode && right instanceof ConstantNode){ //fold constants
+						Numeric result=Operators.evaluate(curToken.word, ((ConstantNode)left).value, ((ConstantNode)right).value);
+						if(result==null || result.format==Format.MATRIX){return(null);}
+						stack.add(new ConstantNode(result,numThreads));
+					}
+					else{
+						stack.add(new OperatorNode(op,left,right,numThreads));
+					}
+				}
+				else{ //operand
+					Node leaf=getLeaf(curToken);
+					if(leaf==null){return(null);}
+					stack.add(leaf);
+				}
+			}
+		}catch(Exception e){ //let the interpreter report the error
+			return(null);
+		}
+		if(stack.size()!=1){return(null);}
+		return(stack.get(0));
+	}
+
+	private Node getLeaf(Token curToken){
+		if(curToken.objectType==ObjectType.NUMBER){
+			Numeric value=curToken.numeric[0];
+			if(value==null || value.format==Format.MATRIX){return(null);}
+			return(new ConstantNode(value,numThreads));
+		}
+		else if(curToken.objectType==ObjectType.PARAMETER){
+			return(new ParameterNode(curToken,numThreads));
+		}
+		else if(curToken.objectType==ObjectType.VARIABLE){
+			return(new VariableNode(curToken,numThreads));
+		}
+		else if(curToken.objectType==ObjectType.MATRIX_STATIC || curToken.objectType==ObjectType.MATRIX_DYNAMIC){
+			return(null); //matrix operand
+		}
+		return(new TokenNode(curToken,numThreads)); //functions, distributions, tables, etc.
+	}
+
+	/**
+	 * Thrown when an operand is not a real number or boolean, or the interpreter would reject it - pre-allocated, no stack trace
+	 */
+	static final class NotScalarException extends Exception{
+		private static final long serialVersionUID = 1L;
+		static final NotScalarException INSTANCE=new NotScalarException();
+		private NotScalarException(){
+			super("Not a real number",null,false,false);
+		}
+	}
+
+	abstract static class Node{
+		/**
+		 * Thread-specific: true if last result was an integer
+		 */
+		boolean isInt[];
+		/**
+		 * Thread-specific: true if last result was a boolean (1/0)
+		 */
+		boolean isBool[];
+
+		Node(int numThreads){
+			isInt=new boolean[numThreads];
+			isBool=new boolean[numThreads];
+		}
+
+		abstract double eval(int curThread, boolean sample) throws NotScalarException, Exception;
+
+		final double read(Numeric value, int curThread) throws NotScalarException{
+			if(value.format==Format.INTEGER){isInt[curThread]=true; isBool[curThread]=false; return(value.intNum);}
+			else if(value.format==Format.DOUBLE){isInt[curThread]=false; isBool[curThread]=false; return(value.doubleNum);}
+			else if(value.format==Format.BOOL){isInt[curThread]=false; isBool[curThread]=true; return(value.bool ? 1 : 0);}
+			throw NotScalarException.INSTANCE;
+		}
+
+		final double readNegate(Numeric value, int curThread) throws NotScalarException{
+			if(value.format==Format.INTEGER){isInt[curThread]=true; isBool[curThread]=false; return(-value.intNum);}
+			else if(value.format==Format.DOUBLE){isInt[curThread]=false; isBool[curThread]=false; return(-value.doubleNum);}
+			throw NotScalarException.INSTANCE;
+		}
+	}
+
+	static final class ConstantNode extends Node{
+		Numeric value;
+		double val;
+
+		ConstantNode(Numeric value, int numThreads){
+			super(numThreads);
+			this.value=value;
+			boolean integer=(value.format==Format.INTEGER);
+			boolean bool=(value.format==Format.BOOL);
+			if(integer){val=value.intNum;}
+			else if(bool){val=value.bool ? 1 : 0;}
+			else{val=value.doubleNum;}
+			for(int t=0; t<numThreads; t++){isInt[t]=integer; isBool[t]=bool;}
+		}
+
+		@Override
+		double eval(int curThread, boolean sample){
+			return(val);
+		}
+	}
+
+	static final class ParameterNode extends Node{
+		Token token;
+
+		ParameterNode(Token token, int numThreads){
+			super(numThreads);
+			this.token=token;
+		}
+
+		@Override
+		double eval(int curThread, boolean sample) throws NotScalarException, Exception{
+			if(token.curParam.locked && token.curParam.value!=null){ //read value directly
+				if(token.negate){return(readNegate(token.curParam.value,curThread));}
+				return(read(token.curParam.value,curThread));
+			}
+			token.updateValue(curThread, sample);
+			return(read(token.numeric[curThread],curThread));
+		}
+	}
+
+	static final class VariableNode extends Node{
+		Token token;
+
+		VariableNode(Token token, int numThreads){
+			super(numThreads);
+			this.token=token;
+		}
+
+		@Override
+		double eval(int curThread, boolean sample) throws NotScalarException, Exception{
+			Variable curVar=token.curVar;
+			Numeric value=curVar.value[curThread];
+			if(value!=null && (curVar.locked[curThread] || curVar.independent)){ //up to date, read value directly
+				if(token.negate){return(readNegate(value,curThread));}
+				return(read(value,curThread));
+			}
+			token.updateValue(curThread, sample);
+			return(read(token.numeric[curThread],curThread));
+		}
+	}
+
+	static final class TokenNode extends Node{
+		Token token;
+
+		TokenNode(Token token, int numThreads){
+			super(numThreads);
+			this.token=token;
+		}
+
+		@Override
+		double eval(int curThread, boolean sample) throws NotScalarException, Exception{
+			token.updateValue(curThread, sample);
+			return(read(token.numeric[curThread],curThread));
+		}
+	}
+
+	static final class OperatorNode extends Node{
+		int op;
+		Node left, right;
+
+		OperatorNode(int op, Node left, Node right, int numThreads){
+			super(numThreads);
+			this.op=op;
+			this.left=left;
+			this.right=right;
+		}
+
+		@Override
+		double eval(int curThread, boolean sample) throws NotScalarException, Exception{
+			double a=left.eval(curThread,sample);
+			double b=right.eval(curThread,sample);
+			if(op>=Operators.AND){ //logical, both must be boolean
+				if(!left.isBool[curThread] || !right.isBool[curThread]){throw NotScalarException.INSTANCE;}
+				isInt[curThread]=false;
+				isBool[curThread]=true;
+				boolean x=(a!=0), y=(b!=0), result;
+				if(op==Operators.AND){result=(x && y);}
+				else if(op==Operators.OR){result=(x || y);}
+				else{result=(x!=y);}
+				return(result ? 1 : 0);
+			}
+			if(left.isBool[curThread] || right.isBool[curThread]){throw NotScalarException.INSTANCE;} //let the interpreter report the error
+			if(op>=Operators.EQUAL){ //comparison
+				isInt[curThread]=false;
+				isBool[curThread]=true;
+				boolean result=false;
+				switch(op){
+				case Operators.EQUAL: result=(a==b); break;
+				case Operators.NOT_EQUAL: result=(a!=b); break;
+				case Operators.LESS: result=(a<b); break;
+				case Operators.GREATER: result=(a>b); break;
+				case Operators.LESS_EQ: result=(a<=b); break;
+				case Operators.GREATER_EQ: result=(a>=b); break;
+				}
+				return(result ? 1 : 0);
+			}
+			isBool[curThread]=false;
+			boolean ints=left.isInt[curThread] && right.isInt[curThread];
+			switch(op){
+			case Operators.ADD:
+				isInt[curThread]=ints;
+				if(ints){return((int)a+(int)b);}
+				return(a+b);
+			case Operators.SUBTRACT:
+				isInt[curThread]=ints;
+				if(ints){return((int)a-(int)b);}
+				return(a-b);
+			case Operators.MULTIPLY:
+				isInt[curThread]=ints;
+				if(ints){return((int)a*(int)b);}
+				return(a*b);
+			case Operators.DIVIDE:
+				double result=a/b;
+				int test=(int) Math.round(result); //check if integer
+				if(Math.abs(test-result)<MathUtils.tolerance){
+					isInt[curThread]=true;
+					return(test);
+				}
+				isInt[curThread]=false;
+				return(result);
+			case Operators.POWER:
+				if(ints && b>=0){ //preserve integer
+					isInt[curThread]=true;
+					return((int)(Math.pow(a,b)));
+				}
+				isInt[curThread]=false;
+				return(Math.pow(a,b));
+			case Operators.MODULUS:
+				isInt[curThread]=ints;
+				if(ints){return((int)a % (int)b);}
+				return(a % b);
+			}
+			throw new NumericException("Unknown operator","CompiledExpression");
+		}
+	}
+}
@@ -563,6 +563,14 @@ public final class Distributions{
 	}
 
 	public static Numeric sample(String dist, Numeric params[], double rand,MersenneTwisterFast generator) throws NumericException{
+		return(sample(dist,params,rand,generator,null));
+	}
+	
+	/**
+	 * Inverse-CDF sampling (one random number for each component)
+	 * @param cholesky Cholesky factor cache of the calling token (MvNorm), or null
+	 */
+	public static Numeric sample(String dist, Numeric params[], double rand,MersenneTwisterFast generator, MultivariateNormal.CholeskyCache cholesky) throws NumericException{
 		switch(dist){
 		//Discrete
 		case "Bern": return(Bernoulli.sample(params,rand));
@@ -597,13 +605,33 @@ public final class Distributions{
 		case "TruncNorm": return(TruncatedNormal.sample(params, rand));
 		//Multivariate
 		case "Dir": return(Dirichlet.sample(params, generator));
-		case "MvNorm": return(MultivariateNormal.sample(params, generator));
+		case "MvNorm": return(MultivariateNormal.sample(params, generator, cholesky));
 		case "Multi": return(Multinomial.sample(params, generator));
 	
 		} //End switch
 		return(null);
 	}
 	
+	/**
+	 * Samples using direct (non inverse-CDF) methods where available - draws use a variable number of random numbers
+	 * @param cholesky Cholesky factor cache of the calling token (MvNorm), or null
+	 */
+	public static Numeric sampleDirect(String dist, Numeric params[], MersenneTwisterFast generator, MultivariateNormal.CholeskyCache cholesky) throws NumericException{
+		switch(dist){
+		case "Dir": return(Dirichlet.sampleDirect(params, generator));
+		case "MvNorm": return(MultivariateNormal.sampleDirect(params, generator, cholesky));
+		case "Pois": return(Poisson.sample(params, generator));
+		case "Beta": return(Beta.sample(params, generator));
+		case "ChiSq": return(ChiSquare.sample(params, generator));
+		case "Gamma": return(Gamma.sample(params, generator));
+		case "HalfNorm": return(HalfNormal.sample(params, generator));
+		case "LogNorm": return(LogNormal.sample(params, generator));
+		case "Norm": return(Normal.sample(params, generator));
+		} //End switch
+		double rand=generator.nextDouble();
+		return(sample(dist,params,rand,generator,cholesky));
+	}
+	
 	public static String getDescription(String dist){
 		String des=null;
 		switch(dist){
@@ -0,0 +1,353 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates and compiles Java classes for a model's expression trees (in-process, at run time).
+ * All expressions parsed together are compiled in one batch.  Constants and parameters are primitive fields,
+ * so classes depend only on the structure of the expression and are shared (bounded cache, least recently used are dropped).
+ */
+public final class ExpressionJIT{
+
+	static final String PACKAGE="jit";
+	static final int MAX_CLASSES=1024;
+
+	static LinkedHashMap<String,Class<?>> cache=new LinkedHashMap<String,Class<?>>(16,0.75f,true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,Class<?>> eldest){
+			return(size()>MAX_CLASSES);
+		}
+	};
+	static int classCount=0;
+	static boolean unavailable=false; //no compiler in this runtime (e.g. JRE)
+
+	/**
+	 * Generates classes for expressions and binds them to their operands.  Expressions that can't be compiled are left to the tree.
+	 * @param exprs Expressions parsed for a model
+	 */
+	public static void compile(ArrayList<CompiledExpression> exprs){
+		if(unavailable || exprs==null){return;}
+		int numExpr=exprs.size();
+		Binding bindings[]=new Binding[numExpr];
+		String codes[]=new String[numExpr];
+		try{
+			for(int i=0; i<numExpr; i++){
+				CompiledExpression expr=exprs.get(i);
+				if(expr==null || expr.root==null || expr.root instanceof CompiledExpression.ConstantNode){continue;}
+				Binding binding=new Binding();
+				StringBuilder body=new StringBuilder();
+				int result=writeNode(expr.root,binding,body,new int[]{0});
+				if(expr.condition){
+					body.append("\t\tif(!b"+result+"){throw notScalar();}\n");
+					body.append("\t\treturn(v"+result+"!=0);\n");
+				}
+				else{
+					body.append("\t\tif(b"+result+"){throw notScalar();}\n");
+					body.append("\t\tresultInt[t]=i"+result+";\n");
+					body.append("\t\treturn(v"+result+");\n");
+				}
+				bindings[i]=binding;
+				codes[i]=getCode(binding.values.size(),expr.condition,body.toString());
+			}
+
+			Class<?> classes[]=getClasses(codes);
+			for(int i=0; i<numExpr; i++){
+				if(classes[i]==null){continue;}
+				GeneratedExpression generated=(GeneratedExpression) classes[i].getDeclaredConstructor().newInstance();
+				bindings[i].bind(generated,exprs.get(i).numThreads);
+				exprs.get(i).jit=generated;
+			}
+		}catch(Exception e){
+			//leave remaining expressions to the tree
+		}
+	}
+
+	/**
+	 * Class body (without name) declaring numFields constant/parameter fields
+	 * @param condition Body returns a boolean (evaluateBool), otherwise a real number (evaluate)
+	 */
+	private static String getCode(int numFields, boolean condition, String body){
+		StringBuilder code=new StringBuilder();
+		for(int f=0; f<numFields; f++){
+			code.append("\tdouble f"+f+"; boolean g"+f+", h"+f+";\n");
+		}
+		code.append("\tprotected void setFields(double values[], boolean ints[], boolean bools[]){\n");
+		for(int f=0; f<numFields; f++){
+			code.append("\t\tf"+f+"=values["+f+"]; g"+f+"=ints["+f+"]; h"+f+"=bools["+f+"];\n");
+		}
+		code.append("\t}\n");
+		if(condition){code.append("\tpublic boolean evaluateBool(int t, boolean s) throws Exception{\n");}
+		else{code.append("\tpublic double evaluate(int t, boolean s) throws Exception{\n");}
+		code.append(body);
+		code.append("\t}\n");
+		return(code.toString());
+	}
+
+	/**
+	 * Returns class for each code (null if none), compiling any that aren't cached in one task
+	 */
+	private static synchronized Class<?>[] getClasses(String codes[]) throws Exception{
+		Class<?> classes[]=new Class<?>[codes.length];
+		HashMap<String,String> newNames=new HashMap<String,String>(); //code -> class name
+		ArrayList<JavaFileObject> sources=new ArrayList<JavaFileObject>();
+		for(int i=0; i<codes.length; i++){
+			if(codes[i]==null){continue;}
+			classes[i]=cache.get(codes[i]);
+			if(classes[i]==null && !newNames.containsKey(codes[i])){
+				String fullName=PACKAGE+".Expression"+classCount;
+				classCount++;
+				newNames.put(codes[i], fullName);
+				String source="package "+PACKAGE+";\n\n";
+				source+="public final class "+fullName.substring(PACKAGE.length()+1)+" extends math.GeneratedExpression{\n";
+				source+=codes[i];
+				source+="}\n";
+				sources.add(new SourceFile(fullName,source));
+			}
+		}
+		if(sources.isEmpty()){return(classes);}
+
+		JavaCompiler compiler=ToolProvider.getSystemJavaCompiler();
+		if(compiler==null){
+			unavailable=true;
+			return(classes);
+		}
+		StandardJavaFileManager stdManager=compiler.getStandardFileManager(null, null, null);
+		MemoryFileManager fileManager=new MemoryFileManager(stdManager);
+		String options[]=new String[]{"-classpath",System.getProperty("java.class.path"),"-g:none","-nowarn"};
+		boolean success=compiler.getTask(null, fileManager, null, Arrays.asList(options), null, sources).call();
+		fileManager.close();
+		if(!success){return(classes);}
+
+		//one loader per batch so classes can be unloaded once dropped from the cache and no longer used
+		JITClassLoader loader=new JITClassLoader(ExpressionJIT.class.getClassLoader(),fileManager.classBytes);
+		HashMap<String,Class<?>> newClasses=new HashMap<String,Class<?>>();
+		for(Map.Entry<String,String> entry : newNames.entrySet()){
+			Class<?> curClass=loader.loadClass(entry.getValue());
+			newClasses.put(entry.getKey(), curClass);
+			cache.put(entry.getKey(), curClass);
+		}
+		for(int i=0; i<codes.length; i++){
+			if(classes[i]==null && codes[i]!=null){classes[i]=newClasses.get(codes[i]);}
+		}
+		return(classes);
+	}
+
+	/**
+	 * Writes Java statements for node (post-order) and returns index of local holding its value
+	 */
+	private static int writeNode(CompiledExpression.Node node, Binding binding, StringBuilder code, int counter[]) throws NumericException{
+		if(node instanceof CompiledExpression.ConstantNode){
+			CompiledExpression.ConstantNode constant=(CompiledExpression.ConstantNode) node;
+			int f=binding.addField(constant.val, constant.isInt[0], constant.isBool[0]);
+			int k=counter[0]++;
+			code.append("\t\tdouble v"+k+"=f"+f+"; boolean i"+k+"=g"+f+", b"+k+"=h"+f+";\n");
+			return(k);
+		}
+		else if(node instanceof CompiledExpression.ParameterNode){
+			int f=binding.addField(0, false, false);
+			binding.params.add((CompiledExpression.ParameterNode) node);
+			binding.paramFields.add(f);
+			int k=counter[0]++;
+			code.append("\t\tdouble v"+k+"=f"+f+"; boolean i"+k+"=g"+f+", b"+k+"=h"+f+";\n");
+			return(k);
+		}
+		else if(node instanceof CompiledExpression.VariableNode){
+			int s=binding.variables.size();
+			binding.variables.add((CompiledExpression.VariableNode) node);
+			int k=counter[0]++;
+			code.append("\t\tdouble v"+k+"=variable("+s+",t,s); boolean i"+k+"=variableInt("+s+",t), b"+k+"=variableBool("+s+",t);\n");
+			return(k);
+		}
+		else if(node instanceof CompiledExpression.TokenNode){
+			int s=binding.tokens.size();
+			binding.tokens.add((CompiledExpression.TokenNode) node);
+			int k=counter[0]++;
+			code.append("\t\tdouble v"+k+"=token("+s+",t,s); boolean i"+k+"=tokenInt("+s+",t), b"+k+"=tokenBool("+s+",t);\n");
+			return(k);
+		}
+		else if(node instanceof CompiledExpression.OperatorNode){
+			CompiledExpression.OperatorNode operator=(CompiledExpression.OperatorNode) node;
+			int a=writeNode(operator.left,binding,code,counter);
+			int b=writeNode(operator.right,binding,code,counter);
+			int k=counter[0]++;
+			String va="v"+a, vb="v"+b, ints="i"+a+" && i"+b;
+			if(operator.op>=Operators.AND){ //logical, both must be boolean
+				code.append("\t\tif(!b"+a+" || !b"+b+"){throw notScalar();}\n");
+				String test;
+				if(operator.op==Operators.AND){test="("+va+"!=0) && ("+vb+"!=0)";}
+				else if(operator.op==Operators.OR){test="("+va+"!=0) || ("+vb+"!=0)";}
+				else{test="("+va+"!=0)!=("+vb+"!=0)";}
+				code.append("\t\tdouble v"+k+"=("+test+") ? 1 : 0; boolean i"+k+"=false, b"+k+"=true;\n");
+				return(k);
+			}
+			code.append("\t\tif(b"+a+" || b"+b+"){throw notScalar();}\n"); //let the interpreter report the error
+			if(operator.op>=Operators.EQUAL){ //comparison
+				String compare;
+				switch(operator.op){
+				case Operators.EQUAL: compare="=="; break;
+				case Operators.NOT_EQUAL: compare="!="; break;
+				case Operators.LESS: compare="<"; break;
+				case Operators.GREATER: compare=">"; break;
+				case Operators.LESS_EQ: compare="<="; break;
+				case Operators.GREATER_EQ: compare=">="; break;
+				default: throw new NumericException("Unknown operator","ExpressionJIT");
+				}
+				code.append("\t\tdouble v"+k+"=("+va+compare+vb+") ? 1 : 0; boolean i"+k+"=false, b"+k+"=true;\n");
+				return(k);
+			}
+			switch(operator.op){
+			case Operators.ADD:
+				code.append("\t\tboolean i"+k+"="+ints+"; double v"+k+"=i"+k+" ? (double)((int)"+va+"+(int)"+vb+") : "+va+"+"+vb+"; boolean b"+k+"=false;\n");
+				break;
+			case Operators.SUBTRACT:
+				code.append("\t\tboolean i"+k+"="+ints+"; double v"+k+"=i"+k+" ? (double)((int)"+va+"-(int)"+vb+") : "+va+"-"+vb+"; boolean b"+k+"=false;\n");
+				break;
+			case Operators.MULTIPLY:
+				code.append("\t\tboolean i"+k+"="+ints+"; double v"+k+"=i"+k+" ? (double)((int)"+va+"*(int)"+vb+") : "+va+"*"+vb+"; boolean b"+k+"=false;\n");
+				break;
+			case Operators.DIVIDE:
+				code.append("\t\tdouble v"+k+"="+va+"/"+vb+"; boolean i"+k+"=false, b"+k+"=false;\n");
+				code.append("\t\tint r"+k+"=(int) Math.round(v"+k+");\n");
+				code.append("\t\tif(Math.abs(r"+k+"-v"+k+")<math.MathUtils.tolerance){v"+k+"=r"+k+"; i"+k+"=true;}\n");
+				break;
+			case Operators.POWER:
+				code.append("\t\tboolean i"+k+"="+ints+" && "+vb+">=0; double v"+k+"=i"+k+" ? (double)((int)Math.pow("+va+","+vb+")) : Math.pow("+va+","+vb+"); boolean b"+k+"=false;\n");
+				break;
+			case Operators.MODULUS:
+				code.append("\t\tboolean i"+k+"="+ints+"; double v"+k+"=i"+k+" ? (double)((int)"+va+" % (int)"+vb+") : "+va+" % "+vb+"; boolean b"+k+"=false;\n");
+				break;
+			default:
+				throw new NumericException("Unknown operator","ExpressionJIT");
+			}
+			return(k);
+		}
+		throw new NumericException("Unknown operand","ExpressionJIT");
+	}
+
+	static final class SourceFile extends SimpleJavaFileObject{
+		String source;
+		SourceFile(String name, String source){
+			super(URI.create("string:///"+name.replace('.','/')+Kind.SOURCE.extension),Kind.SOURCE);
+			this.source=source;
+		}
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors){
+			return(source);
+		}
+	}
+
+	static final class ClassFile extends SimpleJavaFileObject{
+		ByteArrayOutputStream bytes;
+		ClassFile(String name, ByteArrayOutputStream bytes){
+			super(URI.create("bytes:///"+name.replace('.','/')+Kind.CLASS.extension),Kind.CLASS);
+			this.bytes=bytes;
+		}
+		@Override
+		public OutputStream openOutputStream(){
+			return(bytes);
+		}
+	}
+
+	static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>{
+		HashMap<String,ByteArrayOutputStream> classBytes=new HashMap<String,ByteArrayOutputStream>();
+		MemoryFileManager(StandardJavaFileManager fileManager){
+			super(fileManager);
+		}
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling){
+			ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+			classBytes.put(className, bytes);
+			return(new ClassFile(className,bytes));
+		}
+	}
+
+	static final class JITClassLoader extends ClassLoader{
+		HashMap<String,ByteArrayOutputStream> classBytes;
+		JITClassLoader(ClassLoader parent, HashMap<String,ByteArrayOutputStream> classBytes){
+			super(parent);
+			this.classBytes=classBytes;
+		}
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException{
+			ByteArrayOutputStream bytes=classBytes.remove(name);
+			if(bytes==null){throw new ClassNotFoundException(name);}
+			byte curBytes[]=bytes.toByteArray();
+			return(defineClass(name, curBytes, 0, curBytes.length));
+		}
+	}
+
+	/**
+	 * Operands of one expression, in the order they are referenced by the generated code
+	 */
+	static final class Binding{
+		ArrayList<Double> values=new ArrayList<Double>();
+		ArrayList<Boolean> ints=new ArrayList<Boolean>();
+		ArrayList<Boolean> bools=new ArrayList<Boolean>();
+		ArrayList<CompiledExpression.ParameterNode> params=new ArrayList<CompiledExpression.ParameterNode>();
+		ArrayList<Integer> paramFields=new ArrayList<Integer>();
+		ArrayList<CompiledExpression.VariableNode> variables=new ArrayList<CompiledExpression.VariableNode>();
+		ArrayList<CompiledExpression.TokenNode> tokens=new ArrayList<CompiledExpression.TokenNode>();
+
+		int addField(double value, boolean isInt, boolean isBool){
+			values.add(value);
+			ints.add(isInt);
+			bools.add(isBool);
+			return(values.size()-1);
+		}
+
+		void bind(GeneratedExpression generated, int numThreads){
+			int numFields=values.size();
+			generated.values=new double[numFields];
+			generated.ints=new boolean[numFields];
+			generated.bools=new boolean[numFields];
+			for(int f=0; f<numFields; f++){
+				generated.values[f]=values.get(f);
+				generated.ints[f]=ints.get(f);
+				generated.bools[f]=bools.get(f);
+			}
+			int numParams=params.size();
+			generated.params=params.toArray(new CompiledExpression.ParameterNode[numParams]);
+			generated.paramFields=new int[numParams];
+			for(int p=0; p<numParams; p++){generated.paramFields[p]=paramFields.get(p);}
+			generated.variables=variables.toArray(new CompiledExpression.VariableNode[variables.size()]);
+			generated.tokens=tokens.toArray(new CompiledExpression.TokenNode[tokens.size()]);
+			generated.resultInt=new boolean[numThreads];
+			generated.setFields(generated.values, generated.ints, generated.bools); //constants
+			generated.bound=(numParams==0);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+/**
+ * Matrix stored row-major in a single array.  Used by the interpreter for intermediate matrix results so
+ * operators work on one contiguous block instead of allocating a new Numeric (and a double[] per row) at each step.
+ * Buffers are reused between evaluations, so data may be longer than nrow*ncol.
+ */
+final class FlatMatrix{
+	int nrow, ncol;
+	double data[]=new double[0];
+	
+	void resize(int nrow, int ncol){
+		this.nrow=nrow;
+		this.ncol=ncol;
+		int size=nrow*ncol;
+		if(data.length<size){data=new double[size];}
+	}
+	
+	void set(Numeric value){
+		resize(value.nrow,value.ncol);
+		for(int i=0; i<nrow; i++){
+			System.arraycopy(value.matrix[i], 0, data, i*ncol, ncol);
+		}
+	}
+	
+	void set(FlatMatrix value){
+		resize(value.nrow,value.ncol);
+		System.arraycopy(value.data, 0, data, 0, nrow*ncol);
+	}
+	
+	double get(int row, int col){
+		return(data[row*ncol+col]);
+	}
+	
+	/**
+	 * Copies values into a new Numeric matrix
+	 */
+	Numeric toNumeric(){
+		Numeric result=new Numeric(nrow,ncol);
+		for(int i=0; i<nrow; i++){
+			System.arraycopy(data, i*ncol, result.matrix[i], 0, ncol);
+		}
+		return(result);
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+/**
+ * Base class for expressions compiled at run time by ExpressionJIT.
+ * Constants and parameters are bound to primitive fields of the generated class (parameters are re-read by bind before each run),
+ * variables and other operands are evaluated through their tree nodes.  Conditions implement evaluateBool, other expressions evaluate.
+ */
+public abstract class GeneratedExpression implements DoubleExpression{
+	
+	/**
+	 * Constant and parameter values [field]
+	 */
+	double values[];
+	boolean ints[], bools[];
+	/**
+	 * Parameters and the fields they are bound to
+	 */
+	CompiledExpression.ParameterNode params[];
+	int paramFields[];
+	CompiledExpression.VariableNode variables[];
+	CompiledExpression.TokenNode tokens[];
+	/**
+	 * True once parameter values have been read
+	 */
+	boolean bound;
+	/**
+	 * Thread-specific: true if last result of evaluate was an integer
+	 */
+	protected boolean resultInt[];
+	
+	final void bind() throws Exception{
+		for(int p=0; p<params.length; p++){
+			int f=paramFields[p];
+			values[f]=params[p].eval(0,false);
+			ints[f]=params[p].isInt[0];
+			bools[f]=params[p].isBool[0];
+		}
+		setFields(values,ints,bools);
+		bound=true;
+	}
+	
+	/**
+	 * Copies values into the generated fields
+	 */
+	protected abstract void setFields(double values[], boolean ints[], boolean bools[]);
+	
+	public double evaluate(int curThread, boolean sample) throws Exception{
+		throw notScalar();
+	}
+	
+	public boolean evaluateBool(int curThread, boolean sample) throws Exception{
+		throw notScalar();
+	}
+	
+	/**
+	 * Operand not supported by the generated code - the caller falls back to the tree/interpreter
+	 */
+	protected static final Exception notScalar(){
+		return(CompiledExpression.NotScalarException.INSTANCE);
+	}
+	
+	protected final double variable(int index, int curThread, boolean sample) throws Exception{
+		return(variables[index].eval(curThread,sample));
+	}
+	
+	protected final boolean variableInt(int index, int curThread){
+		return(variables[index].isInt[curThread]);
+	}
+	
+	protected final boolean variableBool(int index, int curThread){
+		return(variables[index].isBool[curThread]);
+	}
+	
+	protected final double token(int index, int curThread, boolean sample) throws Exception{
+		return(tokens[index].eval(curThread,sample));
+	}
+	
+	protected final boolean tokenInt(int index, int curThread){
+		return(tokens[index].isInt[curThread]);
+	}
+	
+	protected final boolean tokenBool(int index, int curThread){
+		return(tokens[index].isBool[curThread]);
+	}
+	
+}
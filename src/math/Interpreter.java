@@ -19,6 +19,7 @@
 package math;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Stack;
 
 import base.AmuaModel;
@@ -42,40 +43,147 @@ public final class Interpreter{
 	}
 	
 	/**
-	 * Parse expression into array of Tokens
+	 * Parse expression into array of Tokens.  Tokens are cached by the model (shared by all uses of the same expression) until it is edited.
 	 */
 	public static Token[] parse(String expression,AmuaModel myModel) throws Exception{
+		if(myModel!=null){return(myModel.getParsedTokens(expression));}
+		return(compile(expression,myModel));
+	}
+	
+	/**
+	 * Parse expression into array of Tokens without the model cache
+	 */
+	public static Token[] compile(String expression,AmuaModel myModel) throws Exception{
 		ArrayList<Token> tokens=tokenize(expression,myModel);
 		Token[] output=shuntTokens(tokens);
 		return(output);
 	}
 	
+	/**
+	 * Operand stack reused by all evaluations on a thread, grown to the largest token array seen.
+	 * Nested evaluations (e.g. function arguments, parameters) use the slots above the caller's.
+	 */
+	private static final class Operands{
+		double vals[]=new double[16];
+		Format tags[]=new Format[16];
+		FlatMatrix mats[]=new FlatMatrix[16]; //matrix slots, buffers kept for reuse
+		FlatMatrix temp=new FlatMatrix(); //matrix products
+		int size;
+		
+		void reserve(int numTokens){
+			int needed=size+numTokens;
+			if(needed>vals.length){
+				int length=Math.max(needed, vals.length*2);
+				vals=Arrays.copyOf(vals, length);
+				tags=Arrays.copyOf(tags, length);
+				mats=Arrays.copyOf(mats, length);
+			}
+			size=needed;
+		}
+		
+		void push(Numeric operand, int index){
+			Format format=operand.format;
+			tags[index]=format;
+			if(format==Format.INTEGER){vals[index]=operand.intNum;}
+			else if(format==Format.DOUBLE){vals[index]=operand.doubleNum;}
+			else if(format==Format.BOOL){vals[index]=operand.bool ? 1 : 0;}
+			else{ //matrix
+				if(mats[index]==null){mats[index]=new FlatMatrix();}
+				mats[index].set(operand);
+			}
+		}
+		
+		Numeric get(int index){
+			Format format=tags[index];
+			if(format==Format.INTEGER){return(new Numeric((int)vals[index]));}
+			else if(format==Format.DOUBLE){return(new Numeric(vals[index]));}
+			else if(format==Format.BOOL){return(new Numeric(vals[index]!=0));}
+			return(mats[index].toNumeric());
+		}
+	}
+	
+	//Keyed by Java thread, the same thread index can be in use by the GUI and a running model
+	private static final ThreadLocal<Operands> operands=new ThreadLocal<Operands>(){
+		@Override
+		protected Operands initialValue(){
+			return(new Operands());
+		}
+	};
+	
 	/**
 	 * Evaluates post-fix expression from left to right
+	 * Real numbers and booleans are kept unboxed on the operand stack, matrices in flat buffers
 	 * @return
 	 * @throws NumericException 
 	 */
 	public static Numeric evaluateTokens(Token tokens[], int curThread, boolean sample) throws NumericException, Exception{
+		if(tokens.length==1){ //single operand
+			Token curToken=tokens[0];
+			curToken.updateValue(curThread,sample);
+			return(curToken.numeric[curThread].copy()); //tokens are shared by cached expressions - callers may store and update the result (e.g. variables)
+		}
+		
+		Operands stack=operands.get();
+		int base=stack.size;
+		try{
+			int top=run(stack,tokens,curThread,sample);
+			return(stack.get(top));
+		}
+		finally{
+			stack.size=base; //release slots
+		}
+	}
+	
+	/**
+	 * Evaluates post-fix expression to a real number without boxing the result
+	 * @throws NumericException if the result is a boolean or matrix
+	 */
+	public static double evaluateDouble(Token tokens[], int curThread, boolean sample) throws NumericException, Exception{
+		if(tokens.length==1){ //single operand
+			Token curToken=tokens[0];
+			curToken.updateValue(curThread,sample);
+			return(curToken.numeric[curThread].getDouble());
+		}
+		
+		Operands stack=operands.get();
+		int base=stack.size;
+		try{
+			int top=run(stack,tokens,curThread,sample);
+			Format format=stack.tags[top];
+			if(format==Format.INTEGER || format==Format.DOUBLE){return(stack.vals[top]);}
+			throw(new NumericException("Matrix type, not real number","Numeric")); //same as Numeric.getDouble()
+		}
+		finally{
+			stack.size=base; //release slots
+		}
+	}
+	
+	/**
+	 * @return Stack index of the result
+	 */
+	private static int run(Operands stack, Token tokens[], int curThread, boolean sample) throws Exception{
 		int numTokens=tokens.length;
-		Stack<Numeric> operands=new Stack<Numeric>();
+		int top=stack.size-1;
+		stack.reserve(numTokens);
 		for(int i=0; i<numTokens; i++){
 			Token curToken=tokens[i];
 			if(curToken.type==Type.OPERATOR){
-				String operator=curToken.word;
-				Numeric operand_2=operands.pop();
-				Numeric operand_1=operands.pop();
-				Numeric result=Operators.evaluate(operator,operand_1,operand_2);
-				operands.push(result);
+				top--;
+				int op=curToken.opCode;
+				if(Operators.evaluateScalar(op,stack.vals,stack.tags,top,top+1)==false && Operators.evaluateMatrix(op,stack.vals,stack.tags,stack.mats,stack.temp,top,top+1)==false){ //invalid operands or matrix power
+					Numeric operand_1=stack.get(top);
+					Numeric operand_2=stack.get(top+1);
+					Numeric result=Operators.evaluate(curToken.word,operand_1,operand_2);
+					stack.push(result,top);
+				}
 			}
 			else{ //operand
-				curToken.updateValue(curThread,sample);
-				Numeric operand=curToken.numeric[curThread];
-				operands.push(operand);
+				curToken.updateValue(curThread,sample); //may evaluate nested expressions, which can grow the stack arrays
+				top++;
+				stack.push(curToken.numeric[curThread],top);
 			}
 		} //end of tokens loop
-		Numeric result=operands.pop();
-				
-		return(result);
+		return(top);
 	}
 	
 	public static String[] splitArgs(String strArgs){
@@ -372,6 +480,7 @@ public final class Interpreter{
 								tokenLookup.objectType=ObjectType.TABLE_LOOKUP;
 								tokenLookup.curTable=curTable;
 								tokenLookup.strArgs=args;
+								tokenLookup.tableCol=curTable.getConstantColumnIndex(args[1]);
 								//tokenize index
 								tokenLookup.args=new Token[1][];
 								tokenLookup.args[0]=parse(args[0],myModel);
@@ -698,16 +807,18 @@ public final class Interpreter{
 	}
 	
 	public static int getNextBreakIndex(String text){
-		boolean found=false;
-		int i=0, len=text.length(), index=len;
-		while(found==false && i<len){
-			if(Interpreter.isBreak(text.charAt(i))){
-				found=true;
-				index=i;
-			}
-			i++;
+		return(getNextBreakIndex(text,0));
+	}
+	
+	/**
+	 * Returns index of next break at or after start (length of text if none)
+	 */
+	public static int getNextBreakIndex(String text, int start){
+		int len=text.length();
+		for(int i=start; i<len; i++){
+			if(isBreak(text.charAt(i))){return(i);}
 		}
-		return(index);
+		return(len);
 	}
 	
 	public static boolean containsWord(String curWord, String text){
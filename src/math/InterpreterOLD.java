@@ -331,7 +331,7 @@ public final class InterpreterOLD{
 								throw new NumericException("Invalid trace arguments","trace");
 								//throw error
 							}
-							Numeric trace=myModel.traceMarkov.getValue(args[0],args[1]);
+							Numeric trace=myModel.traceMarkov[0].getValue(args[0],args[1]);
 							if(negate){trace.negate();}
 							tokens.add(new TokenOLD(trace));
 							off=(close+1)-pos;
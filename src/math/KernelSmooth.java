@@ -21,30 +21,68 @@ package math;
 
 import java.util.Arrays;
 
-import org.apache.commons.math3.distribution.NormalDistribution;
+import base.ModelScheduler;
 
 public final class KernelSmooth{
 	
+	/**
+	 * Points x grid size up to which the kernel is summed directly for every point
+	 */
+	static final int DIRECT_LIMIT=1000000;
+	
 	public static double[][] density(double data[], int n){
-		int numX=data.length;
+		return(density(data,n,null));
+	}
+	
+	/**
+	 * Gaussian kernel density on a grid of n points.  Large data sets are linearly binned onto the grid and the bin counts are convolved
+	 * with the kernel, so the cost is O(numX + n^2) instead of O(numX*n).
+	 * @param scheduler Splits the passes over the data into chunks run in parallel (null to run on this thread)
+	 */
+	public static double[][] density(double data[], int n, ModelScheduler scheduler){
+		try{
+			return(binnedDensity(data,n,scheduler));
+		}catch(Exception e){ //only thrown by scheduler
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static double[][] binnedDensity(final double data[], final int n, ModelScheduler scheduler) throws Exception{
+		final int numX=data.length;
+		//min, max, sums - by chunk so results don't depend on the number of threads
+		final int chunkSize=ModelScheduler.getChunkSize(numX, 65536, 64);
+		int numChunks=ModelScheduler.getNumChunks(numX, chunkSize);
+		final double chunkStats[][]=new double[numChunks][];
+		ModelScheduler.ChunkTask statsTask=new ModelScheduler.ChunkTask(){
+			public void run(int chunk, int curThread){
+				int start=chunk*chunkSize, end=Math.min(numX, start+chunkSize);
+				double min=data[start], max=data[start], sum=0, sum2=0;
+				for(int i=start; i<end; i++){
+					min=Math.min(min, data[i]);
+					max=Math.max(max, data[i]);
+					sum+=data[i];
+					sum2+=(data[i]*data[i]);
+				}
+				chunkStats[chunk]=new double[]{min,max,sum,sum2};
+			}
+		};
+		runChunks(scheduler,numChunks,statsTask);
 		double min=data[0], max=data[0];
-		for(int i=0; i<numX; i++){
-			min=Math.min(min, data[i]);
-			max=Math.max(max, data[i]);
+		double eX=0, eX2=0;
+		for(int c=0; c<numChunks; c++){
+			min=Math.min(min, chunkStats[c][0]);
+			max=Math.max(max, chunkStats[c][1]);
+			eX+=chunkStats[c][2];
+			eX2+=chunkStats[c][3];
 		}
 		double range=max-min;
 		min=min-range/10.0; max=max+range/10.0;
 		range=max-min; //update range
-		double nStep=range/((n-1)*1.0);
+		final double nStep=range/((n-1)*1.0);
 		//set up grid
 		double density[][]=new double[2][n];
 		
 		//calculate standard deviation
-		double eX=0, eX2=0;
-		for(int i=0; i<numX; i++){
-			eX+=data[i];
-			eX2+=(data[i]*data[i]);
-		}
 		eX=eX/(numX*1.0);
 		eX2=eX2/(numX*1.0);
 		double var=eX2-eX*eX;
@@ -52,23 +90,79 @@ public final class KernelSmooth{
 		double h=(4*Math.pow(sd, 5))/(3.0*n); //bandwidth
 		h=Math.pow(h, 0.2);
 		
-		NormalDistribution norm=new NormalDistribution(null,0,1); //standard normal
+		double norm=1.0/Math.sqrt(2*Math.PI); //standard normal density at 0
+		
+		if((long)numX*n<=DIRECT_LIMIT || !(nStep>0)){ //sum kernel for each point
+			for(int i=0; i<n; i++){
+				double curX=min+nStep*i; //x location
+				density[0][i]=curX;
+				double curDensity=0;
+				for(int j=0; j<numX; j++){
+					double xStar=(curX-data[j])/h; //(x-x_i)/h
+					curDensity+=norm*Math.exp(-0.5*xStar*xStar);
+				}
+				curDensity=curDensity/(n*h);
+				density[1][i]=curDensity;
+			}
+			return(density);
+		}
+		
+		//linear binning - each point is split between its two nearest grid points
+		final double gridMin=min;
+		final double chunkBins[][]=new double[numChunks][];
+		ModelScheduler.ChunkTask binTask=new ModelScheduler.ChunkTask(){
+			public void run(int chunk, int curThread){
+				int start=chunk*chunkSize, end=Math.min(numX, start+chunkSize);
+				double bins[]=new double[n];
+				for(int i=start; i<end; i++){
+					double pos=(data[i]-gridMin)/nStep;
+					int j=(int)pos;
+					if(j<0){j=0; pos=0;}
+					if(j>=n-1){bins[n-1]+=1; continue;}
+					double frac=pos-j;
+					bins[j]+=1-frac;
+					bins[j+1]+=frac;
+				}
+				chunkBins[chunk]=bins;
+			}
+		};
+		runChunks(scheduler,numChunks,binTask);
+		double bins[]=new double[n];
+		for(int c=0; c<numChunks; c++){
+			for(int j=0; j<n; j++){bins[j]+=chunkBins[c][j];}
+		}
+		
+		//kernel at grid offsets, truncated where it is negligible
+		int maxLag=Math.min(n-1, (int)Math.ceil(8*h/nStep));
+		double kernel[]=new double[maxLag+1];
+		for(int k=0; k<=maxLag; k++){
+			double xStar=(k*nStep)/h;
+			kernel[k]=norm*Math.exp(-0.5*xStar*xStar);
+		}
 		
+		//convolve
 		for(int i=0; i<n; i++){
-			double curX=min+nStep*i; //x location
-			density[0][i]=curX;
+			density[0][i]=min+nStep*i;
+			int j0=Math.max(0, i-maxLag), j1=Math.min(n-1, i+maxLag);
 			double curDensity=0;
-			for(int j=0; j<numX; j++){
-				double xStar=(curX-data[j])/h; //(x-x_i)/h
-				curDensity+=norm.density(xStar);
+			for(int j=j0; j<=j1; j++){
+				curDensity+=bins[j]*kernel[Math.abs(i-j)];
 			}
-			curDensity=curDensity/(n*h);
-			density[1][i]=curDensity;
+			density[1][i]=curDensity/(n*h);
 		}
 		
 		return(density);
 	}
 	
+	private static void runChunks(ModelScheduler scheduler, int numChunks, ModelScheduler.ChunkTask task) throws Exception{
+		if(scheduler==null){
+			for(int c=0; c<numChunks; c++){task.run(c, 0);}
+		}
+		else{
+			scheduler.run(numChunks, task);
+		}
+	}
+	
 	public static double[][] histogram(double data[], int n, int numBins){
 		int numX=data.length;
 		double min=data[0], max=data[0];
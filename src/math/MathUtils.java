@@ -142,4 +142,46 @@ public final class MathUtils{
 	public static String consoleFont(String str, String col){
 		return("<font face=\"Consolas\" color=\""+col+"\">"+str+"</font>");
 	}
+	
+	/**
+	 * Lower triangular L with A=LL', null if A is not positive definite
+	 */
+	public static double[][] cholesky(double A[][]){
+		int n=A.length;
+		double L[][]=new double[n][n];
+		for(int i=0; i<n; i++){
+			for(int j=0; j<=i; j++){
+				double sum=A[i][j];
+				for(int k=0; k<j; k++){sum-=L[i][k]*L[j][k];}
+				if(i==j){
+					if(sum<=0){return(null);}
+					L[i][i]=Math.sqrt(sum);
+				}
+				else{
+					L[i][j]=sum/L[j][j];
+				}
+			}
+		}
+		return(L);
+	}
+
+	/**
+	 * Solves LL'x=b, with L from cholesky
+	 */
+	public static double[] solveCholesky(double L[][], double b[]){
+		int n=b.length;
+		double y[]=new double[n];
+		for(int i=0; i<n; i++){
+			double sum=b[i];
+			for(int k=0; k<i; k++){sum-=L[i][k]*y[k];}
+			y[i]=sum/L[i][i];
+		}
+		double x[]=new double[n];
+		for(int i=n-1; i>=0; i--){
+			double sum=y[i];
+			for(int k=i+1; k<n; k++){sum-=L[k][i]*x[k];}
+			x[i]=sum/L[i][i];
+		}
+		return(x);
+	}
 }
\ No newline at end of file
@@ -21,7 +21,6 @@ package math;
 
 import base.AmuaModel;
 
-enum Format{INTEGER,DOUBLE,BOOL,MATRIX};
 public class Numeric{
 	Format format;
 	int intNum;
@@ -263,6 +262,11 @@ public class Numeric{
 		doubleNum=newDouble;
 	}
 	
+	public void setBool(boolean newBool){
+		format=Format.BOOL;
+		bool=newBool;
+	}
+	
 	public String saveAsXMLString(){
 		String str="";
 		str+=format+";";
@@ -344,6 +348,18 @@ public class Numeric{
 		return(copy);
 	}
 	
+	/**
+	 * Returns new numeric with flipped sign
+	 */
+	public Numeric negated(){
+		if(format==Format.INTEGER){return(new Numeric(-intNum));}
+		else if(format==Format.DOUBLE){return(new Numeric(-doubleNum));}
+		else if(format==Format.BOOL){return(new Numeric(!bool));}
+		Numeric neg=copy();
+		neg.negate();
+		return(neg);
+	}
+	
 	/**
 	 * Flip sign
 	 */
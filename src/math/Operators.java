@@ -20,6 +20,11 @@ package math;
 
 public final class Operators{
 
+	//Operator codes
+	static final int ADD=0, SUBTRACT=1, MULTIPLY=2, DIVIDE=3, POWER=4, MODULUS=5;
+	static final int EQUAL=6, NOT_EQUAL=7, LESS=8, GREATER=9, LESS_EQ=10, GREATER_EQ=11;
+	static final int AND=12, OR=13, XOR=14;
+
 	public static boolean isOperator(String text){
 		switch(text){
 		case "+":return(true);
@@ -65,6 +70,155 @@ public final class Operators{
 		return(-1); //fell through
 	}
 
+	static int getCode(String operator){
+		switch(operator){
+		case "+": return(ADD);
+		case "-": return(SUBTRACT);
+		case "*": return(MULTIPLY);
+		case "/": return(DIVIDE);
+		case "^": return(POWER);
+		case "%": return(MODULUS);
+		//Logical
+		case "==": return(EQUAL);
+		case "!=": return(NOT_EQUAL);
+		case "<": return(LESS);
+		case ">": return(GREATER);
+		case "<=": return(LESS_EQ);
+		case ">=": return(GREATER_EQ);
+		case "&": return(AND);
+		case "|": return(OR);
+		case "^|": return(XOR);
+		}
+		return(-1); //fell through
+	}
+	
+	/**
+	 * Evaluates operator on unboxed scalars in place: result is written to index a.
+	 * Same semantics as evaluate(operator,arg1,arg2) for real numbers and booleans.
+	 * @return false if operands are not handled here (matrices, or invalid types - let evaluate() throw the error)
+	 */
+	static boolean evaluateScalar(int op, double vals[], Format tags[], int a, int b){
+		Format tag1=tags[a], tag2=tags[b];
+		double x=vals[a], y=vals[b];
+		if(op>=AND){ //logical, both must be boolean
+			if(tag1!=Format.BOOL || tag2!=Format.BOOL){return(false);}
+			boolean bool1=(x!=0), bool2=(y!=0), result=false;
+			if(op==AND){result=(bool1 && bool2);}
+			else if(op==OR){result=(bool1 || bool2);}
+			else if(op==XOR){result=(bool1!=bool2);}
+			vals[a]=result ? 1 : 0;
+			return(true);
+		}
+		if((tag1!=Format.INTEGER && tag1!=Format.DOUBLE) || (tag2!=Format.INTEGER && tag2!=Format.DOUBLE)){return(false);}
+		boolean ints=(tag1==Format.INTEGER && tag2==Format.INTEGER);
+		switch(op){
+		case ADD:
+			if(ints){vals[a]=(int)x+(int)y; tags[a]=Format.INTEGER;} //preserve integer
+			else{vals[a]=x+y; tags[a]=Format.DOUBLE;}
+			return(true);
+		case SUBTRACT:
+			if(ints){vals[a]=(int)x-(int)y; tags[a]=Format.INTEGER;}
+			else{vals[a]=x-y; tags[a]=Format.DOUBLE;}
+			return(true);
+		case MULTIPLY:
+			if(ints){vals[a]=(int)x*(int)y; tags[a]=Format.INTEGER;}
+			else{vals[a]=x*y; tags[a]=Format.DOUBLE;}
+			return(true);
+		case DIVIDE:
+			double result=x/y;
+			int test=(int) Math.round(result); //check if integer
+			if(Math.abs(test-result)<MathUtils.tolerance){vals[a]=test; tags[a]=Format.INTEGER;}
+			else{vals[a]=result; tags[a]=Format.DOUBLE;}
+			return(true);
+		case POWER:
+			if(ints && y>=0){vals[a]=(int)(Math.pow(x,y)); tags[a]=Format.INTEGER;}
+			else{vals[a]=Math.pow(x,y); tags[a]=Format.DOUBLE;}
+			return(true);
+		case MODULUS:
+			if(ints){vals[a]=(int)x % (int)y; tags[a]=Format.INTEGER;}
+			else{vals[a]=x % y; tags[a]=Format.DOUBLE;}
+			return(true);
+		case EQUAL: vals[a]=(x==y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		case NOT_EQUAL: vals[a]=(x!=y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		case LESS: vals[a]=(x<y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		case GREATER: vals[a]=(x>y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		case LESS_EQ: vals[a]=(x<=y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		case GREATER_EQ: vals[a]=(x>=y) ? 1 : 0; tags[a]=Format.BOOL; return(true);
+		}
+		return(false);
+	}
+	
+	/**
+	 * Evaluates +, -, *, / and % with matrix operands in the interpreter's flat buffers: result is written to index a.
+	 * Same semantics as evaluate(operator,arg1,arg2), e.g. a row vector times a column vector is a real number.
+	 * @return false if not handled here (other operators, scalar operands, or errors - let evaluate() handle it)
+	 */
+	static boolean evaluateMatrix(int op, double vals[], Format tags[], FlatMatrix mats[], FlatMatrix temp, int a, int b){
+		Format tag1=tags[a], tag2=tags[b];
+		boolean mat1=(tag1==Format.MATRIX), mat2=(tag2==Format.MATRIX);
+		if(mat1==false && mat2==false){return(false);}
+		if((mat1==false && tag1!=Format.INTEGER && tag1!=Format.DOUBLE) || (mat2==false && tag2!=Format.INTEGER && tag2!=Format.DOUBLE)){return(false);} //boolean operand
+		if(mat1 && mat2){ //matrix + matrix
+			FlatMatrix x=mats[a], y=mats[b];
+			int size=x.nrow*x.ncol;
+			if(op==ADD || op==SUBTRACT){
+				if(x.nrow!=y.nrow || x.ncol!=y.ncol){return(false);} //not conformable
+				double sign=(op==ADD) ? 1 : -1;
+				for(int i=0; i<size; i++){x.data[i]+=sign*y.data[i];}
+				return(true);
+			}
+			if(op!=MULTIPLY || x.ncol!=y.nrow){return(false);}
+			if(x.nrow>1 || y.ncol>1){ //matrix/vector
+				temp.resize(x.nrow,y.ncol);
+				for(int i=0; i<x.nrow; i++){
+					for(int j=0; j<y.ncol; j++){
+						double sum=0;
+						for(int k=0; k<x.ncol; k++){
+							sum+=x.data[i*x.ncol+k]*y.data[k*y.ncol+j];
+						}
+						temp.data[i*y.ncol+j]=sum;
+					}
+				}
+				x.set(temp);
+			}
+			else{ //dot product
+				double sum=0;
+				for(int k=0; k<x.ncol; k++){sum+=x.data[k]*y.data[k];}
+				vals[a]=sum;
+				tags[a]=Format.DOUBLE;
+			}
+			return(true);
+		}
+		if(mat1){ //matrix + number
+			FlatMatrix x=mats[a];
+			double y=vals[b];
+			int size=x.nrow*x.ncol;
+			switch(op){
+			case ADD: for(int i=0; i<size; i++){x.data[i]+=y;} return(true);
+			case SUBTRACT: for(int i=0; i<size; i++){x.data[i]-=y;} return(true);
+			case MULTIPLY: for(int i=0; i<size; i++){x.data[i]*=y;} return(true);
+			case DIVIDE: for(int i=0; i<size; i++){x.data[i]/=y;} return(true);
+			case MODULUS: for(int i=0; i<size; i++){x.data[i]%=y;} return(true);
+			}
+			return(false);
+		}
+		//number + matrix
+		if(op!=ADD && op!=SUBTRACT && op!=MULTIPLY){return(false);}
+		double x=vals[a];
+		FlatMatrix y=mats[b];
+		if(mats[a]==null){mats[a]=new FlatMatrix();}
+		FlatMatrix result=mats[a];
+		result.resize(y.nrow,y.ncol);
+		int size=y.nrow*y.ncol;
+		for(int i=0; i<size; i++){
+			if(op==ADD){result.data[i]=x+y.data[i];}
+			else if(op==SUBTRACT){result.data[i]=x-y.data[i];}
+			else{result.data[i]=x*y.data[i];}
+		}
+		tags[a]=Format.MATRIX;
+		return(true);
+	}
+
 	public static Numeric evaluate(String operator,Numeric arg1, Numeric arg2) throws NumericException{
 		switch(operator){
 		case "+": return(add(arg1,arg2));
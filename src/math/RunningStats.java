@@ -0,0 +1,116 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.util.Arrays;
+
+/**
+ * Online mean/variance (Welford) and 95% bounds of a stream of values.
+ * Values are kept until there are more than EXACT_LIMIT, so bounds match MathUtils.getBoundIndices on sorted values for small runs,
+ * after which they are summarized by a t-digest.  Summaries from different threads can be merged.
+ */
+public class RunningStats{
+	public static final int EXACT_LIMIT=1000;
+	static final double COMPRESSION=200;
+
+	int count;
+	double mean, m2;
+	double values[]; //null once summarized by digest
+	TDigest digest;
+
+	//Constructor
+	public RunningStats(){
+		values=new double[16];
+	}
+
+	public void add(double x){
+		count++;
+		double delta=x-mean;
+		mean+=delta/count;
+		m2+=delta*(x-mean);
+		if(digest==null){
+			if(count<=EXACT_LIMIT){
+				if(count>values.length){values=Arrays.copyOf(values, Math.min(values.length*2, EXACT_LIMIT));}
+				values[count-1]=x;
+				return;
+			}
+			toDigest(count-1);
+		}
+		digest.add(x);
+	}
+
+	/**
+	 * Combines another summary into this one (Chan et al. pairwise update)
+	 */
+	public void merge(RunningStats other){
+		if(other.count==0){return;}
+		int prevCount=count;
+		int n=count+other.count;
+		double delta=other.mean-mean;
+		mean+=delta*other.count/n;
+		m2+=other.m2+delta*delta*((double)prevCount*other.count)/n;
+		count=n;
+		if(digest==null && other.digest==null && n<=EXACT_LIMIT){
+			if(n>values.length){values=Arrays.copyOf(values, n);}
+			System.arraycopy(other.values, 0, values, prevCount, other.count);
+			return;
+		}
+		if(digest==null){toDigest(prevCount);}
+		if(other.digest!=null){digest.merge(other.digest);}
+		else{
+			for(int i=0; i<other.count; i++){digest.add(other.values[i]);}
+		}
+	}
+
+	private void toDigest(int numValues){
+		digest=new TDigest(COMPRESSION);
+		for(int i=0; i<numValues; i++){digest.add(values[i]);}
+		values=null;
+	}
+
+	public int getCount(){
+		return(count);
+	}
+
+	public double getMean(){
+		if(count==0){return(Double.NaN);}
+		return(mean);
+	}
+
+	public double getVariance(){
+		if(count<2){return(0);}
+		return(m2/(count-1));
+	}
+
+	/**
+	 * Returns {lb, ub} - 95% bounds
+	 */
+	public double[] getBounds(){
+		if(count==0){return(new double[]{Double.NaN,Double.NaN});}
+		int bounds[]=MathUtils.getBoundIndices(count);
+		if(digest==null){
+			double sorted[]=Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+			return(new double[]{sorted[bounds[0]],sorted[bounds[1]]});
+		}
+		double lb=digest.quantile((bounds[0]+0.5)/count);
+		double ub=digest.quantile((bounds[1]+0.5)/count);
+		return(new double[]{lb,ub});
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Mergeable quantile sketch (merging t-digest, Dunning &amp; Ertl).
+ * Values are buffered and periodically merged into weighted centroids, which are kept small near the tails
+ * so extreme quantiles (e.g. 95% bounds) stay accurate.  Memory is bounded by the compression, not the number of values.
+ */
+public class TDigest{
+	double compression;
+	//centroids sorted by mean
+	double mean[], weight[];
+	int numCentroids;
+	double totalWeight;
+	//unmerged values
+	double bufMean[], bufWeight[];
+	int numBuf;
+	double min=Double.POSITIVE_INFINITY, max=Double.NEGATIVE_INFINITY;
+
+	//Constructor
+	public TDigest(double compression){
+		this.compression=compression;
+		int size=(int)(2*Math.ceil(compression))+8;
+		mean=new double[size]; weight=new double[size];
+		bufMean=new double[size*4]; bufWeight=new double[size*4];
+	}
+
+	public void add(double x){
+		add(x,1);
+	}
+
+	public void add(double x, double w){
+		if(Double.isNaN(x)){return;}
+		if(numBuf==bufMean.length){flush();}
+		bufMean[numBuf]=x; bufWeight[numBuf]=w;
+		numBuf++;
+		if(x<min){min=x;}
+		if(x>max){max=x;}
+	}
+
+	/**
+	 * Adds all centroids of another digest
+	 */
+	public void merge(TDigest other){
+		other.flush();
+		for(int i=0; i<other.numCentroids; i++){
+			add(other.mean[i],other.weight[i]);
+		}
+		if(other.min<min){min=other.min;}
+		if(other.max>max){max=other.max;}
+	}
+
+	public double size(){
+		return(totalWeight+sumBuffer());
+	}
+
+	private double sumBuffer(){
+		double sum=0;
+		for(int i=0; i<numBuf; i++){sum+=bufWeight[i];}
+		return(sum);
+	}
+
+	/**
+	 * Merges buffered values into the centroids
+	 */
+	void flush(){
+		if(numBuf==0){return;}
+		int n=numCentroids+numBuf;
+		double points[][]=new double[n][];
+		for(int i=0; i<numCentroids; i++){points[i]=new double[]{mean[i],weight[i]};}
+		for(int i=0; i<numBuf; i++){points[numCentroids+i]=new double[]{bufMean[i],bufWeight[i]};}
+		Arrays.sort(points, new Comparator<double[]>(){
+			public int compare(double a[], double b[]){
+				return(Double.compare(a[0], b[0]));
+			}
+		});
+		double total=totalWeight+sumBuffer();
+
+		numCentroids=0;
+		double curMean=points[0][0], curWeight=points[0][1];
+		double weightSoFar=0;
+		for(int i=1; i<n; i++){
+			double proposed=curWeight+points[i][1];
+			double q0=weightSoFar/total, q2=(weightSoFar+proposed)/total;
+			double limit=total*Math.min(maxSize(q0), maxSize(q2));
+			if(proposed<=limit){ //merge into current centroid
+				curMean+=(points[i][0]-curMean)*points[i][1]/proposed;
+				curWeight=proposed;
+			}
+			else{
+				addCentroid(curMean,curWeight);
+				weightSoFar+=curWeight;
+				curMean=points[i][0]; curWeight=points[i][1];
+			}
+		}
+		addCentroid(curMean,curWeight);
+		totalWeight=total;
+		numBuf=0;
+	}
+
+	/**
+	 * Maximum centroid weight (as a fraction of total) at quantile q
+	 */
+	private double maxSize(double q){
+		return(4*q*(1-q)/compression);
+	}
+
+	private void addCentroid(double m, double w){
+		if(numCentroids==mean.length){
+			mean=Arrays.copyOf(mean, numCentroids*2);
+			weight=Arrays.copyOf(weight, numCentroids*2);
+		}
+		mean[numCentroids]=m; weight[numCentroids]=w;
+		numCentroids++;
+	}
+
+	/**
+	 * Estimates quantile q (0 to 1) by interpolating between centroid centers
+	 */
+	public double quantile(double q){
+		flush();
+		if(numCentroids==0){return(Double.NaN);}
+		if(numCentroids==1){return(mean[0]);}
+		if(q<=0){return(min);}
+		if(q>=1){return(max);}
+		double index=q*totalWeight;
+		if(index<weight[0]/2.0){ //between min and first centroid
+			return(min+(mean[0]-min)*(index/(weight[0]/2.0)));
+		}
+		double cum=weight[0]/2.0; //center of current centroid
+		for(int i=0; i<numCentroids-1; i++){
+			double dw=(weight[i]+weight[i+1])/2.0;
+			if(index<cum+dw){
+				double frac=(index-cum)/dw;
+				return(mean[i]+(mean[i+1]-mean[i])*frac);
+			}
+			cum+=dw;
+		}
+		//between last centroid and max
+		int last=numCentroids-1;
+		double frac=(index-cum)/(weight[last]/2.0);
+		return(mean[last]+(max-mean[last])*Math.min(1, frac));
+	}
+}
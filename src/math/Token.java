@@ -20,14 +20,13 @@
 package math;
 
 import base.AmuaModel;
+import main.CounterRNG;
+import main.MersenneTwisterFast;
 import main.Parameter;
 import main.Table;
 import main.Variable;
+import math.distributions.MultivariateNormal;
 
-enum Type{NUMERIC,OPERATOR,PAREN_LEFT,PAREN_RIGHT;}
-enum ObjectType{NUMBER,PARAMETER,VARIABLE,MATRIX_STATIC,FUNCTION,MATRIX_FUNCTION,DISTRIBUTION,
-	TABLE_DISTRIBUTION,TABLE_LOOKUP,MATRIX_ELEMENT,TRACE,PARAM_MATRIX,VAR_MATRIX,
-	MATRIX_DYNAMIC};
 public class Token{
 	Type type;
 	ObjectType objectType;
@@ -37,6 +36,7 @@ public class Token{
 	Numeric numeric[]; //thread-specific
 		
 	int precedence=-1; //operator precedence
+	int opCode=-1; //operator code
 	boolean leftAssociative; //operator association
 	
 	/**
@@ -53,8 +53,10 @@ public class Token{
 	 * -1: ~, 0: f, 1: F, 2: Q, 3: E, 4: V 
 	 */
 	int distFx;
+	MultivariateNormal.CholeskyCache cholesky; //MvNorm only
 	
 	int tableType; //0=Lookup, 1=Distribution, 2=Matrix
+	int tableCol=-1; //lookup column resolved when parsed, -1 if evaluated each time
 	Numeric matrix;
 	
 	//pointers
@@ -87,9 +89,58 @@ public class Token{
 		return(numeric);
 	}
 	
+	/**
+	 * Returns true if the expression can't change during a run, i.e. it doesn't use variables (incl. 't'), traces, or lookups evaluated at run time
+	 */
+	public static boolean isStatic(Token tokens[]){
+		if(tokens==null){return(false);}
+		for(int i=0; i<tokens.length; i++){
+			Token curToken=tokens[i];
+			if(curToken.type==Type.OPERATOR){continue;}
+			ObjectType curType=curToken.objectType;
+			if(curType==ObjectType.NUMBER || curType==ObjectType.PARAMETER || curType==ObjectType.MATRIX_STATIC){continue;}
+			if(curType==ObjectType.TABLE_LOOKUP && curToken.tableCol==-1){return(false);}
+			if(curType==ObjectType.FUNCTION || curType==ObjectType.MATRIX_FUNCTION || curType==ObjectType.DISTRIBUTION || curType==ObjectType.TABLE_LOOKUP){
+				if(curToken.args!=null){
+					for(int a=0; a<curToken.args.length; a++){
+						if(!isStatic(curToken.args[a])){return(false);}
+					}
+				}
+				continue;
+			}
+			return(false); //variables, traces, dynamic matrices, etc.
+		}
+		return(true);
+	}
+	
+	/**
+	 * Returns true if the expression samples a random variable (~), i.e. it isn't a deterministic function of other parameters
+	 */
+	public static boolean isRandom(Token tokens[]){
+		if(tokens==null){return(false);}
+		for(int i=0; i<tokens.length; i++){
+			Token curToken=tokens[i];
+			if((curToken.objectType==ObjectType.DISTRIBUTION || curToken.objectType==ObjectType.TABLE_DISTRIBUTION) && curToken.distFx==-1){return(true);}
+			if(curToken.args!=null){
+				for(int a=0; a<curToken.args.length; a++){
+					if(isRandom(curToken.args[a])){return(true);}
+				}
+			}
+			if(curToken.matrixTokens!=null){
+				for(int r=0; r<curToken.matrixTokens.length; r++){
+					for(int c=0; c<curToken.matrixTokens[r].length; c++){
+						if(isRandom(curToken.matrixTokens[r][c])){return(true);}
+					}
+				}
+			}
+		}
+		return(false);
+	}
+	
 	private void parseWord() throws Exception{ //numeric or operator
 		if(this.type==Type.OPERATOR){
 			precedence=Operators.getPrecedence(word);
+			opCode=Operators.getCode(word);
 			leftAssociative=true;
 			if(word.equals("^")){
 				leftAssociative=false;
@@ -165,7 +216,7 @@ public class Token{
 					curParam.value=Interpreter.evaluateTokens(curParam.parsedTokens,curThread,sample);
 					if(sample){curParam.locked=true;}
 				}
-				numeric[curThread]=curParam.value.copy();
+				numeric[curThread]=curParam.value; //not copied, values are replaced rather than changed
 			}
 			else if(objectType==ObjectType.VARIABLE){ //Variable
 				if(curVar.value[curThread]==null){ //not initialized
@@ -176,7 +227,7 @@ public class Token{
 					curVar.value[curThread]=Interpreter.evaluateTokens(curVar.parsedTokens,curThread,sample);
 					curVar.locked[curThread]=true;
 				}
-				numeric[curThread]=curVar.value[curThread].copy();
+				numeric[curThread]=curVar.value[curThread];
 			}
 			else if(objectType==ObjectType.FUNCTION){
 				Numeric argsNumeric[]=evalArgs(curThread,sample);
@@ -196,9 +247,17 @@ public class Token{
 						numeric[curThread]=Distributions.evaluate(word,argsNumeric,distFx);
 					}
 					else{ //see if can sample
-						if(myModel.curGenerator[curThread]!=null){ //RNG available
-							double rand=myModel.curGenerator[curThread].nextDouble();
-							numeric[curThread]=Distributions.sample(word,argsNumeric,rand,myModel.curGenerator[curThread]);
+						MersenneTwisterFast generator=myModel.curGenerator[curThread];
+						if(generator!=null){ //RNG available
+							if(cholesky==null && word.equals("MvNorm")){cholesky=new MultivariateNormal.CholeskyCache();}
+							//inverse CDF (one random number each) for parameters, and for CRN unless draws are keyed by person (strategies stay in sync)
+							if(generator==myModel.generatorParam || (myModel.CRN && !(generator instanceof CounterRNG))){
+								double rand=generator.nextDouble();
+								numeric[curThread]=Distributions.sample(word,argsNumeric,rand,generator,cholesky);
+							}
+							else{ //variables
+								numeric[curThread]=Distributions.sampleDirect(word,argsNumeric,generator,cholesky);
+							}
 						}
 						else{ //no RNG, shouldn't sample
 							numeric[curThread]=Distributions.evaluate(word,argsNumeric,distFx);
@@ -227,14 +286,16 @@ public class Token{
 				}
 			}
 			else if(objectType==ObjectType.TABLE_LOOKUP){
-				Numeric index=Interpreter.evaluateTokens(args[0],curThread,sample);
-				numeric[curThread]=new Numeric(curTable.getLookupValue(index.getDouble(), strArgs[1]));
+				double index=Interpreter.evaluateDouble(args[0],curThread,sample);
+				int col=tableCol;
+				if(col==-1){col=curTable.getColumnIndex(strArgs[1]);}
+				numeric[curThread]=new Numeric(curTable.getLookupValue(index, col));
 			}
 			else if(objectType==ObjectType.MATRIX_ELEMENT){
 				numeric[curThread]=matrix.getMatrixValue(strArgs, myModel);
 			}
 			else if(objectType==ObjectType.TRACE){
-				numeric[curThread]=myModel.traceMarkov.getValue(strArgs[0],strArgs[1]);
+				numeric[curThread]=myModel.traceMarkov[curThread].getValue(strArgs[0],strArgs[1]);
 			}
 			else if(objectType==ObjectType.PARAM_MATRIX){
 				if(curParam.locked==false){
@@ -259,14 +320,19 @@ public class Token{
 				double matrix[][]=new double[nrow][ncol];
 				for(int i=0; i<nrow; i++){
 					for(int j=0; j<ncol; j++){
-						matrix[i][j]=Interpreter.evaluateTokens(matrixTokens[i][j],curThread,sample).getDouble();
+						matrix[i][j]=Interpreter.evaluateDouble(matrixTokens[i][j],curThread,sample);
 					}
 				}
 				numeric[curThread]=new Numeric(matrix);
 			}
 			
 			if(negate){
-				numeric[curThread].negate();
+				if(objectType==ObjectType.PARAMETER || objectType==ObjectType.VARIABLE){ //don't change the shared value
+					numeric[curThread]=numeric[curThread].negated();
+				}
+				else{
+					numeric[curThread].negate();
+				}
 			}
 		}
 	}
@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -78,6 +79,19 @@ public final class Beta{
 		else{throw new NumericException("Incorrect number of parameters","Beta");}
 	}
 	
+	/**
+	 * Direct sample - ratio of Gammas
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==2){
+			double a=params[0].getDouble(), b=params[1].getDouble();
+			if(a<=0){throw new NumericException("a should be >0","Beta");}
+			if(b<=0){throw new NumericException("b should be >0","Beta");}
+			return(new Numeric(Samplers.beta(a,b,generator)));
+		}
+		else{throw new NumericException("Incorrect number of parameters","Beta");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Beta Distribution</b><br>";
 		des+="A continuous distribution bounded by "+MathUtils.consoleFont("0")+" and "+MathUtils.consoleFont("1")+".  Often used to model probabilities<br>";
@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -68,6 +69,18 @@ public final class ChiSquare{
 		else{throw new NumericException("Incorrect number of parameters","ChiSq");}
 	}
 	
+	/**
+	 * Direct sample - ChiSq(k) is Gamma(k/2,2)
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==1){
+			double k=params[0].getInt();
+			if(k<1){throw new NumericException("k should be >0","ChiSq");}
+			return(new Numeric(2*Samplers.gamma(k/2.0,generator)));
+		}
+		else{throw new NumericException("Incorrect number of parameters","ChiSq");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Chi-Squared Distribution</b><br>";
 		des+="Distribution of the sum of squares of "+MathUtils.consoleFont("k")+" independent standard normal variables<br><br>";
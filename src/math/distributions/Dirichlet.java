@@ -139,6 +139,30 @@ public final class Dirichlet{
 		return(new Numeric(x));
 	}
 	
+	/**
+	 * Samples gammas directly (variable number of random numbers) - individual-level draws
+	 */
+	public static Numeric sampleDirect(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		//Validate parameters
+		Numeric alpha=params[0];
+		int len=alpha.ncol;
+		if(alpha.nrow!=1){throw new NumericException("α should be a row vector","Dir");}
+		double y[]=new double[len];
+		double sumY=0;
+		for(int i=0; i<len; i++){
+			double curAlpha=alpha.matrix[0][i];
+			if(curAlpha<=0){throw new NumericException("Invalid concentration parameter in α ("+curAlpha+")","Dir");}
+			//Sample using independent Gammas
+			y[i]=Samplers.gamma(curAlpha,generator);
+			sumY+=y[i];
+		}
+		double x[][]=new double[1][len];
+		for(int i=0; i<len; i++){
+			x[0][i]=y[i]/sumY;
+		}
+		return(new Numeric(x));
+	}
+	
 	public static String description(){
 		String des="<html><b>Dirichlet Distribution</b><br>";
 		des+="A multivariate generalization of the Beta distribution<br><br>";
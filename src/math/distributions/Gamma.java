@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -74,6 +75,19 @@ public final class Gamma{
 		else{throw new NumericException("Incorrect number of parameters","Gamma");}
 	}
 	
+	/**
+	 * Direct sample (Marsaglia-Tsang)
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==2){
+			double k=params[0].getDouble(), theta=params[1].getDouble();
+			if(k<=0){throw new NumericException("k should be >0","Gamma");}
+			if(theta<=0){throw new NumericException("θ should be >0","Gamma");}
+			return(new Numeric(theta*Samplers.gamma(k,generator)));
+		}
+		else{throw new NumericException("Incorrect number of parameters","Gamma");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Gamma Distribution</b><br>";
 		des+="A continuous distribution that yields positive real numbers<br><br>";
@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -80,6 +81,18 @@ public final class HalfNormal{
 		else{throw new NumericException("Incorrect number of parameters","HalfNorm");}
 	}
 	
+	/**
+	 * Direct sample (ziggurat)
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==1){
+			double sigma=params[0].getDouble();
+			if(sigma<=0){throw new NumericException("σ should be >0","HalfNorm");}
+			return(new Numeric(Math.abs(sigma*Samplers.normal(generator))));
+		}
+		else{throw new NumericException("Incorrect number of parameters","HalfNorm");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Half-Normal Distribution</b><br>";
 		des+="Positive Half-Normal<br><br>";
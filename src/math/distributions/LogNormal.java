@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -73,6 +74,18 @@ public final class LogNormal{
 		else{throw new NumericException("Incorrect number of parameters","LogNorm");}
 	}
 	
+	/**
+	 * Direct sample - exp of ziggurat normal
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==2){
+			double mu=params[0].getDouble(), sigma=params[1].getDouble();
+			if(sigma<=0){throw new NumericException("σ should be >0","LogNorm");}
+			return(new Numeric(Math.exp(mu+sigma*Samplers.normal(generator))));
+		}
+		else{throw new NumericException("Incorrect number of parameters","LogNorm");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Log-Normal Distribution</b><br>";
 		des+="A continuous distribution of a random variable whose logarithm follows a Normal distribution<br><br>";
@@ -28,6 +28,48 @@ import main.MersenneTwisterFast;
 
 public final class MultivariateNormal{
 	
+	/**
+	 * Cholesky factor of the last Σ sampled by one distribution (e.g. a token) - re-used while Σ is unchanged
+	 */
+	public static final class CholeskyCache{
+		volatile CholEntry last;
+		
+		double[][] get(Numeric sigma) throws NumericException{
+			CholEntry curChol=last;
+			if(curChol==null || !curChol.matches(sigma.matrix)){
+				curChol=new CholEntry(sigma.matrix, MatrixFunctions.chol(sigma).matrix);
+				last=curChol;
+			}
+			return(curChol.L);
+		}
+	}
+	
+	/**
+	 * Σ and its Cholesky factor (immutable - shared between threads)
+	 */
+	static final class CholEntry{
+		final double sigma[][];
+		final double L[][];
+		
+		CholEntry(double sigma[][], double L[][]){
+			int n=sigma.length;
+			this.sigma=new double[n][];
+			for(int i=0; i<n; i++){this.sigma[i]=sigma[i].clone();}
+			this.L=L;
+		}
+		
+		boolean matches(double curSigma[][]){
+			if(curSigma.length!=sigma.length){return(false);}
+			for(int i=0; i<sigma.length; i++){
+				if(curSigma[i].length!=sigma[i].length){return(false);}
+				for(int j=0; j<sigma[i].length; j++){
+					if(curSigma[i][j]!=sigma[i][j]){return(false);}
+				}
+			}
+			return(true);
+		}
+	}
+	
 	public static Numeric pdf(Numeric params[]) throws NumericException{
 		Numeric x=params[0], mu=params[1], sigma=params[2];
 		if(x.ncol!=1){ //ensure mu is column vector
@@ -90,32 +132,64 @@ public final class MultivariateNormal{
 		return(new Numeric(params[1].matrix));
 	}
 
-	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
-		if(params.length==2){
-			Numeric mu=params[0], sigma=params[1];
-			if(mu.ncol!=1){ //ensure mu is column vector
-				throw new NumericException("μ should be a column vector","MvNorm");
-			}
-			if(sigma.ncol!=sigma.nrow){//ensure sigma is square
-				throw new NumericException("Σ should be a square matrix","MvNorm");
-			}
-			if(sigma.nrow!=mu.nrow){ //ensure sigma and mu are the right size
-				throw new NumericException("μ and Σ should have the same number of rows","MvNorm");
-			}
-			int n=sigma.nrow;
-			Numeric A=MatrixFunctions.chol(sigma); //get cholesky decomposition
-			double randVector[][]=new double[n][1]; //random column vector of standard normals
-			NormalDistribution stdNorm=new NormalDistribution(null,0,1);
-			for(int i=0; i<n; i++){
-				double rand=generator.nextDouble(); //Get next rand
-				randVector[i][0]=stdNorm.inverseCumulativeProbability(rand);
-			}
-			Numeric z=new Numeric(randVector);
-			Numeric Az=MatrixFunctions.multiply(A, z);
-			Numeric x=MatrixFunctions.add(mu,Az);
-			return(x);
+	/**
+	 * Samples with inverse-CDF normals (one random number for each component)
+	 * @param cache Cholesky factor cache for this distribution, or null
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator, CholeskyCache cache) throws NumericException{
+		double L[][]=getCholesky(params,cache);
+		int n=L.length;
+		double z[]=new double[n]; //random vector of standard normals
+		NormalDistribution stdNorm=new NormalDistribution(null,0,1);
+		for(int i=0; i<n; i++){
+			double rand=generator.nextDouble(); //Get next rand
+			z[i]=stdNorm.inverseCumulativeProbability(rand);
+		}
+		return(transform(params[0],L,z));
+	}
+	
+	/**
+	 * Samples with ziggurat normals (variable number of random numbers) - individual-level draws
+	 * @param cache Cholesky factor cache for this distribution, or null
+	 */
+	public static Numeric sampleDirect(Numeric params[], MersenneTwisterFast generator, CholeskyCache cache) throws NumericException{
+		double L[][]=getCholesky(params,cache);
+		int n=L.length;
+		double z[]=new double[n]; //random vector of standard normals
+		for(int i=0; i<n; i++){
+			z[i]=Samplers.normal(generator);
+		}
+		return(transform(params[0],L,z));
+	}
+	
+	private static double[][] getCholesky(Numeric params[], CholeskyCache cache) throws NumericException{
+		if(params.length!=2){throw new NumericException("Incorrect number of parameters","MvNorm");}
+		Numeric mu=params[0], sigma=params[1];
+		if(mu.ncol!=1){ //ensure mu is column vector
+			throw new NumericException("μ should be a column vector","MvNorm");
+		}
+		if(sigma.ncol!=sigma.nrow){//ensure sigma is square
+			throw new NumericException("Σ should be a square matrix","MvNorm");
+		}
+		if(sigma.nrow!=mu.nrow){ //ensure sigma and mu are the right size
+			throw new NumericException("μ and Σ should have the same number of rows","MvNorm");
+		}
+		if(cache==null){return(MatrixFunctions.chol(sigma).matrix);}
+		return(cache.get(sigma));
+	}
+	
+	/**
+	 * x = μ + Lz (L is lower triangular)
+	 */
+	private static Numeric transform(Numeric mu, double L[][], double z[]){
+		int n=z.length;
+		double x[][]=new double[n][1];
+		for(int i=0; i<n; i++){
+			double sum=0;
+			for(int j=0; j<=i; j++){sum+=L[i][j]*z[j];}
+			x[i][0]=mu.matrix[i][0]+sum;
 		}
-		else{throw new NumericException("Incorrect number of parameters","MvNorm");}
+		return(new Numeric(x));
 	}
 	
 	public static String description(){
@@ -18,6 +18,7 @@
 
 package math.distributions;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -69,6 +70,18 @@ public final class Normal{
 		else{throw new NumericException("Incorrect number of parameters","Norm");}
 	}
 	
+	/**
+	 * Direct sample (ziggurat)
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==2){
+			double mu=params[0].getDouble(), sigma=params[1].getDouble();
+			if(sigma<=0){throw new NumericException("σ should be >0","Norm");}
+			return(new Numeric(mu+sigma*Samplers.normal(generator)));
+		}
+		else{throw new NumericException("Incorrect number of parameters","Norm");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Normal Distribution</b><br>";
 		des+="Canonical bell-shaped distribution<br><br>";
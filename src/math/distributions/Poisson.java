@@ -20,6 +20,7 @@ package math.distributions;
 
 import org.apache.commons.math3.special.Gamma;
 
+import main.MersenneTwisterFast;
 import math.MathUtils;
 import math.Numeric;
 import math.NumericException;
@@ -90,6 +91,18 @@ public final class Poisson{
 		else{throw new NumericException("Incorrect number of parameters","Pois");}
 	}
 	
+	/**
+	 * Direct sample (PTRS for large λ)
+	 */
+	public static Numeric sample(Numeric params[], MersenneTwisterFast generator) throws NumericException{
+		if(params.length==1){
+			double lambda=params[0].getDouble();
+			if(lambda<=0){throw new NumericException("λ should be >0","Pois");}
+			return(new Numeric(Samplers.poisson(lambda,generator)));
+		}
+		else{throw new NumericException("Incorrect number of parameters","Pois");}
+	}
+	
 	public static String description(){
 		String des="<html><b>Poisson Distribution</b><br>";
 		des+="Used to model the number of events that occur in a fixed interval of time/space with a known average rate<br><br>";
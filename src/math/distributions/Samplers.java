@@ -0,0 +1,151 @@
+/**
+ * Amua - An open source modeling framework.
+ * Copyright (C) 2017 Zachary J. Ward
+ *
+ * This file is part of Amua. Amua is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Amua is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Amua.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package math.distributions;
+
+import org.apache.commons.math3.special.Gamma;
+
+import main.MersenneTwisterFast;
+
+/**
+ * Direct (non inverse-CDF) random variate generation.  Draws use a variable number of uniforms from the generator,
+ * so they are only used where one uniform per draw isn't needed (e.g. individual-level variables).
+ * Only generator.nextDouble() is used, so draws work with counter-based generators.
+ */
+public final class Samplers{
+	//Ziggurat tables (Marsaglia & Tsang 2000, Doornik 2005 variant) - 128 blocks
+	private static final int ZIG_C=128;
+	private static final double ZIG_R=3.442619855899;
+	private static final double ZIG_V=9.91256303526217e-3;
+	private static final double zigX[]=new double[ZIG_C+1];
+	private static final double zigRatio[]=new double[ZIG_C];
+
+	static{
+		double f=Math.exp(-0.5*ZIG_R*ZIG_R);
+		zigX[0]=ZIG_V/f; //bottom block: V/f(R)
+		zigX[1]=ZIG_R;
+		zigX[ZIG_C]=0;
+		for(int i=2; i<ZIG_C; i++){
+			zigX[i]=Math.sqrt(-2*Math.log(ZIG_V/zigX[i-1]+f));
+			f=Math.exp(-0.5*zigX[i]*zigX[i]);
+		}
+		for(int i=0; i<ZIG_C; i++){
+			zigRatio[i]=zigX[i+1]/zigX[i];
+		}
+	}
+
+	/**
+	 * Standard normal (ziggurat)
+	 */
+	public static double normal(MersenneTwisterFast generator){
+		while(true){
+			double d=generator.nextDouble()*ZIG_C; //block from integer part, position from fraction
+			int i=(int)d;
+			double u=2*(d-i)-1;
+			if(Math.abs(u)<zigRatio[i]){return(u*zigX[i]);} //inside rectangle
+			if(i==0){return(normalTail(u<0,generator));}
+			//wedge
+			double x=u*zigX[i];
+			double f0=Math.exp(-0.5*(zigX[i]*zigX[i]-x*x));
+			double f1=Math.exp(-0.5*(zigX[i+1]*zigX[i+1]-x*x));
+			if(f1+generator.nextDouble()*(f0-f1)<1.0){return(x);}
+		}
+	}
+
+	private static double normalTail(boolean negative, MersenneTwisterFast generator){
+		double x, y;
+		do{
+			x=Math.log(1-generator.nextDouble())/ZIG_R;
+			y=Math.log(1-generator.nextDouble());
+		} while(-2*y<x*x);
+		if(negative){return(x-ZIG_R);}
+		return(ZIG_R-x);
+	}
+
+	/**
+	 * Gamma with shape k and scale 1 (Marsaglia &amp; Tsang 2000)
+	 */
+	public static double gamma(double k, MersenneTwisterFast generator){
+		if(k<1){ //boost shape, then scale by U^(1/k)
+			double u=1-generator.nextDouble();
+			return(gamma(k+1,generator)*Math.pow(u, 1.0/k));
+		}
+		double d=k-1.0/3.0;
+		double c=1.0/Math.sqrt(9*d);
+		while(true){
+			double x, v;
+			do{
+				x=normal(generator);
+				v=1+c*x;
+			} while(v<=0);
+			v=v*v*v;
+			double u=1-generator.nextDouble();
+			double x2=x*x;
+			if(u<1-0.0331*x2*x2){return(d*v);} //squeeze
+			if(Math.log(u)<0.5*x2+d*(1-v+Math.log(v))){return(d*v);}
+		}
+	}
+
+	/**
+	 * Beta from two gammas
+	 */
+	public static double beta(double a, double b, MersenneTwisterFast generator){
+		double x=gamma(a,generator);
+		double y=gamma(b,generator);
+		if(x+y==0){ //both underflowed (very small shapes) - mass is at 0 and 1
+			if(generator.nextDouble()<a/(a+b)){return(1);}
+			return(0);
+		}
+		return(x/(x+y));
+	}
+
+	/**
+	 * Poisson - inversion for small lambda, transformed rejection (PTRS, Hörmann 1993) otherwise
+	 */
+	public static int poisson(double lambda, MersenneTwisterFast generator){
+		if(lambda<10){
+			double u=generator.nextDouble();
+			int k=0;
+			double p=Math.exp(-lambda);
+			double cdf=p;
+			while(u>cdf && p>0){
+				k++;
+				p*=lambda/k;
+				cdf+=p;
+			}
+			return(k);
+		}
+		double slam=Math.sqrt(lambda);
+		double logLam=Math.log(lambda);
+		double b=0.931+2.53*slam;
+		double a=-0.059+0.02483*b;
+		double invAlpha=1.1239+1.1328/(b-3.4);
+		double vr=0.9277-3.6224/(b-2);
+		while(true){
+			double u=generator.nextDouble()-0.5;
+			double v=generator.nextDouble();
+			double us=0.5-Math.abs(u);
+			int k=(int)Math.floor((2*a/us+b)*u+lambda+0.43);
+			if(us>=0.07 && v<=vr){return(k);}
+			if(k<0 || (us<0.013 && v>us)){continue;}
+			if(Math.log(v)+Math.log(invAlpha)-Math.log(a/(us*us)+b) <= -lambda+k*logLam-Gamma.logGamma(k+1)){
+				return(k);
+			}
+		}
+	}
+}
@@ -31,6 +31,8 @@ import main.Console;
 import main.ConsoleTable;
 import main.DimInfo;
 import main.VariableUpdate;
+import math.CompiledExpression;
+import math.ExpressionJIT;
 import math.Interpreter;
 import math.MathUtils;
 import math.Token;
@@ -47,6 +49,7 @@ public class DecisionTree{
 	@XmlTransient public boolean showEV=false;
 	@XmlTransient public AmuaModel myModel;
 	@XmlTransient int numDim;
+	@XmlTransient ArrayList<CompiledExpression> compiled; //expressions parsed in this pass, generated in one batch
 
 	//Constructor
 	/**
@@ -99,6 +102,23 @@ public class DecisionTree{
 		}
 		return(copy);
 	}
+	
+	/**
+	 * Links nodes to the model without a display panel (headless runs)
+	 */
+	public void openTree(AmuaModel myModel){
+		this.myModel=myModel;
+		int numDim=myModel.dimInfo.dimNames.length;
+		TreeNode root=nodes.get(0);
+		root.cost=new String[numDim];
+		for(int i=0; i<nodes.size(); i++){
+			TreeNode curNode=nodes.get(i);
+			curNode.tree=this;
+			curNode.myModel=myModel;
+			curNode.curScale=myModel.scale;
+			curNode.numDimensions=numDim;
+		}
+	}
 
 	/**
 	 * Parse text entries and ensure tree inputs are plausible.
@@ -107,6 +127,7 @@ public class DecisionTree{
 	public ArrayList<String> parseTree(){
 		myModel.validateModelObjects();
 		ArrayList<String> errors=new ArrayList<String>();
+		compiled=new ArrayList<CompiledExpression>();
 		//Initialize root
 		TreeNode root=nodes.get(0);
 		int numDim=myModel.dimInfo.dimSymbols.length;
@@ -130,8 +151,9 @@ public class DecisionTree{
 		for(int i=1; i<size; i++){ //Exclude root node
 			TreeNode curNode=nodes.get(i);
 			curNode.curProb=null; //reset parsed values
-			curNode.curCosts=new double[numDim]; curNode.curCostTokens=new Token[numDim][];
-			curNode.curPayoffs=new double[numDim]; curNode.curPayoffTokens=new Token[numDim][];
+			curNode.curProbCompiled=null;
+			curNode.curCosts=new double[numDim]; curNode.curCostTokens=new Token[numDim][]; curNode.curCostCompiled=new CompiledExpression[numDim];
+			curNode.curPayoffs=new double[numDim]; curNode.curPayoffTokens=new Token[numDim][]; curNode.curPayoffCompiled=new CompiledExpression[numDim];
 			curNode.curVariableUpdates=null;
 
 			if(curNode.type==0 && myModel.simType==1){
@@ -145,7 +167,8 @@ public class DecisionTree{
 				else{ //Evaluate text
 					try{
 						curNode.curProbTokens=Interpreter.parse(curNode.prob, myModel);
-						curNode.curProb[0]=Interpreter.evaluateTokens(curNode.curProbTokens, 0, false).getDouble();
+						curNode.curProbCompiled=compile(curNode.curProbTokens);
+						curNode.curProb[0]=Interpreter.evaluateDouble(curNode.curProbTokens, 0, false);
 					}catch(Exception e){
 						validProbs=false;
 						curNode.highlightTextField(0, Color.YELLOW); //Prob
@@ -167,7 +190,8 @@ public class DecisionTree{
 				for(int c=0; c<numDim; c++){
 					try{
 						curNode.curCostTokens[c]=Interpreter.parse(curNode.cost[c], myModel);
-						curNode.curCosts[c]=Interpreter.evaluateTokens(curNode.curCostTokens[c], 0, false).getDouble();
+						curNode.curCostCompiled[c]=compile(curNode.curCostTokens[c]);
+						curNode.curCosts[c]=Interpreter.evaluateDouble(curNode.curCostTokens[c], 0, false);
 						
 						if(Double.isNaN(curNode.curCosts[c])){
 							curNode.highlightTextField(1, Color.YELLOW); //Cost
@@ -185,7 +209,8 @@ public class DecisionTree{
 				for(int c=0; c<numDim; c++){
 					try{
 						curNode.curPayoffTokens[c]=Interpreter.parse(curNode.payoff[c],myModel);
-						curNode.curPayoffs[c]=Interpreter.evaluateTokens(curNode.curPayoffTokens[c], 0, false).getDouble();
+						curNode.curPayoffCompiled[c]=compile(curNode.curPayoffTokens[c]);
+						curNode.curPayoffs[c]=Interpreter.evaluateDouble(curNode.curPayoffTokens[c], 0, false);
 						if(Double.isNaN(curNode.curPayoffs[c])){
 							curNode.highlightTextField(2, Color.YELLOW); //Payoff
 							errors.add("Node "+curNode.name+": Payoff Error ("+curNode.payoff[c]+")");
@@ -204,7 +229,7 @@ public class DecisionTree{
 				curNode.curVariableUpdates=new VariableUpdate[numUpdates];
 				for(int u=0; u<updates.length; u++){
 					try{
-						curNode.curVariableUpdates[u]=new VariableUpdate(updates[u],myModel);
+						curNode.curVariableUpdates[u]=compile(new VariableUpdate(updates[u],myModel));
 						double testVal=curNode.curVariableUpdates[u].testVal.getDouble();
 						if(Double.isNaN(testVal)){
 							curNode.highlightTextField(3, Color.YELLOW); //Variable updates
@@ -275,8 +300,55 @@ public class DecisionTree{
 				}
 			}
 		}
+		generateExpressions(errors);
 		return(errors);
 	}
+	
+	private CompiledExpression compile(Token tokens[]){
+		CompiledExpression expr=CompiledExpression.compile(tokens);
+		if(expr!=null){compiled.add(expr);}
+		return(expr);
+	}
+	
+	private VariableUpdate compile(VariableUpdate update){
+		if(update.getCompiled()!=null){compiled.add(update.getCompiled());}
+		return(update);
+	}
+	
+	/**
+	 * Generates classes for all parsed expressions at once (if enabled and there are no errors)
+	 */
+	private void generateExpressions(ArrayList<String> errors){
+		if(myModel.compileExpressions && errors.isEmpty()){
+			ExpressionJIT.compile(compiled);
+		}
+		compiled=null;
+	}
+	
+	/**
+	 * Reads current parameter values into generated expressions
+	 */
+	private void bindExpressions() throws Exception{
+		for(int i=1; i<nodes.size(); i++){
+			TreeNode curNode=nodes.get(i);
+			if(curNode.curProbCompiled!=null){curNode.curProbCompiled.bind();}
+			bindExpressions(curNode.curCostCompiled);
+			bindExpressions(curNode.curPayoffCompiled);
+			if(curNode.curVariableUpdates!=null){
+				for(int u=0; u<curNode.curVariableUpdates.length; u++){
+					VariableUpdate curUpdate=curNode.curVariableUpdates[u];
+					if(curUpdate!=null && curUpdate.getCompiled()!=null){curUpdate.getCompiled().bind();}
+				}
+			}
+		}
+	}
+	
+	private void bindExpressions(CompiledExpression exprs[]) throws Exception{
+		if(exprs==null){return;}
+		for(int d=0; d<exprs.length; d++){
+			if(exprs[d]!=null){exprs[d].bind();}
+		}
+	}
 
 	/**
 	 * Recursively rolls back the tree
@@ -284,6 +356,7 @@ public class DecisionTree{
 	 * @throws Exception 
 	 */
 	public void runModel(boolean display, RunReport runReport) throws Exception{
+		bindExpressions();
 		if(myModel.simType==0){ //Cohort Tree
 			TreeCohort cohortModel=new TreeCohort(nodes.get(0)); //send root
 			cohortModel.simulate(display);
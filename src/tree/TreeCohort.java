@@ -65,7 +65,7 @@ public class TreeCohort{
 		//Update costs
 		if(node.hasCost){
 			for(int c=0; c<numDim; c++){
-				node.curCosts[c]=Interpreter.evaluateTokens(node.curCostTokens[c], 0, false).getDouble();
+				node.curCosts[c]=Interpreter.evaluateDouble(node.curCostTokens[c], 0, false);
 			}
 		}
 
@@ -85,7 +85,7 @@ public class TreeCohort{
 		//Update payoffs
 		if(node.type==2){ //terminal node
 			for(int c=0; c<numDim; c++){
-				node.curPayoffs[c]=Interpreter.evaluateTokens(node.curPayoffTokens[c], 0, false).getDouble();
+				node.curPayoffs[c]=Interpreter.evaluateDouble(node.curPayoffTokens[c], 0, false);
 			}
 		}
 
@@ -102,7 +102,7 @@ public class TreeCohort{
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb[0]=Interpreter.evaluateTokens(curChild.curProbTokens, 0, false).getDouble();
+					curChild.curProb[0]=Interpreter.evaluateDouble(curChild.curProbTokens, 0, false);
 					sumProb+=curChild.curProb[0];
 				}
 			}
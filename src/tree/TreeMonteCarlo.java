@@ -18,9 +18,13 @@
 
 package tree;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.swing.ProgressMonitor;
 import base.AmuaModel;
 import base.MicroStats;
+import base.ModelScheduler;
+import main.CounterRNG;
 import main.MersenneTwisterFast;
 import main.Variable;
 import math.Interpreter;
@@ -47,8 +51,9 @@ public class TreeMonteCarlo{
 	String strategyNames[];
 	int numSubgroups;
 	int subgroupSize[];
-	boolean cancelled;
-	Exception threadError; //caught inside multithread and thrown outside
+	volatile boolean cancelled;
+	int chunkSize, numChunks;
+	static final int STREAM_INIT=0, STREAM_SIM=1, STREAM_COHORT=2;
 	
 	//Constructor
 	public TreeMonteCarlo(TreeNode root){
@@ -56,12 +61,8 @@ public class TreeMonteCarlo{
 		this.tree=root.tree;
 		this.myModel=root.myModel;
 		
-		threadError=null;
-		
 		//Individuals
 		numPeople=myModel.cohortSize;
-		progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, 100);
-		
 		numDim=root.numDimensions;
 		numVars=myModel.variables.size();
 		variables=new Variable[numVars];
@@ -90,26 +91,66 @@ public class TreeMonteCarlo{
 				
 		cancelled=false;
 		maxProg=(numPeople+numPeople*numStrat)*1.0; //initialization + simulation
-		progress.setMaximum((int) maxProg); 
+		if(display){
+			progress=new ProgressMonitor(myModel.mainForm.frmMain, "Monte Carlo simulation", "", 0, (int) maxProg);
+		}
 		startTime=System.currentTimeMillis();
 		
 		//multi-thread
 		final int numThreads=myModel.numThreads;
+		final ModelScheduler scheduler=myModel.getScheduler();
+		chunkSize=ModelScheduler.getChunkSize(numPeople, 64, 1024);
+		numChunks=ModelScheduler.getNumChunks(numPeople, chunkSize);
 		for(int s=0; s<tree.nodes.size(); s++){
 			TreeNode curNode=tree.nodes.get(s);
-			curNode.setThreads(numThreads,numDim,numSubgroups);
+			curNode.setThreads(numThreads,numChunks,numDim,numSubgroups);
 		}
 		
-		//Initialize random number generator
+		//Initialize random number generators
+		final boolean personRNG=myModel.personRNG;
+		MersenneTwisterFast seedGenerator=new MersenneTwisterFast(System.currentTimeMillis()+numThreads);
 		myModel.generatorVar=new MersenneTwisterFast[numThreads];
 		myModel.curGenerator=new MersenneTwisterFast[numThreads];
+		long cohortSeed=myModel.CRN ? myModel.crnSeed : seedGenerator.nextLong();
 		for(int n=0; n<numThreads; n++){
-			myModel.generatorVar[n]=new MersenneTwisterFast(System.currentTimeMillis()+n); //offset so that not all get the same time in millis
-			if(myModel.CRN){ //seend RNG
-				myModel.generatorVar[n].setSeed(myModel.crnSeed+555+n); //initialization seed
+			if(personRNG){
+				CounterRNG curGenerator=new CounterRNG();
+				curGenerator.setKey(cohortSeed, STREAM_COHORT, 0, 0); //same draws on each thread
+				myModel.generatorVar[n]=curGenerator;
+			}
+			else{
+				myModel.generatorVar[n]=new MersenneTwisterFast(System.currentTimeMillis()+n); //offset so that not all get the same time in millis
+				if(myModel.CRN){ //seed RNG
+					myModel.generatorVar[n].setSeed(myModel.crnSeed-1-n); //cohort-level seed, not shared with chunks
+				}
 			}
 			myModel.curGenerator[n]=myModel.generatorVar[n];
 		}
+		//chunk-specific generators for initialization and each strategy
+		final MersenneTwisterFast chunkGenerator[][]=new MersenneTwisterFast[numStrat+1][numChunks];
+		//or person-level counter-based generators - re-keyed for each person, with CRN each strategy uses the same person keys
+		final CounterRNG personGenerator[]=new CounterRNG[numThreads];
+		final long personSeed[]=new long[numStrat+1];
+		if(personRNG){
+			for(int n=0; n<numThreads; n++){personGenerator[n]=new CounterRNG();}
+			for(int s=0; s<=numStrat; s++){
+				if(myModel.CRN){personSeed[s]=myModel.crnSeed;}
+				else{personSeed[s]=seedGenerator.nextLong();}
+			}
+		}
+		else{
+			for(int s=0; s<=numStrat; s++){
+				for(int k=0; k<numChunks; k++){
+					if(myModel.CRN){ //Common random numbers
+						if(s==0){chunkGenerator[s][k]=new MersenneTwisterFast(myModel.crnSeed+555+k);} //initialization seed
+						else{chunkGenerator[s][k]=new MersenneTwisterFast(myModel.crnSeed+k);}
+					}
+					else{
+						chunkGenerator[s][k]=new MersenneTwisterFast(seedGenerator.nextLong());
+					}
+				}
+			}
+		}
 
 		//initialize probs
 		for(int n=0; n<numThreads; n++){
@@ -127,78 +168,53 @@ public class TreeMonteCarlo{
 		
 		//initialize people
 		people=new TreePerson[numPeople];
-		
-		final int blockSize= numPeople/numThreads;
-		Thread[] threads = new Thread[numThreads];
-		for(int n=0; n<numThreads; n++){
-			final int finalN = n;
-			threads[n] = new Thread() {
-				public void run(){
-					try{
-						int threadProg=0;
-						final int beginIndex = finalN * blockSize;
-						final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
-						for(int p=beginIndex; p<endIndex; p++){
-							people[p]=new TreePerson();
-							people[p].initVariableVals=new Numeric[numVars];
-							people[p].variableVals=new Numeric[numVars];
-							people[p].costs=new double[numDim];
-							people[p].payoffs=new double[numDim];
-							//initialize independent variables
-							myModel.unlockVarsAll(finalN);
-							for(int v=0; v<numVars; v++){
-								if(variables[v].independent){
-									variables[v].locked[finalN]=true;
-									people[p].initVariableVals[v]=Interpreter.evaluateTokens(variables[v].parsedTokens, finalN, true);
-									variables[v].value[finalN]=people[p].initVariableVals[v];
-								}
-							}
-							//Update any dependent variables
-							for(int v=0; v<numVars; v++){
-								if(variables[v].independent==true){
-									variables[v].updateDependents(myModel,finalN);
-									people[p].initVariableVals[v]=variables[v].value[finalN];
-								}
-							}
-
-							//get subgroup
-							if(myModel.reportSubgroups){
-								people[p].inSubgroup=new boolean[numSubgroups];
-								for(int g=0; g<numSubgroups; g++){
-									Numeric curVal=Interpreter.evaluateTokens(myModel.subgroupTokens[g], finalN, false);
-									people[p].inSubgroup[g]=curVal.getBool();
-								}
-							}
-							
-							if(finalN==0 && display){ //update progress from thread 0
-								threadProg++;
-								updateProgress(threadProg*numThreads);
-								if(progress.isCanceled()){
-									cancelled=true;	p=numPeople;
-								}
-							}
+		final AtomicInteger numDone=new AtomicInteger(0);
+		scheduler.run(numChunks, new ModelScheduler.ChunkTask(){
+			public void run(int chunk, int curThread) throws Exception{
+				if(cancelled){return;}
+				if(personRNG){bindGenerator(personGenerator[curThread],curThread);}
+				else{bindGenerator(chunkGenerator[0][chunk],curThread);}
+				int beginIndex=chunk*chunkSize;
+				int endIndex=Math.min(numPeople, beginIndex+chunkSize);
+				for(int p=beginIndex; p<endIndex; p++){
+					if(personRNG){personGenerator[curThread].setKey(personSeed[0], STREAM_INIT, p, 0);}
+					people[p]=new TreePerson();
+					people[p].initVariableVals=new Numeric[numVars];
+					//initialize independent variables
+					myModel.unlockVarsAll(curThread);
+					for(int v=0; v<numVars; v++){
+						if(variables[v].independent){
+							variables[v].locked[curThread]=true;
+							people[p].initVariableVals[v]=Interpreter.evaluateTokens(variables[v].parsedTokens, curThread, true);
+							variables[v].value[curThread]=people[p].initVariableVals[v];
+						}
+					}
+					//Update any dependent variables
+					for(int v=0; v<numVars; v++){
+						if(variables[v].independent==true){
+							variables[v].updateDependents(myModel,curThread);
+							people[p].initVariableVals[v]=variables[v].value[curThread];
 						}
+					}
 
-					} catch(Exception e){
-						threadError=e;
+					//get subgroup
+					if(myModel.reportSubgroups){
+						people[p].inSubgroup=new boolean[numSubgroups];
+						for(int g=0; g<numSubgroups; g++){
+							Numeric curVal=Interpreter.evaluateTokens(myModel.subgroupTokens[g], curThread, false);
+							people[p].inSubgroup[g]=curVal.getBool();
+						}
+					}
+				}
+				int prog=numDone.addAndGet(endIndex-beginIndex);
+				if(curThread==0 && display){ //update progress from thread 0
+					updateProgress(prog);
+					if(progress.isCanceled()){
+						cancelled=true;
 					}
 				}
-			};
-			threads[n].start();
-		}
-		//Wait for threads to finish
-		for(int n=0; n<numThreads; n++){
-			try{
-				threads[n].join();
-			} catch (InterruptedException e){
-				System.exit(-1);
 			}
-		}
-		
-		//Check for error
-		if(threadError!=null){
-			throw threadError;
-		}
+		});
 		
 		//Get subgroup indices
 		subgroupSize=new int[numSubgroups];
@@ -214,15 +230,7 @@ public class TreeMonteCarlo{
 			}
 		}
 		
-		//Simulate each strategy
 		for(int s=0; s<numStrat; s++){
-			for(int n=0; n<numThreads; n++){
-				if(myModel.CRN){ //Common random numbers
-					myModel.generatorVar[n].setSeed(myModel.crnSeed+n);
-				}
-				myModel.curGenerator[n]=myModel.generatorVar[n];
-			}
-			
 			strategyNames[s]=root.children[s].name;
 			
 			//Initialize individual summaries
@@ -234,83 +242,77 @@ public class TreeMonteCarlo{
 					}
 				}
 			}
+		}
+		
+		//Person being simulated on each thread
+		final TreePerson curPeople[]=new TreePerson[numThreads];
+		for(int n=0; n<numThreads; n++){
+			curPeople[n]=new TreePerson();
+			curPeople[n].variableVals=new Numeric[numVars];
+			curPeople[n].costs=new double[numDim];
+			curPeople[n].payoffs=new double[numDim];
+		}
 
-			//Simulate people - multithread
-			final int finalS=s;
-			final TreeNode strategy=root.children[s];
-			for(int n=0; n<numThreads; n++){
-				final int finalN = n;
-				threads[n] = new Thread() {
-					public void run(){
-						try{
-							final int beginIndex = finalN * blockSize;
-							final int endIndex = (finalN==numThreads-1) ? numPeople :(finalN+1)*blockSize;
-							int threadProg=0;
-							for(int p=beginIndex; p<endIndex; p++){
-								TreePerson curPerson=people[p];
-								for(int v=0; v<numVars; v++){ //get person-specific variables
-									curPerson.variableVals[v]=curPerson.initVariableVals[v].copy();
-									variables[v].value[finalN]=curPerson.variableVals[v];
-								}
-								for(int d=0; d<numDim; d++){ //reset outcomes
-									curPerson.costs[d]=0; 
-									curPerson.payoffs[d]=0;
-								}
-
-								//traverse tree
-								traverseNode(strategy,curPerson,finalN);
+		//Simulate all strategies - multithread (strategy x chunk)
+		numDone.set(0);
+		if(cancelled==false){
+			scheduler.run(numStrat*numChunks, new ModelScheduler.ChunkTask(){
+				public void run(int task, int curThread) throws Exception{
+					if(cancelled){return;}
+					int s=task/numChunks, chunk=task%numChunks;
+					TreeNode strategy=root.children[s];
+					if(personRNG){bindGenerator(personGenerator[curThread],curThread);}
+					else{bindGenerator(chunkGenerator[s+1][chunk],curThread);}
+					TreePerson curPerson=curPeople[curThread];
+					int beginIndex=chunk*chunkSize;
+					int endIndex=Math.min(numPeople, beginIndex+chunkSize);
+					for(int p=beginIndex; p<endIndex; p++){
+						if(personRNG){personGenerator[curThread].setKey(personSeed[s+1], STREAM_SIM, p, 0);}
+						TreePerson initPerson=people[p];
+						curPerson.inSubgroup=initPerson.inSubgroup;
+						curPerson.subgroupIndex=initPerson.subgroupIndex;
+						for(int v=0; v<numVars; v++){ //get person-specific variables
+							curPerson.variableVals[v]=initPerson.initVariableVals[v].copy();
+							variables[v].value[curThread]=curPerson.variableVals[v];
+						}
+						for(int d=0; d<numDim; d++){ //reset outcomes
+							curPerson.costs[d]=0; 
+							curPerson.payoffs[d]=0;
+						}
 
-								//record overall individual results
-								if(myModel.displayIndResults){
-									for(int d=0; d<numDim; d++){microStats[finalS].outcomes[d][p]=curPerson.costs[d]+curPerson.payoffs[d];}
-									for(int v=0; v<numVars; v++){microStats[finalS].variables[v][p]=curPerson.variableVals[v].getValue();}
+						//traverse tree
+						traverseNode(strategy,curPerson,chunk,curThread);
 
-									//record subgroup results
-									if(myModel.reportSubgroups){
-										for(int g=0; g<numSubgroups; g++){
-											if(curPerson.inSubgroup[g]){
-												int z=curPerson.subgroupIndex[g]; //cur index in subgroup
-												for(int d=0; d<numDim; d++){microStatsGroup[g][finalS].outcomes[d][z]=microStats[finalS].outcomes[d][p];}
-												for(int v=0; v<numVars; v++){microStatsGroup[g][finalS].variables[v][z]=microStats[finalS].variables[v][p];}
-											}
-										}
-									}
-								}
+						//record overall individual results
+						if(myModel.displayIndResults){
+							for(int d=0; d<numDim; d++){microStats[s].outcomes[d][p]=curPerson.costs[d]+curPerson.payoffs[d];}
+							for(int v=0; v<numVars; v++){microStats[s].variables[v][p]=curPerson.variableVals[v].getValue();}
 
-								if(finalN==0 && display){ //update progress from thread 0
-									threadProg++;
-									updateProgress(numPeople+(finalS*numPeople)+(threadProg*numThreads));
-									if(progress.isCanceled()){
-										cancelled=true;	p=numPeople;
+							//record subgroup results
+							if(myModel.reportSubgroups){
+								for(int g=0; g<numSubgroups; g++){
+									if(curPerson.inSubgroup[g]){
+										int z=curPerson.subgroupIndex[g]; //cur index in subgroup
+										for(int d=0; d<numDim; d++){microStatsGroup[g][s].outcomes[d][z]=microStats[s].outcomes[d][p];}
+										for(int v=0; v<numVars; v++){microStatsGroup[g][s].variables[v][z]=microStats[s].variables[v][p];}
 									}
 								}
-							} //end simulate loop
-						} catch(Exception e){
-							threadError=e;
+							}
+						}
+					} //end simulate loop
+					
+					int prog=numDone.addAndGet(endIndex-beginIndex);
+					if(curThread==0 && display){ //update progress from thread 0
+						updateProgress(numPeople+prog);
+						if(progress.isCanceled()){
+							cancelled=true;
 						}
 					}
-				};
-				threads[n].start();
-			}
-			//Wait for threads to finish
-			for(int n=0; n<numThreads; n++){
-				try{
-					threads[n].join();
-				} catch (InterruptedException e){
-					System.exit(-1);
 				}
-			}
-			
-			//Check for error
-			if(threadError!=null){
-				throw threadError;
-			}
-			
-			if(cancelled){s=numStrat;}
-
-		} //end strategy loop
+			});
+		}
 
-		progress.close();
+		if(progress!=null){progress.close();}
 		
 		//sum across threads
 		for(int s=0; s<tree.nodes.size(); s++){
@@ -356,6 +358,14 @@ public class TreeMonteCarlo{
 	}
 	
 	
+	/**
+	 * Points thread's random number generator to the chunk's generator (or the thread's person generator)
+	 */
+	private void bindGenerator(MersenneTwisterFast curGenerator, int curThread){
+		myModel.generatorVar[curThread]=curGenerator;
+		myModel.curGenerator[curThread]=curGenerator;
+	}
+	
 	private void updateProgress(int curProg){
 		progress.setProgress(curProg);
 		//Update progress
@@ -377,10 +387,10 @@ public class TreeMonteCarlo{
 	 * @throws Exception 
 	 */
 	
-	private void traverseNode(TreeNode node, TreePerson curPerson, int curThread) throws Exception{
-		node.nTotalDenom[curThread]++;
+	private void traverseNode(TreeNode node, TreePerson curPerson, int chunk, int curThread) throws Exception{
+		node.nTotalDenom[chunk]++;
 		for(int g=0; g<numSubgroups; g++){
-			if(curPerson.inSubgroup[g]){node.nTotalDenomGroup[curThread][g]++;}
+			if(curPerson.inSubgroup[g]){node.nTotalDenomGroup[chunk][g]++;}
 		}
 				
 		//Update variables
@@ -400,18 +410,18 @@ public class TreeMonteCarlo{
 		if(node.hasCost){
 			for(int d=0; d<numDim; d++){
 				if(node.costHasVar[d]==false){ //use pre-calculated cost
-					node.nTotalCosts[curThread][d]+=node.curCosts[d];
+					node.nTotalCosts[chunk][d]+=node.curCosts[d];
 					curPerson.costs[d]+=node.curCosts[d];
 					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){node.nTotalCostsGroup[curThread][g][d]+=node.curCosts[d];}
+						if(curPerson.inSubgroup[g]){node.nTotalCostsGroup[chunk][g][d]+=node.curCosts[d];}
 					}
 				}
 				else{ //has variable, re-evaluate cost
-					double curCost=Interpreter.evaluateTokens(node.curCostTokens[d], curThread, false).getDouble();
-					node.nTotalCosts[curThread][d]+=curCost;
+					double curCost=node.curCostCompiled[d].evaluate(curThread);
+					node.nTotalCosts[chunk][d]+=curCost;
 					curPerson.costs[d]+=curCost;
 					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){node.nTotalCostsGroup[curThread][g][d]+=curCost;}
+						if(curPerson.inSubgroup[g]){node.nTotalCostsGroup[chunk][g][d]+=curCost;}
 					}
 				}
 			}
@@ -421,18 +431,18 @@ public class TreeMonteCarlo{
 		if(node.type==2){ //terminal node
 			for(int d=0; d<numDim; d++){
 				if(node.payoffHasVar[d]==false){ //use pre-calculated payoff
-					node.nTotalPayoffs[curThread][d]+=node.curPayoffs[d];
+					node.nTotalPayoffs[chunk][d]+=node.curPayoffs[d];
 					curPerson.payoffs[d]+=node.curPayoffs[d];
 					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){node.nTotalPayoffsGroup[curThread][g][d]+=node.curPayoffs[d];}
+						if(curPerson.inSubgroup[g]){node.nTotalPayoffsGroup[chunk][g][d]+=node.curPayoffs[d];}
 					}
 				}
 				else{ //has variable, re-evaluate payoff
-					double curPayoff=Interpreter.evaluateTokens(node.curPayoffTokens[d], curThread, false).getDouble();
-					node.nTotalPayoffs[curThread][d]+=curPayoff;
+					double curPayoff=node.curPayoffCompiled[d].evaluate(curThread);
+					node.nTotalPayoffs[chunk][d]+=curPayoff;
 					curPerson.payoffs[d]+=curPayoff;
 					for(int g=0; g<numSubgroups; g++){
-						if(curPerson.inSubgroup[g]){node.nTotalPayoffsGroup[curThread][g][d]+=curPayoff;}
+						if(curPerson.inSubgroup[g]){node.nTotalPayoffsGroup[chunk][g][d]+=curPayoff;}
 					}
 				}
 			}
@@ -445,7 +455,7 @@ public class TreeMonteCarlo{
 			}
 			while(rand>node.curChildProbs[curThread][k]){k++;}
 			TreeNode curChild=node.children[k];
-			traverseNode(curChild,curPerson,curThread);
+			traverseNode(curChild,curPerson,chunk,curThread);
 		}
 		
 	}
@@ -505,7 +515,7 @@ public class TreeMonteCarlo{
 					indexCompProb=c;
 				}
 				else{ //Evaluate text
-					curChild.curProb[curThread]=Interpreter.evaluateTokens(curChild.curProbTokens, curThread, false).getDouble();
+					curChild.curProb[curThread]=curChild.curProbCompiled.evaluate(curThread);
 					sumProb+=curChild.curProb[curThread];
 				}
 			}
@@ -40,6 +40,7 @@ import javax.xml.bind.annotation.XmlTransient;
 import base.ModelNode;
 import main.VariableUpdate;
 import markov.MarkovNode;
+import math.CompiledExpression;
 import math.MathUtils;
 import math.Token;
 
@@ -53,6 +54,7 @@ public class TreeNode extends ModelNode{
 	@XmlTransient TreeNode children[];
 	@XmlTransient Token curProbTokens[]; //[token]
 	@XmlTransient Token curCostTokens[][], curPayoffTokens[][]; //[dim][token]
+	@XmlTransient CompiledExpression curProbCompiled, curCostCompiled[], curPayoffCompiled[]; //expression trees built from tokens
 	@XmlTransient double curProb[]; //[thread] //Current probability used to run the model - not saved
 	@XmlTransient double curCosts[], curPayoffs[];
 	@XmlTransient public double expectedValues[], expectedValuesGroup[][];
@@ -65,8 +67,8 @@ public class TreeNode extends ModelNode{
 	@XmlTransient double totalDenom, totalCosts[], totalPayoffs[], totalNet[];
 	@XmlTransient double totalDenomGroup[],	totalCostsGroup[][], totalPayoffsGroup[][], totalNetGroup[][]; //subgroups
 	//multi-threaded
-	@XmlTransient int numThreads, numDim, numSubgroups;
-	@XmlTransient double nTotalDenom[], nTotalCosts[][], nTotalPayoffs[][];
+	@XmlTransient int numThreads, numChunks, numDim, numSubgroups;
+	@XmlTransient double nTotalDenom[], nTotalCosts[][], nTotalPayoffs[][]; //[chunk]
 	@XmlTransient double nTotalDenomGroup[][], nTotalCostsGroup[][][], nTotalPayoffsGroup[][][];
 	
 	//Visual Attributes
@@ -704,18 +706,22 @@ public class TreeNode extends ModelNode{
 		}
 	}
 	
-	public void setThreads(int numThreads, int numDim, int numSubgroups){
+	/**
+	 * Allocates thread-specific values and chunk-specific totals (summed in chunk order)
+	 */
+	public void setThreads(int numThreads, int numChunks, int numDim, int numSubgroups){
 		this.numThreads=numThreads;
+		this.numChunks=numChunks;
 		this.numDim=numDim;
 		this.numSubgroups=numSubgroups;
 		curProb=new double[numThreads];
 		if(type==1){curChildProbs=new double[numThreads][numChildren];}
-		nTotalDenom=new double[numThreads];
-		nTotalDenomGroup=new double[numThreads][numSubgroups];
-		nTotalCosts=new double[numThreads][numDim];
-		nTotalCostsGroup=new double[numThreads][numSubgroups][numDim];
-		nTotalPayoffs=new double[numThreads][numDim];
-		nTotalPayoffsGroup=new double[numThreads][numSubgroups][numDim];
+		nTotalDenom=new double[numChunks];
+		nTotalDenomGroup=new double[numChunks][numSubgroups];
+		nTotalCosts=new double[numChunks][numDim];
+		nTotalCostsGroup=new double[numChunks][numSubgroups][numDim];
+		nTotalPayoffs=new double[numChunks][numDim];
+		nTotalPayoffsGroup=new double[numChunks][numSubgroups][numDim];
 	}
 	
 	public void sumThreads(){
@@ -725,7 +731,7 @@ public class TreeNode extends ModelNode{
 		totalCostsGroup=new double[numSubgroups][numDim];
 		totalPayoffs=new double[numDim];
 		totalPayoffsGroup=new double[numSubgroups][numDim];
-		for(int n=0; n<numThreads; n++){
+		for(int n=0; n<numChunks; n++){
 			totalDenom+=nTotalDenom[n];
 			for(int d=0; d<numDim; d++){
 				totalCosts[d]+=nTotalCosts[n][d];